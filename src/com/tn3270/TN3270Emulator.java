@@ -31,7 +31,10 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +49,7 @@ import javax.swing.JCheckBox;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -64,10 +68,23 @@ import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
-
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import com.tn3270.automation.AutomationServer;
+import com.tn3270.macro.Macro;
+import com.tn3270.model.ScreenIndex;
+import com.tn3270.model.ScreenRecorder;
+import com.tn3270.model.ScreenRecording;
 import com.tn3270.ui.EnhancedRibbonToolbar;
 import com.tn3270.ui.ModernKeyboardPanel;
+import com.tn3270.ui.dialogs.FindAcrossSessionsDialog;
+import com.tn3270.ui.dialogs.RecordingPlayerDialog;
+import com.tn3270.util.CodePage;
+import com.tn3270.util.EmulatorMetrics;
 import com.tn3270.util.LoggerSetup;
+import com.tn3270.util.ResponseHistogram;
 
 public class TN3270Emulator extends JFrame {
 	private static final Logger logger = LoggerSetup.getLogger(TN3270Emulator.class);
@@ -83,6 +100,7 @@ public class TN3270Emulator extends JFrame {
 	private ViewMode currentViewMode = ViewMode.TABS;
 	private final List<TN3270Session> activeSessions = new ArrayList<>();
 	private JPanel mainContentPanel;
+	private FindAcrossSessionsDialog findDialog;
 
 	// UI References (Class-level to allow syncing)
 	private JRadioButtonMenuItem menuViewTabs;
@@ -91,6 +109,9 @@ public class TN3270Emulator extends JFrame {
 	private EnhancedRibbonToolbar ribbon;
 	private ModernKeyboardPanel keyboardPanel;
 
+	// NEW: Local automation endpoint (--automation); window sessions are registered by title
+	private static AutomationServer automationServer;
+
 	private static final String PROFILES_FILE = System.getProperty("user.home") + File.separator + ".tn3270profiles";
 	private static final Map<String, ConnectionProfile> savedProfiles = new HashMap<>();
 
@@ -102,6 +123,8 @@ public class TN3270Emulator extends JFrame {
 		String name, hostname, model, luName;
 		int port;
 		boolean useTLS;
+		String codePage = CodePage.DEFAULT.getId();
+		boolean typeAhead = true; // NEW: Queue keys typed while the keyboard is locked
 
 		public ConnectionProfile(String name, String hostname, int port, String model, String luName, boolean useTLS) {
 			this.name = name;
@@ -112,6 +135,19 @@ public class TN3270Emulator extends JFrame {
 			this.useTLS = useTLS;
 		}
 
+		public ConnectionProfile(String name, String hostname, int port, String model, String luName, boolean useTLS,
+				String codePage) {
+			this(name, hostname, port, model, luName, useTLS);
+			if (codePage != null && !codePage.isEmpty())
+				this.codePage = codePage;
+		}
+
+		public ConnectionProfile(String name, String hostname, int port, String model, String luName, boolean useTLS,
+				String codePage, boolean typeAhead) {
+			this(name, hostname, port, model, luName, useTLS, codePage);
+			this.typeAhead = typeAhead;
+		}
+
 		@Override
 		public String toString() {
 			return name + " (" + hostname + ":" + port + ")";
@@ -195,6 +231,15 @@ public class TN3270Emulator extends JFrame {
 	}
 
 	public void handleConnectRequest(String title, String h, int p, String m, String l, boolean t) {
+		handleConnectRequest(title, h, p, m, l, t, CodePage.DEFAULT.getId());
+	}
+
+	public void handleConnectRequest(String title, String h, int p, String m, String l, boolean t, String cp) {
+		handleConnectRequest(title, h, p, m, l, t, cp, true);
+	}
+
+	public void handleConnectRequest(String title, String h, int p, String m, String l, boolean t, String cp,
+			boolean ta) {
 		TN3270Session current = getCurrentSession();
 
 		// FIX: Aggressively detect if we are replacing the default placeholder.
@@ -215,6 +260,8 @@ public class TN3270Emulator extends JFrame {
 				title = generateUniqueTitle(title);
 			current.setRequestedLuName(l);
 			current.setUseTLS(t);
+			current.setCodePage(CodePage.forName(cp));
+			current.setTypeAheadEnabled(ta);
 			current.putClientProperty("title", title);
 			current.connect(h, p);
 			updateViewLayout();
@@ -223,19 +270,30 @@ public class TN3270Emulator extends JFrame {
 			if (current != null && !current.isConnected()) {
 				activeSessions.remove(current);
 			}
-			openNewSession(title, h, p, m, l, t);
+			openNewSession(title, h, p, m, l, t, cp, ta);
 		}
 	}
 
 	public void openNewSession(String title, String h, int p, String m, String l, boolean t) {
+		openNewSession(title, h, p, m, l, t, CodePage.DEFAULT.getId());
+	}
+
+	public void openNewSession(String title, String h, int p, String m, String l, boolean t, String cp) {
+		openNewSession(title, h, p, m, l, t, cp, true);
+	}
+
+	public void openNewSession(String title, String h, int p, String m, String l, boolean t, String cp, boolean ta) {
 		title = generateUniqueTitle(title);
 		TN3270Session session = new TN3270Session(m, this);
 		session.setUseTLS(t);
+		session.setCodePage(CodePage.forName(cp));
+		session.setTypeAheadEnabled(ta);
 		session.setRequestedLuName(l);
 		session.putClientProperty("title", title);
 		session.setAutoFitOnResize(currentViewMode == ViewMode.TILES);
 
 		activeSessions.add(session);
+		registerForAutomation(session);
 		if (h != null)
 			session.connect(h, p);
 
@@ -279,6 +337,7 @@ public class TN3270Emulator extends JFrame {
 		session.putClientProperty("title", newTitle);
 
 		activeSessions.add(session);
+		registerForAutomation(session);
 		updateViewLayout();
 		selectSession(session);
 
@@ -286,6 +345,39 @@ public class TN3270Emulator extends JFrame {
 		toFront();
 	}
 
+	private static void registerForAutomation(TN3270Session session) {
+		if (automationServer != null) {
+			automationServer.unregister(session); // Re-registered under its new title after a move
+			automationServer.register((String) session.getClientProperty("title"), session);
+		}
+	}
+
+	// NEW: Search of every session's screen history
+	private void showFindDialog() {
+		if (findDialog == null)
+			findDialog = new FindAcrossSessionsDialog(this, TN3270Emulator::openSearchHit);
+		findDialog.setVisible(true);
+		findDialog.toFront();
+	}
+
+	/** Shows the screen of a hit in whichever window holds its session. */
+	private static boolean openSearchHit(ScreenIndex.Hit hit) {
+		for (Frame f : Frame.getFrames()) {
+			if (!(f instanceof TN3270Emulator) || !f.isDisplayable())
+				continue;
+			TN3270Emulator emu = (TN3270Emulator) f;
+			for (TN3270Session s : emu.activeSessions) {
+				if (s.getSearchSourceId() == hit.source) {
+					emu.selectSession(s);
+					emu.toFront();
+					s.requestFocusInWindow();
+					return s.showHistoryScreen(hit.screen, hit.row);
+				}
+			}
+		}
+		return false;
+	}
+
 	private void selectSession(TN3270Session session) {
 		if (currentViewMode == ViewMode.TABS && mainContentPanel.getComponentCount() > 0) {
 			Component c = mainContentPanel.getComponent(0);
@@ -381,7 +473,9 @@ public class TN3270Emulator extends JFrame {
 	public void closeSession(TN3270Session session) {
 		if (session == null)
 			return;
-		session.disconnect();
+		if (automationServer != null)
+			automationServer.unregister(session);
+		session.close();
 		activeSessions.remove(session);
 		if (activeSessions.isEmpty()) {
 			openNewSession("New Session", null, 0, "3279-3", "", false);
@@ -399,7 +493,9 @@ public class TN3270Emulator extends JFrame {
 
 	private void closeAllSessionsAndExit() {
 		for (TN3270Session s : activeSessions) {
-			s.disconnect();
+			if (automationServer != null)
+				automationServer.unregister(s);
+			s.close();
 		}
 		dispose();
 		boolean anyVisible = false;
@@ -849,6 +945,136 @@ public class TN3270Emulator extends JFrame {
 			session.selectAll();
 	}
 
+	// NEW: Macros
+	public void toggleMacroRecording() {
+		TN3270Session session = getCurrentSession();
+		if (session == null)
+			return;
+		if (!session.isRecordingMacro()) {
+			session.startMacroRecording();
+			return;
+		}
+		Macro macro = session.stopMacroRecording();
+		if (macro == null)
+			return;
+		String name = JOptionPane.showInputDialog(this, "Save macro as:", "Save Macro", JOptionPane.PLAIN_MESSAGE);
+		if (name == null)
+			return;
+		name = name.trim().replaceAll("[^A-Za-z0-9 _.-]", "_");
+		if (name.isEmpty())
+			return;
+		try {
+			macro.withName(name).save();
+		} catch (IOException e) {
+			logger.warning("Error saving macro: " + e.getMessage());
+			JOptionPane.showMessageDialog(this, "Could not save macro: " + e.getMessage(), "Macro",
+					JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	// NEW: Session recordings
+	public void toggleScreenRecording() {
+		TN3270Session session = getCurrentSession();
+		if (session == null)
+			return;
+		if (session.isRecordingScreen()) {
+			session.stopScreenRecording();
+			return;
+		}
+		JFileChooser fc = new JFileChooser();
+		String host = session.getCurrentHost() != null ? session.getCurrentHost() : "session";
+		fc.setSelectedFile(new File(host.replaceAll("[^A-Za-z0-9_.-]", "_") + "-"
+				+ new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ScreenRecorder.EXTENSION));
+		if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File file = fc.getSelectedFile();
+		if (!file.getName().contains("."))
+			file = new File(file.getPath() + ScreenRecorder.EXTENSION);
+		try {
+			session.startScreenRecording(file);
+		} catch (IOException e) {
+			logger.warning("Error starting recording: " + e.getMessage());
+			JOptionPane.showMessageDialog(this, "Could not record to " + file + ": " + e.getMessage(), "Recording",
+					JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	public void playRecording() {
+		JFileChooser fc = new JFileChooser();
+		fc.setFileFilter(new FileNameExtensionFilter("Session recordings", ScreenRecorder.EXTENSION.substring(1)));
+		if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		try {
+			ScreenRecording recording = ScreenRecording.open(fc.getSelectedFile());
+			TN3270Session session = getCurrentSession();
+			new RecordingPlayerDialog(this, recording, session != null ? session.getScreenModel() : null)
+					.setVisible(true);
+		} catch (IOException e) {
+			logger.warning("Error opening recording: " + e.getMessage());
+			JOptionPane.showMessageDialog(this, "Could not open " + fc.getSelectedFile() + ": " + e.getMessage(),
+					"Recording", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Saves the current session's and every host's response-time histograms,
+	 * as CSV buckets or (.hgrm) HdrHistogram percentile distributions.
+	 */
+	public void exportResponseTimes() {
+		List<ResponseHistogram> histograms = new ArrayList<>();
+		TN3270Session session = getCurrentSession();
+		if (session != null)
+			histograms.add(session.getResponseTimes());
+		histograms.addAll(ResponseHistogram.getHosts());
+		JFileChooser fc = new JFileChooser();
+		fc.addChoosableFileFilter(new FileNameExtensionFilter("HdrHistogram percentiles", "hgrm"));
+		fc.setFileFilter(new FileNameExtensionFilter("CSV", "csv"));
+		fc.setSelectedFile(
+				new File("response-times-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv"));
+		if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File file = fc.getSelectedFile();
+		boolean hgrm = file.getName().toLowerCase().endsWith(".hgrm");
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			if (!hgrm)
+				ResponseHistogram.writeCsvHeader(out);
+			for (ResponseHistogram h : histograms) {
+				if (hgrm) {
+					h.writePercentiles(out);
+					out.println();
+				} else {
+					h.writeCsv(out);
+				}
+			}
+		} catch (IOException e) {
+			logger.warning("Error exporting response times: " + e.getMessage());
+			JOptionPane.showMessageDialog(this, "Could not write " + file + ": " + e.getMessage(), "Response Times",
+					JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	public void runMacro() {
+		TN3270Session session = getCurrentSession();
+		if (session == null)
+			return;
+		Object[] names = Macro.listSaved().toArray();
+		if (names.length == 0) {
+			JOptionPane.showMessageDialog(this, "No macros saved in " + Macro.MACRO_DIR, "Macro",
+					JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		Object choice = JOptionPane.showInputDialog(this, "Macro:", "Run Macro", JOptionPane.PLAIN_MESSAGE, null,
+				names, names[0]);
+		if (choice != null)
+			session.runMacro((String) choice);
+	}
+
+	public void cancelMacro() {
+		TN3270Session session = getCurrentSession();
+		if (session != null)
+			session.cancelMacro();
+	}
+
 	public void showFileTransferDialog(boolean isDownload) {
 		TN3270Session session = getCurrentSession();
 		if (session != null)
@@ -914,6 +1140,32 @@ public class TN3270Emulator extends JFrame {
 		downloadItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D, shortcutKey));
 		downloadItem.addActionListener(e -> showFileTransferDialog(true));
 		fileMenu.add(downloadItem);
+		fileMenu.addSeparator();
+		JMenuItem recordSessionItem = new JMenuItem("Record Session...");
+		recordSessionItem.addActionListener(e -> toggleScreenRecording());
+		fileMenu.add(recordSessionItem);
+		fileMenu.addMenuListener(new MenuListener() {
+			@Override
+			public void menuSelected(MenuEvent e) {
+				TN3270Session session = getCurrentSession();
+				boolean recording = session != null && session.isRecordingScreen();
+				recordSessionItem.setText(recording ? "Stop Recording Session" : "Record Session...");
+			}
+
+			@Override
+			public void menuDeselected(MenuEvent e) {
+			}
+
+			@Override
+			public void menuCanceled(MenuEvent e) {
+			}
+		});
+		JMenuItem playRecordingItem = new JMenuItem("Play Recording...");
+		playRecordingItem.addActionListener(e -> playRecording());
+		fileMenu.add(playRecordingItem);
+		JMenuItem exportResponseItem = new JMenuItem("Export Response Times...");
+		exportResponseItem.addActionListener(e -> exportResponseTimes());
+		fileMenu.add(exportResponseItem);
 		/*
 		 * // --- NEW: HOST SYSTEM TOGGLE --- fileMenu.addSeparator(); JMenu
 		 * hostTypeMenu = new JMenu("Host System");
@@ -962,10 +1214,21 @@ public class TN3270Emulator extends JFrame {
 		JMenuItem pasteItem = new JMenuItem("Paste");
 		pasteItem.addActionListener(e -> pasteFromClipboard());
 		editMenu.add(pasteItem);
+		JMenuItem pasteScreensItem = new JMenuItem("Paste Across Screens");
+		pasteScreensItem.addActionListener(e -> {
+			TN3270Session session = getCurrentSession();
+			if (session != null)
+				session.pasteFromClipboard(true);
+		});
+		editMenu.add(pasteScreensItem);
 		editMenu.addSeparator();
 		JMenuItem selectAllItem = new JMenuItem("Select All");
 		selectAllItem.addActionListener(e -> selectAll());
 		editMenu.add(selectAllItem);
+		JMenuItem findItem = new JMenuItem("Find Across Sessions...");
+		findItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, shortcutKey | InputEvent.SHIFT_DOWN_MASK));
+		findItem.addActionListener(e -> showFindDialog());
+		editMenu.add(findItem);
 		editMenu.addSeparator();
 		JMenuItem askAIItem = new JMenuItem("Ask AI");
 		askAIItem.addActionListener(e -> {
@@ -999,6 +1262,29 @@ public class TN3270Emulator extends JFrame {
 			repaint();
 		});
 		viewMenu.add(showKeyboardItem);
+		JCheckBoxMenuItem hudItem = new JCheckBoxMenuItem("Performance HUD");
+		hudItem.addActionListener(e -> {
+			TN3270Session session = getCurrentSession();
+			if (session != null)
+				session.setPerformanceHudVisible(hudItem.getState());
+		});
+		viewMenu.add(hudItem);
+		viewMenu.addMenuListener(new MenuListener() {
+			@Override
+			public void menuSelected(MenuEvent e) {
+				TN3270Session session = getCurrentSession();
+				hudItem.setEnabled(session != null);
+				hudItem.setState(session != null && session.isPerformanceHudVisible());
+			}
+
+			@Override
+			public void menuDeselected(MenuEvent e) {
+			}
+
+			@Override
+			public void menuCanceled(MenuEvent e) {
+			}
+		});
 		viewMenu.addSeparator();
 		JMenuItem fontSizeItem = new JMenuItem("Font Size...");
 		fontSizeItem.addActionListener(e -> showFontSizeDialog());
@@ -1018,6 +1304,35 @@ public class TN3270Emulator extends JFrame {
 		settingsMenu.add(termSetItem);
 		menuBar.add(settingsMenu);
 
+		// --- MACROS ---
+		JMenu macroMenu = new JMenu("Macros");
+		JMenuItem recordItem = new JMenuItem("Start Recording");
+		recordItem.addActionListener(e -> toggleMacroRecording());
+		macroMenu.add(recordItem);
+		macroMenu.addMenuListener(new MenuListener() {
+			@Override
+			public void menuSelected(MenuEvent e) {
+				TN3270Session session = getCurrentSession();
+				boolean recording = session != null && session.isRecordingMacro();
+				recordItem.setText(recording ? "Stop Recording..." : "Start Recording");
+			}
+
+			@Override
+			public void menuDeselected(MenuEvent e) {
+			}
+
+			@Override
+			public void menuCanceled(MenuEvent e) {
+			}
+		});
+		JMenuItem runMacroItem = new JMenuItem("Run Macro...");
+		runMacroItem.addActionListener(e -> runMacro());
+		macroMenu.add(runMacroItem);
+		JMenuItem cancelMacroItem = new JMenuItem("Cancel Running Macro");
+		cancelMacroItem.addActionListener(e -> cancelMacro());
+		macroMenu.add(cancelMacroItem);
+		menuBar.add(macroMenu);
+
 		// --- HELP ---
 		JMenu helpMenu = new JMenu("Help");
 		JMenuItem aboutItem = new JMenuItem("About");
@@ -1105,12 +1420,28 @@ public class TN3270Emulator extends JFrame {
 		modelChoice.setSelectedIndex(3);
 		centerPanel.add(modelChoice, gbc);
 
-		gbc.gridx = 1;
+		gbc.gridx = 0;
 		gbc.gridy = 4;
+		gbc.weightx = 0;
+		centerPanel.add(new JLabel("Code Page:", SwingConstants.RIGHT), gbc);
+		gbc.gridx = 1;
+		gbc.weightx = 1.0;
+		JComboBox<CodePage> codePageChoice = new JComboBox<>(CodePage.all().toArray(new CodePage[0]));
+		codePageChoice.setSelectedItem(CodePage.DEFAULT);
+		centerPanel.add(codePageChoice, gbc);
+
+		gbc.gridx = 1;
+		gbc.gridy = 5;
 		gbc.weightx = 1.0;
 		JCheckBox tlsCheckbox = new JCheckBox("Use TLS/SSL encryption");
 		centerPanel.add(tlsCheckbox, gbc);
 
+		gbc.gridx = 1;
+		gbc.gridy = 6;
+		gbc.weightx = 1.0;
+		JCheckBox typeAheadCheckbox = new JCheckBox("Type ahead while keyboard is locked", true);
+		centerPanel.add(typeAheadCheckbox, gbc);
+
 		mainContainer.add(centerPanel, BorderLayout.CENTER);
 		dialog.add(mainContainer, BorderLayout.CENTER);
 
@@ -1137,7 +1468,9 @@ public class TN3270Emulator extends JFrame {
 					portField.setText("23");
 					luNameField.setText("");
 					modelChoice.setSelectedIndex(3);
+					codePageChoice.setSelectedItem(CodePage.DEFAULT);
 					tlsCheckbox.setSelected(false);
+					typeAheadCheckbox.setSelected(true);
 					deleteButton.setEnabled(false);
 				} else {
 					ConnectionProfile profile = savedProfiles.get(selected);
@@ -1146,6 +1479,8 @@ public class TN3270Emulator extends JFrame {
 						portField.setText(String.valueOf(profile.port));
 						luNameField.setText(profile.luName != null ? profile.luName : "");
 						tlsCheckbox.setSelected(profile.useTLS);
+						typeAheadCheckbox.setSelected(profile.typeAhead);
+						codePageChoice.setSelectedItem(CodePage.forName(profile.codePage));
 						for (int i = 0; i < modelChoice.getItemCount(); i++) {
 							if (modelChoice.getItemAt(i).startsWith(profile.model)) {
 								modelChoice.setSelectedIndex(i);
@@ -1174,7 +1509,9 @@ public class TN3270Emulator extends JFrame {
 				String model = modStr.split(" ")[0];
 				String lu = luNameField.getText().trim();
 				boolean tls = tlsCheckbox.isSelected();
-				savedProfiles.put(name, new ConnectionProfile(name, host, port, model, lu, tls));
+				String cp = ((CodePage) codePageChoice.getSelectedItem()).getId();
+				boolean ta = typeAheadCheckbox.isSelected();
+				savedProfiles.put(name, new ConnectionProfile(name, host, port, model, lu, tls, cp, ta));
 				saveProfiles();
 				if (((DefaultComboBoxModel) profileChoice.getModel()).getIndexOf(name) == -1)
 					profileChoice.addItem(name);
@@ -1208,6 +1545,8 @@ public class TN3270Emulator extends JFrame {
 			String model = modStr.split(" ")[0];
 			String lu = luNameField.getText().trim();
 			boolean tls = tlsCheckbox.isSelected();
+			String cp = ((CodePage) codePageChoice.getSelectedItem()).getId();
+			boolean ta = typeAheadCheckbox.isSelected();
 
 			dialog.dispose();
 
@@ -1217,10 +1556,10 @@ public class TN3270Emulator extends JFrame {
 					: host;
 
 			if (targetFrame != null) {
-				targetFrame.handleConnectRequest(sessionTitle, host, port, model, lu, tls);
+				targetFrame.handleConnectRequest(sessionTitle, host, port, model, lu, tls, cp, ta);
 			} else {
 				TN3270Emulator emu = new TN3270Emulator(model);
-				emu.handleConnectRequest(sessionTitle, host, port, model, lu, tls);
+				emu.handleConnectRequest(sessionTitle, host, port, model, lu, tls, cp, ta);
 			}
 		});
 
@@ -1251,13 +1590,20 @@ public class TN3270Emulator extends JFrame {
 					String model = parts[3].trim();
 					String luName = "";
 					boolean useTLS = false;
+					String codePage = null;
+					boolean typeAhead = true;
 					if (parts.length == 5)
 						useTLS = Boolean.parseBoolean(parts[4].trim());
 					else if (parts.length >= 6) {
 						luName = parts[4].trim();
 						useTLS = Boolean.parseBoolean(parts[5].trim());
 					}
-					savedProfiles.put(name, new ConnectionProfile(name, host, port, model, luName, useTLS));
+					if (parts.length >= 7)
+						codePage = parts[6].trim();
+					if (parts.length >= 8)
+						typeAhead = Boolean.parseBoolean(parts[7].trim());
+					savedProfiles.put(name,
+							new ConnectionProfile(name, host, port, model, luName, useTLS, codePage, typeAhead));
 				}
 			}
 		} catch (IOException e) {
@@ -1272,7 +1618,7 @@ public class TN3270Emulator extends JFrame {
 		try (BufferedWriter writer = new BufferedWriter(new FileWriter(PROFILES_FILE))) {
 			for (ConnectionProfile p : savedProfiles.values()) {
 				writer.write(p.name + "," + p.hostname + "," + p.port + "," + p.model + ","
-						+ (p.luName == null ? "" : p.luName) + "," + p.useTLS);
+						+ (p.luName == null ? "" : p.luName) + "," + p.useTLS + "," + p.codePage + "," + p.typeAhead);
 				writer.newLine();
 			}
 		} catch (IOException e) {
@@ -1285,22 +1631,89 @@ public class TN3270Emulator extends JFrame {
 	// 8. MAIN
 	// =======================================================================
 
+	/** A port for --automation=; exits with a message if it is not one. */
+	private static int parsePort(String value) {
+		try {
+			int port = Integer.parseInt(value.trim());
+			if (port >= 0 && port <= 0xFFFF)
+				return port;
+		} catch (NumberFormatException e) {
+		}
+		System.err.println("Invalid automation port '" + value + "' (0-65535 expected)");
+		System.exit(1);
+		return -1;
+	}
+
 	public static void main(String[] args) {
 		String osName = System.getProperty("os.name").toLowerCase();
 		if (osName.contains("mac")) {
 			System.setProperty("apple.laf.useScreenMenuBar", "true");
 			System.setProperty("apple.awt.application.name", "TN3270");
 		}
+
+		// NEW: --automation[=port] starts the local scripting API, --headless runs it without a window
+		List<String> rest = new ArrayList<>();
+		int apiPort = -1;
+		boolean headless = false;
+		File logDir = null;
+		boolean trace = false;
+		for (String a : args) {
+			if (a.equals("--automation"))
+				apiPort = AutomationServer.DEFAULT_PORT;
+			else if (a.startsWith("--automation="))
+				apiPort = parsePort(a.substring("--automation=".length()));
+			else if (a.equals("--headless"))
+				headless = true;
+			else if (a.startsWith("--log-dir="))
+				logDir = new File(a.substring("--log-dir=".length()));
+			else if (a.equals("--trace"))
+				trace = true;
+			else
+				rest.add(a);
+		}
+		// NEW: --log-dir=<dir> adds rotating log files, --trace hex-dumps the datastreams there too
+		try {
+			if (logDir != null)
+				LoggerSetup.setLogDirectory(logDir);
+			if (trace)
+				LoggerSetup.enableTrace(logDir != null ? logDir : LoggerSetup.DEFAULT_LOG_DIR);
+		} catch (IOException e) {
+			System.err.println("Cannot write log files: " + e.getMessage());
+		}
+		// NEW: Publish com.tn3270:type=Emulator right away so JConsole sees it before the first session
+		EmulatorMetrics.get();
+		if (headless) {
+			System.setProperty("java.awt.headless", "true");
+			if (apiPort < 0)
+				apiPort = AutomationServer.DEFAULT_PORT;
+		}
+		if (apiPort >= 0) {
+			automationServer = new AutomationServer(apiPort);
+			try {
+				automationServer.start();
+			} catch (IOException e) {
+				System.err.println("Cannot start automation API on port " + apiPort + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if (headless) {
+			try {
+				automationServer.awaitStop();
+			} catch (InterruptedException e) {
+			}
+			return;
+		}
+
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 		} catch (Exception e) {
 		}
 
-		if (args.length == 0) {
+		if (rest.isEmpty()) {
 			TN3270Emulator emu = new TN3270Emulator("3279-3");
 			showConnectionDialog(emu);
 		} else {
-			new TN3270Emulator("3279-3").openNewSession(args[0], args[0], 23, "3279-3", "", false);
+			new TN3270Emulator("3279-3").openNewSession(rest.get(0), rest.get(0), 23, "3279-3", "", false);
 		}
 	}
 
@@ -1,5 +1,6 @@
 package com.tn3270;
 
+import static com.tn3270.constants.ProtocolConstants.AID_ATTN;
 import static com.tn3270.constants.ProtocolConstants.AID_CLEAR;
 import static com.tn3270.constants.ProtocolConstants.AID_ENTER;
 import static com.tn3270.constants.ProtocolConstants.AID_PA1;
@@ -10,6 +11,8 @@ import static com.tn3270.constants.ProtocolConstants.AID_PF9;
 import static com.tn3270.constants.ProtocolConstants.AID_PF10;
 import static com.tn3270.constants.ProtocolConstants.AID_PF12;
 import static com.tn3270.constants.ProtocolConstants.AID_PF13;
+import static com.tn3270.constants.ProtocolConstants.AID_PF21;
+import static com.tn3270.constants.ProtocolConstants.AID_PF22;
 import static com.tn3270.constants.ProtocolConstants.AID_PF24;
 import static com.tn3270.constants.ProtocolConstants.AID_STRUCTURED_FIELD;
 import static com.tn3270.constants.ProtocolConstants.ATTR_CHAR_SET;
@@ -26,6 +29,8 @@ import static com.tn3270.constants.ProtocolConstants.CMD_ERASE_WRITE_F5;
 import static com.tn3270.constants.ProtocolConstants.CMD_READ_BUFFER_02;
 import static com.tn3270.constants.ProtocolConstants.CMD_READ_BUFFER_F2;
 import static com.tn3270.constants.ProtocolConstants.CMD_READ_MODIFIED_06;
+import static com.tn3270.constants.ProtocolConstants.CMD_READ_MODIFIED_ALL_0E;
+import static com.tn3270.constants.ProtocolConstants.CMD_READ_MODIFIED_ALL_6E;
 import static com.tn3270.constants.ProtocolConstants.CMD_READ_MODIFIED_F6;
 import static com.tn3270.constants.ProtocolConstants.CMD_WRITE_01;
 import static com.tn3270.constants.ProtocolConstants.CMD_WRITE_F1;
@@ -55,6 +60,7 @@ import static com.tn3270.constants.TelnetConstants.DO;
 import static com.tn3270.constants.TelnetConstants.DONT;
 import static com.tn3270.constants.TelnetConstants.EOR;
 import static com.tn3270.constants.TelnetConstants.IAC;
+import static com.tn3270.constants.TelnetConstants.IP;
 import static com.tn3270.constants.TelnetConstants.OPT_BINARY;
 import static com.tn3270.constants.TelnetConstants.OPT_EOR;
 import static com.tn3270.constants.TelnetConstants.OPT_TERMINAL_TYPE;
@@ -70,12 +76,20 @@ import static com.tn3270.constants.TelnetConstants.TN3270E_OP_REQUEST;
 import static com.tn3270.constants.TelnetConstants.TN3270E_OP_SEND;
 import static com.tn3270.constants.TelnetConstants.WILL;
 import static com.tn3270.constants.TelnetConstants.WONT;
-import static com.tn3270.util.EBCDIC.ADDRESS_TABLE;
-import static com.tn3270.util.EBCDIC.ASCII_TO_EBCDIC;
-import static com.tn3270.util.EBCDIC.EBCDIC_TO_APL;
-import static com.tn3270.util.EBCDIC.EBCDIC_TO_ASCII;
 
+import com.tn3270.util.CodePage;
+import com.tn3270.util.EmulatorMetrics;
+import com.tn3270.util.FlightEvents;
 import com.tn3270.util.LoggerSetup;
+import com.tn3270.util.OutboundWriter;
+import com.tn3270.util.PastePlanner;
+import com.tn3270.util.ReadBufferEncoder;
+import com.tn3270.util.RecordEncoder;
+import com.tn3270.util.ResponseHistogram;
+import com.tn3270.util.SessionExecutor;
+import com.tn3270.util.SessionMetrics;
+import com.tn3270.util.StructuredFieldDispatcher;
+import com.tn3270.util.TransferCodec;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -84,6 +98,7 @@ import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.Frame;
 import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
@@ -115,11 +130,18 @@ import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import javax.net.SocketFactory;
@@ -156,12 +178,22 @@ import javax.swing.SwingConstants;
 import javax.swing.DefaultComboBoxModel;
 
 import com.tn3270.ai.AIManager;
+import com.tn3270.automation.SharedScreen;
+import com.tn3270.macro.Macro;
+import com.tn3270.macro.MacroPlayer;
+import com.tn3270.macro.MacroRecorder;
+import com.tn3270.macro.MacroTarget;
+import com.tn3270.model.ScreenHistory;
+import com.tn3270.model.ScreenIndex;
 import com.tn3270.model.ScreenModel;
+import com.tn3270.model.ScreenPublisher;
+import com.tn3270.model.ScreenWatcher;
+import com.tn3270.model.ScreenRecorder;
 import com.tn3270.ui.StatusBar;
 import com.tn3270.ui.TerminalPanel;
 import com.tn3270.ui.dialogs.KeyboardSettingsDialog;
 
-public class TN3270Session extends JPanel implements KeyListener {
+public class TN3270Session extends JPanel implements KeyListener, MacroTarget {
 	private static final Logger logger = LoggerSetup.getLogger(TN3270Session.class);
 
 	private static final String COLORS_FILE = System.getProperty("user.home") + File.separator + ".tn3270colors";
@@ -195,8 +227,17 @@ public class TN3270Session extends JPanel implements KeyListener {
 	private static final int STATE_DO = 5;
 	private static final int STATE_DONT = 6;
 
+	private static final int SFID_READ_PARTITION = 0x01;
 	private static final byte SFID_SET_REPLY_MODE = (byte) 0x09;
 
+	// Bytes that processOrders treats as orders; everything else is display data
+	private static final boolean[] WRITE_ORDER = new boolean[256];
+	static {
+		for (int o : new int[] { ORDER_SF, ORDER_SFE, ORDER_SBA, ORDER_IC, ORDER_PT, ORDER_RA, ORDER_EUA, ORDER_SA,
+				ORDER_GE })
+			WRITE_ORDER[o] = true;
+	}
+
 	private enum FileTransferState {
 		IDLE, OPEN_SENT, TRANSFER_IN_PROGRESS, CLOSE_SENT, ERROR
 	}
@@ -336,7 +377,14 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 	private Socket socket;
 	private InputStream input;
-	private OutputStream output;
+	private OutputStream output; // The session's OutboundWriter once connected
+	private volatile OutboundWriter outboundWriter;
+	private final RecordEncoder outbound = new RecordEncoder(); // Reused for every outbound record
+	private final ReadBufferEncoder readBufferEncoder = new ReadBufferEncoder(); // Guarded by outbound
+	// NEW: WSF structured fields are routed by SFID (core handlers + add-ons)
+	private final StructuredFieldDispatcher sfDispatcher = new StructuredFieldDispatcher();
+	// Query Reply is immutable for a given alternate screen size, so build it once
+	private static final Map<Integer, byte[]> QUERY_REPLIES = new ConcurrentHashMap<>();
 
 	// NEW: Memory Transfer State
 	private boolean isMemoryTransfer = false;
@@ -345,15 +393,60 @@ public class TN3270Session extends JPanel implements KeyListener {
 	private MemoryTransferCallback transferCallback;
 
 	private volatile boolean connected = false;
-	private Thread readerThread;
+	// NEW: All background work of this session (connect, reader, writer, AI, transfers)
+	private final SessionExecutor executor = new SessionExecutor();
 	private boolean useTLS = false;
 	private String requestedLuName = "";
 	private String currentHost = "";
 	private int currentPort = 23;
 	private String modelName = "3279-3";
+	private CodePage codePage = CodePage.DEFAULT;
 
 	public boolean insertMode = false;
 	public boolean keyboardLocked = false;
+
+	// NEW: Type-ahead - key events typed while the keyboard is locked (EDT only)
+	private static final int TYPE_AHEAD_LIMIT = 256; // Events (a key is usually pressed + typed)
+	private final ArrayDeque<KeyEvent> typeAhead = new ArrayDeque<>();
+	private volatile boolean typeAheadPending = false;
+	private boolean typeAheadEnabled = true;
+	private boolean replayingTypeAhead = false;
+
+	// NEW: Multi-screen paste - rest of the text waiting for the keyboard to unlock (EDT only)
+	private boolean pasteAutoSubmit = false;
+	private volatile char[] pendingPaste;
+	private int pendingPasteOffset;
+
+	// NEW: Macros
+	private volatile MacroRecorder macroRecorder;
+	private volatile Future<?> macroTask;
+	private volatile long hostUpdateCount = 0;
+
+	// NEW: Presentation space shared with other processes through a mapped file
+	private static final AtomicInteger sharedScreenCounter = new AtomicInteger();
+	private volatile SharedScreen sharedScreen;
+	private Timer sharedInputTimer;
+
+	// NEW: Screen history (scrollback), recorded after every host write
+	private final ScreenHistory screenHistory;
+	private ScreenHistory.View historyView; // EDT; non-null while a past screen is shown
+	private ScreenModel historyModel;
+	private final int searchSourceId; // NEW: This session's id in the cross-session ScreenIndex
+
+	// NEW: Session recording (keyframes + deltas) for audits and training
+	private volatile ScreenRecorder screenRecorder;
+
+	// NEW: Screen change subscriptions - deltas per screen for automation and scrapers
+	private final ScreenPublisher screenPublisher = new ScreenPublisher();
+
+	// NEW: Protocol metrics, published over JMX (com.tn3270:type=Session)
+	private final SessionMetrics metrics;
+
+	// NEW: Response times (AID until the host restores the keyboard), per session and per host
+	private final ResponseHistogram responseTimes;
+	private volatile long aidSentNanos; // 0: no AID waiting for the keyboard
+	private volatile ResponseHistogram aidHost;
+	private volatile FlightEvents.AidRoundTrip aidEvent; // Only while JFR is recording
 	private int lastAID = AID_ENTER;
 	private boolean tn3270eMode = false;
 	private boolean tn3270eAttempted = false;
@@ -370,6 +463,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 	private File currentFile;
 	private String currentFilename = null;
 	private boolean ftIsText = true;
+	private TransferCodec ftCodec; // Non-null = binary transfer with local code page conversion
 	private boolean ftIsMessage = false;
 	private boolean ftHadSuccessfulTransfer = false;
 	private boolean pendingCR = false;
@@ -423,6 +517,15 @@ public class TN3270Session extends JPanel implements KeyListener {
 			this.aid = a;
 			this.description = d;
 		}
+
+		// NEW: Name of a saved macro to run (aid == null, character unused)
+		public String macro;
+
+		public static KeyMapping forMacro(String name) {
+			KeyMapping m = new KeyMapping('\0', "Macro: " + name);
+			m.macro = name;
+			return m;
+		}
 	}
 
 	public TN3270Session(String modelName) {
@@ -434,7 +537,15 @@ public class TN3270Session extends JPanel implements KeyListener {
 		this.parentFrame = parent;
 		this.modelName = (modelName != null && !modelName.trim().isEmpty()) ? modelName.trim() : "3278-2";
 		this.screenModel = new ScreenModel(this.modelName, MODELS);
+		this.screenHistory = new ScreenHistory(screenModel.getBuffer().length, ScreenHistory.DEFAULT_BUDGET);
+		this.searchSourceId = ScreenIndex.get().addSource(this::getSearchName, screenHistory);
 		this.terminalPanel = new TerminalPanel(screenModel);
+		registerCoreStructuredFields();
+		this.metrics = new SessionMetrics(executor.getName(), sfDispatcher, () -> outboundWriter, () -> connected,
+				() -> currentHost, () -> ftState != FileTransferState.IDLE);
+		terminalPanel.setMetrics(metrics);
+		EmulatorMetrics.get().register(metrics);
+		this.responseTimes = new ResponseHistogram(executor.getName());
 
 		// FIX: ScrollPane is now a class field so applyColorScheme can access it
 		scrollPane = new JScrollPane(terminalPanel);
@@ -604,6 +715,14 @@ public class TN3270Session extends JPanel implements KeyListener {
 		return modelName;
 	}
 
+	public String getCurrentHost() {
+		return currentHost;
+	}
+
+	public int getCurrentPort() {
+		return currentPort;
+	}
+
 	public Frame getParentFrame() {
 		if (parentFrame != null)
 			return parentFrame;
@@ -619,6 +738,14 @@ public class TN3270Session extends JPanel implements KeyListener {
 		requestedLuName = l;
 	}
 
+	public void setCodePage(CodePage cp) {
+		codePage = (cp != null) ? cp : CodePage.DEFAULT;
+	}
+
+	public CodePage getCodePage() {
+		return codePage;
+	}
+
 	public boolean isConnected() {
 		return connected;
 	}
@@ -711,6 +838,15 @@ public class TN3270Session extends JPanel implements KeyListener {
 			terminalPanel.setShowCrosshair(b);
 	}
 
+	/** NEW: Performance overlay on the terminal (paint, parse, AID round trip, network, GC). */
+	public void setPerformanceHudVisible(boolean b) {
+		terminalPanel.setHudVisible(b);
+	}
+
+	public boolean isPerformanceHudVisible() {
+		return terminalPanel.isHudVisible();
+	}
+
 	private SSLSocketFactory createTrustAllSSLSocketFactory() {
 		try {
 			TrustManager[] t = new TrustManager[] { new X509TrustManager() {
@@ -732,10 +868,16 @@ public class TN3270Session extends JPanel implements KeyListener {
 		}
 	}
 
-	public void connect(String h, int p) {
+	/**
+	 * Connects in the background.
+	 *
+	 * @return the connect task; done once the socket is up (isConnected()) or the
+	 *         attempt has failed
+	 */
+	public Future<?> connect(String h, int p) {
 		this.currentHost = h;
 		this.currentPort = p;
-		new Thread(() -> {
+		return executor.submit("connect", () -> {
 			try {
 				if (useTLS) {
 					SocketFactory f = createTrustAllSSLSocketFactory();
@@ -763,13 +905,16 @@ public class TN3270Session extends JPanel implements KeyListener {
 					SwingUtilities.invokeLater(() -> statusBar.setIP(ip));
 				}
 				input = socket.getInputStream();
-				output = socket.getOutputStream();
+				// NEW: Socket writes happen on a dedicated thread so the EDT never blocks
+				if (outboundWriter != null)
+					metrics.writerRetired(outboundWriter);
+				outboundWriter = new OutboundWriter(socket.getOutputStream(), executor);
+				output = outboundWriter;
 				connected = true;
 				tn3270eAttempted = false;
 				tn3270eMode = false;
 				screenModel.clearScreen();
-				readerThread = new Thread(this::readLoop);
-				readerThread.start();
+				executor.submit("reader", this::readLoop);
 			} catch (Exception e) {
 				try {
 					if (socket != null)
@@ -782,19 +927,51 @@ public class TN3270Session extends JPanel implements KeyListener {
 					showMessageDialog("Connect Error: " + e.getMessage(), "Error", true);
 				});
 			}
-		}).start();
+		});
 	}
 
 	public void disconnect() {
 		connected = false;
+		aidSentNanos = 0;
+		OutboundWriter w = outboundWriter;
+		if (w != null)
+			w.close();
 		try {
 			if (socket != null)
 				socket.close();
 		} catch (Exception e) {
 		}
+		// NEW: Stop transfers, AI calls and the reader/writer belonging to this connection
+		executor.cancelAll();
+		if (typeAheadPending)
+			SwingUtilities.invokeLater(this::clearTypeAhead);
+		if (pendingPaste != null)
+			SwingUtilities.invokeLater(this::cancelPaste);
 		statusBar.setStatus("Disconnected");
 		statusBar.setIP("");
 		terminalPanel.repaint();
+		publishSharedScreen();
+	}
+
+	/**
+	 * Final teardown when the session tab is closed: disconnects, stops the blink
+	 * timer and shuts down the session's threads. The session cannot reconnect
+	 * afterwards.
+	 */
+	public void close() {
+		disconnect();
+		blinkTimer.stop();
+		terminalPanel.setHudVisible(false);
+		setSharedScreenEnabled(false);
+		stopScreenRecording();
+		ScreenIndex.get().removeSource(searchSourceId, screenHistory);
+		EmulatorMetrics.get().unregister(metrics);
+		executor.shutdown();
+	}
+
+	/** Background tasks (reader, writer, AI calls, transfers) currently queued or running. */
+	public int getBackgroundTaskCount() {
+		return executor.getActiveCount();
 	}
 
 	public void reconnect() {
@@ -809,6 +986,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	private void readLoop() {
+		// FIX: Remember our socket so a late exit can't tear down a newer connection (reconnect)
+		Socket mySocket = socket;
 		byte[] buf = new byte[8192];
 		ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
 		ByteArrayOutputStream subnegBuffer = new ByteArrayOutputStream();
@@ -818,6 +997,9 @@ public class TN3270Session extends JPanel implements KeyListener {
 				int n = input.read(buf);
 				if (n <= 0)
 					break;
+				metrics.bytesReceived(n);
+				if (LoggerSetup.isTraceEnabled())
+					LoggerSetup.trace(executor.getName(), true, buf, 0, n);
 				for (int i = 0; i < n; i++) {
 					// byte b = buf[i];
 					int b = buf[i] & 0xFF; // Convert signed byte to unsigned int (0-255)
@@ -845,7 +1027,18 @@ public class TN3270Session extends JPanel implements KeyListener {
 							ts = STATE_DONT;
 						else if (b == EOR) {
 							if (dataStream.size() > 0) {
-								process3270Data(dataStream.toByteArray());
+								FlightEvents.RecordReceived event = new FlightEvents.RecordReceived();
+								event.begin();
+								long t0 = System.nanoTime();
+								byte[] record = dataStream.toByteArray();
+								process3270Data(record);
+								metrics.recordParsed(System.nanoTime() - t0);
+								if (event.shouldCommit()) {
+									event.session = executor.getName();
+									event.bytes = record.length;
+									event.command = record[0] & 0xFF;
+									event.commit();
+								}
 								dataStream.reset();
 							}
 							ts = STATE_DATA;
@@ -889,10 +1082,12 @@ public class TN3270Session extends JPanel implements KeyListener {
 			if (connected)
 				statusBar.setStatus("Connection lost.");
 		}
-		disconnect();
+		if (socket == mySocket)
+			disconnect();
 	}
 
 	private void handleTelnet(int cmd, int opt) throws IOException {
+		metrics.telnetNegotiated();
 		if (cmd == DO && (opt == OPT_BINARY || opt == OPT_EOR))
 			sendTelnet(WILL, opt);
 		else if (cmd == WILL && (opt == OPT_BINARY || opt == OPT_EOR))
@@ -928,6 +1123,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	private void handleSubneg(byte[] d) throws IOException {
+		metrics.subnegotiated();
 		if (d.length < 2)
 			return;
 		if (d[0] == OPT_TERMINAL_TYPE && d[1] == 1) {
@@ -1010,6 +1206,30 @@ public class TN3270Session extends JPanel implements KeyListener {
 		}
 	}
 
+	/** Outbound queue metrics (depth, latency, coalescing); null before the first connect. */
+	public OutboundWriter getOutboundWriter() {
+		return outboundWriter;
+	}
+
+	/**
+	 * ATTN: Telnet IAC IP, outside the 3270 data stream, so it is allowed while
+	 * the host holds the keyboard. It is not an AID - the AID still outstanding
+	 * (and its response time) is left alone.
+	 */
+	private void sendAttn() {
+		OutputStream out = output;
+		if (out == null)
+			return;
+		try {
+			synchronized (outbound) { // Never inside a record being queued
+				out.write(new byte[] { (byte) IAC, (byte) IP });
+				out.flush();
+			}
+		} catch (IOException e) {
+			logger.warning("Could not send ATTN: " + e.getMessage());
+		}
+	}
+
 	private void sendTelnet(int c, int o) throws IOException {
 		output.write(new byte[] { (byte) IAC, (byte) c, (byte) o });
 		output.flush();
@@ -1081,6 +1301,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 				byte wcc = data[off++];
 				if ((wcc & WCC_RESET) != 0) {
 					keyboardLocked = false;
+					responseReceived();
 					replyModeFlags = 0;
 
 					// FIX: Reset Insert Mode on Keyboard Unlock
@@ -1116,7 +1337,9 @@ public class TN3270Session extends JPanel implements KeyListener {
 			}
 			keyboardLocked = false;
 		} else if (cmd == CMD_READ_MODIFIED_F6 || cmd == CMD_READ_MODIFIED_06)
-			sendAID(lastAID);
+			sendReadModified(lastAID, false);
+		else if (cmd == CMD_READ_MODIFIED_ALL_0E || cmd == CMD_READ_MODIFIED_ALL_6E)
+			sendReadModified(lastAID, true);
 		else if (cmd == CMD_READ_BUFFER_02 || cmd == CMD_READ_BUFFER_F2)
 			sendReadBuffer();
 		else if (cmd == CMD_WSF_11 || cmd == CMD_WSF_F3)
@@ -1139,6 +1362,27 @@ public class TN3270Session extends JPanel implements KeyListener {
 		}
 		terminalPanel.setHasBlinkingText(hasBlink);
 
+		// NEW: Keyboard unlocked by the host - continue a multi-screen paste, then
+		// replay anything typed ahead (queued behind the paste if it submits again)
+		if (!keyboardLocked && pendingPaste != null)
+			SwingUtilities.invokeLater(this::continuePaste);
+		if (!keyboardLocked && typeAheadPending)
+			SwingUtilities.invokeLater(this::drainTypeAhead);
+
+		// NEW: Wake macro players / tell the recorder the host has answered
+		MacroRecorder recorder = macroRecorder;
+		if (recorder != null && !keyboardLocked)
+			recorder.hostUpdated(screenModel.getCursorPos());
+		screenHistory.record(screenModel);
+		recordScreen(-1);
+		if (historyView != null)
+			SwingUtilities.invokeLater(this::updateHistoryIndicator);
+		synchronized (keyboardLockMonitor) {
+			hostUpdateCount++;
+			keyboardLockMonitor.notifyAll();
+		}
+		publishSharedScreen();
+
 		terminalPanel.repaint();
 
 		// Force layout re-check
@@ -1153,6 +1397,12 @@ public class TN3270Session extends JPanel implements KeyListener {
 		int[] idx = { 0 };
 		char c;
 		int bufLen = screenModel.getSize();
+		// NEW: Order counts for JFR
+		FlightEvents.OrdersProcessed event = new FlightEvents.OrdersProcessed();
+		event.begin();
+		int items = 0;
+		int textRuns = 0;
+		int textBytes = 0;
 
 		// Reset state at start of Write/Erase Write
 		screenModel.setCurrentColor((byte) 0);
@@ -1161,6 +1411,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 		while (i < data.length) {
 			int b = data[i++] & 0xFF;
+			items++;
 
 			if (b == ORDER_SF) {
 				if (i < data.length) {
@@ -1340,7 +1591,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 					if ((val & 0xFF) == 0x4F) {
 						c = '|';
 					} else {
-						c = EBCDIC_TO_APL[val & 0xFF];
+						c = CodePage.APL.decode(val);
 					}
 
 					screenModel.setChar(p, c);
@@ -1360,42 +1611,58 @@ public class TN3270Session extends JPanel implements KeyListener {
 					p = (p + 1) % bufLen;
 				}
 			} else {
-				// Standard Character
-				byte currentCS = screenModel.getCurrentCharset();
-
-				// Even if we are in APL mode (currentCS == APL),
-				// if the byte is 0x4F, store it as '|'.
-				if ((b & 0xFF) == 0x4F) {
-					c = '|';
-				} else {
-					if (currentCS == CHARSET_APL) {
-						// Use APL Table
-						c = EBCDIC_TO_APL[b & 0xFF];
-					} else {
-						// Use Standard Table
-						c = EBCDIC_TO_ASCII[b & 0xFF];
-						if (c == '\0')
-							c = ' ';
-					}
-				}
+				// Standard Character(s)
+				// NEW: Fast path - take the whole run up to the next order in one go
+				int runStart = i - 1;
+				while (i < data.length && !WRITE_ORDER[data[i] & 0xFF])
+					i++;
+				p = storeTextRun(data, runStart, i - runStart, p, bufLen);
+				textRuns++;
+				textBytes += i - runStart;
+			}
+			//System.out.println(String.format("TN3270: Stored extColor at p=%d: %d", p, screenModel.getExtendedColor(p) & 0xFF));
+		}
+		if (event.shouldCommit()) {
+			event.bytes = data.length - offset;
+			event.orders = items - textRuns;
+			event.textRuns = textRuns;
+			event.textBytes = textBytes;
+			event.commit();
+		}
+	}
 
-				screenModel.setChar(p, c);
-				screenModel.setAttr(p, (byte) 0);
-				screenModel.setExtendedColor(p, screenModel.getCurrentColor());
-				screenModel.setHighlight(p, screenModel.getCurrentHighlight());
-				screenModel.setCharset(p, currentCS);
-				/*
-				if (p == 562 || p == 642 || p == 722 || p == 882) {
-				    System.out.println(String.format("Writing char 0x%02X at p=%d with currentColor=%d", 
-				        b & 0xFF, p, screenModel.getCurrentColor()));
+	/**
+	 * Stores a run of plain data bytes starting at p using the current
+	 * color/highlight/charset (same result as writing them one by one). The run is
+	 * decoded straight into the screen buffer, split only where it wraps.
+	 *
+	 * @return buffer position after the run
+	 */
+	private int storeTextRun(byte[] data, int off, int len, int p, int bufLen) {
+		char[] chars = screenModel.getBuffer();
+		byte color = screenModel.getCurrentColor();
+		byte hl = screenModel.getCurrentHighlight();
+		byte cs = screenModel.getCurrentCharset();
+		p %= bufLen;
+
+		while (len > 0) {
+			int n = Math.min(len, bufLen - p);
+			if (cs == CHARSET_APL) {
+				// Even in APL mode, 0x4F is stored as '|'
+				for (int k = 0; k < n; k++) {
+					int b = data[off + k] & 0xFF;
+					chars[p + k] = (b == 0x4F) ? '|' : CodePage.APL.decode(b);
 				}
-*/
-				//if (p > 550 && p < 570) System.out.println(String.format("TN3270: ('%c') Stored extColor at p=%d: %d", c, p, screenModel.getExtendedColor(p) & 0xFF));
-				
-				p = (p + 1) % bufLen;
+			} else {
+				// Session code page (nulls/controls display as blanks)
+				codePage.decodeDisplay(data, off, n, chars, p);
 			}
-			//System.out.println(String.format("TN3270: Stored extColor at p=%d: %d", p, screenModel.getExtendedColor(p) & 0xFF));
+			screenModel.setCells(p, n, (byte) 0, color, hl, cs);
+			off += n;
+			len -= n;
+			p = (p + n) % bufLen;
 		}
+		return p;
 	}
 
 	private byte normalizeColor(byte raw) {
@@ -1406,146 +1673,16 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 	private void sendReadBuffer() {
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			baos.write((byte) lastAID);
-
-			int cPos = screenModel.getCursorPos();
-			byte[] addr = encode3270Address(cPos);
-			baos.write(addr[0]);
-			baos.write(addr[1]);
-
-			int size = screenModel.getSize();
-			byte[] attrs = screenModel.getAttributes();
-			char[] chars = screenModel.getBuffer();
-			byte[] colors = screenModel.getExtendedColors();
-			byte[] highlights = screenModel.getHighlight();
-			byte[] charsets = screenModel.getCharsets(); // Get Charsets
-
-			// Track running state for SA orders (Only used in Character Mode)
-			byte runningColor = 0;
-			byte runningHighlight = 0;
-			byte runningCharset = 0; // Track Charset
-
-			for (int i = 0; i < size; i++) {
-				if (screenModel.isFieldStart(i)) {
-					byte a = attrs[i];
-					byte c = colors[i];
-					byte h = highlights[i];
-					byte cs = charsets[i]; // Field Charset
-
-					// Field Start always resets running character attributes
-					runningColor = 0;
-					runningHighlight = 0;
-
-					if (currentReplyMode == ReplyMode.CHARACTER && (c != 0 || h != 0 || cs != 0)) {
-						// --- EXTENDED MODE: Use SFE (0x29) ---
-						baos.write(ORDER_SFE);
-
-						// Calculate count: Basic(1) + Color?(1) + Highlight?(1)
-						int count = 1;
-						if (c != 0)
-							count++;
-						if (h != 0)
-							count++;
-						if (cs != 0)
-							count++; // Add Charset count
-						baos.write(count);
-
-						// 1. Basic Attribute (Type 0xC0)
-						baos.write(0xC0);
-						baos.write(a);
-
-						// 2. Extended Color (Type 0x42)
-						if (c != 0) {
-							baos.write(ATTR_FOREGROUND);
-							baos.write(c);
-						}
-
-						// 3. Extended Highlight (Type 0x41)
-						if (h != 0) {
-							baos.write(ATTR_HIGHLIGHTING);
-							baos.write(h);
-						}
-
-						// 4. Character Set (Type 0x43)
-						if (cs != 0) {
-							baos.write(ATTR_CHAR_SET);
-							baos.write(cs);
-						}
-					} else {
-						// --- STANDARD MODE: Use SF (0x1D) ---
-						baos.write(ORDER_SF);
-						baos.write(a);
-					}
-				} else {
-					// --- DATA CONTENT ---
-					if (currentReplyMode == ReplyMode.CHARACTER) {
-						byte c = colors[i];
-						byte h = highlights[i];
-						byte cs = charsets[i];
-
-						// Inject SA (Set Attribute 0x28) if color changes from running state
-						if (c != runningColor) {
-							baos.write(ORDER_SA);
-							baos.write(ATTR_FOREGROUND);
-							baos.write(c);
-							runningColor = c;
-						}
-
-						// Inject SA if highlight changes
-						if (h != runningHighlight) {
-							baos.write(ORDER_SA);
-							baos.write(ATTR_HIGHLIGHTING);
-							baos.write(h);
-							runningHighlight = h;
-						}
-
-						// FIX: Preserve Character Set changes (e.g. APL)
-						if (cs != runningCharset) {
-							baos.write(ORDER_SA);
-							baos.write(ATTR_CHAR_SET); // 0x43
-							baos.write(cs);
-							runningCharset = cs;
-						}
-					}
+			synchronized (outbound) {
+				RecordEncoder ob = outbound.begin();
+				ob.put(lastAID);
+				ob.putAddress(screenModel.getCursorPos());
 
-					// Write the character
-					char ch = chars[i];
-					byte ebcdicByte = 0;
-					byte cs = charsets[i];
-					/*
-					 * if (ch == '\0') baos.write(0x00); else if (ch < 256 && ASCII_TO_EBCDIC[ch] !=
-					 * 0) baos.write(ASCII_TO_EBCDIC[ch]); else baos.write(0x40);
-					 */
-					if (cs == CHARSET_APL) {
-						// Reverse lookup in EBCDIC_TO_APL table
-						// (Optimization: You could build a reverse map static array for speed)
-						// (But, why waste 64k on a mostly empty table?)
-						for (int k = 0; k < 256; k++) {
-							if (EBCDIC_TO_APL[k] == ch) {
-								ebcdicByte = (byte) k;
-								break;
-							}
-						}
-						// ebcdicByte = EBCDIC.APL_TO_EBCDIC[ch];
-						if (ebcdicByte == 0)
-							ebcdicByte = (byte) 0x40; // Fallback
-					} else {
-						// Standard ASCII/Unicode -> EBCDIC
-						if (ch < 256)
-							ebcdicByte = ASCII_TO_EBCDIC[ch];
-						else
-							ebcdicByte = (byte) 0x40; // Unknown
-					}
+				// NEW: Image is cached per screen generation (hosts that poll with Read Buffer)
+				readBufferEncoder.appendTo(ob, screenModel, codePage, currentReplyMode == ReplyMode.CHARACTER);
 
-					if (ebcdicByte != 0)
-						baos.write(ebcdicByte);
-					else
-						baos.write(0x00); // Nulls are 0x00
-				}
+				sendRecord(ob);
 			}
-
-			sendData(baos.toByteArray());
 			keyboardLocked = true;
 			updateStatusBar();
 
@@ -1558,105 +1695,108 @@ public class TN3270Session extends JPanel implements KeyListener {
 	    // FIX: Normalize to unsigned 0-255 to handle signed byte promotion
 	    // 0xF8 as a byte is -8. We need it to be 248 to match the constants.
 	    int cleanAid = aid & 0xFF; 
+	    // FIX: ATTN is not an inbound record (0x6A is Clear Partition) - see sendAttn()
+	    if (cleanAid == AID_ATTN) {
+	    	sendAttn();
+	    	return;
+	    }
 	    
 	    lastAID = cleanAid; // Update lastAID with clean value too
-		
-		int cPos = screenModel.getCursorPos();
+
+		MacroRecorder recorder = macroRecorder;
+		if (recorder != null)
+			recorder.recordAid(cleanAid, screenModel.getCursorPos());
+		recordScreen(cleanAid);
+
+		aidHost = (currentHost != null) ? ResponseHistogram.forHost(currentHost + ":" + currentPort) : null;
+		aidSentNanos = System.nanoTime();
+		FlightEvents.AidRoundTrip event = new FlightEvents.AidRoundTrip();
+		if (event.isEnabled()) {
+			event.begin();
+			event.aid = cleanAid;
+			aidEvent = event;
+		} else {
+			aidEvent = null;
+		}
 		keyboardLocked = true;
 		updateStatusBar();
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			baos.write((byte) cleanAid);
-			baos.write(encode3270Address(cPos)[0]);
-			baos.write(encode3270Address(cPos)[1]);
-
-			if (cleanAid == AID_CLEAR)
-				resetReplyModeToDefault();
-
-	        // 2. CRITICAL FIX: Handle Non-Contiguous AID Ranges
-	        // PF1-PF9 are 0xF1-0xF9 (241-249)
-	        // PF10-PF12 are 0x7A-0x7C (122-124)
-	        boolean isPF1_9   = (cleanAid >= AID_PF1 && cleanAid <= AID_PF9); 
-	        boolean isPF10_12 = (cleanAid >= AID_PF10 && cleanAid <= AID_PF12);
-	        boolean isPF13_24 = (cleanAid >= (AID_PF13 & 0xFF) && cleanAid <= (AID_PF24 & 0xFF));
-		    
-		    boolean isReadMod = (cleanAid == AID_ENTER || isPF1_9 || isPF10_12 || isPF13_24 || 
-		                         cleanAid == AID_PA1 || cleanAid == AID_PA2 || cleanAid == AID_PA3 || 
-		                         cleanAid == AID_CLEAR);
-		    
-			if (isReadMod) {
-				if (cleanAid == AID_ENTER || isPF1_9 || isPF10_12 || isPF13_24) {
-					int screenSize = screenModel.getSize();
-
-					// --- FIX: Detect Formatted vs Unformatted Screen ---
-					boolean isFormatted = false;
-					for (int i = 0; i < screenSize; i++) {
-						if (screenModel.isFieldStart(i)) {
-							isFormatted = true;
-							break;
-						}
-					}
+		if (cleanAid == AID_CLEAR)
+			resetReplyModeToDefault();
+		sendReadModified(cleanAid, false);
+		terminalPanel.repaint();
+	}
 
-					if (isFormatted) {
-						// --- EXISTING LOGIC: Formatted Screen (Fields) ---
-						boolean extended = (currentReplyMode == ReplyMode.EXTENDED_FIELD);
-						for (int i = 0; i < screenSize; i++) {
-							// Find modified fields
-							if (screenModel.isFieldStart(i) && (screenModel.getAttr(i) & 0x01) != 0) {
-								int fieldStart = i;
-								int end = screenModel.findNextField(i);
-								
-								// Find data bounds
-								int dataStart = fieldStart + 1;
-
-								while (dataStart < end && screenModel.getChar(dataStart) == '\0')
-									dataStart++;
-								int dataEnd = end - 1;
-								while (dataEnd > fieldStart && (screenModel.getChar(dataEnd) == '\0'))
-									// Fix: Don't trim spaces: || screenModel.getChar(dataEnd) == ' '))
-									dataEnd--;
-
-								if (dataStart <= dataEnd) {
-									baos.write(ORDER_SBA);
-									byte[] addr = encode3270Address(dataStart);
-									baos.write(addr[0]);
-									baos.write(addr[1]);
-
-									for (int j = dataStart; j <= dataEnd; j++) {
-										if (!screenModel.isFieldStart(j)) {
-											char c = screenModel.getChar(j);
-											if (c != '\0') {
-												if (c < 256 && ASCII_TO_EBCDIC[c] != 0)
-													baos.write(ASCII_TO_EBCDIC[c]);
-												else
-													baos.write(0x40);
-											}
-										}
-									}
-								}
-							}
-						}
-					} else {
-						// --- NEW LOGIC: Unformatted Screen (Raw Buffer) ---
-						// If the screen was cleared (e.g. by AID_CLEAR), there are no fields.
-						// We must send the raw buffer contents (excluding nulls) to satisfy hosts
-						// like z/VM that expect data packets for console input.
-						for (int i = 0; i < screenSize; i++) {
-							char c = screenModel.getChar(i);
-							if (c != '\0') {
-								if (c < 256 && ASCII_TO_EBCDIC[c] != 0)
-									baos.write(ASCII_TO_EBCDIC[c]);
-								else
-									baos.write(0x40);
-							}
-						}
-					}
+	/**
+	 * Builds and sends an inbound Read Modified record, either for an AID key or
+	 * in answer to the host's Read Modified / Read Modified All commands.
+	 *
+	 * PA keys and CLEAR produce a short read (AID only) unless the host asked for
+	 * Read Modified All. ENTER and PF keys (and any AID under Read Modified All)
+	 * send the cursor address plus every modified field; other AIDs send the
+	 * cursor address only.
+	 */
+	private void sendReadModified(int aid, boolean readAll) {
+		try {
+			synchronized (outbound) {
+				RecordEncoder ob = outbound.begin();
+				ob.put(aid);
+				if (readAll || !isShortReadAid(aid)) {
+					ob.putAddress(screenModel.getCursorPos());
+					if (readAll || isDataAid(aid))
+						putModifiedFields(ob);
 				}
+				sendRecord(ob);
 			}
-			sendData(baos.toByteArray());
 		} catch (IOException e) {
 		}
-		terminalPanel.repaint();
+	}
+
+	private static boolean isShortReadAid(int aid) {
+		return aid == AID_CLEAR || aid == AID_PA1 || aid == AID_PA2 || aid == AID_PA3;
+	}
+
+	// FIX: PF13-PF24 are 0xC1-0xC9 and 0x4A-0x4C, so they need two ranges
+	private static boolean isDataAid(int aid) {
+		return aid == AID_ENTER || (aid >= AID_PF1 && aid <= AID_PF9) || (aid >= AID_PF10 && aid <= AID_PF12)
+				|| (aid >= AID_PF13 && aid <= AID_PF21) || (aid >= AID_PF22 && aid <= AID_PF24);
+	}
+
+	/**
+	 * Appends the modified fields (SBA + data, nulls suppressed). Only fields in
+	 * the screen model's MDT index are visited. An unformatted screen sends the
+	 * whole buffer instead (z/VM console input after CLEAR).
+	 */
+	private void putModifiedFields(RecordEncoder ob) {
+		int size = screenModel.getSize();
+		char[] chars = screenModel.getBuffer();
+
+		if (!screenModel.isFormatted()) {
+			ob.putText(codePage, chars, 0, size, true);
+			return;
+		}
+
+		for (int f = screenModel.nextModifiedField(0); f >= 0; f = screenModel.nextModifiedField(f + 1)) {
+			// Data cells after the attribute, up to the next field (may wrap)
+			int len = Math.floorMod(screenModel.findNextField(f) - f - 1, size);
+
+			// Skip leading and trailing nulls (trailing spaces are kept)
+			int first = 0;
+			while (first < len && chars[(f + 1 + first) % size] == '\0')
+				first++;
+			int last = len;
+			while (last > first && chars[(f + last) % size] == '\0')
+				last--;
+			if (first >= last)
+				continue;
+
+			int from = (f + 1 + first) % size;
+			int n = last - first;
+			ob.putOrder(ORDER_SBA, from);
+			int head = Math.min(n, size - from);
+			ob.putText(codePage, chars, from, head, true);
+			if (head < n)
+				ob.putText(codePage, chars, 0, n - head, true);
+		}
 	}
 
 	private void eraseAllUnprotected() {
@@ -1676,25 +1816,27 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	private void processWSF(byte[] data, int offset) {
-		int i = offset;
-		while (i + 2 < data.length) {
-			int length = ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
-			if (length < 3 || i + length > data.length)
-				break;
+		sfDispatcher.dispatch(data, offset);
+	}
 
-			int sfid = data[i + 2] & 0xFF;
-			if (sfid == 0x01) {
-				if (i + 4 < data.length)
-					sendQueryResponse();
-			} else if (sfid == SFID_DATA_CHAIN)
-				handleDataChain(data, i, length);
-			else if (sfid == SFID_SET_REPLY_MODE)
-				handleSetReplyModeSF(data, i, length);
-			else if (sfid == SFID_DEST_ORIGIN)
-				handleServiceRequest(data, i, length);
+	private void registerCoreStructuredFields() {
+		// Read Partition (Query)
+		sfDispatcher.register(SFID_READ_PARTITION, (data, off, len) -> {
+			if (off + 4 < data.length)
+				sendQueryResponse();
+		});
+		sfDispatcher.register(SFID_DATA_CHAIN, this::handleDataChain);
+		sfDispatcher.register(SFID_SET_REPLY_MODE, this::handleSetReplyModeSF);
+		sfDispatcher.register(SFID_DEST_ORIGIN, this::handleServiceRequest);
+	}
 
-			i += length;
-		}
+	/**
+	 * Registry for Write Structured Field handlers. Add-ons may register extra
+	 * SFIDs or wrap a core handler (register returns the previous one). Also
+	 * holds per-SFID counters and timings.
+	 */
+	public StructuredFieldDispatcher getStructuredFieldDispatcher() {
+		return sfDispatcher;
 	}
 
 	private void handleSetReplyModeSF(byte[] sfBuf, int offset, int len) {
@@ -1743,14 +1885,10 @@ public class TN3270Session extends JPanel implements KeyListener {
 			if (payloadLen <= 0)
 				return;
 
-			StringBuilder sb = new StringBuilder();
-			for (int k = 0; k < payloadLen; k++) {
-				int ebcdicChar = data[offset + 8 + k] & 0xFF;
-				char c = EBCDIC_TO_ASCII[ebcdicChar];
-				sb.append(c != '\0' ? c : ' ');
-			}
+			char[] payload = new char[payloadLen];
+			codePage.decodeDisplay(data, offset + 8, payloadLen, payload, 0);
 
-			String rawRequest = sb.toString().trim();
+			String rawRequest = new String(payload).trim();
 
 			// 3. Dispatch Logic
 			// Format: KEYWORD <SPACE> DATA
@@ -1789,7 +1927,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 			return;
 		}
 
-		new Thread(() -> {
+		executor.submit("ai", () -> {
 			String responseText;
 			try {
 				// Call the existing AIManager
@@ -1799,8 +1937,10 @@ public class TN3270Session extends JPanel implements KeyListener {
 			} catch (Exception e) {
 				responseText = "ERR: AI Exception - " + e.getMessage();
 			}
+			if (Thread.currentThread().isInterrupted())
+				return; // Session disconnected while the provider was busy
 			sendBridgeResponse(targetID, responseText);
-		}).start();
+		});
 	}
 
 	/**
@@ -1846,38 +1986,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 	private void sendBridgeResponse(int serviceID, String text) {
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-			byte[] asciiBytes = text.getBytes(StandardCharsets.UTF_8);
-			int totalLen = 8 + asciiBytes.length;
-
-			// Length
-			baos.write((totalLen >> 8) & 0xFF);
-			baos.write(totalLen & 0xFF);
-
-			// SFID (0x0F) + Type (0x02)
-			baos.write(SFID_DEST_ORIGIN);
-			baos.write(0x02);
-
-			// INCTRL (0x00 for inbound) + Reserved
-			baos.write(0x00);
-			baos.write(0x00);
-
-			// ID (Echo back the ID)
-			baos.write((serviceID >> 8) & 0xFF);
-			baos.write(serviceID & 0xFF);
-
-			// Data (ASCII -> EBCDIC)
-			for (byte b : asciiBytes) {
-				char c = (char) b;
-				if (c < 256 && ASCII_TO_EBCDIC[c] != 0) {
-					baos.write(ASCII_TO_EBCDIC[c]);
-				} else {
-					baos.write(0x40);
-				}
-			}
-
-			sendStructuredFieldResponse(baos.toByteArray());
+			sendDestOriginResponse(serviceID, text);
 		} catch (IOException e) {
 			logger.severe("Failed to send Bridge response: " + e.getMessage());
 		}
@@ -1910,25 +2019,15 @@ public class TN3270Session extends JPanel implements KeyListener {
 			// Payload starts at offset + 8
 			int payloadLen = length - 8;
 			if (payloadLen > 0) {
-				StringBuilder promptBuilder = new StringBuilder();
-				for (int k = 0; k < payloadLen; k++) {
-					// Read EBCDIC byte
-					int ebcdicChar = data[offset + 8 + k] & 0xFF;
-					// Convert to ASCII
-					char c = EBCDIC_TO_ASCII[ebcdicChar];
-					// Handle nulls/unmapped chars if necessary, usually just append
-					if (c != '\0')
-						promptBuilder.append(c);
-					else
-						promptBuilder.append(' ');
-				}
+				char[] promptChars = new char[payloadLen];
+				codePage.decodeDisplay(data, offset + 8, payloadLen, promptChars, 0);
 
-				String prompt = promptBuilder.toString().trim();
+				String prompt = new String(promptChars).trim();
 
 				// 4. Call the AI Service
 				// We run this in a separate thread to avoid blocking the ReaderThread
 				// (though for FULLSCR blocking requests, the host is waiting anyway).
-				new Thread(() -> {
+				executor.submit("ai-service", () -> {
 					String responseText;
 					try {
 						// Call your AIManager.
@@ -1943,9 +2042,10 @@ public class TN3270Session extends JPanel implements KeyListener {
 						responseText = "Error processing AI request: " + e.getMessage();
 					}
 
-					// 5. Send the Response back to the Host
-					sendAiResponse(targetID, responseText);
-				}).start();
+					// 5. Send the Response back to the Host (unless the session went away)
+					if (!Thread.currentThread().isInterrupted())
+						sendAiResponse(targetID, responseText);
+				});
 			}
 		}
 	}
@@ -1956,124 +2056,109 @@ public class TN3270Session extends JPanel implements KeyListener {
 	 */
 	private void sendAiResponse(int serviceID, String text) {
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-			// --- Build the Structured Field Content ---
-
-			// Calculate total length:
-			// Header = 8 bytes (Len(2) + SFID(1) + Type(1) + Flags(2) + ID(2))
-			// Payload = text length
-			byte[] asciiBytes = text.getBytes(StandardCharsets.UTF_8);
-			int totalLen = 8 + asciiBytes.length;
-
-			// 1. Length (2 bytes)
-			baos.write((totalLen >> 8) & 0xFF);
-			baos.write(totalLen & 0xFF);
-
-			// 2. SFID (0x0F) and Type (0x02)
-			baos.write(SFID_DEST_ORIGIN);
-			baos.write(0x02);
-
-			// 3. Flags (2 bytes)
-			// INCTRL applies to outbound (Host->PC), so we send 0x00 for inbound.
-			baos.write(0x00);
-			baos.write(0x00);
-
-			// 4. Origin ID (2 bytes) - Echoing back our ID
-			baos.write((serviceID >> 8) & 0xFF);
-			baos.write(serviceID & 0xFF);
-
-			// 5. Data (Convert ASCII String to EBCDIC)
-			for (byte b : asciiBytes) {
-				char c = (char) b;
-				if (c < 256 && ASCII_TO_EBCDIC[c] != 0) {
-					baos.write(ASCII_TO_EBCDIC[c]);
-				} else {
-					baos.write(0x40); // Space/Unknown
-				}
-			}
-
-			// --- Send Packet ---
-			// sendStructuredFieldResponse wraps this data in AID 0x88 (SF) + IAC/EOR
-			sendStructuredFieldResponse(baos.toByteArray());
-
+			sendDestOriginResponse(serviceID, text);
 		} catch (IOException e) {
 			logger.severe("Failed to send AI response: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Destination/Origin SF (0x0F02), built directly in the outbound buffer:
+	 * Len(2) + SFID(1) + Type(1) + Flags(2) + ID(2) + text in the session code
+	 * page. The length is back-filled once the text is encoded.
+	 */
+	private void sendDestOriginResponse(int serviceID, String text) throws IOException {
+		char[] chars = text.toCharArray();
+		synchronized (outbound) {
+			RecordEncoder ob = beginStructuredField();
+			int mark = ob.beginLength();
+			ob.put(SFID_DEST_ORIGIN);
+			ob.put(0x02);
+			// INCTRL applies to outbound (Host->PC), so we send 0x00 for inbound
+			ob.putShort(0x0000);
+			// Origin ID - echo back the ID
+			ob.putShort(serviceID);
+			ob.putText(codePage, chars, 0, chars.length, false);
+			ob.endLength(mark);
+			sendRecord(ob);
+		}
+	}
+
 	private void sendQueryResponse() {
+		int r = screenModel.getAlternateRows();
+		int c = screenModel.getAlternateCols();
+		byte[] reply = QUERY_REPLIES.computeIfAbsent((r << 16) | c, k -> buildQueryReply(r, c));
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			int r = screenModel.getAlternateRows();
-			int c = screenModel.getAlternateCols();
-			baos.write(new byte[] { 0x00, 0x18, (byte) 0x81, (byte) 0x80, (byte) 0x81, (byte) 0x84, (byte) 0x85,
-					(byte) 0x86, (byte) 0x87, (byte) 0x88, (byte) 0x8C, (byte) 0x8F, (byte) 0x95, (byte) 0x99,
-					(byte) 0x9D, (byte) 0xA6, (byte) 0xA8, (byte) 0xAB, (byte) 0xB0, (byte) 0xB1, (byte) 0xB2,
-					(byte) 0xB3, (byte) 0xB4, (byte) 0xB6, 0x00, 0x17, (byte) 0x81, (byte) 0x81, 0x01, 0x00,
-					(byte) ((c >> 8) & 0xFF), (byte) (c & 0xFF), (byte) ((r >> 8) & 0xFF), (byte) (r & 0xFF), 0x00,
-					0x00, 0x02, 0x00, (byte) 0x89, 0x00, 0x02, 0x00, (byte) 0x85, 0x09, 0x10, 0x0A, 0x00, 0x00, 0x08,
-					(byte) 0x81, (byte) 0x84, 0x01, (byte) 0xE0, 0x00, 0x04, 0x00, 0x1B, (byte) 0x81, (byte) 0x85,
-					(byte) 0x82, 0x00, 0x09, 0x0C, 0x00, 0x00, 0x00, 0x00, 0x07, 0x00, 0x10, 0x00, 0x02, (byte) 0xB9,
-					0x00, 0x25, 0x01, 0x00, (byte) 0xF1, 0x03, (byte) 0xC3, 0x01, 0x36, 0x00, 0x16, (byte) 0x81,
-					(byte) 0x86, 0x00, 0x08, 0x00, (byte) 0xF4, (byte) 0xF1, (byte) 0xF1, (byte) 0xF2, (byte) 0xF2,
-					(byte) 0xF3, (byte) 0xF3, (byte) 0xF4, (byte) 0xF4, (byte) 0xF5, (byte) 0xF5, (byte) 0xF6,
-					(byte) 0xF6, (byte) 0xF7, (byte) 0xF7, 0x00, 0x0D, (byte) 0x81, (byte) 0x87, 0x04, 0x00,
-					(byte) 0xF0, (byte) 0xF1, (byte) 0xF1, (byte) 0xF2, (byte) 0xF2, (byte) 0xF4, (byte) 0xF4, 0x00,
-					0x07, (byte) 0x81, (byte) 0x88, 0x00, 0x01, 0x02, 0x00, 0x07, (byte) 0x81, (byte) 0x8C, 0x00, 0x00,
-					0x00, 0x00, 0x0C,
-					// DDM (Distributed Data Management) Query Reply
-					// 0 1 word Length Length of structure
-					// 2 1 byte X'81' Query reply ID
-					// 3 1 byte X'95' Query reply type
-					// 4–5 2 bytes FLAGS Reserved
-					// 6–7 2 bytes LIMIN Maximum DDM bytes allowed in inbound transmission
-					// 8–9 2 bytes LIMOUT Maximum DDM bytes allowed in outbound transmission
-					// 10 1 byte NSS Number of subsets identifier
-					// 11 1 byte DDMSS DDM subset identifier
-					//
-					(byte) 0x81, (byte) 0x95, 0x00, 0x00, 0x09, (byte) 0xC4, 0x09, (byte) 0xC4, 0x01, 0x01, 0x00, 0x06,
-					(byte) 0x81, (byte) 0x99, 0x00, 0x00, 0x00, 0x11, (byte) 0x81, (byte) 0xA6, 0x00, 0x00, 0x0B, 0x01,
-					0x00, (byte) ((c >> 8) & 0xFF), (byte) (c & 0xFF), 0x00, 0x18, (byte) ((c >> 8) & 0xFF),
-					(byte) (c & 0xFF), (byte) ((r >> 8) & 0xFF), (byte) (r & 0xFF), 0x00, 0x1A, (byte) 0x81,
-					(byte) 0x8F, 0x00, 0x00, (byte) 0xA3, (byte) 0x95, (byte) 0xF3, (byte) 0xF2, (byte) 0xF7,
-					(byte) 0xF0, 0x40, 0x40, (byte) 0xC3, (byte) 0x93, (byte) 0x81, (byte) 0xA4, (byte) 0x84,
-					(byte) 0x85, (byte) 0xC1, (byte) 0xC9, 0x04, 0x01, 0x00, (byte) 0xAE, 0x00, 0x19, (byte) 0x81,
-					(byte) 0x9D, 0x00, 0x01, 0x0E, 0x00, 0x0E, 0x00, 0x0F, 0x00, (byte) 0xAE, (byte) 0xC3, (byte) 0x93,
-					(byte) 0x81, (byte) 0xA4, (byte) 0x84, (byte) 0x85, 0x61, (byte) 0xC1, (byte) 0xC9, 0x40, 0x40,
-					0x40, 0x00, 0x09, (byte) 0x81, (byte) 0xA8, 0x02, 0x00, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, 0x00,
-					0x11, (byte) 0x81, (byte) 0xAB, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02, 0x00, 0x00, 0x04, 0x01,
-					0x00, 0x01 });
-			sendStructuredFieldResponse(baos.toByteArray());
+			synchronized (outbound) {
+				sendRecord(beginStructuredField().put(reply));
+			}
 		} catch (IOException e) {
 		}
 	}
 
-	private void sendStructuredFieldResponse(byte[] sfData) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		baos.write(AID_STRUCTURED_FIELD);
-		baos.write(sfData);
-		sendData(baos.toByteArray());
+	/** Query Reply structured fields for an r x c alternate screen. Never modified once built. */
+	private static byte[] buildQueryReply(int r, int c) {
+		return new byte[] { 0x00, 0x18, (byte) 0x81, (byte) 0x80, (byte) 0x81, (byte) 0x84, (byte) 0x85,
+				(byte) 0x86, (byte) 0x87, (byte) 0x88, (byte) 0x8C, (byte) 0x8F, (byte) 0x95, (byte) 0x99,
+				(byte) 0x9D, (byte) 0xA6, (byte) 0xA8, (byte) 0xAB, (byte) 0xB0, (byte) 0xB1, (byte) 0xB2,
+				(byte) 0xB3, (byte) 0xB4, (byte) 0xB6, 0x00, 0x17, (byte) 0x81, (byte) 0x81, 0x01, 0x00,
+				(byte) ((c >> 8) & 0xFF), (byte) (c & 0xFF), (byte) ((r >> 8) & 0xFF), (byte) (r & 0xFF), 0x00,
+				0x00, 0x02, 0x00, (byte) 0x89, 0x00, 0x02, 0x00, (byte) 0x85, 0x09, 0x10, 0x0A, 0x00, 0x00, 0x08,
+				(byte) 0x81, (byte) 0x84, 0x01, (byte) 0xE0, 0x00, 0x04, 0x00, 0x1B, (byte) 0x81, (byte) 0x85,
+				(byte) 0x82, 0x00, 0x09, 0x0C, 0x00, 0x00, 0x00, 0x00, 0x07, 0x00, 0x10, 0x00, 0x02, (byte) 0xB9,
+				0x00, 0x25, 0x01, 0x00, (byte) 0xF1, 0x03, (byte) 0xC3, 0x01, 0x36, 0x00, 0x16, (byte) 0x81,
+				(byte) 0x86, 0x00, 0x08, 0x00, (byte) 0xF4, (byte) 0xF1, (byte) 0xF1, (byte) 0xF2, (byte) 0xF2,
+				(byte) 0xF3, (byte) 0xF3, (byte) 0xF4, (byte) 0xF4, (byte) 0xF5, (byte) 0xF5, (byte) 0xF6,
+				(byte) 0xF6, (byte) 0xF7, (byte) 0xF7, 0x00, 0x0D, (byte) 0x81, (byte) 0x87, 0x04, 0x00,
+				(byte) 0xF0, (byte) 0xF1, (byte) 0xF1, (byte) 0xF2, (byte) 0xF2, (byte) 0xF4, (byte) 0xF4, 0x00,
+				0x07, (byte) 0x81, (byte) 0x88, 0x00, 0x01, 0x02, 0x00, 0x07, (byte) 0x81, (byte) 0x8C, 0x00, 0x00,
+				0x00, 0x00, 0x0C,
+				// DDM (Distributed Data Management) Query Reply
+				// 0 1 word Length Length of structure
+				// 2 1 byte X'81' Query reply ID
+				// 3 1 byte X'95' Query reply type
+				// 4–5 2 bytes FLAGS Reserved
+				// 6–7 2 bytes LIMIN Maximum DDM bytes allowed in inbound transmission
+				// 8–9 2 bytes LIMOUT Maximum DDM bytes allowed in outbound transmission
+				// 10 1 byte NSS Number of subsets identifier
+				// 11 1 byte DDMSS DDM subset identifier
+				//
+				(byte) 0x81, (byte) 0x95, 0x00, 0x00, 0x09, (byte) 0xC4, 0x09, (byte) 0xC4, 0x01, 0x01, 0x00, 0x06,
+				(byte) 0x81, (byte) 0x99, 0x00, 0x00, 0x00, 0x11, (byte) 0x81, (byte) 0xA6, 0x00, 0x00, 0x0B, 0x01,
+				0x00, (byte) ((c >> 8) & 0xFF), (byte) (c & 0xFF), 0x00, 0x18, (byte) ((c >> 8) & 0xFF),
+				(byte) (c & 0xFF), (byte) ((r >> 8) & 0xFF), (byte) (r & 0xFF), 0x00, 0x1A, (byte) 0x81,
+				(byte) 0x8F, 0x00, 0x00, (byte) 0xA3, (byte) 0x95, (byte) 0xF3, (byte) 0xF2, (byte) 0xF7,
+				(byte) 0xF0, 0x40, 0x40, (byte) 0xC3, (byte) 0x93, (byte) 0x81, (byte) 0xA4, (byte) 0x84,
+				(byte) 0x85, (byte) 0xC1, (byte) 0xC9, 0x04, 0x01, 0x00, (byte) 0xAE, 0x00, 0x19, (byte) 0x81,
+				(byte) 0x9D, 0x00, 0x01, 0x0E, 0x00, 0x0E, 0x00, 0x0F, 0x00, (byte) 0xAE, (byte) 0xC3, (byte) 0x93,
+				(byte) 0x81, (byte) 0xA4, (byte) 0x84, (byte) 0x85, 0x61, (byte) 0xC1, (byte) 0xC9, 0x40, 0x40,
+				0x40, 0x00, 0x09, (byte) 0x81, (byte) 0xA8, 0x02, 0x00, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, 0x00,
+				0x11, (byte) 0x81, (byte) 0xAB, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02, 0x00, 0x00, 0x04, 0x01,
+				0x00, 0x01 };
+	}
+
+	/** Starts an inbound structured field record (AID 0x88). Hold the outbound lock. */
+	private RecordEncoder beginStructuredField() {
+		return outbound.begin().put(AID_STRUCTURED_FIELD);
 	}
 
 	private void sendData(byte[] data) throws IOException {
-		ByteArrayOutputStream fullPacket = new ByteArrayOutputStream();
-		if (tn3270eMode) {
-			fullPacket.write(TN3270E_DT_3270_DATA);
-			fullPacket.write(0);
-			fullPacket.write(0);
-			fullPacket.write(0);
-			fullPacket.write(0);
-		}
-		for (byte b : data) {
-			fullPacket.write(b);
-			if (b == (byte) 0xFF)
-				fullPacket.write((byte) 0xFF);
-		}
-		fullPacket.write(IAC);
-		fullPacket.write(EOR);
-		output.write(fullPacket.toByteArray());
-		output.flush();
+		synchronized (outbound) {
+			sendRecord(outbound.begin().put(data));
+		}
+	}
+
+	/**
+	 * Frames and writes the record held in the session's outbound encoder
+	 * (TN3270E header, IAC doubling, IAC EOR) and queues it on the outbound
+	 * writer. Does not block on the network. Callers must hold the outbound lock
+	 * from begin() until this returns.
+	 */
+	private void sendRecord(RecordEncoder ob) throws IOException {
+		OutputStream out = output;
+		if (out == null)
+			throw new IOException("Not connected");
+		ob.writeTo(out, tn3270eMode);
 	}
 
 	private int decode3270Address(byte b1, byte b2) {
@@ -2083,13 +2168,6 @@ public class TN3270Session extends JPanel implements KeyListener {
 		return i % screenModel.getSize();
 	}
 
-	private byte[] encode3270Address(int a) {
-		a &= 0x3FFF;
-		if (a >= 0x1000)
-			return new byte[] { (byte) (a >> 8), (byte) a };
-		return new byte[] { ADDRESS_TABLE[(a >> 6) & 0x3F], ADDRESS_TABLE[a & 0x3F] };
-	}
-
 	private char fetchDisplayChar(byte[] data, int[] idxRef) {
 		int i = idxRef[0];
 		if (!safeConsume(data, i, 1))
@@ -2102,10 +2180,10 @@ public class TN3270Session extends JPanel implements KeyListener {
 			}
 			byte op = data[i + 1];
 			idxRef[0] = i + 2;
-			return EBCDIC_TO_APL[op & 0xFF];
+			return CodePage.APL.decode(op);
 		} else {
 			idxRef[0] = i + 1;
-			return EBCDIC_TO_ASCII[b & 0xFF];
+			return codePage.decode(b);
 		}
 	}
 
@@ -2178,7 +2256,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 		mainPanel.add(new JLabel("Transfer Mode:"), gbc);
 		gbc.gridx = 1;
 		gbc.gridwidth = 2;
-		JComboBox<String> modeBox = new JComboBox<>(new String[] { "ASCII (Text)", "BINARY" });
+		JComboBox<String> modeBox = new JComboBox<>(
+				new String[] { "ASCII (Text)", "BINARY", "TEXT (Local " + codePage.getId().toUpperCase() + ")" });
 		mainPanel.add(modeBox, gbc);
 
 		gbc.gridx = 0;
@@ -2288,11 +2367,13 @@ public class TN3270Session extends JPanel implements KeyListener {
 			boolean isAscii = (modeBox.getSelectedIndex() == 0);
 			crlfCheck.setEnabled(isAscii);
 			crlfCheck.setSelected(isAscii);
+			// Local conversion decides CRLF itself from RECFM
 		});
 
 		// --- TRANSFER ACTION ---
 		transferBtn.addActionListener(e -> {
 			boolean ascii = (modeBox.getSelectedIndex() == 0);
+			boolean localConvert = (modeBox.getSelectedIndex() == 2);
 			boolean isClipboard = useClipboardCheck.isSelected();
 
 			HostType selectedHostType = hostTypeBox.getSelectedIndex() == 0 ? HostType.TSO : HostType.CMS;
@@ -2448,17 +2529,36 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 			// --- MAINFRAME IND$FILE HANDLING (Existing) ---
 			String lrecl = lreclField.getText().trim();
+			String recfm = (String) recfmBox.getSelectedItem();
 			if (!isDownload && lrecl.isEmpty() && ascii)
 				lrecl = "255";
 
+			// Local conversion: binary transfer, records split/converted on this side
+			TransferCodec codec = null;
+			boolean crlf = crlfCheck.isSelected();
+			if (localConvert) {
+				if (!isDownload && lrecl.isEmpty())
+					lrecl = "F".equals(recfm) ? "80" : "255";
+				int lreclValue = 0;
+				try {
+					lreclValue = lrecl.isEmpty() ? 0 : Integer.parseInt(lrecl);
+				} catch (NumberFormatException ex) {
+					JOptionPane.showMessageDialog(dialog, "LRECL must be a number.", "Error",
+							JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				codec = new TransferCodec(codePage, recfm, lreclValue);
+				crlf = codec.usesCrlf();
+			}
+
 			this.hostType = actualHostType; // Use the verified host type
 
-			String cmd = buildIndFileCommand(isDownload, hostType == HostType.TSO, dataset, ascii,
-					crlfCheck.isSelected(), appendCheck.isSelected(), (String) recfmBox.getSelectedItem(), lrecl,
-					blksizeField.getText().trim(), spaceField.getText().trim());
+			String cmd = buildIndFileCommand(isDownload, hostType == HostType.TSO, dataset, ascii, crlf,
+					appendCheck.isSelected(), recfm, lrecl, blksizeField.getText().trim(),
+					spaceField.getText().trim());
 
 			dialog.dispose();
-			initiateFileTransfer(localPath, cmd, isDownload);
+			initiateFileTransfer(localPath, cmd, isDownload, codec);
 		});
 
 		cancelBtn.addActionListener(e -> dialog.dispose());
@@ -2499,10 +2599,20 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	public void initiateFileTransfer(String localFilePath, String command, boolean isDownload) {
+		initiateFileTransfer(localFilePath, command, isDownload, null);
+	}
+
+	/**
+	 * Starts an IND$FILE transfer. With a codec, the host moves the data in binary
+	 * (CRLF only as a record delimiter) and all text conversion happens locally.
+	 */
+	public void initiateFileTransfer(String localFilePath, String command, boolean isDownload, TransferCodec codec) {
 		try {
 			currentFile = new File(localFilePath);
 			ftDirection = isDownload ? FileTransferDirection.DOWNLOAD : FileTransferDirection.UPLOAD;
-			ftIsText = command.toUpperCase().contains("ASCII") || command.toUpperCase().contains("CRLF");
+			ftCodec = codec;
+			ftIsText = codec == null
+					&& (command.toUpperCase().contains("ASCII") || command.toUpperCase().contains("CRLF"));
 			ftIsMessage = false;
 			ftHadSuccessfulTransfer = false;
 			transferredBytes = 0;
@@ -2551,7 +2661,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 			StringBuilder params = new StringBuilder();
 			if (isAscii)
 				params.append(" ASCII");
-			if (useCrlf && isAscii)
+			if (useCrlf)
 				params.append(" CRLF");
 			if (append)
 				params.append(" APPEND");
@@ -2565,7 +2675,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 		} else {
 			if (isAscii)
 				cmd.append(" ASCII");
-			if (useCrlf && isAscii)
+			if (useCrlf)
 				cmd.append(" CRLF");
 			if (append)
 				cmd.append(" APPEND");
@@ -2661,6 +2771,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 						return;
 					}
 					uploadStream = new FileInputStream(currentFile);
+					if (ftCodec != null)
+						uploadStream = ftCodec.newUploadStream(uploadStream);
 					pendingCR = false;
 					transferredBytes = 0;
 					long totalSize = currentFile.length();
@@ -2679,6 +2791,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 				} else {
 					// File Download
 					downloadStream = new FileOutputStream(currentFile);
+					if (ftCodec != null)
+						downloadStream = ftCodec.newDownloadStream(downloadStream);
 					transferredBytes = 0;
 					showProgressDialog("Downloading...", 0);
 					updateProgressDialog("Receiving data...", "Bytes: 0", 0);
@@ -2817,6 +2931,18 @@ public class TN3270Session extends JPanel implements KeyListener {
 		}
 	}
 
+	/** JFR event for one IND$FILE data block (after transferredBytes was updated). */
+	private void transferBlockEvent(boolean upload, int bytes) {
+		FlightEvents.TransferBlock event = new FlightEvents.TransferBlock();
+		if (event.shouldCommit()) {
+			event.session = executor.getName();
+			event.upload = upload;
+			event.bytes = bytes;
+			event.total = transferredBytes;
+			event.commit();
+		}
+	}
+
 	private void handleDCGet(byte[] data, int offset, int length) {
 		if (uploadStream == null) {
 			sendDCGetResponse(false, 0x2200, null, 0);
@@ -2855,6 +2981,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 			if (dataToSend.length > 0) {
 				blockSequence++;
 				transferredBytes += dataToSend.length;
+				metrics.transferred(dataToSend.length);
+				transferBlockEvent(true, dataToSend.length);
 				sendDCGetResponse(true, 0, dataToSend, dataToSend.length);
 				// updateProgressDialog("Uploading block " + blockSequence, "Bytes: " +
 				// transferredBytes);
@@ -2966,6 +3094,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 				} else
 					downloadStream.write(fileData);
 				transferredBytes += dataLen;
+				metrics.transferred(dataLen);
+				transferBlockEvent(false, dataLen);
 				blockSequence++;
 				sendDCInsertResponse(true, 0);
 
@@ -3038,104 +3168,89 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 	private void sendDCInsertResponse(boolean success, int errorCode) {
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			if (success) {
-				baos.write(0x00);
-				baos.write(0x0B);
-				baos.write(SFID_DATA_CHAIN);
-				baos.write(DC_INSERT);
-				baos.write(0x05);
-				baos.write(0x63);
-				baos.write(0x06);
-				baos.write((blockSequence >> 24) & 0xFF);
-				baos.write((blockSequence >> 16) & 0xFF);
-				baos.write((blockSequence >> 8) & 0xFF);
-				baos.write(blockSequence & 0xFF);
-			} else {
-				baos.write(0x00);
-				baos.write(0x09);
-				baos.write(SFID_DATA_CHAIN);
-				baos.write(DC_INSERT);
-				baos.write(RESP_NEGATIVE);
-				baos.write(0x69);
-				baos.write(0x04);
-				baos.write((errorCode >> 8) & 0xFF);
-				baos.write(errorCode & 0xFF);
+			synchronized (outbound) {
+				RecordEncoder ob = beginStructuredField();
+				if (success) {
+					ob.putShort(0x000B);
+					ob.put(SFID_DATA_CHAIN);
+					ob.put(DC_INSERT);
+					ob.put(0x05);
+					ob.put(0x63);
+					ob.put(0x06);
+					ob.putInt(blockSequence);
+				} else {
+					putNegativeResponse(ob, DC_INSERT, errorCode);
+				}
+				sendRecord(ob);
 			}
-			sendStructuredFieldResponse(baos.toByteArray());
 		} catch (IOException e) {
 		}
 	}
 
 	private void sendDCGetResponse(boolean success, int errorCode, byte[] data, int dataLen) {
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			if (success && data != null) {
-				int dataLenField = dataLen + 5;
-				int responseLen = 2 + 1 + 1 + 1 + 1 + 1 + 4 + 1 + 1 + 1 + 2 + dataLen;
-				baos.write((responseLen >> 8) & 0xFF);
-				baos.write(responseLen & 0xFF);
-				baos.write(SFID_DATA_CHAIN);
-				baos.write(DC_GET);
-				baos.write(0x05);
-				baos.write(0x63);
-				baos.write(0x06);
-				baos.write((blockSequence >> 24) & 0xFF);
-				baos.write((blockSequence >> 16) & 0xFF);
-				baos.write((blockSequence >> 8) & 0xFF);
-				baos.write(blockSequence & 0xFF);
-				baos.write(0xC0);
-				baos.write(0x80);
-				baos.write(0x61);
-				baos.write((dataLenField >> 8) & 0xFF);
-				baos.write(dataLenField & 0xFF);
-				baos.write(data, 0, dataLen);
-			} else {
-				baos.write(0x00);
-				baos.write(0x09);
-				baos.write(SFID_DATA_CHAIN);
-				baos.write(DC_GET);
-				baos.write(RESP_NEGATIVE);
-				baos.write(0x69);
-				baos.write(0x04);
-				baos.write((errorCode >> 8) & 0xFF);
-				baos.write(errorCode & 0xFF);
+			synchronized (outbound) {
+				RecordEncoder ob = beginStructuredField();
+				if (success && data != null) {
+					int dataLenField = dataLen + 5;
+					int responseLen = 2 + 1 + 1 + 1 + 1 + 1 + 4 + 1 + 1 + 1 + 2 + dataLen;
+					ob.putShort(responseLen);
+					ob.put(SFID_DATA_CHAIN);
+					ob.put(DC_GET);
+					ob.put(0x05);
+					ob.put(0x63);
+					ob.put(0x06);
+					ob.putInt(blockSequence);
+					ob.put(0xC0);
+					ob.put(0x80);
+					ob.put(0x61);
+					ob.putShort(dataLenField);
+					ob.put(data, 0, dataLen);
+				} else {
+					putNegativeResponse(ob, DC_GET, errorCode);
+				}
+				sendRecord(ob);
 			}
-			sendStructuredFieldResponse(baos.toByteArray());
 		} catch (IOException e) {
 		}
 	}
 
 	private void sendResp(byte op, boolean success, int errorCode) {
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			if (success) {
-				baos.write(0x00);
-				baos.write(0x05);
-				baos.write(SFID_DATA_CHAIN);
-				baos.write(op);
-				baos.write(RESP_POSITIVE);
-			} else {
-				baos.write(0x00);
-				baos.write(0x09);
-				baos.write(SFID_DATA_CHAIN);
-				baos.write(op);
-				baos.write(RESP_NEGATIVE);
-				baos.write(0x69);
-				baos.write(0x04);
-				baos.write((errorCode >> 8) & 0xFF);
-				baos.write(errorCode & 0xFF);
+			synchronized (outbound) {
+				RecordEncoder ob = beginStructuredField();
+				if (success) {
+					ob.putShort(0x0005);
+					ob.put(SFID_DATA_CHAIN);
+					ob.put(op);
+					ob.put(RESP_POSITIVE);
+				} else {
+					putNegativeResponse(ob, op, errorCode);
+				}
+				sendRecord(ob);
 			}
-			sendStructuredFieldResponse(baos.toByteArray());
 		} catch (IOException e) {
 		}
 	}
 
+	private void putNegativeResponse(RecordEncoder ob, int op, int errorCode) {
+		ob.putShort(0x0009);
+		ob.put(SFID_DATA_CHAIN);
+		ob.put(op);
+		ob.put(RESP_NEGATIVE);
+		ob.put(0x69);
+		ob.put(0x04);
+		ob.putShort(errorCode);
+	}
+
 	// =======================================================================
 	// 7. UI HELPERS & DIALOGS
 	// =======================================================================
 
 	private void showProgressDialog(String title, int max) {
+		// NEW: Sessions driven by the automation API may run without a display
+		if (GraphicsEnvironment.isHeadless())
+			return;
 		if (progressDialog != null)
 			progressDialog.dispose();
 		progressDialog = new JDialog(getParentFrame(), title, false);
@@ -3195,13 +3310,64 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	private void showMessageDialog(String msg, String title, boolean isError) {
+		if (GraphicsEnvironment.isHeadless()) {
+			logger.info(() -> title + ": " + msg);
+			return;
+		}
 		JOptionPane.showMessageDialog(getParentFrame(), msg, title,
 				isError ? JOptionPane.ERROR_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
 	}
 
+	/** Keyboard restored by the host: records the time since the AID, if one is waiting. */
+	private void responseReceived() {
+		long sent = aidSentNanos;
+		if (sent == 0)
+			return;
+		aidSentNanos = 0;
+		long micros = (System.nanoTime() - sent) / 1000;
+		responseTimes.record(micros);
+		metrics.aidRoundTrip(micros);
+		ResponseHistogram host = aidHost;
+		if (host != null)
+			host.record(micros);
+		FlightEvents.AidRoundTrip event = aidEvent;
+		if (event != null) {
+			aidEvent = null;
+			event.end();
+			if (event.shouldCommit()) {
+				event.session = executor.getName();
+				event.host = (host != null) ? host.getName() : null;
+				event.commit();
+			}
+		}
+		long p95 = responseTimes.getValueAtPercentile(95);
+		long n = responseTimes.getCount();
+		if (statusBar != null)
+			SwingUtilities.invokeLater(() -> statusBar.setResponseTime(micros, p95, n));
+	}
+
+	/** This session's response times; ResponseHistogram.getHosts() has them per host. */
+	public ResponseHistogram getResponseTimes() {
+		return responseTimes;
+	}
+
 	private void updateStatusBar() {
 		if (statusBar != null)
 			statusBar.updatePosition(screenModel.getRows(), screenModel.getCols(), screenModel.getCursorPos());
+		// NEW: Host writes, typing and AIDs all end here; a no-op without subscribers
+		screenPublisher.publish(screenModel, keyboardLocked);
+	}
+
+	/**
+	 * Delivers a {@link com.tn3270.model.ScreenDelta} for every change of the
+	 * screen, cursor or keyboard state, in batches on the given executor (e.g.
+	 * SwingUtilities::invokeLater). Close the subscription to stop.
+	 */
+	public ScreenPublisher.Subscription subscribeScreenChanges(ScreenPublisher.Listener listener,
+			Executor executor) {
+		ScreenPublisher.Subscription s = screenPublisher.subscribe(listener, executor);
+		SwingUtilities.invokeLater(this::updateStatusBar); // Send the first (full) delta now
+		return s;
 	}
 
 	// =======================================================================
@@ -3214,6 +3380,25 @@ public class TN3270Session extends JPanel implements KeyListener {
 				|| keyCode == KeyEvent.VK_SHIFT)
 			return;
 		boolean isModifier = e.isControlDown() || e.isMetaDown();
+
+		// NEW: Shift+PgUp/PgDn page through past screens; Escape or any other key
+		// (except copy/select all) returns to the live screen
+		if (e.isShiftDown() && keyCode == KeyEvent.VK_PAGE_UP) {
+			historyBack();
+			return;
+		}
+		if (e.isShiftDown() && keyCode == KeyEvent.VK_PAGE_DOWN) {
+			historyForward();
+			return;
+		}
+		if (historyView != null) {
+			if (keyCode == KeyEvent.VK_ESCAPE) {
+				exitHistory();
+				return;
+			}
+			if (!(isModifier && (keyCode == KeyEvent.VK_C || keyCode == KeyEvent.VK_A)))
+				exitHistory();
+		}
 		if (isModifier) {
 			if (e.getKeyCode() == KeyEvent.VK_C) {
 				copySelection();
@@ -3236,6 +3421,29 @@ public class TN3270Session extends JPanel implements KeyListener {
 				return;
 			}
 		}
+		// NEW: Keys bound to a macro (the player waits for the keyboard itself)
+		KeyMapping macroMapping = keyMap.get(keyCode);
+		if (macroMapping != null && macroMapping.macro != null) {
+			runMacro(macroMapping.macro);
+			return;
+		}
+
+		// NEW: CLEAR/ATTN abandon a multi-screen paste
+		if (pendingPaste != null && isClearOrAttnKey(e))
+			cancelPaste();
+
+		// FIX: ATTN is how a locked or busy host is interrupted - send it at once,
+		// never into type-ahead (which it discards, like CLEAR)
+		if (connected && isAttnKey(e)) {
+			clearTypeAhead();
+			sendAttn();
+			return;
+		}
+
+		// NEW: Keyboard locked - hold the key until the host unlocks it
+		if (queueTypeAhead(e))
+			return;
+
 		if (terminalPanel.hasSelection())
 			terminalPanel.clearSelection();
 
@@ -3268,9 +3476,11 @@ public class TN3270Session extends JPanel implements KeyListener {
 		KeyMapping mapping = keyMap.get(keyCode);
 		if (mapping != null) {
 			if (mapping.aid != null) {
-				if ("EraseEOF".equals(mapping.description))
+				if ("EraseEOF".equals(mapping.description)) {
+					int before = screenModel.getCursorPos();
 					eraseToEndOfField();
-				else
+					recordKey("eraseeof", before);
+				} else
 					sendAID(mapping.aid);
 				return;
 			}
@@ -3367,58 +3577,70 @@ public class TN3270Session extends JPanel implements KeyListener {
 			 * screenModel.setModified(newPos); terminalPanel.repaint(); updateStatusBar();
 			 * return;
 			 */
-			// Bug Fix #1 (Revised): Check for Field Start (Attribute Byte) collision
 			if (keyboardLocked || !connected)
 				return;
+			int before = screenModel.getCursorPos();
+			if (backspace())
+				recordKey("backspace", before);
+			return;
+		}
+	}
 
-			int currentPos = screenModel.getCursorPos();
-			int size = screenModel.getSize();
+	/**
+	 * Deletes the character left of the cursor, shifting the rest of the field
+	 * left. Returns false (and beeps) at the start of a field.
+	 */
+	private boolean backspace() {
+		// Bug Fix #1 (Revised): Check for Field Start (Attribute Byte) collision
+		int currentPos = screenModel.getCursorPos();
+		int size = screenModel.getSize();
 
-			// 1. Calculate the target position to the left
-			int newPos = (currentPos - 1 + size) % size;
+		// 1. Calculate the target position to the left
+		int newPos = (currentPos - 1 + size) % size;
 
-			// 2. CRITICAL CHECK:
-			// We cannot backspace if the position to the left is:
-			// a) Protected (part of a protected field)
-			// b) An Attribute Byte (the start of ANY field). You cannot backspace onto an
-			// attribute.
-			if (screenModel.isProtected(newPos) || screenModel.isFieldStart(newPos)) {
-				if (enableSound)
-					Toolkit.getDefaultToolkit().beep();
-				return;
-			}
+		// 2. CRITICAL CHECK:
+		// We cannot backspace if the position to the left is:
+		// a) Protected (part of a protected field)
+		// b) An Attribute Byte (the start of ANY field). You cannot backspace onto an
+		// attribute.
+		if (screenModel.isProtected(newPos) || screenModel.isFieldStart(newPos)) {
+			if (enableSound)
+				Toolkit.getDefaultToolkit().beep();
+			return false;
+		}
 
-			// 3. Move Cursor
-			screenModel.setCursorPos(newPos);
-
-			// 4. Shift characters left (Delete logic)
-			// We start shifting FROM the new cursor position (overwriting the char we just
-			// backspaced onto)
-			int fieldEnd = screenModel.findNextField(newPos);
-			int p = newPos;
-			while (true) {
-				int next = (p + 1) % size;
-
-				// Stop if we hit the start of the next field
-				if (next == fieldEnd) {
-					// Fill the last character of the field with a null
-					screenModel.setChar(p, '\0');
-					break;
-				}
+		// 3. Move Cursor
+		screenModel.setCursorPos(newPos);
 
-				// Pull the character from the right
-				screenModel.setChar(p, screenModel.getChar(next));
-				p = next;
+		// 4. Shift characters left (Delete logic)
+		// We start shifting FROM the new cursor position (overwriting the char we just
+		// backspaced onto)
+		int fieldEnd = screenModel.findNextField(newPos);
+		int p = newPos;
+		while (true) {
+			int next = (p + 1) % size;
+
+			// Stop if we hit the start of the next field
+			if (next == fieldEnd) {
+				// Fill the last character of the field with a null
+				screenModel.setChar(p, '\0');
+				break;
 			}
 
-			screenModel.setModified(newPos);
-			terminalPanel.repaint();
-			updateStatusBar();
-			return;
+			// Pull the character from the right
+			screenModel.setChar(p, screenModel.getChar(next));
+			p = next;
 		}
+
+		screenModel.setModified(newPos);
+		terminalPanel.repaint();
+		updateStatusBar();
+		return true;
 	}
 
 	public void keyTyped(KeyEvent e) {
+		if (queueTypeAhead(e))
+			return;
 		if (keyboardLocked || !connected)
 			return;
 		char c = e.getKeyChar();
@@ -3452,6 +3674,9 @@ public class TN3270Session extends JPanel implements KeyListener {
 			moveCursorX(1);
 			if (autoAdvance && screenModel.isFieldStart(screenModel.getCursorPos()))
 				tabToNextField();
+			MacroRecorder recorder = macroRecorder;
+			if (recorder != null)
+				recorder.recordType(cPos, c, screenModel.getCursorPos());
 			terminalPanel.repaint();
 		} else if (enableSound)
 			Toolkit.getDefaultToolkit().beep();
@@ -3460,11 +3685,539 @@ public class TN3270Session extends JPanel implements KeyListener {
 	public void keyReleased(KeyEvent e) {
 	}
 
-	private void moveCursorX(int delta) {
-		// Bug Fix #2: Wrap cursor linearly across the entire screen.
-		// This ensures that moving Right at the end of a line wraps to the start
-		// of the next line, and moving Right at the bottom-right of the screen
-		// wraps to the top-left (Row 1, Col 1).
+	// --- Type-ahead ---
+
+	public void setTypeAheadEnabled(boolean enabled) {
+		this.typeAheadEnabled = enabled;
+		if (!enabled)
+			clearTypeAhead();
+	}
+
+	public boolean isTypeAheadEnabled() {
+		return typeAheadEnabled;
+	}
+
+	/**
+	 * Queues the key if the keyboard is locked (or older keys are still queued, to
+	 * keep the order). CLEAR flushes whatever was typed ahead and is then queued
+	 * on its own. ATTN never gets here (keyPressed sends it at once).
+	 *
+	 * @return true if the key was queued (or dropped because the buffer is full)
+	 */
+	private boolean queueTypeAhead(KeyEvent e) {
+		if (!typeAheadEnabled || !connected || replayingTypeAhead)
+			return false;
+		if (!keyboardLocked && typeAhead.isEmpty())
+			return false;
+
+		if (e.getID() == KeyEvent.KEY_PRESSED && isClearOrAttnKey(e))
+			typeAhead.clear();
+
+		if (typeAhead.size() >= TYPE_AHEAD_LIMIT) {
+			if (enableSound)
+				Toolkit.getDefaultToolkit().beep();
+		} else {
+			typeAhead.add(e);
+		}
+		typeAheadPending = true;
+		updateTypeAheadIndicator();
+
+		// Unlocked in the meantime (drain already ran) - replay now
+		if (!keyboardLocked)
+			SwingUtilities.invokeLater(this::drainTypeAhead);
+		return true;
+	}
+
+	private boolean isAttnKey(KeyEvent e) {
+		KeyMapping mapping = keyMap.get(e.getKeyCode());
+		return mapping != null && mapping.aid != null && mapping.aid == AID_ATTN;
+	}
+
+	private boolean isClearOrAttnKey(KeyEvent e) {
+		if (e.getKeyCode() == KeyEvent.VK_ESCAPE)
+			return true; // CLEAR
+		KeyMapping mapping = keyMap.get(e.getKeyCode());
+		return mapping != null && mapping.aid != null
+				&& (mapping.aid == AID_CLEAR || mapping.aid == AID_ATTN);
+	}
+
+	/** Replays queued keys until the queue is empty or an AID locks the keyboard again. */
+	private void drainTypeAhead() {
+		replayingTypeAhead = true;
+		try {
+			while (!keyboardLocked && connected && !typeAhead.isEmpty()) {
+				KeyEvent e = typeAhead.poll();
+				if (e.getID() == KeyEvent.KEY_PRESSED)
+					keyPressed(e);
+				else
+					keyTyped(e);
+			}
+		} finally {
+			replayingTypeAhead = false;
+			if (!connected)
+				typeAhead.clear();
+			typeAheadPending = !typeAhead.isEmpty();
+			updateTypeAheadIndicator();
+		}
+	}
+
+	private void clearTypeAhead() {
+		typeAhead.clear();
+		typeAheadPending = false;
+		updateTypeAheadIndicator();
+	}
+
+	private void updateTypeAheadIndicator() {
+		if (statusBar == null)
+			return;
+		int keys = 0;
+		for (KeyEvent e : typeAhead) {
+			if (e.getID() == KeyEvent.KEY_PRESSED)
+				keys++;
+		}
+		statusBar.setTypeAhead(keys);
+	}
+
+	// --- Macros ---
+
+	public boolean isRecordingMacro() {
+		return macroRecorder != null;
+	}
+
+	public void startMacroRecording() {
+		macroRecorder = new MacroRecorder("recording", screenModel);
+		statusBar.setStatus("Recording macro...");
+	}
+
+	/** Stops recording; returns the macro (null if nothing was recorded). */
+	public Macro stopMacroRecording() {
+		MacroRecorder recorder = macroRecorder;
+		macroRecorder = null;
+		if (recorder == null)
+			return null;
+		Macro m = recorder.finish();
+		statusBar.setStatus("Macro recorded (" + m.getSteps().size() + " steps)");
+		return m.getSteps().isEmpty() ? null : m;
+	}
+
+	// --- Session recording ---
+
+	public boolean isRecordingScreen() {
+		return screenRecorder != null;
+	}
+
+	/** Starts writing what this session shows to file (see ScreenRecorder). */
+	public void startScreenRecording(File file) throws IOException {
+		stopScreenRecording();
+		screenRecorder = new ScreenRecorder(file, screenModel);
+		statusBar.setStatus("Recording session to " + file.getName());
+	}
+
+	/** Stops the session recording; returns its file, or null if none was running. */
+	public File stopScreenRecording() {
+		ScreenRecorder rec = screenRecorder;
+		screenRecorder = null;
+		if (rec == null)
+			return null;
+		try {
+			rec.close();
+		} catch (IOException e) {
+			logger.warning("Error closing recording " + rec.getFile() + ": " + e.getMessage());
+		}
+		statusBar.setStatus("Session recorded (" + rec.getDuration() / 1000 + " s)");
+		return rec.getFile();
+	}
+
+	/** Adds the current screen to the recording, with the AID that sends it (aid >= 0). */
+	private void recordScreen(int aid) {
+		ScreenRecorder rec = screenRecorder;
+		if (rec == null)
+			return;
+		try {
+			if (aid >= 0)
+				rec.aid(aid, screenModel);
+			else
+				rec.record(screenModel);
+		} catch (IOException e) {
+			// Disk full and the like: stop rather than fail on every screen
+			logger.warning("Session recording stopped: " + e.getMessage());
+			if (screenRecorder == rec)
+				SwingUtilities.invokeLater(this::stopScreenRecording);
+		}
+	}
+
+	private void recordKey(String key, int before) {
+		MacroRecorder recorder = macroRecorder;
+		if (recorder != null)
+			recorder.recordKey(key, before, screenModel.getCursorPos());
+	}
+
+	public boolean isMacroRunning() {
+		Future<?> t = macroTask;
+		return t != null && !t.isDone();
+	}
+
+	/** Loads a saved macro and runs it (see runMacro(Macro)). */
+	public Future<?> runMacro(String name) {
+		try {
+			return runMacro(Macro.load(name));
+		} catch (IOException e) {
+			logger.warning("Cannot load macro " + name + ": " + e.getMessage());
+			statusBar.setStatus("Macro " + name + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Runs a macro as a background "macro" task of this session. Only one macro
+	 * runs at a time; returns null if one is already running.
+	 */
+	public Future<?> runMacro(Macro macro) {
+		if (isMacroRunning()) {
+			statusBar.setStatus("A macro is already running");
+			return null;
+		}
+		setMacroStatus("Macro " + macro.getName() + ": running");
+		macroTask = executor.submit("macro", () -> {
+			try {
+				new MacroPlayer(this).run(macro);
+				setMacroStatus("Macro " + macro.getName() + ": done");
+			} catch (InterruptedException e) {
+				setMacroStatus("Macro " + macro.getName() + ": cancelled");
+			} catch (IOException | TimeoutException e) {
+				logger.warning("Macro " + macro.getName() + " failed: " + e.getMessage());
+				setMacroStatus("Macro " + macro.getName() + ": " + e.getMessage());
+			}
+		});
+		return macroTask;
+	}
+
+	public void cancelMacro() {
+		Future<?> t = macroTask;
+		if (t != null)
+			t.cancel(true);
+	}
+
+	private void setMacroStatus(String text) {
+		SwingUtilities.invokeLater(() -> statusBar.setStatus(text));
+	}
+
+	// MacroTarget - called from the player thread
+
+	@Override
+	public ScreenModel getScreenModel() {
+		return screenModel;
+	}
+
+	@Override
+	public boolean isKeyboardLocked() {
+		return keyboardLocked;
+	}
+
+	@Override
+	public long getHostUpdateCount() {
+		return hostUpdateCount;
+	}
+
+	@Override
+	public void awaitHostUpdate(long timeoutMs) throws InterruptedException {
+		synchronized (keyboardLockMonitor) {
+			keyboardLockMonitor.wait(Math.max(1, timeoutMs));
+		}
+	}
+
+	@Override
+	public void setCursor(int pos) throws InterruptedException {
+		onEdt(() -> {
+			screenModel.setCursorPos(Math.floorMod(pos, screenModel.getSize()));
+			terminalPanel.repaint();
+			updateStatusBar();
+		});
+	}
+
+	@Override
+	public void typeText(String text) throws InterruptedException {
+		onEdt(() -> {
+			applyPaste(text.toCharArray(), 0, false);
+			terminalPanel.repaint();
+			updateStatusBar();
+		});
+	}
+
+	@Override
+	public void pressKey(String key) throws InterruptedException {
+		onEdt(() -> {
+			applyKey(key);
+			terminalPanel.repaint();
+			updateStatusBar();
+		});
+	}
+
+	/** Executes one of {@link Macro#KEYS} (EDT). */
+	private void applyKey(String key) {
+		switch (key) {
+		case "tab":
+			tabToNextField();
+			break;
+		case "backtab":
+			tabToPreviousField();
+			break;
+		case "home":
+			screenModel.setCursorPos(0);
+			break;
+		case "left":
+			moveCursorX(-1);
+			break;
+		case "right":
+			moveCursorX(1);
+			break;
+		case "up":
+			moveCursorY(-1);
+			break;
+		case "down":
+			moveCursorY(1);
+			break;
+		case "backspace":
+			backspace();
+			break;
+		case "eraseeof":
+			eraseToEndOfField();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown key " + key);
+		}
+	}
+
+	@Override
+	public void pressAID(int aid) throws InterruptedException {
+		onEdt(() -> applyAID(aid));
+	}
+
+	private void applyAID(int aid) {
+		if ((aid & 0xFF) == AID_CLEAR)
+			screenModel.clearScreen();
+		sendAID(aid);
+	}
+
+	// =======================================================================
+	// SCREEN HISTORY
+	// =======================================================================
+
+	/** Shows the screen before the one displayed (EDT). */
+	public void historyBack() {
+		if (historyView == null) {
+			if (screenHistory.size() == 0) {
+				if (enableSound)
+					Toolkit.getDefaultToolkit().beep();
+				return;
+			}
+			historyView = screenHistory.view();
+			historyModel = new ScreenModel(screenModel);
+		}
+		if (!historyView.back()) {
+			if (historyView.isAtStart())
+				exitHistory();
+			else if (enableSound)
+				Toolkit.getDefaultToolkit().beep(); // Oldest screen kept
+			return;
+		}
+		showHistoryScreen();
+	}
+
+	/** Shows the next newer screen, returning to the live screen at the end (EDT). */
+	public void historyForward() {
+		if (historyView == null)
+			return;
+		if (!historyView.forward() || historyView.isAtStart()) {
+			exitHistory();
+			return;
+		}
+		showHistoryScreen();
+	}
+
+	public void exitHistory() {
+		if (historyView == null)
+			return;
+		historyView = null;
+		historyModel = null;
+		terminalPanel.showLive();
+		statusBar.setHistory(0, 0);
+		updateStatusBar();
+	}
+
+	public boolean isShowingHistory() {
+		return historyView != null;
+	}
+
+	public ScreenHistory getScreenHistory() {
+		return screenHistory;
+	}
+
+	/** Id of this session's rows in {@link ScreenIndex} search hits. */
+	public int getSearchSourceId() {
+		return searchSourceId;
+	}
+
+	private String getSearchName() {
+		Object title = getClientProperty("title");
+		if (title != null)
+			return title.toString();
+		return (currentHost != null) ? currentHost : modelName;
+	}
+
+	/**
+	 * Shows a screen from the history (e.g. a search hit) and selects one of its
+	 * rows. Returns false if the screen is no longer kept (EDT).
+	 */
+	public boolean showHistoryScreen(long screen, int row) {
+		ScreenModel shown;
+		if (screen == screenHistory.getHead()) {
+			exitHistory();
+			shown = screenModel;
+		} else {
+			ScreenHistory.View v = screenHistory.view(screen);
+			if (v == null)
+				return false;
+			historyView = v;
+			if (historyModel == null)
+				historyModel = new ScreenModel(screenModel);
+			showHistoryScreen();
+			shown = historyModel;
+		}
+		if (row >= 0 && row < shown.getRows())
+			terminalPanel.select(row * shown.getCols(), (row + 1) * shown.getCols() - 1);
+		return true;
+	}
+
+	private void showHistoryScreen() {
+		historyModel.copyColorsFrom(screenModel);
+		historyView.showIn(historyModel);
+		terminalPanel.showScreen(historyModel);
+		updateHistoryIndicator();
+	}
+
+	private void updateHistoryIndicator() {
+		ScreenHistory.View v = historyView;
+		if (v != null)
+			statusBar.setHistory(v.getDepth(), screenHistory.size());
+	}
+
+	// =======================================================================
+	// SHARED PRESENTATION SPACE
+	// =======================================================================
+
+	/**
+	 * Publishes the screen to a memory-mapped file after every host write (see
+	 * {@link SharedScreen} for the layout) and takes keystrokes from its input
+	 * ring. The file lives in the temp directory, only the user can read it, and
+	 * it is removed when disabled.
+	 */
+	public void setSharedScreenEnabled(boolean enabled) {
+		if (enabled == (sharedScreen != null))
+			return;
+		if (enabled) {
+			File f = new File(System.getProperty("java.io.tmpdir"), "tn3270-" + ProcessHandle.current().pid() + "-"
+					+ sharedScreenCounter.incrementAndGet() + ".ps");
+			try {
+				SharedScreen ss = new SharedScreen(f, screenModel.getBuffer().length);
+				f.deleteOnExit();
+				ss.publish(screenModel, hostUpdateCount, keyboardLocked, connected);
+				sharedScreen = ss;
+				if (sharedInputTimer == null)
+					sharedInputTimer = new Timer(20, e -> drainSharedInput());
+				sharedInputTimer.start();
+				logger.info("Presentation space published to " + f);
+			} catch (IOException e) {
+				showMessageDialog("Cannot create " + f + ": " + e.getMessage(), "Error", true);
+			}
+		} else {
+			if (sharedInputTimer != null)
+				sharedInputTimer.stop();
+			SharedScreen ss = sharedScreen;
+			sharedScreen = null;
+			ss.close();
+		}
+	}
+
+	public boolean isSharedScreenEnabled() {
+		return sharedScreen != null;
+	}
+
+	/** The mapped file, or null when publishing is off. */
+	public File getSharedScreenFile() {
+		SharedScreen ss = sharedScreen;
+		return (ss != null) ? ss.getFile() : null;
+	}
+
+	private void publishSharedScreen() {
+		SharedScreen ss = sharedScreen;
+		if (ss != null)
+			ss.publish(screenModel, hostUpdateCount, keyboardLocked, connected);
+	}
+
+	/**
+	 * Applies queued ring input while the keyboard is unlocked (EDT, timer).
+	 * Entries behind an AID stay in the ring until the host answers.
+	 */
+	private void drainSharedInput() {
+		SharedScreen ss = sharedScreen;
+		if (ss == null || !ss.hasInput())
+			return;
+		StringBuilder text = new StringBuilder();
+		boolean applied = false;
+		while (connected && !keyboardLocked) {
+			int entry = ss.peekInput();
+			if (entry == 0)
+				break;
+			int type = entry >>> 24;
+			int value = entry & 0xFFFFFF;
+			ss.consumeInput();
+			applied = true;
+			if (type == SharedScreen.INPUT_CHAR) {
+				text.append((char) value);
+				continue;
+			}
+			if (text.length() > 0) {
+				applyPaste(text.toString().toCharArray(), 0, false);
+				text.setLength(0);
+			}
+			if (type == SharedScreen.INPUT_AID)
+				applyAID(value);
+			else if (type == SharedScreen.INPUT_KEY && value < Macro.KEYS.size())
+				applyKey(Macro.KEYS.get(value));
+			else if (type == SharedScreen.INPUT_CURSOR)
+				screenModel.setCursorPos(Math.floorMod(value, screenModel.getSize()));
+		}
+		if (text.length() > 0)
+			applyPaste(text.toString().toCharArray(), 0, false);
+		if (applied) {
+			terminalPanel.repaint();
+			updateStatusBar();
+			publishSharedScreen();
+		}
+	}
+
+	/** Runs r on the EDT and waits for it (directly if already on the EDT). */
+	private void onEdt(Runnable r) throws InterruptedException {
+		if (SwingUtilities.isEventDispatchThread()) {
+			r.run();
+			return;
+		}
+		try {
+			SwingUtilities.invokeAndWait(r);
+		} catch (java.lang.reflect.InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private void moveCursorX(int delta) {
+		// Bug Fix #2: Wrap cursor linearly across the entire screen.
+		// This ensures that moving Right at the end of a line wraps to the start
+		// of the next line, and moving Right at the bottom-right of the screen
+		// wraps to the top-left (Row 1, Col 1).
 
 		int size = screenModel.getSize();
 
@@ -3583,30 +4336,94 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	public void pasteFromClipboard() {
+		pasteFromClipboard(pasteAutoSubmit);
+	}
+
+	/**
+	 * Pastes the clipboard into the input fields.
+	 *
+	 * @param autoSubmit if the text does not fit, press Enter and continue on the
+	 *                   next screen once the host unlocks the keyboard
+	 */
+	public void pasteFromClipboard(boolean autoSubmit) {
 		try {
 			String text = (String) Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
 			if (text == null)
 				return;
-			for (char c : text.toCharArray()) {
-				if (c == '\n') {
-					tabToNextField();
-					continue;
-				}
-				if (c < 32)
-					continue;
-				int p = screenModel.getCursorPos();
-				if (!screenModel.isProtected(p)) {
-					screenModel.setChar(p, c);
-					screenModel.setModified(p);
-					moveCursorX(1);
-				} else
-					tabToNextField();
-			}
-			terminalPanel.repaint();
+			pasteText(text, autoSubmit);
 		} catch (Exception e) {
 		}
 	}
 
+	public void setPasteAutoSubmit(boolean b) {
+		this.pasteAutoSubmit = b;
+	}
+
+	public boolean isPasteAutoSubmit() {
+		return pasteAutoSubmit;
+	}
+
+	/** Pastes text into the input fields, one screen at a time (see pasteFromClipboard). */
+	public void pasteText(String text, boolean autoSubmit) {
+		cancelPaste();
+		char[] chars = PastePlanner.normalize(text);
+		if (chars.length > 0)
+			pasteScreen(chars, 0, autoSubmit);
+	}
+
+	/** Fills the current screen from text[offset..]; submits and continues later if needed. */
+	private void pasteScreen(char[] text, int offset, boolean autoSubmit) {
+		PastePlanner.Plan plan = applyPaste(text, offset, autoSubmit);
+		terminalPanel.repaint();
+		updateStatusBar();
+
+		int next = offset + plan.getConsumed();
+		int left = text.length - next;
+		if (left == 0) {
+			if (offset > 0)
+				statusBar.setStatus("Paste complete");
+			return;
+		}
+		if (autoSubmit && plan.getConsumed() > 0 && connected) {
+			pendingPaste = text;
+			pendingPasteOffset = next;
+			statusBar.setStatus("Paste: screen full, submitting (" + left + " characters left)");
+			sendAID(AID_ENTER);
+		} else {
+			statusBar.setStatus("Paste: " + left + " characters did not fit");
+			if (enableSound)
+				Toolkit.getDefaultToolkit().beep();
+		}
+	}
+
+	/** Writes as much of text[offset..] as fits, as one bulk copy per field segment. */
+	private PastePlanner.Plan applyPaste(char[] text, int offset, boolean keepLinesWhole) {
+		PastePlanner.Plan plan = PastePlanner.plan(screenModel, text, offset, text.length - offset,
+				screenModel.getCursorPos(), keepLinesWhole);
+		for (PastePlanner.Segment seg : plan.getSegments()) {
+			screenModel.setChars(seg.position, text, seg.srcOffset, seg.length);
+			screenModel.setModified(seg.position);
+		}
+		screenModel.setCursorPos(plan.getCursor());
+		return plan;
+	}
+
+	/** Keyboard unlocked after an auto-submit: paste the next screen. */
+	private void continuePaste() {
+		char[] text = pendingPaste;
+		if (text == null || keyboardLocked || !connected)
+			return;
+		pendingPaste = null;
+		pasteScreen(text, pendingPasteOffset, true);
+	}
+
+	private void cancelPaste() {
+		if (pendingPaste != null) {
+			pendingPaste = null;
+			statusBar.setStatus("Paste cancelled");
+		}
+	}
+
 	public void selectAll() {
 		terminalPanel.selectAll();
 	}
@@ -4556,10 +5373,18 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 		// NEW CHECKBOX
 		JCheckBox crosshair = new JCheckBox("Crosshair", terminalPanel.isShowCrosshair());
+		JCheckBox autoSubmit = new JCheckBox("Paste: Enter when screen is full", pasteAutoSubmit);
+		JCheckBox shared = new JCheckBox("Publish screen to shared file", isSharedScreenEnabled());
+		JSpinner historyKb = new JSpinner(
+				new SpinnerNumberModel(screenHistory.getBudget() / 1024, 0, 256 * 1024, 256));
 
 		p.add(blink);
 		p.add(sound);
 		p.add(crosshair); // Add to panel
+		p.add(autoSubmit);
+		p.add(shared);
+		p.add(new JLabel("Screen history (KB):"));
+		p.add(historyKb);
 
 		JButton ok = new JButton("OK");
 		ok.addActionListener(e -> {
@@ -4571,6 +5396,13 @@ public class TN3270Session extends JPanel implements KeyListener {
 			else
 				terminalPanel.setCursorStyle(TerminalPanel.CursorStyle.I_BEAM);
 			this.enableSound = sound.isSelected();
+			this.pasteAutoSubmit = autoSubmit.isSelected();
+			screenHistory.setBudget((Integer) historyKb.getValue() * 1024);
+			if (shared.isSelected() != isSharedScreenEnabled()) {
+				setSharedScreenEnabled(shared.isSelected());
+				if (isSharedScreenEnabled())
+					showMessageDialog("Screen published to " + getSharedScreenFile(), "Shared Screen", false);
+			}
 
 			// APPLY CROSSHAIR
 			terminalPanel.setShowCrosshair(crosshair.isSelected());
@@ -4639,6 +5471,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 		}
 
 		this.isMemoryTransfer = true;
+		this.ftIsText = true; // Memory transfers always use host ASCII/CRLF translation
+		this.ftCodec = null;
 		this.ftDirection = FileTransferDirection.UPLOAD; // <--- FIX: Explicitly set direction
 		this.transferCallback = callback;
 		this.memoryUploadData = textContent.getBytes(StandardCharsets.UTF_8);
@@ -4703,6 +5537,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 
 		// BRANCH: MAINFRAME IND$FILE
 		this.isMemoryTransfer = true;
+		this.ftIsText = true; // Memory transfers always use host ASCII/CRLF translation
+		this.ftCodec = null;
 		this.ftDirection = FileTransferDirection.DOWNLOAD; // <--- FIX: Explicitly set direction
 		this.transferCallback = callback;
 		this.memoryDownloadBuffer = new ByteArrayOutputStream();
@@ -4842,7 +5678,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 			chunks.add(b64.substring(i, Math.min(b64.length(), i + chunkLen)));
 		}
 
-		new Thread(() -> {
+		executor.submit("linux-upload", () -> {
 			SwingUtilities.invokeLater(() -> terminalPanel.setPaintingEnabled(false));
 			try {
 				// 1. PRE-CLEAR & CONFIG
@@ -4945,7 +5781,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 					terminalPanel.repaint();
 				});
 			}
-		}).start();
+		});
 	}
 
 	/**
@@ -4958,7 +5794,7 @@ public class TN3270Session extends JPanel implements KeyListener {
 	 * + Enter for robust input handling.
 	 */
 	private void downloadTextFromLinuxConsole(String filename, MemoryTransferCallback callback) {
-		new Thread(() -> {
+		executor.submit("linux-download", () -> {
 			SwingUtilities.invokeLater(() -> terminalPanel.setPaintingEnabled(false));
 			try {
 				String safeName = filename.trim();
@@ -5102,45 +5938,24 @@ public class TN3270Session extends JPanel implements KeyListener {
 					terminalPanel.repaint();
 				});
 			}
-		}).start();
+		});
 	}
 
 	/**
 	 * Types a string into the emulator as if the user typed it. Handles basic ASCII
 	 * mapping.
+	 *
+	 * Laid out like a paste (see PastePlanner): overflow skips to the next input
+	 * field, wrapping from the last to the first; '\n' moves to the next input
+	 * field; text stops when it comes round to the cursor again instead of
+	 * overwriting itself.
 	 */
 	private void sendText(String text) {
 		if (text == null)
 			return;
-		for (char c : text.toCharArray()) {
-			int p = screenModel.getCursorPos();
-			if (!screenModel.isProtected(p)) {
-				screenModel.setChar(p, c);
-				screenModel.setModified(p);
-				// Move cursor
-				int cols = screenModel.getCols();
-				int next = (p + 1) % screenModel.getSize();
-
-				// Handle wrap (simple) or field skip?
-				// For a paste/type operation, simple cursor move is usually enough
-				// unless we hit a protected field.
-				if (screenModel.isProtected(next)) {
-					// Try to find next unprotected field (Auto-Skip behavior)
-					next = screenModel.findNextField(next);
-					// If next field starts at 'next', we need to move 1 past the attribute byte
-					if (screenModel.isFieldStart(next)) {
-						next = (next + 1) % screenModel.getSize();
-					}
-				}
-				screenModel.setCursorPos(next);
-			} else {
-				// Tried to type in protected field. Skip or Stop?
-				// For a "Paste" operation, skipping to the next field is usually friendlier.
-				tabToNextField();
-				// Retry the character? Or just drop it?
-				// Usually dropping it is safer than desynchronizing the stream.
-			}
-		}
+		// FIX: Planned against the field layout and written in bulk (auto-skip
+		// into the next unprotected field), instead of one cell at a time.
+		applyPaste(text.toCharArray(), 0, false);
 		// Do NOT call repaint() here for performance if we are in a loop;
 		// let the caller handle repaints or the timer will pick it up.
 	}
@@ -5217,40 +6032,20 @@ public class TN3270Session extends JPanel implements KeyListener {
 	}
 
 	private boolean waitForString(String expected, int timeoutMs) {
-		long deadline = System.currentTimeMillis() + timeoutMs;
-		while (System.currentTimeMillis() < deadline) {
-			String content = screenModel.getString(0, screenModel.getSize());
-			if (content.contains(expected))
-				return true;
-			synchronized (keyboardLockMonitor) {
-				try {
-					keyboardLockMonitor.wait(200);
-				} catch (InterruptedException e) {
-					return false;
-				}
-			}
-		}
-		return false;
+		return waitForAnyString(new String[] { expected }, timeoutMs) != null;
 	}
 
 	// NEW Helper: Wait for one of multiple strings, return the one found
+	// FIX: Watches the screen deltas instead of copying the whole screen every 200ms
 	private String waitForAnyString(String[] expected, int timeoutMs) {
-		long deadline = System.currentTimeMillis() + timeoutMs;
-		while (System.currentTimeMillis() < deadline) {
-			String content = screenModel.getString(0, screenModel.getSize());
+		return awaitScreen(rows -> {
+			String content = String.join("", rows);
 			for (String s : expected) {
 				if (content.contains(s))
 					return s;
 			}
-			synchronized (keyboardLockMonitor) {
-				try {
-					keyboardLockMonitor.wait(200);
-				} catch (InterruptedException e) {
-					return null;
-				}
-			}
-		}
-		return null;
+			return null;
+		}, timeoutMs);
 	}
 
 	/**
@@ -5258,14 +6053,8 @@ public class TN3270Session extends JPanel implements KeyListener {
 	 * prevents false detection from command history.
 	 */
 	private String waitForSmartMarker(String waitMarker, String eofMarker, int timeoutMs) {
-		long deadline = System.currentTimeMillis() + timeoutMs;
-		while (System.currentTimeMillis() < deadline) {
-			int rows = screenModel.getRows();
-			int cols = screenModel.getCols();
-
-			for (int r = 0; r < rows; r++) {
-				String line = screenModel.getString(r * cols, cols);
-
+		return awaitScreen(rows -> {
+			for (String line : rows) {
 				// CRITICAL FILTER: Ignore command history lines
 				if (line.contains("echo") || line.contains(">>"))
 					continue;
@@ -5275,15 +6064,20 @@ public class TN3270Session extends JPanel implements KeyListener {
 				if (line.contains(eofMarker))
 					return eofMarker;
 			}
+			return null;
+		}, timeoutMs);
+	}
 
-			synchronized (keyboardLockMonitor) {
-				try {
-					keyboardLockMonitor.wait(200);
-				} catch (InterruptedException e) {
-					return null;
-				}
-			}
+	/**
+	 * Waits (off the EDT) until test returns non-null for the screen rows, which
+	 * are re-tested whenever the screen changes. Null on timeout or interrupt.
+	 */
+	private <T> T awaitScreen(Function<String[], T> test, int timeoutMs) {
+		try (ScreenWatcher watcher = new ScreenWatcher(this::subscribeScreenChanges)) {
+			return watcher.await(test, timeoutMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
 		}
-		return null;
 	}
 }
@@ -26,13 +26,13 @@ public class AIConfig {
 			props.clear();
 			// DEBUG: Print where we are looking
 			//System.out.println("Loading AI Config from: " + file.getAbsolutePath());
-			logger.info("Loading AI Config from: " + file.getAbsolutePath());
+			logger.info(() -> "Loading AI Config from: " + file.getAbsolutePath());
 
 			if (file.exists()) {
 				try (FileInputStream fis = new FileInputStream(file)) {
 					props.load(fis);
 					//System.out.println("Config loaded successfully. Keys found: " + props.keySet().size());
-					logger.info("Config loaded successfully. Keys found: " + props.keySet().size());
+					logger.info(() -> "Config loaded successfully. Keys found: " + props.keySet().size());
 				}
 			} else {
 				//System.out.println("!!! Config file NOT found at that path. Using defaults.");
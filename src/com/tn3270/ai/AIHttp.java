@@ -0,0 +1,340 @@
+package com.tn3270.ai;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.tn3270.util.LoggerSetup;
+
+/**
+ * The HTTP side of the AI providers: one HttpClient for all of them, so
+ * connections (and TLS sessions) are kept and reused between requests instead
+ * of being set up for every host-bridge call, and HTTP/2 is used where the
+ * server offers it (several requests then share one connection).
+ *
+ * Each provider owns a {@link Limiter} that caps its requests in flight;
+ * requests over the limit wait for a permit without holding a thread.
+ * Streamed responses are handed to the provider buffer by buffer, as they
+ * arrive, by a body subscriber - no thread blocks reading a stream.
+ *
+ * Nothing waits forever: the request's timeout also bounds the wait for a
+ * permit, the blocking body read, and each silence in a stream (a stalled
+ * stream fails and gives its permit back).
+ */
+final class AIHttp {
+	private static final Logger logger = LoggerSetup.getLogger(AIHttp.class);
+
+	/** Requests in flight per provider unless configured (id.maxConcurrent). */
+	static final int DEFAULT_MAX_CONCURRENT = 4;
+
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(15);
+	private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60); // Requests built without one
+
+	private static HttpClient client;
+	private static ScheduledExecutorService timer;
+
+	private AIHttp() {
+	}
+
+	/** The shared client, created on first use. */
+	static synchronized HttpClient client() {
+		if (client == null) {
+			AtomicInteger n = new AtomicInteger();
+			ExecutorService pool = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "tn3270-http-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+			client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(CONNECT_TIMEOUT)
+					.followRedirects(HttpClient.Redirect.NORMAL).executor(pool).build();
+		}
+		return client;
+	}
+
+	/** Runs the stream watchdogs. */
+	private static synchronized ScheduledExecutorService timer() {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "tn3270-http-timer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return timer;
+	}
+
+	/**
+	 * A JSON POST. Plain http:// stays on HTTP/1.1: asking for h2c would add an
+	 * Upgrade round trip that local servers (Ollama) do not take anyway.
+	 *
+	 * @param timeout until the response headers arrive
+	 */
+	static HttpRequest.Builder post(URI uri, byte[] json, Duration timeout) {
+		HttpRequest.Builder b = HttpRequest.newBuilder(uri).timeout(timeout)
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(json));
+		if ("http".equalsIgnoreCase(uri.getScheme()))
+			b.version(HttpClient.Version.HTTP_1_1);
+		return b;
+	}
+
+	/**
+	 * Sends a request and returns the body (blocking the caller, e.g. the host
+	 * bridge). Status 300 and up is thrown as "errorPrefix code: body".
+	 *
+	 * Waits at most the request's timeout for a permit, the same again for the
+	 * headers (HttpClient) and again for the body.
+	 */
+	static byte[] send(HttpRequest request, Limiter limiter, String errorPrefix) throws Exception {
+		long timeoutMs = request.timeout().orElse(DEFAULT_TIMEOUT).toMillis();
+		CompletableFuture<Void> permit = limiter.acquire();
+		try {
+			permit.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			limiter.release(permit);
+			throw new HttpTimeoutException(errorPrefix + ": no connection slot free after " + timeoutMs / 1000 + "s");
+		} catch (InterruptedException e) {
+			limiter.release(permit);
+			throw e;
+		}
+		CompletableFuture<HttpResponse<byte[]>> exchange = null;
+		try {
+			exchange = client().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+			HttpResponse<byte[]> rsp = exchange.get(2 * timeoutMs, TimeUnit.MILLISECONDS);
+			if (rsp.statusCode() >= 300)
+				throw new IOException(errorPrefix + " " + rsp.statusCode() + ": "
+						+ new String(rsp.body(), StandardCharsets.UTF_8));
+			return rsp.body();
+		} catch (TimeoutException e) {
+			throw new HttpTimeoutException(errorPrefix + ": no complete response after " + 2 * timeoutMs / 1000 + "s");
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		} finally {
+			if (exchange != null)
+				exchange.cancel(true);
+			limiter.release(permit);
+		}
+	}
+
+	/**
+	 * Sends a request whose response is streamed (SSE, NDJSON) and returns at
+	 * once. The body goes to onBytes on an HttpClient thread, buffer by buffer
+	 * in order; onBytes returns false when the reply is complete (e.g. at
+	 * "data: [DONE]"). The rest of the body is still read, and dropped, so the
+	 * connection can be reused.
+	 *
+	 * Ends like the blocking providers did: onComplete after the reply, or
+	 * onError and then onComplete. If nothing happens for the request's
+	 * timeout - no permit, no headers, no bytes - the stream fails with an
+	 * HttpTimeoutException, the body is cancelled and the permit given back.
+	 */
+	static void stream(HttpRequest request, Limiter limiter, String errorPrefix, ChunkHandler onBytes,
+			Consumer<Exception> onError, Runnable onComplete) {
+		long idleNanos = request.timeout().orElse(DEFAULT_TIMEOUT).toNanos();
+		CompletableFuture<Void> permit = limiter.acquire();
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+		AtomicReference<Chunks> body = new AtomicReference<>();
+		Consumer<Throwable> fail = t -> {
+			if (done.getAndSet(true))
+				return;
+			Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+			limiter.release(permit);
+			onError.accept(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+			onComplete.run();
+		};
+		Runnable finish = () -> {
+			if (done.getAndSet(true))
+				return;
+			limiter.release(permit);
+			onComplete.run();
+		};
+
+		BodyHandler<Void> handler = info -> {
+			lastActivity.set(System.nanoTime());
+			if (info.statusCode() >= 300) {
+				return BodySubscribers.mapping(BodySubscribers.ofString(StandardCharsets.UTF_8), text -> {
+					fail.accept(new IOException(errorPrefix + " " + info.statusCode() + ": " + text));
+					return null;
+				});
+			}
+			Chunks chunks = new Chunks(onBytes, fail, finish, lastActivity);
+			body.set(chunks);
+			return BodySubscribers.fromSubscriber(chunks);
+		};
+
+		// FIX: A stream that goes quiet would otherwise hold its permit forever
+		timer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (done.get())
+					return;
+				long quiet = System.nanoTime() - lastActivity.get();
+				if (quiet < idleNanos) {
+					timer().schedule(this, idleNanos - quiet, TimeUnit.NANOSECONDS);
+					return;
+				}
+				Chunks chunks = body.get();
+				if (chunks != null)
+					chunks.cancel(); // Drops the connection
+				fail.accept(new HttpTimeoutException(
+						errorPrefix + ": nothing received for " + TimeUnit.NANOSECONDS.toSeconds(idleNanos) + "s"));
+			}
+		}, idleNanos, TimeUnit.NANOSECONDS);
+
+		permit.thenCompose(v -> {
+			lastActivity.set(System.nanoTime());
+			return client().sendAsync(request, handler);
+		}).whenComplete((rsp, t) -> {
+			if (t != null)
+				fail.accept(t);
+			else
+				finish.run(); // Normally Chunks got there first
+		});
+	}
+
+	/** Receives the body of a streamed response. */
+	interface ChunkHandler {
+		/** @return false when the reply is complete */
+		boolean bytes(ByteBuffer buf) throws Exception;
+	}
+
+	/** Hands buffers to a ChunkHandler as they arrive (request(1) each). */
+	private static final class Chunks implements Flow.Subscriber<List<ByteBuffer>> {
+		private final ChunkHandler handler;
+		private final Consumer<Throwable> fail;
+		private final Runnable finish;
+		private final AtomicLong lastActivity;
+		private volatile Flow.Subscription subscription;
+		private boolean complete;
+
+		Chunks(ChunkHandler handler, Consumer<Throwable> fail, Runnable finish, AtomicLong lastActivity) {
+			this.handler = handler;
+			this.fail = fail;
+			this.finish = finish;
+			this.lastActivity = lastActivity;
+		}
+
+		/** Stops the body (any thread); the connection is closed. */
+		void cancel() {
+			Flow.Subscription s = subscription;
+			if (s != null)
+				s.cancel();
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			s.request(1);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			lastActivity.set(System.nanoTime());
+			try {
+				for (ByteBuffer buf : buffers) {
+					if (!complete && !handler.bytes(buf)) {
+						complete = true;
+						finish.run();
+					}
+				}
+			} catch (Exception e) {
+				subscription.cancel();
+				fail.accept(e);
+				return;
+			}
+			subscription.request(1); // Also after the reply: drain, keep the connection
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			fail.accept(t);
+		}
+
+		@Override
+		public void onComplete() {
+			finish.run();
+		}
+	}
+
+	/**
+	 * Caps the requests in flight of one provider. acquire() completes when a
+	 * permit is free; waiters are served in order and never hold a thread.
+	 * Every acquire() is matched by one release(permit), whether the permit
+	 * came or the caller gave up waiting.
+	 */
+	static final class Limiter {
+		private final String name;
+		private final int permits;
+		private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+		private int inUse;
+
+		Limiter(String name, int permits) {
+			this.name = name;
+			this.permits = Math.max(1, permits);
+		}
+
+		CompletableFuture<Void> acquire() {
+			synchronized (this) {
+				if (inUse < permits) {
+					inUse++;
+					return CompletableFuture.completedFuture(null);
+				}
+				CompletableFuture<Void> f = new CompletableFuture<>();
+				waiters.add(f);
+				logger.fine(() -> name + ": " + waiters.size() + " request(s) waiting for a connection slot");
+				return f;
+			}
+		}
+
+		/** Gives back the permit from acquire(), or stops waiting for it. */
+		void release(CompletableFuture<Void> permit) {
+			synchronized (this) {
+				waiters.remove(permit);
+			}
+			if (!permit.cancel(false))
+				handOn(); // It had come: held by the caller
+		}
+
+		private void handOn() {
+			while (true) {
+				CompletableFuture<Void> next;
+				synchronized (this) {
+					next = waiters.poll();
+					if (next == null) {
+						inUse--;
+						return;
+					}
+				}
+				if (next.complete(null))
+					return; // The permit passes to the next waiter
+				// That waiter gave up (cancelled) in the meantime: try the one after
+			}
+		}
+	}
+}
@@ -5,9 +5,12 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
+import com.tn3270.util.EmulatorMetrics;
+import com.tn3270.util.FlightEvents;
 import com.tn3270.util.LoggerSetup;
 
 /**
@@ -124,7 +127,15 @@ public class AIManager implements AIModelProvider {
 			throw new IllegalArgumentException("No provider configured for: " + displayModel);
 
 		// Pass the REAL model name to the provider
-		return route.provider.send(route.realModelName, prompt, context);
+		RequestTracker tracker = new RequestTracker(displayModel, false);
+		boolean ok = false;
+		try {
+			String reply = route.provider.send(route.realModelName, prompt, context);
+			ok = true;
+			return reply;
+		} finally {
+			tracker.finished(ok);
+		}
 	}
 
 	@Override
@@ -137,7 +148,68 @@ public class AIManager implements AIModelProvider {
 		}
 
 		// Pass the REAL model name to the provider
-		route.provider.sendStream(route.realModelName, prompt, context, onChunk, onError, onComplete);
+		// NEW: Tracked (in flight, JFR) until the provider completes or fails
+		RequestTracker tracker = new RequestTracker(displayModel, true);
+		try {
+			route.provider.sendStream(route.realModelName, prompt, context, chunk -> {
+				tracker.chunk();
+				onChunk.accept(chunk);
+			}, e -> {
+				tracker.finished(false);
+				onError.accept(e);
+			}, () -> {
+				tracker.finished(true);
+				onComplete.run();
+			});
+		} catch (Exception | Error e) {
+			tracker.finished(false);
+			throw e;
+		}
+	}
+
+	/**
+	 * One AI request in EmulatorMetrics' in-flight count and in the JFR
+	 * AiRequest / AiFirstToken events. finished() counts once, however many
+	 * times the provider reports the end.
+	 */
+	private static final class RequestTracker {
+		private final String model;
+		private final FlightEvents.AiRequest event = new FlightEvents.AiRequest();
+		private final FlightEvents.AiFirstToken firstToken = new FlightEvents.AiFirstToken();
+		private final long start = System.nanoTime();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private volatile int chunks;
+
+		RequestTracker(String model, boolean streaming) {
+			this.model = model;
+			event.streaming = streaming;
+			event.begin();
+			firstToken.begin();
+			EmulatorMetrics.get().aiRequestStarted();
+		}
+
+		/** Provider thread, in order. */
+		void chunk() {
+			if (chunks++ == 0) {
+				event.firstToken = System.nanoTime() - start;
+				if (firstToken.shouldCommit()) {
+					firstToken.model = model;
+					firstToken.commit();
+				}
+			}
+		}
+
+		void finished(boolean ok) {
+			if (!finished.compareAndSet(false, true))
+				return;
+			EmulatorMetrics.get().aiRequestFinished(ok);
+			if (event.shouldCommit()) {
+				event.model = model;
+				event.chunks = chunks;
+				event.success = ok;
+				event.commit();
+			}
+		}
 	}
 
 	// =======================================================================
@@ -197,22 +269,30 @@ public class AIManager implements AIModelProvider {
 		}
 
 		// System.out.println("AI Manager loaded. Models: " + availableModels);
-		logger.info("AI Manager loaded. Models: " + availableModels);
+		logger.info(() -> "AI Manager loaded. Models: " + availableModels);
 	}
 
 	private void loadProvider(String id) {
 		String type = config.get(id + ".type", "openai");
 		String modelsStr = config.get(id + ".models", "");
 
+		// NEW: Requests in flight at once to this provider
+		int maxConcurrent = AIHttp.DEFAULT_MAX_CONCURRENT;
+		try {
+			maxConcurrent = Integer.parseInt(config.get(id + ".maxConcurrent", "").trim());
+		} catch (NumberFormatException e) {
+			// Not set (or not a number): default
+		}
+
 		AIModelProvider provider;
 
 		if ("ollama".equalsIgnoreCase(type)) {
 			String endpoint = config.get(id + ".endpoint", "http://localhost:11434");
-			provider = new OllamaProvider(endpoint, null);
+			provider = new OllamaProvider(endpoint, null, maxConcurrent);
 		} else {
 			String apiKey = config.get(id + ".apiKey", "");
 			String endpoint = config.get(id + ".endpoint", "https://api.openai.com/v1/chat/completions");
-			provider = new OpenAIProvider(apiKey, null, endpoint);
+			provider = new OpenAIProvider(apiKey, null, endpoint, maxConcurrent);
 		}
 
 		// PARSE MODELS AND ALIASES
@@ -304,7 +384,8 @@ public class AIManager implements AIModelProvider {
 			if (rule.matches(currentHost, filename, content)) {
 				matchedKey = rule.contextKey;
 				// System.out.println("Context Match: " + matchedKey + " for " + filename);
-				logger.info("Context Match: " + matchedKey + " for " + filename);
+				String key = matchedKey;
+				logger.info(() -> "Context Match: " + key + " for " + filename);
 				break; // First match wins based on 'detect.order'
 			}
 		}
@@ -452,6 +533,6 @@ public class AIManager implements AIModelProvider {
 			}
 		}
 		// System.out.println("Loaded " + detectionRules.size() + " detection rules.");
-		logger.info("Loaded " + detectionRules.size() + " detection rules.");
+		logger.info(() -> "Loaded " + detectionRules.size() + " detection rules.");
 	}
 }
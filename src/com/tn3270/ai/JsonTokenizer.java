@@ -0,0 +1,236 @@
+package com.tn3270.ai;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Incremental JSON tokenizer: fed UTF-8 bytes as they come off the network,
+ * in pieces of any size, it reports tokens to a {@link Handler} as soon as
+ * each one is complete. Nothing is buffered beyond the token in progress.
+ *
+ * Strings are decoded (escapes including &#92;uXXXX and surrogate pairs,
+ * multi-byte UTF-8 split across reads) into one reused StringBuilder, which
+ * the handler sees as a CharSequence: keys and values nobody asks for cost
+ * no allocation.
+ *
+ * Several documents may follow one another (NDJSON, SSE events); reset()
+ * forgets a broken one.
+ */
+final class JsonTokenizer {
+
+	/** Tokens in document order. CharSequences are only valid during the call. */
+	interface Handler {
+		void startObject() throws IOException;
+
+		void endObject() throws IOException;
+
+		void startArray() throws IOException;
+
+		void endArray() throws IOException;
+
+		/** A member name; the member's value follows. */
+		void key(CharSequence name) throws IOException;
+
+		void string(CharSequence value) throws IOException;
+
+		/** A number, true, false or null, as written. */
+		void literal(CharSequence text) throws IOException;
+	}
+
+	private static final int VALUE = 0; // Between tokens
+	private static final int STRING = 1;
+	private static final int ESCAPE = 2;
+	private static final int UNICODE = 3;
+	private static final int LITERAL = 4;
+
+	private final Handler handler;
+	private final StringBuilder text = new StringBuilder(256);
+
+	private int state = VALUE;
+	private boolean stringIsKey;
+	private boolean expectKey;
+	private int hex; // uXXXX escape: value so far
+	private int hexDigits;
+	private int utf8; // Code point of a multi-byte sequence so far
+	private int utf8Remaining;
+
+	// Open containers, true for objects
+	private boolean[] objects = new boolean[16];
+	private int depth;
+
+	JsonTokenizer(Handler handler) {
+		this.handler = handler;
+	}
+
+	/** Containers open; 0 between documents. */
+	int depth() {
+		return depth;
+	}
+
+	/** Starts over, e.g. at the next NDJSON line after a broken one. */
+	void reset() {
+		state = VALUE;
+		depth = 0;
+		expectKey = false;
+		utf8Remaining = 0;
+		text.setLength(0);
+	}
+
+	/** End of input: completes a number or literal at the very end. */
+	void end() throws IOException {
+		if (state == LITERAL) {
+			state = VALUE;
+			handler.literal(text);
+		}
+	}
+
+	void feed(byte b) throws IOException {
+		switch (state) {
+		case STRING:
+			string(b);
+			return;
+		case ESCAPE:
+			escape(b);
+			return;
+		case UNICODE:
+			unicode(b);
+			return;
+		case LITERAL:
+			if (isLiteral(b)) {
+				text.append((char) b);
+				return;
+			}
+			state = VALUE;
+			handler.literal(text);
+			break; // b ends the literal and is a token of its own
+		default:
+			break;
+		}
+
+		switch (b) {
+		case ' ':
+		case '\t':
+		case '\r':
+		case '\n':
+		case ':':
+			break;
+		case ',':
+			expectKey = depth > 0 && objects[depth - 1];
+			break;
+		case '{':
+			push(true);
+			expectKey = true;
+			handler.startObject();
+			break;
+		case '[':
+			push(false);
+			expectKey = false;
+			handler.startArray();
+			break;
+		case '}':
+		case ']':
+			if (depth == 0 || objects[depth - 1] != (b == '}'))
+				throw new IOException("Unbalanced '" + (char) b + "' in JSON");
+			depth--;
+			expectKey = false;
+			if (b == '}')
+				handler.endObject();
+			else
+				handler.endArray();
+			break;
+		case '"':
+			state = STRING;
+			stringIsKey = expectKey;
+			expectKey = false;
+			text.setLength(0);
+			break;
+		default:
+			if (!isLiteral(b))
+				throw new IOException("Unexpected byte 0x" + Integer.toHexString(b & 0xFF) + " in JSON");
+			state = LITERAL;
+			text.setLength(0);
+			text.append((char) b);
+		}
+	}
+
+	private void string(byte b) throws IOException {
+		if (utf8Remaining > 0) {
+			utf8 = (utf8 << 6) | (b & 0x3F);
+			if (--utf8Remaining == 0)
+				text.appendCodePoint(utf8);
+			return;
+		}
+		if (b == '"') {
+			state = VALUE;
+			if (stringIsKey)
+				handler.key(text);
+			else
+				handler.string(text);
+		} else if (b == '\\') {
+			state = ESCAPE;
+		} else if (b >= 0) {
+			text.append((char) b);
+		} else if ((b & 0xE0) == 0xC0) {
+			utf8 = b & 0x1F;
+			utf8Remaining = 1;
+		} else if ((b & 0xF0) == 0xE0) {
+			utf8 = b & 0x0F;
+			utf8Remaining = 2;
+		} else if ((b & 0xF8) == 0xF0) {
+			utf8 = b & 0x07;
+			utf8Remaining = 3;
+		} else {
+			text.append('\uFFFD'); // Stray continuation byte
+		}
+	}
+
+	private void escape(byte b) throws IOException {
+		state = STRING;
+		switch (b) {
+		case 'n':
+			text.append('\n');
+			break;
+		case 'r':
+			text.append('\r');
+			break;
+		case 't':
+			text.append('\t');
+			break;
+		case 'b':
+			text.append('\b');
+			break;
+		case 'f':
+			text.append('\f');
+			break;
+		case 'u':
+			state = UNICODE;
+			hex = 0;
+			hexDigits = 0;
+			break;
+		default: // \" \\ \/
+			text.append((char) b);
+		}
+	}
+
+	private void unicode(byte b) throws IOException {
+		int d = Character.digit(b, 16);
+		if (d < 0)
+			throw new IOException("Bad \\u escape in JSON string");
+		hex = (hex << 4) | d;
+		if (++hexDigits == 4) {
+			text.append((char) hex); // A surrogate pair arrives as two escapes
+			state = STRING;
+		}
+	}
+
+	private void push(boolean object) {
+		if (depth == objects.length)
+			objects = Arrays.copyOf(objects, depth * 2);
+		objects[depth++] = object;
+	}
+
+	private static boolean isLiteral(byte b) {
+		return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || b == '-' || b == '+' || b == '.'
+				|| b == 'E';
+	}
+}
@@ -1,25 +1,29 @@
 package com.tn3270.ai;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpRequest;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.function.Consumer;
 
 public class OllamaProvider implements AIModelProvider {
 
 	private final String endpoint;
 	private final String[] models;
+	private final AIHttp.Limiter limiter;
+
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
 
 	public OllamaProvider(String endpoint, String[] models) {
+		this(endpoint, models, AIHttp.DEFAULT_MAX_CONCURRENT);
+	}
+
+	/** @param maxConcurrent requests in flight at once; more wait their turn */
+	public OllamaProvider(String endpoint, String[] models, int maxConcurrent) {
 		this.endpoint = (endpoint != null && !endpoint.isEmpty()) ? endpoint.replaceAll("/+$", "")
 				: "http://localhost:11434";
 		this.models = (models == null) ? new String[0] : models;
+		this.limiter = new AIHttp.Limiter(this.endpoint, maxConcurrent);
 	}
 
 	@Override
@@ -29,22 +33,38 @@ public class OllamaProvider implements AIModelProvider {
 
 	@Override
 	public String send(String model, String prompt, String context) throws Exception {
-		return doRequest(model, prompt, context, false, null);
+		byte[] body = AIHttp.send(buildRequest(model, prompt, context, false), limiter, "Ollama Error");
+		StringBuilder reply = new StringBuilder();
+		ReplyParser parser = new ReplyParser(ReplyParser.Framing.DOCUMENT, "Ollama Error", reply::append);
+		parser.feedAll(body);
+		parser.report(model);
+		return reply.toString();
 	}
 
+	/**
+	 * Returns as soon as the request is queued; chunks, then onComplete (or
+	 * onError and onComplete), arrive on an HttpClient thread.
+	 */
 	@Override
 	public void sendStream(String model, String prompt, String context, Consumer<String> onChunk,
 			Consumer<Exception> onError, Runnable onComplete) throws Exception {
+		HttpRequest request;
 		try {
-			doRequest(model, prompt, context, true, onChunk);
-			onComplete.run();
+			request = buildRequest(model, prompt, context, true);
 		} catch (Exception e) {
 			onError.accept(e);
 			onComplete.run();
+			return;
 		}
+		// NEW: Parsed straight from the response buffers (one JSON object per line)
+		ReplyParser parser = new ReplyParser(ReplyParser.Framing.NDJSON, "Ollama Error", onChunk);
+		AIHttp.stream(request, limiter, "Ollama Error", parser::feed, onError, () -> {
+			parser.report(model);
+			onComplete.run();
+		});
 	}
 
-	private String doRequest(String model, String prompt, String context, boolean stream, Consumer<String> onChunk)
+	private HttpRequest buildRequest(String model, String prompt, String context, boolean stream)
 			throws Exception {
 
 		String fullPrompt = (context != null && !context.isEmpty()) ? context + "\n\n" + prompt : prompt;
@@ -58,88 +78,10 @@ public class OllamaProvider implements AIModelProvider {
 		json.append("]");
 		json.append("}");
 
-		URL url = new URI(endpoint + "/api/chat").toURL();
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
-		conn.setConnectTimeout(5000);
-		conn.setReadTimeout(stream ? 0 : 120000);
-		conn.setRequestProperty("Content-Type", "application/json");
-
-		try (OutputStream os = conn.getOutputStream()) {
-			os.write(json.toString().getBytes(StandardCharsets.UTF_8));
-			os.flush();
-		}
-
-		int code = conn.getResponseCode();
-		InputStream in = (code < 300) ? conn.getInputStream() : conn.getErrorStream();
-
-		if (code >= 300) {
-			try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-				StringBuilder err = new StringBuilder();
-				String line;
-				while ((line = r.readLine()) != null)
-					err.append(line);
-				throw new IOException("Ollama Error " + code + ": " + err.toString());
-			}
-		}
-
-		if (stream && onChunk != null) {
-			try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					String content = extractOllamaContent(line);
-					if (content != null && !content.isEmpty()) {
-						onChunk.accept(content);
-					}
-				}
-			}
-			return "";
-		} else {
-			StringBuilder fullResponse = new StringBuilder();
-			try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					String content = extractOllamaContent(line);
-					if (content != null)
-						fullResponse.append(content);
-				}
-			}
-			return fullResponse.toString();
-		}
-	}
-
-	private String extractOllamaContent(String json) {
-		String marker = "\"content\":\"";
-		int start = json.indexOf(marker);
-		if (start < 0)
-			return null;
-		start += marker.length();
-
-		StringBuilder sb = new StringBuilder();
-		boolean escaped = false;
-		for (int i = start; i < json.length(); i++) {
-			char c = json.charAt(i);
-			if (escaped) {
-				if (c == 'n')
-					sb.append('\n');
-				else if (c == 'r')
-					sb.append('\r');
-				else if (c == 't')
-					sb.append('\t');
-				else
-					sb.append(c);
-				escaped = false;
-			} else {
-				if (c == '\\')
-					escaped = true;
-				else if (c == '"')
-					break;
-				else
-					sb.append(c);
-			}
-		}
-		return sb.toString();
+		// NEW: Streams have no overall timeout; this only bounds the wait for the headers
+		// (which includes loading the model)
+		return AIHttp.post(new URI(endpoint + "/api/chat"), json.toString().getBytes(StandardCharsets.UTF_8),
+				REQUEST_TIMEOUT).build();
 	}
 
 	private String jsonEscape(String s) {
@@ -1,14 +1,9 @@
 package com.tn3270.ai;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpRequest;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.function.Consumer;
 
 public class OpenAIProvider implements AIModelProvider {
@@ -16,15 +11,25 @@ public class OpenAIProvider implements AIModelProvider {
 	private final String apiKey;
 	private final String[] models;
 	private final String endpoint;
+	private final AIHttp.Limiter limiter;
+
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+	private static final Duration STREAM_TIMEOUT = Duration.ofSeconds(60);
 
 	public OpenAIProvider(String apiKey, String[] models) {
 		this(apiKey, models, "https://api.openai.com/v1/chat/completions");
 	}
 
 	public OpenAIProvider(String apiKey, String[] models, String endpoint) {
+		this(apiKey, models, endpoint, AIHttp.DEFAULT_MAX_CONCURRENT);
+	}
+
+	/** @param maxConcurrent requests in flight at once; more wait their turn */
+	public OpenAIProvider(String apiKey, String[] models, String endpoint, int maxConcurrent) {
 		this.apiKey = apiKey;
 		this.models = models == null ? new String[0] : models;
 		this.endpoint = endpoint != null ? endpoint : "https://api.openai.com/v1/chat/completions";
+		this.limiter = new AIHttp.Limiter(this.endpoint, maxConcurrent);
 	}
 
 	@Override
@@ -34,81 +39,47 @@ public class OpenAIProvider implements AIModelProvider {
 
 	@Override
 	public String send(String model, String prompt, String context) throws Exception {
-		return doRequest(model, prompt, context, false, null);
+		byte[] body = AIHttp.send(buildRequest(model, prompt, context, false), limiter, "API Error");
+		StringBuilder reply = new StringBuilder();
+		ReplyParser parser = new ReplyParser(ReplyParser.Framing.DOCUMENT, "API Error", reply::append);
+		parser.feedAll(body);
+		parser.report(model);
+		return reply.toString();
 	}
 
+	/**
+	 * Returns as soon as the request is queued; chunks, then onComplete (or
+	 * onError and onComplete), arrive on an HttpClient thread.
+	 */
 	@Override
 	public void sendStream(String model, String prompt, String context, Consumer<String> onChunk,
 			Consumer<Exception> onError, Runnable onComplete) throws Exception {
+		HttpRequest request;
 		try {
-			doRequest(model, prompt, context, true, onChunk);
-			onComplete.run();
+			request = buildRequest(model, prompt, context, true);
 		} catch (Exception e) {
 			onError.accept(e);
 			onComplete.run();
+			return;
 		}
+		// NEW: Parsed straight from the response buffers (SSE events of JSON deltas)
+		ReplyParser parser = new ReplyParser(ReplyParser.Framing.SSE, "API Error", onChunk);
+		AIHttp.stream(request, limiter, "API Error", parser::feed, onError, () -> {
+			parser.report(model);
+			onComplete.run();
+		});
 	}
 
-	private String doRequest(String model, String prompt, String context, boolean stream, Consumer<String> onChunk)
+	private HttpRequest buildRequest(String model, String prompt, String context, boolean stream)
 			throws Exception {
 		String fullContext = (context == null ? "" : context + "\n\n");
 		String fullContent = fullContext + (prompt == null ? "" : prompt);
 
 		byte[] payloadBytes = buildPayloadBytes(model, fullContent, stream);
 
-		URL url = new URI(endpoint).toURL();
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
-		conn.setConnectTimeout(15000);
-		conn.setReadTimeout(stream ? 0 : 60000);
-
-		conn.setRequestProperty("Content-Type", "application/json");
-		conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-
-		try (OutputStream os = conn.getOutputStream()) {
-			os.write(payloadBytes);
-			os.flush();
-		}
-
-		int code = conn.getResponseCode();
-		InputStream in = (code < 300) ? conn.getInputStream() : conn.getErrorStream();
-
-		if (code >= 300) {
-			StringBuilder sb = new StringBuilder();
-			try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-				String line;
-				while ((line = r.readLine()) != null)
-					sb.append(line);
-			}
-			throw new IOException("API Error " + code + ": " + sb.toString());
-		}
-
-		if (stream && onChunk != null) {
-			try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					if (line.startsWith("data: ")) {
-						String data = line.substring(6).trim();
-						if ("[DONE]".equals(data))
-							break;
-						String chunk = extractJsonField(data, "content");
-						if (!chunk.isEmpty()) {
-							onChunk.accept(chunk);
-						}
-					}
-				}
-			}
-			return "";
-		} else {
-			StringBuilder sb = new StringBuilder();
-			try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-				String line;
-				while ((line = r.readLine()) != null)
-					sb.append(line).append('\n');
-			}
-			return extractJsonField(sb.toString(), "content");
-		}
+		// NEW: Streams have no overall timeout; this only bounds the wait for the headers
+		return AIHttp.post(new URI(endpoint), payloadBytes, stream ? STREAM_TIMEOUT : REQUEST_TIMEOUT)
+				.header("Authorization", "Bearer " + apiKey).build();
 	}
 
 	private byte[] buildPayloadBytes(String model, String content, boolean stream) {
@@ -122,39 +93,6 @@ public class OpenAIProvider implements AIModelProvider {
 		return sb.toString().getBytes(StandardCharsets.UTF_8);
 	}
 
-	private String extractJsonField(String json, String key) {
-		String search = "\"" + key + "\"";
-		int startIdx = json.lastIndexOf(search);
-		if (startIdx < 0)
-			return "";
-
-		int colonIdx = json.indexOf(':', startIdx + search.length());
-		if (colonIdx < 0)
-			return "";
-
-		int valueStart = json.indexOf('"', colonIdx + 1);
-		if (valueStart < 0)
-			return "";
-
-		int valueEnd = valueStart + 1;
-		while (valueEnd < json.length()) {
-			char c = json.charAt(valueEnd);
-			if (c == '\\') {
-				valueEnd += 2;
-				continue;
-			}
-			if (c == '"')
-				break;
-			valueEnd++;
-		}
-
-		if (valueEnd >= json.length())
-			return "";
-		String content = json.substring(valueStart + 1, valueEnd);
-		return content.replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t").replace("\\\"", "\"")
-				.replace("\\\\", "\\");
-	}
-
 	private String jsonEscape(String s) {
 		if (s == null)
 			return "\"\"";
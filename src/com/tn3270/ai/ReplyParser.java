@@ -0,0 +1,313 @@
+package com.tn3270.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.tn3270.util.EmulatorMetrics;
+import com.tn3270.util.LoggerSetup;
+
+/**
+ * Reads a chat reply straight from the response bytes, as they arrive: OpenAI
+ * style SSE ("data: {...}" events, "data: [DONE]"), Ollama NDJSON (one object
+ * per line) or a single JSON document (non-streamed replies).
+ *
+ * A {@link JsonTokenizer} does the JSON; this class frames it and picks out
+ * what the emulator uses, by where it is in the document rather than by
+ * searching the text:
+ *   content deltas  - choices[].delta.content, choices[].message.content,
+ *                     message.content (Ollama)
+ *   finish reason   - finish_reason, done_reason
+ *   token counts    - usage.prompt_tokens / completion_tokens,
+ *                     prompt_eval_count / eval_count (Ollama)
+ *   errors          - error.message, or error as a string (Ollama)
+ *
+ * The only allocation per event is the delta String handed to the caller.
+ */
+final class ReplyParser implements JsonTokenizer.Handler {
+	private static final Logger logger = LoggerSetup.getLogger(ReplyParser.class);
+
+	enum Framing {
+		SSE, NDJSON, DOCUMENT
+	}
+
+	// Member names we look for, by index into NAMES
+	private static final int OTHER = 0;
+	private static final int CONTENT = 1;
+	private static final int DELTA = 2;
+	private static final int MESSAGE = 3;
+	private static final int FINISH_REASON = 4;
+	private static final int DONE_REASON = 5;
+	private static final int USAGE = 6;
+	private static final int PROMPT_TOKENS = 7;
+	private static final int COMPLETION_TOKENS = 8;
+	private static final int PROMPT_EVAL_COUNT = 9;
+	private static final int EVAL_COUNT = 10;
+	private static final int ERROR = 11;
+	private static final String[] NAMES = { "", "content", "delta", "message", "finish_reason", "done_reason",
+			"usage", "prompt_tokens", "completion_tokens", "prompt_eval_count", "eval_count", "error" };
+
+	// SSE line states
+	private static final int FIELD = 0; // Start of line, matching "data:"
+	private static final int DATA_START = 1;
+	private static final int DONE_MATCH = 2;
+	private static final int DATA = 3;
+	private static final int SKIP = 4; // Other fields, comments
+	private static final byte[] DATA_FIELD = "data:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+	private final Framing framing;
+	private final String errorPrefix;
+	private final Consumer<String> onDelta;
+	private final JsonTokenizer json = new JsonTokenizer(this);
+
+	// Member name of each open container, and of the value coming next
+	private int[] path = new int[16];
+	private int depth;
+	private int key = OTHER;
+
+	private int line = FIELD;
+	private int matched;
+	private boolean done;
+
+	private String finishReason;
+	private long promptTokens = -1;
+	private long completionTokens = -1;
+
+	/**
+	 * @param errorPrefix starts the message of the IOException thrown for an
+	 *                    error in the reply
+	 * @param onDelta     receives each non-empty piece of content, in order
+	 */
+	ReplyParser(Framing framing, String errorPrefix, Consumer<String> onDelta) {
+		this.framing = framing;
+		this.errorPrefix = errorPrefix;
+		this.onDelta = onDelta;
+	}
+
+	/**
+	 * Parses the next bytes of the response.
+	 *
+	 * @return false once the stream said it is done ("data: [DONE]"); later
+	 *         bytes are ignored
+	 * @throws IOException malformed JSON, or an error object in the reply
+	 */
+	boolean feed(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining() && !done) {
+			byte b = buf.get();
+			if (framing == Framing.SSE)
+				sse(b);
+			else if (framing == Framing.NDJSON && b == '\n')
+				endDocument();
+			else
+				json.feed(b);
+		}
+		return !done;
+	}
+
+	/** A whole response body, e.g. of a non-streamed request. */
+	void feedAll(byte[] body) throws IOException {
+		feed(ByteBuffer.wrap(body));
+		json.end();
+	}
+
+	private void sse(byte b) throws IOException {
+		switch (line) {
+		case FIELD:
+			if (b == '\r')
+				return;
+			if (b == '\n') {
+				if (matched == 0)
+					endDocument(); // Blank line: end of the event
+				matched = 0;
+			} else if (b == DATA_FIELD[matched]) {
+				if (++matched == DATA_FIELD.length)
+					line = DATA_START;
+			} else {
+				line = SKIP;
+			}
+			return;
+		case DATA_START:
+			if (b == ' ')
+				return;
+			if (b == '[') {
+				line = DONE_MATCH;
+				matched = 1;
+				return;
+			}
+			line = DATA;
+			break;
+		case DONE_MATCH:
+			if (matched == DONE.length && (b == '\r' || b == '\n')) {
+				if (b == '\n')
+					done = true;
+				return;
+			}
+			if (matched < DONE.length && b == DONE[matched]) {
+				matched++;
+				return;
+			}
+			for (int i = 0; i < matched; i++) // Not [DONE] after all: a JSON array
+				json.feed(DONE[i]);
+			line = DATA;
+			break;
+		case SKIP:
+			if (b == '\n') {
+				line = FIELD;
+				matched = 0;
+			}
+			return;
+		default:
+			break;
+		}
+
+		// DATA: an event's lines together are one JSON document
+		if (b == '\n') {
+			line = FIELD;
+			matched = 0;
+		} else {
+			json.feed(b);
+		}
+	}
+
+	/** Between documents; drops one that was cut short. */
+	private void endDocument() throws IOException {
+		json.end();
+		if (json.depth() != 0) {
+			logger.fine("Incomplete JSON document in reply, skipped");
+			json.reset();
+		}
+		depth = 0;
+		key = OTHER;
+	}
+
+	String getFinishReason() {
+		return finishReason;
+	}
+
+	/** -1 if the reply did not say. */
+	long getPromptTokens() {
+		return promptTokens;
+	}
+
+	/** -1 if the reply did not say. */
+	long getCompletionTokens() {
+		return completionTokens;
+	}
+
+	/** Logs how the reply ended and adds its tokens to the emulator's totals. */
+	void report(String model) {
+		logger.fine(() -> model + ": finish " + finishReason + ", " + promptTokens + " prompt / "
+				+ completionTokens + " completion tokens");
+		if ("length".equals(finishReason))
+			logger.info(model + ": reply cut off at the token limit");
+		EmulatorMetrics.get().aiTokens(Math.max(0, promptTokens), Math.max(0, completionTokens));
+	}
+
+	// =======================================================================
+	// JsonTokenizer.Handler
+	// =======================================================================
+
+	@Override
+	public void startObject() {
+		push();
+	}
+
+	@Override
+	public void startArray() {
+		push();
+	}
+
+	private void push() {
+		if (depth == path.length)
+			path = Arrays.copyOf(path, depth * 2);
+		path[depth++] = key;
+		key = OTHER;
+	}
+
+	@Override
+	public void endObject() {
+		depth--;
+		key = OTHER;
+	}
+
+	@Override
+	public void endArray() {
+		depth--;
+		key = OTHER;
+	}
+
+	@Override
+	public void key(CharSequence name) {
+		key = OTHER;
+		for (int i = 1; i < NAMES.length; i++) {
+			if (NAMES[i].contentEquals(name)) {
+				key = i;
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void string(CharSequence value) throws IOException {
+		int parent = depth > 0 ? path[depth - 1] : OTHER;
+		switch (key) {
+		case CONTENT:
+			if ((parent == DELTA || parent == MESSAGE) && value.length() > 0)
+				onDelta.accept(value.toString());
+			break;
+		case FINISH_REASON:
+		case DONE_REASON:
+			finishReason = value.toString();
+			break;
+		case MESSAGE:
+			if (parent == ERROR)
+				throw new IOException(errorPrefix + ": " + value);
+			break;
+		case ERROR:
+			throw new IOException(errorPrefix + ": " + value);
+		default:
+			break;
+		}
+		key = OTHER;
+	}
+
+	@Override
+	public void literal(CharSequence text) {
+		int parent = depth > 0 ? path[depth - 1] : OTHER;
+		switch (key) {
+		case PROMPT_TOKENS:
+			if (parent == USAGE)
+				promptTokens = parseLong(text);
+			break;
+		case COMPLETION_TOKENS:
+			if (parent == USAGE)
+				completionTokens = parseLong(text);
+			break;
+		case PROMPT_EVAL_COUNT:
+			promptTokens = parseLong(text);
+			break;
+		case EVAL_COUNT:
+			completionTokens = parseLong(text);
+			break;
+		default:
+			break;
+		}
+		key = OTHER;
+	}
+
+	/** Digits of a non-negative integer; -1 for anything else (null, 1.5). */
+	private static long parseLong(CharSequence text) {
+		long n = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			n = n * 10 + (c - '0');
+		}
+		return text.length() > 0 ? n : -1;
+	}
+}
@@ -0,0 +1,588 @@
+package com.tn3270.automation;
+
+import static com.tn3270.constants.ProtocolConstants.AID_ENTER;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import com.tn3270.TN3270Session;
+import com.tn3270.macro.Macro;
+import com.tn3270.macro.MacroPlayer;
+import com.tn3270.model.ScreenModel;
+import com.tn3270.util.LoggerSetup;
+
+/**
+ * One automation client connection.
+ *
+ * Commands are one per line, either s3270 style or space separated:
+ *
+ * <pre>
+ * Auth(token)                    must come first: the token in ~/.tn3270api-port
+ * Connect(host[:port][,model])   "L:host" connects with TLS; waits for the first screen
+ * Disconnect / Close             Close also discards sessions created by Connect
+ *                                (which are also closed when their client leaves)
+ * Sessions / Use(name)           list sessions / switch this client to another one
+ * String("text")                 type at the cursor; \n presses Enter
+ * Enter Clear Attn SysReq PF(n) PA(n) AID(name)
+ * Tab BackTab Home Left Right Up Down BackSpace EraseEOF Key(name)
+ * MoveCursor(row,col)
+ * Wait([seconds,] Unlock|Output|InputField|Disconnect|String text|Cursor row col|Seconds n)
+ * Ascii | Ascii(row,col,len) | Ascii(row,col,rows,cols)
+ * Fields                         row col length P|U M|- "text" per field
+ * Transfer(get|put,hostDataset,localFile)
+ * Macro(name) / Query / Quit
+ * </pre>
+ *
+ * Rows and columns are 0-based, as in s3270. Every response is zero or more
+ * "data: " lines, a status line and "ok" or "error"; it is flushed as soon as
+ * the command finishes, so a Wait answers the moment its condition holds.
+ * AID keys return once the host has answered and unlocked the keyboard.
+ *
+ * The status line has s3270's fields: keyboard (U/L), formatting (F/U), field
+ * at the cursor (P/U), connection (C(host)/N), mode (I/N), model, rows, columns,
+ * cursor row, cursor column, window id, command time in seconds.
+ */
+final class AutomationClient implements Runnable {
+	private static final Logger logger = LoggerSetup.getLogger(AutomationClient.class);
+
+	private static final int DEFAULT_WAIT_SECONDS = 30;
+	private static final int TRANSFER_TIMEOUT_SECONDS = 600;
+	private static final long POLL_MS = 250;
+	private static final int AUTH_TIMEOUT_MS = 10_000;
+	private static final String NO_SESSION_STATUS = "U U U N N 2 24 80 0 0 0x0 ";
+
+	private final AutomationServer server;
+	private final Socket socket;
+	private final int id;
+
+	private TN3270Session session;
+	private boolean authenticated;
+	private final List<TN3270Session> created = new ArrayList<>(); // By this client's Connects
+	private long observedUpdates; // Host update count at the end of the previous command
+	private final List<String> data = new ArrayList<>();
+
+	AutomationClient(AutomationServer server, Socket socket, int id) {
+		this.server = server;
+		this.socket = socket;
+		this.id = id;
+	}
+
+	@Override
+	public void run() {
+		logger.info("Automation client " + id + " connected");
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			s.setSoTimeout(AUTH_TIMEOUT_MS); // Unauthenticated clients do not get to hold a slot
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				long t0 = System.nanoTime();
+				data.clear();
+				boolean ok;
+				boolean quit = false;
+				try {
+					List<String> cmd = parse(line);
+					if (!authenticated) {
+						authenticate(cmd);
+						socket.setSoTimeout(0);
+					} else {
+						quit = cmd.get(0).equalsIgnoreCase("quit");
+						execute(cmd);
+					}
+					ok = true;
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (TimeoutException e) {
+					data.add("Wait timed out: " + e.getMessage());
+					ok = false;
+				} catch (Exception e) {
+					data.add(e.getMessage() != null ? e.getMessage() : e.toString());
+					ok = false;
+				}
+				if (session != null)
+					observedUpdates = session.getHostUpdateCount();
+				for (String d : data)
+					out.write("data: " + d + "\n");
+				out.write(status(System.nanoTime() - t0) + "\n");
+				out.write(ok ? "ok\n" : "error\n");
+				out.flush();
+				if (quit || !authenticated)
+					break;
+			}
+		} catch (InterruptedException e) {
+			// Server stopping
+		} catch (IOException e) {
+			logger.fine(() -> "Automation client " + id + ": " + e.getMessage());
+		} finally {
+			// FIX: Sessions this client connected must not outlive it
+			for (TN3270Session s : created)
+				server.releaseSession(s);
+			server.clientClosed(socket);
+		}
+		logger.info("Automation client " + id + " disconnected");
+	}
+
+	/** Answers a connection the server will not serve with one error response and closes it. */
+	static void refuse(Socket socket, String reason) {
+		try (Socket s = socket;
+				Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+			out.write("data: " + reason + "\n");
+			out.write(NO_SESSION_STATUS + "0.000\n");
+			out.write("error\n");
+		} catch (IOException e) {
+			// Client already gone
+		}
+	}
+
+	// =======================================================================
+	// COMMANDS
+	// =======================================================================
+
+	/** The first command: anything but this run's token ends the connection. */
+	private void authenticate(List<String> cmd) {
+		if (!cmd.get(0).equalsIgnoreCase("auth") || cmd.size() < 2 || !server.checkToken(cmd.get(1))) {
+			logger.warning("Automation client " + id + " did not authenticate; disconnected");
+			throw new SecurityException("Authentication required: Auth(token), token from " + server.getTokenFile());
+		}
+		authenticated = true;
+	}
+
+	private void execute(List<String> cmd) throws Exception {
+		String name = cmd.get(0).toLowerCase();
+		List<String> args = cmd.subList(1, cmd.size());
+		switch (name) {
+		case "quit":
+		case "query":
+		case "auth": // Already authenticated
+			return;
+		case "connect":
+			connect(arg(args, 0), (args.size() > 1) ? args.get(1) : null);
+			return;
+		case "disconnect":
+			requireSession().disconnect();
+			return;
+		case "close":
+			server.closeSession(requireSession());
+			session = null;
+			return;
+		case "sessions":
+			for (String n : server.names()) {
+				TN3270Session s = server.get(n);
+				if (s != null)
+					data.add(n + (s == session ? " *" : "") + (s.isConnected() ? " C(" + s.getCurrentHost() + ")" : " N"));
+			}
+			return;
+		case "use": {
+			TN3270Session s = server.get(arg(args, 0));
+			if (s == null)
+				throw new IllegalArgumentException("No session '" + args.get(0) + "'");
+			session = s;
+			observedUpdates = s.getHostUpdateCount();
+			return;
+		}
+		case "string":
+			string(arg(args, 0));
+			return;
+		case "enter":
+		case "clear":
+		case "attn":
+		case "sysreq":
+			play(new Macro("api").aid(Macro.parseAid(name)));
+			return;
+		case "pf":
+		case "pa":
+			play(new Macro("api").aid(Macro.parseAid(name + arg(args, 0))));
+			return;
+		case "aid":
+			play(new Macro("api").aid(Macro.parseAid(arg(args, 0))));
+			return;
+		case "key":
+			key(arg(args, 0).toLowerCase());
+			return;
+		case "movecursor": {
+			ScreenModel sm = requireSession().getScreenModel();
+			int r = integer(args, 0);
+			int c = integer(args, 1);
+			if (r < 0 || r >= sm.getRows() || c < 0 || c >= sm.getCols())
+				throw new IllegalArgumentException("Position out of range");
+			play(new Macro("api").cursor(r, c));
+			return;
+		}
+		case "wait":
+			await(args);
+			return;
+		case "ascii":
+			ascii(args);
+			return;
+		case "fields":
+			fields();
+			return;
+		case "transfer":
+			transfer(arg(args, 0).toLowerCase(), arg(args, 1), arg(args, 2));
+			return;
+		case "macro":
+			play(Macro.load(arg(args, 0)));
+			return;
+		default:
+			if (Macro.KEYS.contains(name)) {
+				key(name);
+				return;
+			}
+			throw new IllegalArgumentException("Unknown command '" + cmd.get(0) + "'");
+		}
+	}
+
+	private void connect(String target, String model) throws Exception {
+		boolean tls = false;
+		if (target.regionMatches(true, 0, "L:", 0, 2)) {
+			tls = true;
+			target = target.substring(2);
+		}
+		String host = target;
+		int port = 23;
+		int colon = target.lastIndexOf(':');
+		if (colon > 0) {
+			host = target.substring(0, colon);
+			port = Integer.parseInt(target.substring(colon + 1));
+		}
+
+		// Reuse this client's idle session unless another model was asked for
+		TN3270Session current = session;
+		TN3270Session s = (current == null || current.isConnected()
+				|| (model != null && !model.equals(current.getModelName())))
+						? server.createSession(model != null ? model : "3279-2")
+						: current;
+		if (s != current)
+			created.add(s);
+		session = s;
+		s.setUseTLS(tls);
+
+		long before = s.getHostUpdateCount();
+		try {
+			s.connect(host, port).get(DEFAULT_WAIT_SECONDS, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			throw new IOException("Connect failed: " + e.getCause().getMessage());
+		}
+		if (!s.isConnected())
+			throw new IOException("Connect to " + host + ":" + port + " failed");
+		data.add(server.nameOf(s));
+		// The connection is usable once the host has painted its first screen
+		awaitCondition(() -> s.getHostUpdateCount() != before, DEFAULT_WAIT_SECONDS * 1000L, true, "first screen");
+	}
+
+	/** Types text; each newline presses Enter and waits for the host. */
+	private void string(String text) throws Exception {
+		Macro m = new Macro("api");
+		String[] parts = text.split("\n", -1);
+		for (int i = 0; i < parts.length; i++) {
+			if (!parts[i].isEmpty())
+				m.type(parts[i]);
+			if (i < parts.length - 1)
+				m.aid(AID_ENTER);
+		}
+		play(m);
+	}
+
+	private void key(String key) throws Exception {
+		if (!Macro.KEYS.contains(key))
+			throw new IllegalArgumentException("Unknown key '" + key + "'");
+		play(new Macro("api").key(key));
+	}
+
+	private void play(Macro macro) throws Exception {
+		new MacroPlayer(requireSession()).run(macro);
+	}
+
+	private void await(List<String> args) throws Exception {
+		TN3270Session s = requireSession();
+		ScreenModel sm = s.getScreenModel();
+		int i = 0;
+		long timeoutMs = DEFAULT_WAIT_SECONDS * 1000L;
+		if (!args.isEmpty() && args.get(0).matches("\\d+(\\.\\d+)?")) {
+			timeoutMs = (long) (Double.parseDouble(args.get(0)) * 1000);
+			i = 1;
+		}
+		String what = (i < args.size()) ? args.get(i).toLowerCase() : "unlock";
+		long seen = observedUpdates;
+		switch (what) {
+		case "unlock":
+			awaitCondition(() -> !s.isKeyboardLocked(), timeoutMs, true, what);
+			break;
+		case "output":
+			awaitCondition(() -> s.getHostUpdateCount() != seen, timeoutMs, true, what);
+			break;
+		case "inputfield":
+			awaitCondition(() -> !s.isKeyboardLocked() && hasInputField(sm), timeoutMs, true, what);
+			break;
+		case "disconnect":
+			awaitCondition(() -> !s.isConnected(), timeoutMs, false, what);
+			break;
+		case "string": {
+			String text = arg(args, i + 1);
+			awaitCondition(() -> screenText(sm).contains(text), timeoutMs, true, what + " " + text);
+			break;
+		}
+		case "cursor": {
+			int pos = integer(args, i + 1) * sm.getCols() + integer(args, i + 2);
+			awaitCondition(() -> sm.getCursorPos() == pos, timeoutMs, true, what);
+			break;
+		}
+		case "seconds":
+			Thread.sleep((long) (Double.parseDouble(arg(args, i + 1)) * 1000));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown wait condition '" + what + "'");
+		}
+	}
+
+	/** Blocks on host updates (re-checking every POLL_MS) until the condition holds. */
+	private void awaitCondition(BooleanSupplier condition, long timeoutMs, boolean needConnection, String what)
+			throws IOException, TimeoutException, InterruptedException {
+		TN3270Session s = session;
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (true) {
+			if (condition.getAsBoolean())
+				return;
+			if (needConnection && !s.isConnected())
+				throw new IOException("Not connected");
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				throw new TimeoutException(what);
+			s.awaitHostUpdate(Math.min(left, POLL_MS));
+		}
+	}
+
+	private void ascii(List<String> args) {
+		ScreenModel sm = requireSession().getScreenModel();
+		int rows = sm.getRows();
+		int cols = sm.getCols();
+		if (args.isEmpty()) {
+			for (int r = 0; r < rows; r++)
+				data.add(text(sm, r * cols, cols));
+		} else if (args.size() == 3) {
+			int start = integer(args, 0) * cols + integer(args, 1);
+			int len = Math.min(integer(args, 2), sm.getSize() - start);
+			if (start < 0 || len < 0)
+				throw new IllegalArgumentException("Position out of range");
+			data.add(text(sm, start, len));
+		} else if (args.size() == 4) {
+			int r0 = integer(args, 0);
+			int c0 = integer(args, 1);
+			int nRows = Math.min(integer(args, 2), rows - r0);
+			int nCols = Math.min(integer(args, 3), cols - c0);
+			if (r0 < 0 || c0 < 0 || nRows < 0 || nCols < 0)
+				throw new IllegalArgumentException("Position out of range");
+			for (int r = r0; r < r0 + nRows; r++)
+				data.add(text(sm, r * cols + c0, nCols));
+		} else {
+			throw new IllegalArgumentException("Usage: Ascii | Ascii(row,col,len) | Ascii(row,col,rows,cols)");
+		}
+	}
+
+	private void fields() {
+		ScreenModel sm = requireSession().getScreenModel();
+		int cols = sm.getCols();
+		int size = sm.getSize();
+		int first = sm.nextFieldStart(0);
+		if (first < 0)
+			return;
+		int fa = first;
+		do {
+			int next = sm.findNextField(fa);
+			int start = (fa + 1) % size;
+			int len = Math.floorMod(next - fa - 1, size);
+			if (next == fa)
+				len = size - 1; // Single field: wraps around the whole screen
+			byte attr = sm.getAttr(fa);
+			StringBuilder line = new StringBuilder();
+			line.append(start / cols).append(' ').append(start % cols).append(' ').append(len).append(' ');
+			line.append((attr & 0x20) != 0 ? 'P' : 'U').append(' ').append((attr & 0x01) != 0 ? 'M' : '-');
+			line.append(" \"").append(wrapped(sm, start, len).replace("\"", "\\\"")).append('"');
+			data.add(line.toString());
+			fa = next;
+		} while (fa != first);
+	}
+
+	private void transfer(String direction, String hostDataset, String localPath) throws Exception {
+		TN3270Session s = requireSession();
+		File local = new File(localPath);
+		CompletableFuture<byte[]> result = new CompletableFuture<>();
+		TN3270Session.MemoryTransferCallback callback = new TN3270Session.MemoryTransferCallback() {
+			@Override
+			public void onDownloadComplete(byte[] content) {
+				result.complete(content);
+			}
+
+			@Override
+			public void onUploadComplete() {
+				result.complete(null);
+			}
+
+			@Override
+			public void onError(String message) {
+				result.completeExceptionally(new IOException(message));
+			}
+		};
+
+		if (direction.equals("get")) {
+			SwingUtilities.invokeLater(() -> s.downloadTextFromHost(hostDataset, null, callback));
+		} else if (direction.equals("put")) {
+			String text = new String(Files.readAllBytes(local.toPath()), StandardCharsets.UTF_8);
+			SwingUtilities.invokeLater(() -> s.uploadTextToHost(text, hostDataset, null, callback));
+		} else {
+			throw new IllegalArgumentException("Transfer direction must be get or put");
+		}
+
+		byte[] content;
+		try {
+			content = result.get(TRANSFER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			throw new IOException("Transfer failed: " + e.getCause().getMessage());
+		}
+		if (content != null) {
+			Files.write(local.toPath(), content);
+			data.add(content.length + " bytes");
+		}
+	}
+
+	// =======================================================================
+	// HELPERS
+	// =======================================================================
+
+	private TN3270Session requireSession() {
+		if (session == null)
+			throw new IllegalStateException("No session; use Connect or Use first");
+		return session;
+	}
+
+	private String status(long nanos) {
+		TN3270Session s = session;
+		String time = String.format("%.3f", nanos / 1e9);
+		if (s == null)
+			return NO_SESSION_STATUS + time;
+		ScreenModel sm = s.getScreenModel();
+		int cursor = sm.getCursorPos();
+		String model = s.getModelName();
+		StringBuilder sb = new StringBuilder();
+		sb.append(s.isKeyboardLocked() ? 'L' : 'U').append(' ');
+		sb.append(sm.isFormatted() ? 'F' : 'U').append(' ');
+		sb.append(sm.isProtected(cursor) ? 'P' : 'U').append(' ');
+		sb.append(s.isConnected() ? "C(" + s.getCurrentHost() + ")" : "N").append(' ');
+		sb.append(s.isConnected() ? 'I' : 'N').append(' ');
+		sb.append(model.substring(model.length() - 1)).append(' ');
+		sb.append(sm.getRows()).append(' ').append(sm.getCols()).append(' ');
+		sb.append(cursor / sm.getCols()).append(' ').append(cursor % sm.getCols()).append(' ');
+		sb.append("0x0 ").append(time);
+		return sb.toString();
+	}
+
+	private static boolean hasInputField(ScreenModel sm) {
+		int size = sm.getSize();
+		for (int p = sm.nextFieldStart(0); p >= 0; p = sm.nextFieldStart(p + 1)) {
+			if ((sm.getAttr(p) & 0x20) == 0)
+				return true;
+			if (p + 1 >= size)
+				break;
+		}
+		return false;
+	}
+
+	private static String screenText(ScreenModel sm) {
+		return text(sm, 0, sm.getSize());
+	}
+
+	/** Screen text with attribute positions and nulls shown as blanks. */
+	private static String text(ScreenModel sm, int start, int len) {
+		char[] out = new char[len];
+		for (int i = 0; i < len; i++) {
+			int p = start + i;
+			char c = sm.getChar(p);
+			out[i] = (c < ' ' || sm.isFieldStart(p)) ? ' ' : c;
+		}
+		return new String(out);
+	}
+
+	private static String wrapped(ScreenModel sm, int start, int len) {
+		int size = sm.getSize();
+		if (start + len <= size)
+			return text(sm, start, len);
+		return text(sm, start, size - start) + text(sm, 0, start + len - size);
+	}
+
+	private static String arg(List<String> args, int i) {
+		if (i >= args.size())
+			throw new IllegalArgumentException("Missing argument");
+		return args.get(i);
+	}
+
+	private static int integer(List<String> args, int i) {
+		return Integer.parseInt(arg(args, i));
+	}
+
+	/**
+	 * Splits "Name(a, b, "c")" or "Name a b "c"" into the name and its
+	 * arguments. Quoted strings support \" \\ and \n.
+	 */
+	static List<String> parse(String line) {
+		List<String> out = new ArrayList<>();
+		int i = 0;
+		int n = line.length();
+		while (i < n && (Character.isLetterOrDigit(line.charAt(i)) || line.charAt(i) == '$'))
+			i++;
+		if (i == 0)
+			throw new IllegalArgumentException("Syntax error: " + line);
+		out.add(line.substring(0, i));
+
+		while (i < n) {
+			char c = line.charAt(i);
+			if (Character.isWhitespace(c) || c == ',' || c == '(' || c == ')') {
+				i++;
+			} else if (c == '"') {
+				StringBuilder sb = new StringBuilder();
+				i++;
+				while (true) {
+					if (i >= n)
+						throw new IllegalArgumentException("Unterminated string");
+					c = line.charAt(i++);
+					if (c == '"')
+						break;
+					if (c == '\\' && i < n) {
+						c = line.charAt(i++);
+						if (c == 'n')
+							c = '\n';
+					}
+					sb.append(c);
+				}
+				out.add(sb.toString());
+			} else {
+				int start = i;
+				while (i < n && !Character.isWhitespace(line.charAt(i)) && ",()".indexOf(line.charAt(i)) < 0)
+					i++;
+				out.add(line.substring(start, i));
+			}
+		}
+		return out;
+	}
+}
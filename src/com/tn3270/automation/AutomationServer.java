@@ -0,0 +1,266 @@
+package com.tn3270.automation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import com.tn3270.TN3270Session;
+import com.tn3270.util.LoggerSetup;
+import com.tn3270.util.PrivateFiles;
+import com.tn3270.util.SessionExecutor;
+
+/**
+ * Local automation endpoint (s3270-style scripting).
+ *
+ * Listens on the loopback interface only. Loopback is no boundary between
+ * local users, so every run makes a random token and writes it to a file only
+ * the owner can read (~/.tn3270api-port); a client's first command must be
+ * Auth(token) or it is disconnected. Each client connection gets its own
+ * thread and sends one command per line; commands are executed in order and
+ * every response is written as soon as it is ready, so clients may pipeline
+ * as many commands as they like. See {@link AutomationClient} for the command
+ * set and the response format.
+ *
+ * Sessions are shared by all clients and addressed by name: sessions of the
+ * main window are registered by the emulator, Connect creates new ones through
+ * the {@link SessionFactory} (by default sessions without a window).
+ */
+public final class AutomationServer {
+	private static final Logger logger = LoggerSetup.getLogger(AutomationServer.class);
+
+	public static final int DEFAULT_PORT = 3271;
+	private static final int MAX_CLIENTS = 64;
+	private static final int TOKEN_BYTES = 32;
+
+	/** Creates a session for a Connect command (not yet connected). */
+	public interface SessionFactory {
+		TN3270Session create(String name, String model) throws Exception;
+	}
+
+	private final int port;
+	private final SessionFactory factory;
+	private final SessionExecutor executor = new SessionExecutor("tn3270-api", MAX_CLIENTS + 1);
+	private final Map<String, TN3270Session> sessions = new ConcurrentHashMap<>();
+	private final Map<TN3270Session, Boolean> owned = new ConcurrentHashMap<>();
+	private final AtomicInteger sessionCounter = new AtomicInteger();
+	private final AtomicInteger clientCounter = new AtomicInteger();
+	private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private volatile ServerSocket serverSocket;
+	private byte[] token;
+	private Path tokenFile;
+
+	public AutomationServer(int port) {
+		this(port, (name, model) -> new TN3270Session(model));
+	}
+
+	public AutomationServer(int port, SessionFactory factory) {
+		this.port = port;
+		this.factory = factory;
+	}
+
+	/** Binds to 127.0.0.1:port and starts accepting clients in the background. */
+	public void start() throws IOException {
+		ServerSocket ss = new ServerSocket();
+		ss.setReuseAddress(true);
+		ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		try {
+			writeToken(ss.getLocalPort());
+		} catch (IOException e) {
+			ss.close();
+			throw new IOException("Cannot write the automation token: " + e.getMessage(), e);
+		}
+		serverSocket = ss;
+		executor.submit("accept", this::acceptLoop);
+		logger.info("Automation API listening on " + ss.getLocalSocketAddress() + ", token in " + tokenFile);
+	}
+
+	/** File holding this run's token (readable by the owner only); null before start(). */
+	public File getTokenFile() {
+		Path p = tokenFile;
+		return (p != null) ? p.toFile() : null;
+	}
+
+	/** A new random token, in a new file that only the owner can read or write. */
+	private void writeToken(int boundPort) throws IOException {
+		byte[] raw = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(raw);
+		StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+		for (byte b : raw)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+		Path p = new File(System.getProperty("user.home"), ".tn3270api-" + boundPort).toPath();
+		Files.deleteIfExists(p); // Left by a run that did not stop cleanly
+		PrivateFiles.create(p);
+		Files.write(p, (hex + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII));
+		token = hex.toString().getBytes(StandardCharsets.US_ASCII);
+		tokenFile = p;
+	}
+
+	/** True if the client presented this run's token (compared in constant time). */
+	boolean checkToken(String presented) {
+		byte[] t = token;
+		return t != null && presented != null
+				&& MessageDigest.isEqual(t, presented.trim().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/** Port actually bound (useful when started with port 0). */
+	public int getPort() {
+		ServerSocket ss = serverSocket;
+		return (ss != null) ? ss.getLocalPort() : port;
+	}
+
+	public void stop() {
+		try {
+			ServerSocket ss = serverSocket;
+			if (ss != null)
+				ss.close();
+		} catch (IOException e) {
+		}
+		// FIX: Clients blocked reading their socket do not notice the interrupt
+		for (Socket c : clients) {
+			try {
+				c.close();
+			} catch (IOException e) {
+			}
+		}
+		clients.clear();
+		executor.shutdown();
+		for (TN3270Session s : owned.keySet())
+			s.close();
+		owned.clear();
+		Path p = tokenFile;
+		if (p != null) {
+			try {
+				Files.deleteIfExists(p);
+			} catch (IOException e) {
+			}
+		}
+		stopped.countDown();
+	}
+
+	/** Blocks until stop() is called (headless mode keeps the JVM alive with this). */
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	private void acceptLoop() {
+		ServerSocket ss = serverSocket;
+		while (!ss.isClosed()) {
+			try {
+				Socket s = ss.accept();
+				s.setTcpNoDelay(true);
+				// FIX: Over the limit the client would wait in the executor's queue
+				// forever; tell it and hang up instead
+				if (clients.size() >= MAX_CLIENTS) {
+					logger.warning("Automation client refused: " + MAX_CLIENTS + " clients connected");
+					AutomationClient.refuse(s, "Too many automation clients (limit " + MAX_CLIENTS + ")");
+					continue;
+				}
+				clients.add(s);
+				int id = clientCounter.incrementAndGet();
+				executor.submit("client" + id, new AutomationClient(this, s, id));
+			} catch (IOException e) {
+				if (!ss.isClosed())
+					logger.warning("Automation accept failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/** A client's connection has ended (AutomationClient). */
+	void clientClosed(Socket s) {
+		clients.remove(s);
+	}
+
+	// =======================================================================
+	// SESSION REGISTRY
+	// =======================================================================
+
+	/** Makes a session (e.g. a tab of the main window) reachable under a name. */
+	public void register(String name, TN3270Session session) {
+		sessions.put(name, session);
+	}
+
+	public void unregister(TN3270Session session) {
+		sessions.values().removeIf(s -> s == session);
+		owned.remove(session);
+	}
+
+	TN3270Session get(String name) {
+		return sessions.get(name);
+	}
+
+	/** Names of all sessions, sorted. */
+	List<String> names() {
+		List<String> names = new ArrayList<>(sessions.keySet());
+		names.sort(String.CASE_INSENSITIVE_ORDER);
+		return names;
+	}
+
+	String nameOf(TN3270Session session) {
+		for (Map.Entry<String, TN3270Session> e : sessions.entrySet()) {
+			if (e.getValue() == session)
+				return e.getKey();
+		}
+		return "?";
+	}
+
+	/** Creates and registers a new session for Connect (built on the EDT, like every Swing component). */
+	TN3270Session createSession(String model) throws Exception {
+		String name = "api-" + sessionCounter.incrementAndGet();
+		TN3270Session s;
+		if (SwingUtilities.isEventDispatchThread()) {
+			s = factory.create(name, model);
+		} else {
+			FutureTask<TN3270Session> task = new FutureTask<>(() -> factory.create(name, model));
+			SwingUtilities.invokeAndWait(task);
+			try {
+				s = task.get();
+			} catch (ExecutionException e) {
+				throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+			}
+		}
+		owned.put(s, Boolean.TRUE);
+		register(name, s);
+		return s;
+	}
+
+	/** Closes a session created through the API (window sessions are only disconnected). */
+	void closeSession(TN3270Session session) {
+		if (!releaseSession(session))
+			session.disconnect();
+	}
+
+	/**
+	 * Closes a session created through the API, unless already closed.
+	 *
+	 * @return false if the session was not one (or no longer is)
+	 */
+	boolean releaseSession(TN3270Session session) {
+		if (owned.remove(session) == null)
+			return false;
+		unregister(session);
+		session.close();
+		return true;
+	}
+}
@@ -0,0 +1,298 @@
+package com.tn3270.automation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.tn3270.model.ScreenModel;
+import com.tn3270.util.PrivateFiles;
+
+/**
+ * A session's presentation space published in a memory-mapped file, so that
+ * processes on the same machine can read screens without screenshots, the
+ * clipboard or any system call, and feed input back through a ring.
+ *
+ * All numbers are little-endian. Layout (offsets in bytes, N = capacity):
+ *
+ * <pre>
+ *  0  int   magic 0x53504E54 ("TNPS")
+ *  4  int   layout version (1)
+ *  8  long  sequence - odd while the screen is being written
+ * 16  long  generation - host updates (EORs) since the session was created
+ * 24  int   rows
+ * 28  int   columns
+ * 32  int   cursor (buffer address)
+ * 36  int   flags: 1 = keyboard locked, 2 = connected, 4 = formatted
+ * 40  int   N, cells per plane (rows * columns &lt;= N)
+ * 44  int   input ring entries (power of two)
+ * 48  long  time of the last update (epoch ms)
+ * 56  -     reserved
+ * 64        N chars  (UTF-16) screen text
+ * 64 + 2N   N bytes  field attribute (non-zero = attribute position)
+ * 64 + 3N   N bytes  extended color
+ * 64 + 4N   N bytes  highlighting
+ * 64 + 5N   N bytes  character set
+ * R = 64 + 6N rounded up to 8:
+ * R         int   input head - next slot the external writer fills
+ * R + 4     int   input tail - next slot the session takes
+ * R + 8     int[] input entries
+ * </pre>
+ *
+ * The file can be read and written by its owner only, and the text of
+ * non-display fields (passwords) is published as blanks, as on the screen.
+ *
+ * Reading is a seqlock: read the sequence, skip if odd, copy what you need,
+ * re-read the sequence and retry if it changed. Fields 16..55 are covered by
+ * the sequence as well.
+ *
+ * Input entries are (type &lt;&lt; 24) | value: 1 = character (UTF-16 code),
+ * 2 = AID byte, 3 = key (index into Macro.KEYS), 4 = move cursor (address).
+ * A single writer stores the entry at head &amp; (size - 1), then publishes
+ * head + 1; the ring is full while head - tail == size. The session only
+ * takes entries while the keyboard is unlocked, so input queued behind an AID
+ * waits for the host's answer.
+ */
+public final class SharedScreen implements AutoCloseable {
+
+	public static final int MAGIC = 0x53504E54;
+	public static final int VERSION = 1;
+	public static final int DEFAULT_INPUT_SIZE = 1024;
+	private static final int MAX_CAPACITY = 1 << 20;
+
+	public static final int FLAG_LOCKED = 1;
+	public static final int FLAG_CONNECTED = 2;
+	public static final int FLAG_FORMATTED = 4;
+
+	public static final int INPUT_CHAR = 1;
+	public static final int INPUT_AID = 2;
+	public static final int INPUT_KEY = 3;
+	public static final int INPUT_CURSOR = 4;
+
+	private static final int OFF_SEQ = 8;
+	private static final int OFF_GENERATION = 16;
+	private static final int OFF_ROWS = 24;
+	private static final int OFF_COLS = 28;
+	private static final int OFF_CURSOR = 32;
+	private static final int OFF_FLAGS = 36;
+	private static final int OFF_CAPACITY = 40;
+	private static final int OFF_INPUT_SIZE = 44;
+	private static final int OFF_TIME = 48;
+	private static final int HEADER = 64;
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class,
+			ByteOrder.LITTLE_ENDIAN);
+
+	private final File file;
+	private final MappedByteBuffer map;
+	private final int capacity;
+	private final int inputSize;
+	private final int ringOffset;
+	private final boolean owner; // Created (and written) by this process
+
+	private final CharBuffer chars;
+	private final ByteBuffer attrs;
+	private final ByteBuffer colors;
+	private final ByteBuffer highlights;
+	private final ByteBuffer charsets;
+	private final char[] text; // Owner: screen text being published, non-display fields blanked
+
+	/**
+	 * Creates the file (which must not exist yet), readable and writable by the
+	 * owner only, and maps it for a session with up to capacity cells.
+	 */
+	public SharedScreen(File file, int capacity) throws IOException {
+		this(file, capacity, DEFAULT_INPUT_SIZE, true);
+	}
+
+	private SharedScreen(File file, int capacity, int inputSize, boolean owner) throws IOException {
+		if (Integer.bitCount(inputSize) != 1)
+			throw new IllegalArgumentException("Input ring size must be a power of two");
+		this.file = file;
+		this.capacity = capacity;
+		this.inputSize = inputSize;
+		this.owner = owner;
+		this.ringOffset = (HEADER + 6 * capacity + 7) & ~7;
+		long length = ringOffset + 8L + 4L * inputSize;
+		this.text = owner ? new char[capacity] : null;
+
+		// FIX: Never world-readable, and never a file (or link) someone else put there
+		if (owner)
+			PrivateFiles.create(file.toPath());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel ch = raf.getChannel()) {
+			if (owner)
+				raf.setLength(length);
+			else if (raf.length() < length)
+				throw new IOException(file + " is truncated");
+			map = ch.map(FileChannel.MapMode.READ_WRITE, 0, length);
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		chars = slice(HEADER, 2 * capacity).asCharBuffer();
+		attrs = slice(HEADER + 2 * capacity, capacity);
+		colors = slice(HEADER + 3 * capacity, capacity);
+		highlights = slice(HEADER + 4 * capacity, capacity);
+		charsets = slice(HEADER + 5 * capacity, capacity);
+
+		if (owner) {
+			map.putInt(0, MAGIC);
+			map.putInt(4, VERSION);
+			map.putInt(OFF_CAPACITY, capacity);
+			map.putInt(OFF_INPUT_SIZE, inputSize);
+		}
+	}
+
+	/** Maps an existing file written by a session (for readers and input writers). */
+	public static SharedScreen open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			raf.getChannel().read(h, 0);
+			if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION)
+				throw new IOException(file + " is not a presentation space file");
+			int capacity = h.getInt(OFF_CAPACITY);
+			int inputSize = h.getInt(OFF_INPUT_SIZE);
+			if (capacity <= 0 || capacity > MAX_CAPACITY || inputSize <= 0 || Integer.bitCount(inputSize) != 1)
+				throw new IOException(file + " has an invalid header");
+			return new SharedScreen(file, capacity, inputSize, false);
+		}
+	}
+
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer b = map.duplicate();
+		b.position(offset).limit(offset + length);
+		return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	// =======================================================================
+	// WRITER (session)
+	// =======================================================================
+
+	/** Copies the screen into the file inside one seqlock write section. */
+	public synchronized void publish(ScreenModel screen, long generation, boolean locked, boolean connected) {
+		int size = Math.min(screen.getSize(), capacity);
+		long seq = (long) LONGS.getOpaque(map, OFF_SEQ);
+		LONGS.setOpaque(map, OFF_SEQ, seq + 1);
+		VarHandle.storeStoreFence();
+
+		System.arraycopy(screen.getBuffer(), 0, text, 0, size);
+		screen.maskNonDisplay(text, size);
+		chars.clear();
+		chars.put(text, 0, size);
+		attrs.clear();
+		attrs.put(screen.getAttributes(), 0, size);
+		colors.clear();
+		colors.put(screen.getExtendedColors(), 0, size);
+		highlights.clear();
+		highlights.put(screen.getHighlight(), 0, size);
+		charsets.clear();
+		charsets.put(screen.getCharsets(), 0, size);
+
+		map.putLong(OFF_GENERATION, generation);
+		map.putInt(OFF_ROWS, screen.getRows());
+		map.putInt(OFF_COLS, screen.getCols());
+		map.putInt(OFF_CURSOR, screen.getCursorPos());
+		map.putInt(OFF_FLAGS, (locked ? FLAG_LOCKED : 0) | (connected ? FLAG_CONNECTED : 0)
+				| (screen.isFormatted() ? FLAG_FORMATTED : 0));
+		map.putLong(OFF_TIME, System.currentTimeMillis());
+
+		LONGS.setRelease(map, OFF_SEQ, seq + 2);
+	}
+
+	/** True if the input ring has entries (one volatile read; cheap enough to poll). */
+	public boolean hasInput() {
+		return (int) INTS.getAcquire(map, ringOffset) != (int) INTS.getOpaque(map, ringOffset + 4);
+	}
+
+	/** Next input entry without taking it, or 0 if the ring is empty. */
+	public int peekInput() {
+		int head = (int) INTS.getAcquire(map, ringOffset);
+		int tail = (int) INTS.getOpaque(map, ringOffset + 4);
+		if (head == tail)
+			return 0;
+		return map.getInt(ringOffset + 8 + 4 * (tail & (inputSize - 1)));
+	}
+
+	/** Takes the entry returned by peekInput(). */
+	public void consumeInput() {
+		int tail = (int) INTS.getOpaque(map, ringOffset + 4);
+		INTS.setRelease(map, ringOffset + 4, tail + 1);
+	}
+
+	// =======================================================================
+	// EXTERNAL SIDE (readers and input writers, usually in another process)
+	// =======================================================================
+
+	/** Queues an input entry; false if the ring is full. Single writer only. */
+	public boolean offerInput(int type, int value) {
+		int head = (int) INTS.getOpaque(map, ringOffset);
+		int tail = (int) INTS.getAcquire(map, ringOffset + 4);
+		if (head - tail >= inputSize)
+			return false;
+		map.putInt(ringOffset + 8 + 4 * (head & (inputSize - 1)), (type << 24) | (value & 0xFFFFFF));
+		INTS.setRelease(map, ringOffset, head + 1);
+		return true;
+	}
+
+	public long getGeneration() {
+		return (long) LONGS.getAcquire(map, OFF_GENERATION);
+	}
+
+	/**
+	 * Consistent copy of the screen text, one string per row (attribute
+	 * positions and nulls as blanks). Retries while the session is writing.
+	 *
+	 * @throws IOException the file holds a screen size that does not fit
+	 *                     (not written by a session, or damaged)
+	 */
+	public String[] readRows() throws IOException {
+		while (true) {
+			long seq = (long) LONGS.getAcquire(map, OFF_SEQ);
+			if ((seq & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			int rows = map.getInt(OFF_ROWS);
+			int cols = map.getInt(OFF_COLS);
+			// FIX: A bad size read under a stable sequence is what the file says - retrying cannot help
+			boolean valid = rows >= 0 && cols >= 0 && (long) rows * cols <= capacity;
+			String[] out = valid ? new String[rows] : null;
+			if (valid) {
+				char[] row = new char[cols];
+				for (int r = 0; r < rows; r++) {
+					for (int c = 0; c < cols; c++) {
+						int p = r * cols + c;
+						char ch = chars.get(p);
+						row[c] = (ch < ' ' || attrs.get(p) != 0) ? ' ' : ch;
+					}
+					out[r] = new String(row);
+				}
+			}
+			VarHandle.loadLoadFence();
+			if ((long) LONGS.getOpaque(map, OFF_SEQ) != seq)
+				continue;
+			if (!valid)
+				throw new IOException(file + " has an invalid screen size " + rows + "x" + cols);
+			return out;
+		}
+	}
+
+	@Override
+	public void close() {
+		// The mapping is released by the GC; the owner removes the file
+		if (owner)
+			file.delete();
+	}
+}
@@ -53,7 +53,7 @@ public class ProtocolConstants {
 	public static final int AID_ENTER = 0x7D;
 	public static final int AID_CLEAR = 0x6D;
 	public static final int AID_SYSREQ = 0xF0;
-	public static final int AID_ATTN = 0x6A;
+	public static final int AID_ATTN = 0x6A; // Key id only: sent as Telnet IAC IP, never as an AID
 	public static final int AID_CURSOR_SELECT = 0x7E;
 	public static final int AID_PA1 = 0x6C;
 	public static final int AID_PA2 = 0x6E;
@@ -13,6 +13,7 @@ public class TelnetConstants {
 	public static final int SB = 0xFA;
 	public static final int SE = 0xF0;
 	public static final int EOR = 0xEF;
+	public static final int IP = 0xF4; // Interrupt Process: ATTN in TN3270
 
 	// -----------------------------------------------------------------------
 	// Telnet options
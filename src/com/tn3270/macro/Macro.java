@@ -0,0 +1,386 @@
+package com.tn3270.macro;
+
+import static com.tn3270.constants.ProtocolConstants.AID_ATTN;
+import static com.tn3270.constants.ProtocolConstants.AID_CLEAR;
+import static com.tn3270.constants.ProtocolConstants.AID_ENTER;
+import static com.tn3270.constants.ProtocolConstants.AID_PA1;
+import static com.tn3270.constants.ProtocolConstants.AID_PA2;
+import static com.tn3270.constants.ProtocolConstants.AID_PA3;
+import static com.tn3270.constants.ProtocolConstants.AID_SYSREQ;
+import static com.tn3270.constants.ProtocolConstants.PF_AID;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded or hand-written sequence of terminal actions.
+ *
+ * Stored as plain text, one step per line ('#' starts a comment). Rows and
+ * columns are 1-based, timeouts are optional and in milliseconds:
+ *
+ * <pre>
+ * wait unlock [timeout]
+ * wait text ROW COL "text" [timeout]
+ * wait cursor ROW COL [timeout]
+ * cursor ROW COL
+ * type "text"
+ * key tab|backtab|home|left|right|up|down|backspace|eraseeof
+ * aid enter|clear|pa1..pa3|pf1..pf24|attn|sysreq
+ * </pre>
+ *
+ * Macros live in ~/.tn3270macros/NAME.macro.
+ */
+public final class Macro {
+
+	public static final File MACRO_DIR = new File(System.getProperty("user.home"), ".tn3270macros");
+	public static final String EXTENSION = ".macro";
+	public static final int DEFAULT_TIMEOUT = 30000;
+
+	public enum Op {
+		WAIT_UNLOCK, WAIT_TEXT, WAIT_CURSOR, CURSOR, TYPE, KEY, AID
+	}
+
+	public static final List<String> KEYS = Collections.unmodifiableList(
+			Arrays.asList("tab", "backtab", "home", "left", "right", "up", "down", "backspace", "eraseeof"));
+
+	/** One step. row/col are 0-based in memory. */
+	public static final class Step {
+		public final Op op;
+		public final int row;
+		public final int col;
+		public final String text; // TYPE / WAIT_TEXT text, KEY name
+		public final int aid;
+		public final int timeout;
+		public final int line; // Source line (0 if built in code)
+
+		Step(Op op, int row, int col, String text, int aid, int timeout, int line) {
+			this.op = op;
+			this.row = row;
+			this.col = col;
+			this.text = text;
+			this.aid = aid;
+			this.timeout = timeout;
+			this.line = line;
+		}
+
+		@Override
+		public String toString() {
+			switch (op) {
+			case WAIT_UNLOCK:
+				return "wait unlock" + timeoutSuffix();
+			case WAIT_TEXT:
+				return "wait text " + (row + 1) + " " + (col + 1) + " " + quote(text) + timeoutSuffix();
+			case WAIT_CURSOR:
+				return "wait cursor " + (row + 1) + " " + (col + 1) + timeoutSuffix();
+			case CURSOR:
+				return "cursor " + (row + 1) + " " + (col + 1);
+			case TYPE:
+				return "type " + quote(text);
+			case KEY:
+				return "key " + text;
+			case AID:
+				return "aid " + aidName(aid);
+			default:
+				return op.name();
+			}
+		}
+
+		private String timeoutSuffix() {
+			return (timeout == DEFAULT_TIMEOUT) ? "" : " " + timeout;
+		}
+	}
+
+	private final String name;
+	private final List<Step> steps = new ArrayList<>();
+
+	public Macro(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Copy of this macro under another name. */
+	public Macro withName(String newName) {
+		Macro m = new Macro(newName);
+		m.steps.addAll(steps);
+		return m;
+	}
+
+	public List<Step> getSteps() {
+		return Collections.unmodifiableList(steps);
+	}
+
+	// --- Builders (used by the recorder) ---
+
+	public Macro waitUnlock() {
+		steps.add(new Step(Op.WAIT_UNLOCK, 0, 0, null, 0, DEFAULT_TIMEOUT, 0));
+		return this;
+	}
+
+	public Macro waitText(int row, int col, String text) {
+		steps.add(new Step(Op.WAIT_TEXT, row, col, text, 0, DEFAULT_TIMEOUT, 0));
+		return this;
+	}
+
+	public Macro waitCursor(int row, int col) {
+		steps.add(new Step(Op.WAIT_CURSOR, row, col, null, 0, DEFAULT_TIMEOUT, 0));
+		return this;
+	}
+
+	public Macro cursor(int row, int col) {
+		steps.add(new Step(Op.CURSOR, row, col, null, 0, 0, 0));
+		return this;
+	}
+
+	public Macro type(String text) {
+		steps.add(new Step(Op.TYPE, 0, 0, text, 0, 0, 0));
+		return this;
+	}
+
+	public Macro key(String key) {
+		steps.add(new Step(Op.KEY, 0, 0, key, 0, 0, 0));
+		return this;
+	}
+
+	public Macro aid(int aid) {
+		steps.add(new Step(Op.AID, 0, 0, null, aid & 0xFF, 0, 0));
+		return this;
+	}
+
+	// =======================================================================
+	// TEXT FORMAT
+	// =======================================================================
+
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# TN3270 macro: ").append(name).append('\n');
+		for (Step s : steps)
+			sb.append(s).append('\n');
+		return sb.toString();
+	}
+
+	public static Macro parse(String name, String text) throws IOException {
+		return parse(name, new StringReader(text));
+	}
+
+	public static Macro parse(String name, Reader in) throws IOException {
+		Macro m = new Macro(name);
+		BufferedReader br = new BufferedReader(in);
+		String raw;
+		int lineNo = 0;
+		while ((raw = br.readLine()) != null) {
+			lineNo++;
+			List<String> t = tokenize(raw, lineNo);
+			if (t.isEmpty())
+				continue;
+			try {
+				m.steps.add(parseStep(t, lineNo));
+			} catch (RuntimeException e) {
+				throw new IOException("Line " + lineNo + ": " + e.getMessage() + ": " + raw.trim());
+			}
+		}
+		return m;
+	}
+
+	private static Step parseStep(List<String> t, int line) {
+		String verb = t.get(0).toLowerCase();
+		switch (verb) {
+		case "wait": {
+			String what = arg(t, 1).toLowerCase();
+			if (what.equals("unlock"))
+				return new Step(Op.WAIT_UNLOCK, 0, 0, null, 0, timeout(t, 2), line);
+			if (what.equals("text"))
+				return new Step(Op.WAIT_TEXT, pos(t, 2), pos(t, 3), arg(t, 4), 0, timeout(t, 5), line);
+			if (what.equals("cursor"))
+				return new Step(Op.WAIT_CURSOR, pos(t, 2), pos(t, 3), null, 0, timeout(t, 4), line);
+			throw new IllegalArgumentException("Unknown wait condition '" + what + "'");
+		}
+		case "cursor":
+			return new Step(Op.CURSOR, pos(t, 1), pos(t, 2), null, 0, 0, line);
+		case "type":
+			return new Step(Op.TYPE, 0, 0, arg(t, 1), 0, 0, line);
+		case "key": {
+			String key = arg(t, 1).toLowerCase();
+			if (!KEYS.contains(key))
+				throw new IllegalArgumentException("Unknown key '" + key + "'");
+			return new Step(Op.KEY, 0, 0, key, 0, 0, line);
+		}
+		case "aid":
+			return new Step(Op.AID, 0, 0, null, parseAid(arg(t, 1)), 0, line);
+		default:
+			throw new IllegalArgumentException("Unknown step '" + verb + "'");
+		}
+	}
+
+	private static String arg(List<String> t, int i) {
+		if (i >= t.size())
+			throw new IllegalArgumentException("Missing argument");
+		return t.get(i);
+	}
+
+	/** 1-based row/column in the file, 0-based in memory. */
+	private static int pos(List<String> t, int i) {
+		int v = Integer.parseInt(arg(t, i));
+		if (v < 1)
+			throw new IllegalArgumentException("Rows and columns start at 1");
+		return v - 1;
+	}
+
+	private static int timeout(List<String> t, int i) {
+		return (i < t.size()) ? Integer.parseInt(t.get(i)) : DEFAULT_TIMEOUT;
+	}
+
+	/** Splits a line into words and "quoted strings" (\" and \\ escapes); strips comments. */
+	private static List<String> tokenize(String line, int lineNo) throws IOException {
+		List<String> out = new ArrayList<>();
+		int i = 0;
+		int n = line.length();
+		while (i < n) {
+			char c = line.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '#') {
+				break;
+			} else if (c == '"') {
+				StringBuilder sb = new StringBuilder();
+				i++;
+				while (true) {
+					if (i >= n)
+						throw new IOException("Line " + lineNo + ": unterminated string");
+					c = line.charAt(i++);
+					if (c == '"')
+						break;
+					if (c == '\\' && i < n)
+						c = line.charAt(i++);
+					sb.append(c);
+				}
+				out.add(sb.toString());
+			} else {
+				int start = i;
+				while (i < n && !Character.isWhitespace(line.charAt(i)))
+					i++;
+				out.add(line.substring(start, i));
+			}
+		}
+		return out;
+	}
+
+	static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	// =======================================================================
+	// AID NAMES
+	// =======================================================================
+
+	public static String aidName(int aid) {
+		aid &= 0xFF;
+		for (int i = 0; i < PF_AID.length; i++) {
+			if (PF_AID[i] == aid)
+				return "pf" + (i + 1);
+		}
+		switch (aid) {
+		case AID_ENTER:
+			return "enter";
+		case AID_CLEAR:
+			return "clear";
+		case AID_PA1:
+			return "pa1";
+		case AID_PA2:
+			return "pa2";
+		case AID_PA3:
+			return "pa3";
+		case AID_ATTN:
+			return "attn";
+		case AID_SYSREQ:
+			return "sysreq";
+		default:
+			return String.format("0x%02X", aid);
+		}
+	}
+
+	public static int parseAid(String name) {
+		String n = name.toLowerCase();
+		if (n.startsWith("pf")) {
+			int k = Integer.parseInt(n.substring(2));
+			if (k < 1 || k > PF_AID.length)
+				throw new IllegalArgumentException("No such PF key '" + name + "'");
+			return PF_AID[k - 1];
+		}
+		if (n.startsWith("0x"))
+			return Integer.parseInt(n.substring(2), 16) & 0xFF;
+		switch (n) {
+		case "enter":
+			return AID_ENTER;
+		case "clear":
+			return AID_CLEAR;
+		case "pa1":
+			return AID_PA1;
+		case "pa2":
+			return AID_PA2;
+		case "pa3":
+			return AID_PA3;
+		case "attn":
+			return AID_ATTN;
+		case "sysreq":
+			return AID_SYSREQ;
+		default:
+			throw new IllegalArgumentException("Unknown AID '" + name + "'");
+		}
+	}
+
+	// =======================================================================
+	// STORAGE
+	// =======================================================================
+
+	public static File fileFor(String name) {
+		return new File(MACRO_DIR, name + EXTENSION);
+	}
+
+	public static Macro load(String name) throws IOException {
+		return load(fileFor(name));
+	}
+
+	public static Macro load(File file) throws IOException {
+		String fileName = file.getName();
+		String name = fileName.endsWith(EXTENSION) ? fileName.substring(0, fileName.length() - EXTENSION.length())
+				: fileName;
+		try (Reader r = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			return parse(name, r);
+		}
+	}
+
+	public void save() throws IOException {
+		if (!MACRO_DIR.isDirectory() && !MACRO_DIR.mkdirs())
+			throw new IOException("Cannot create " + MACRO_DIR);
+		Files.write(fileFor(name).toPath(), format().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Names of the saved macros, sorted. */
+	public static List<String> listSaved() {
+		List<String> names = new ArrayList<>();
+		File[] files = MACRO_DIR.listFiles((d, f) -> f.endsWith(EXTENSION));
+		if (files != null) {
+			for (File f : files)
+				names.add(f.getName().substring(0, f.getName().length() - EXTENSION.length()));
+		}
+		Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
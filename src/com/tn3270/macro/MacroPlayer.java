@@ -0,0 +1,126 @@
+package com.tn3270.macro;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import com.tn3270.model.ScreenModel;
+import com.tn3270.util.LoggerSetup;
+
+/**
+ * Plays a macro against a session.
+ *
+ * There are no fixed delays: input steps wait for the keyboard to unlock, an
+ * AID waits for the host's answer, and "wait" steps block on screen updates
+ * until their condition holds. A macro therefore runs as fast as the host
+ * responds and fails with a clear message when the expected screen never
+ * shows up.
+ *
+ * run() blocks; call it on a background thread (the session submits it as a
+ * "macro" task).
+ */
+public final class MacroPlayer {
+	private static final Logger logger = LoggerSetup.getLogger(MacroPlayer.class);
+
+	// Re-check conditions at least this often, in case a notification is missed
+	private static final long POLL_MS = 250;
+
+	private final MacroTarget target;
+
+	public MacroPlayer(MacroTarget target) {
+		this.target = target;
+	}
+
+	/**
+	 * Runs every step of the macro.
+	 *
+	 * @throws TimeoutException     if a wait step (or the host's answer to an AID)
+	 *                              does not arrive in time
+	 * @throws IOException          if the session disconnects
+	 * @throws InterruptedException if the macro is cancelled
+	 */
+	public void run(Macro macro) throws IOException, TimeoutException, InterruptedException {
+		long t0 = System.nanoTime();
+		for (Macro.Step step : macro.getSteps()) {
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedException("Macro cancelled");
+			execute(step);
+		}
+		long elapsed = System.nanoTime() - t0;
+		logger.fine(() -> String.format("Macro %s: %d steps in %.1fms", macro.getName(), macro.getSteps().size(),
+				elapsed / 1e6));
+	}
+
+	private void execute(Macro.Step step) throws IOException, TimeoutException, InterruptedException {
+		ScreenModel screen = target.getScreenModel();
+		switch (step.op) {
+		case WAIT_UNLOCK:
+			await(step, () -> !target.isKeyboardLocked(), step.timeout);
+			break;
+		case WAIT_TEXT:
+			await(step, () -> screenHasText(screen, step.row, step.col, step.text), step.timeout);
+			break;
+		case WAIT_CURSOR:
+			await(step, () -> screen.getCursorPos() == step.row * screen.getCols() + step.col, step.timeout);
+			break;
+		case CURSOR:
+			awaitUnlock(step);
+			target.setCursor(step.row * screen.getCols() + step.col);
+			break;
+		case TYPE:
+			awaitUnlock(step);
+			target.typeText(step.text);
+			break;
+		case KEY:
+			awaitUnlock(step);
+			target.pressKey(step.text);
+			break;
+		case AID:
+			awaitUnlock(step);
+			long before = target.getHostUpdateCount();
+			target.pressAID(step.aid);
+			// The host answers with a write that unlocks the keyboard
+			await(step, () -> target.getHostUpdateCount() != before && !target.isKeyboardLocked(),
+					Macro.DEFAULT_TIMEOUT);
+			break;
+		}
+	}
+
+	private void awaitUnlock(Macro.Step step) throws IOException, TimeoutException, InterruptedException {
+		await(step, () -> !target.isKeyboardLocked(), Macro.DEFAULT_TIMEOUT);
+	}
+
+	private void await(Macro.Step step, BooleanSupplier condition, long timeoutMs)
+			throws IOException, TimeoutException, InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (true) {
+			if (!target.isConnected())
+				throw new IOException(describe(step) + ": not connected");
+			if (condition.getAsBoolean())
+				return;
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				throw new TimeoutException(describe(step) + ": timed out after " + timeoutMs + "ms");
+			target.awaitHostUpdate(Math.min(left, POLL_MS));
+		}
+	}
+
+	private static boolean screenHasText(ScreenModel screen, int row, int col, String text) {
+		int pos = row * screen.getCols() + col;
+		if (pos < 0 || pos + text.length() > screen.getSize())
+			return false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = screen.getChar(pos + i);
+			if (c == '\0')
+				c = ' ';
+			if (c != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static String describe(Macro.Step step) {
+		return (step.line > 0 ? "Line " + step.line + " (" + step + ")" : step.toString());
+	}
+}
@@ -0,0 +1,133 @@
+package com.tn3270.macro;
+
+import com.tn3270.model.ScreenModel;
+
+/**
+ * Records user input into a {@link Macro}.
+ *
+ * The session reports what the user did (characters typed, editing keys, AIDs)
+ * together with the cursor before and after, and tells the recorder whenever
+ * the host has updated the screen. The first action after a host update is
+ * preceded by a "wait text" step describing the screen the user was looking
+ * at, so playback waits for the same screen instead of sleeping.
+ *
+ * Cursor movement is not recorded key by key: a "cursor" step is written only
+ * where an action starts somewhere other than where the previous one (or the
+ * host) left the cursor.
+ *
+ * Host updates arrive on the reader thread, user actions on the EDT.
+ */
+public final class MacroRecorder {
+
+	private static final int MAX_CONDITION_LENGTH = 40;
+
+	private final ScreenModel screen;
+	private final Macro macro;
+
+	private final StringBuilder typed = new StringBuilder();
+	private int expectedCursor; // Where the last action (or the host) left the cursor
+	private boolean needCondition = true;
+
+	public MacroRecorder(String name, ScreenModel screen) {
+		this.screen = screen;
+		this.macro = new Macro(name);
+		this.expectedCursor = screen.getCursorPos();
+	}
+
+	/** The host finished a write; the next action gets a screen condition. */
+	public synchronized void hostUpdated(int cursor) {
+		flushTyped();
+		needCondition = true;
+		expectedCursor = cursor;
+	}
+
+	public synchronized void recordType(int before, char c, int after) {
+		if (typed.length() > 0 && before != expectedCursor)
+			flushTyped();
+		prepare(before);
+		typed.append(c);
+		expectedCursor = after;
+	}
+
+	public synchronized void recordKey(String key, int before, int after) {
+		flushTyped();
+		prepare(before);
+		macro.key(key);
+		expectedCursor = after;
+	}
+
+	public synchronized void recordAid(int aid, int cursor) {
+		flushTyped();
+		prepare(cursor);
+		macro.aid(aid);
+		expectedCursor = cursor;
+	}
+
+	/** Ends the recording and returns the macro. */
+	public synchronized Macro finish() {
+		flushTyped();
+		return macro;
+	}
+
+	// --- Internals ---
+
+	private void prepare(int cursor) {
+		if (needCondition) {
+			needCondition = false;
+			addScreenCondition();
+		}
+		if (typed.length() == 0 && cursor != expectedCursor) {
+			int cols = screen.getCols();
+			macro.cursor(cursor / cols, cursor % cols);
+			expectedCursor = cursor;
+		}
+	}
+
+	private void flushTyped() {
+		if (typed.length() > 0) {
+			macro.type(typed.toString());
+			typed.setLength(0);
+		}
+	}
+
+	/**
+	 * Picks a piece of text identifying the current screen: the first protected
+	 * text of 3+ characters (titles and labels), or on an unformatted screen the
+	 * first non-blank row.
+	 */
+	private void addScreenCondition() {
+		int rows = screen.getRows();
+		int cols = screen.getCols();
+		boolean formatted = screen.isFormatted();
+
+		for (int r = 0; r < rows; r++) {
+			int p = r * cols;
+			int rowEnd = p + cols;
+			while (p < rowEnd) {
+				// Next run of usable cells on this row
+				while (p < rowEnd && !usable(p, formatted))
+					p++;
+				int start = p;
+				while (p < rowEnd && usable(p, formatted))
+					p++;
+				int end = p;
+
+				// Trim blanks/nulls on both sides
+				while (start < end && screen.getChar(start) <= ' ')
+					start++;
+				end = Math.min(end, start + MAX_CONDITION_LENGTH);
+				while (end > start && screen.getChar(end - 1) <= ' ')
+					end--;
+				if (end - start >= 3) {
+					macro.waitText(r, start % cols, screen.getString(start, end - start).replace('\0', ' '));
+					return;
+				}
+			}
+		}
+		macro.waitUnlock();
+	}
+
+	private boolean usable(int p, boolean formatted) {
+		return !formatted || (!screen.isFieldStart(p) && screen.isProtected(p));
+	}
+}
@@ -0,0 +1,38 @@
+package com.tn3270.macro;
+
+import com.tn3270.model.ScreenModel;
+
+/**
+ * What the macro player needs from a session. Implemented by TN3270Session;
+ * nothing here requires the session to be shown in a window.
+ *
+ * The action methods are called from the player thread and must be safe to
+ * call off the EDT.
+ */
+public interface MacroTarget {
+
+	ScreenModel getScreenModel();
+
+	boolean isConnected();
+
+	boolean isKeyboardLocked();
+
+	/** Incremented every time the host finishes updating the screen. */
+	long getHostUpdateCount();
+
+	/**
+	 * Blocks until the host updates the screen or the timeout expires (may also
+	 * return early; callers re-check their condition).
+	 */
+	void awaitHostUpdate(long timeoutMs) throws InterruptedException;
+
+	void setCursor(int pos) throws InterruptedException;
+
+	/** Types text at the cursor (overwrite, skipping to the next input field when one fills). */
+	void typeText(String text) throws InterruptedException;
+
+	/** Presses a non-AID key, one of {@link Macro#KEYS}. */
+	void pressKey(String key) throws InterruptedException;
+
+	void pressAID(int aid) throws InterruptedException;
+}
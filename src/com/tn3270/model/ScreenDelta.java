@@ -0,0 +1,114 @@
+package com.tn3270.model;
+
+/**
+ * What changed between two consecutive screens published by a
+ * {@link ScreenPublisher}: the changed rows (with the range of columns that
+ * differ and the row's new text), the cursor, the keyboard state and the
+ * screen size.
+ *
+ * Deltas are shared by all subscribers and never change after publishing.
+ */
+public final class ScreenDelta {
+
+	private final long sequence;
+	private final boolean full;
+	private final int rows;
+	private final int cols;
+	private final int cursor;
+	private final boolean keyboardLocked;
+	private final boolean alternateSize;
+	private final boolean sizeChanged;
+	private final int[] changedRows;
+	private final int[] startCols;
+	private final int[] endCols;
+	private final String[] text;
+
+	ScreenDelta(long sequence, boolean full, int rows, int cols, int cursor, boolean keyboardLocked,
+			boolean alternateSize, boolean sizeChanged, int[] changedRows, int[] startCols, int[] endCols,
+			String[] text) {
+		this.sequence = sequence;
+		this.full = full;
+		this.rows = rows;
+		this.cols = cols;
+		this.cursor = cursor;
+		this.keyboardLocked = keyboardLocked;
+		this.alternateSize = alternateSize;
+		this.sizeChanged = sizeChanged;
+		this.changedRows = changedRows;
+		this.startCols = startCols;
+		this.endCols = endCols;
+		this.text = text;
+	}
+
+	/**
+	 * Number of this screen; consecutive unless the subscriber fell behind, in
+	 * which case the next delta is full.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** True if every row is included (first delta, size change, or catching up). */
+	public boolean isFull() {
+		return full;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getCursor() {
+		return cursor;
+	}
+
+	public boolean isKeyboardLocked() {
+		return keyboardLocked;
+	}
+
+	public boolean isAlternateSize() {
+		return alternateSize;
+	}
+
+	/** True if the screen switched between primary and alternate size. */
+	public boolean isSizeChanged() {
+		return sizeChanged;
+	}
+
+	/** Number of changed rows (0 if only the cursor or keyboard state changed). */
+	public int getChangedRowCount() {
+		return changedRows.length;
+	}
+
+	/** Row number of the i-th changed row, ascending. */
+	public int getChangedRow(int i) {
+		return changedRows[i];
+	}
+
+	/** First column of the i-th changed row that differs. */
+	public int getStartCol(int i) {
+		return startCols[i];
+	}
+
+	/** Column after the last one of the i-th changed row that differs. */
+	public int getEndCol(int i) {
+		return endCols[i];
+	}
+
+	/**
+	 * New text of the whole i-th changed row (attribute positions, nulls and
+	 * non-display fields as blanks).
+	 */
+	public String getText(int i) {
+		return text[i];
+	}
+
+	@Override
+	public String toString() {
+		return "ScreenDelta #" + sequence + (full ? " full" : "") + " " + rows + "x" + cols + " cursor " + cursor
+				+ (keyboardLocked ? " locked" : "") + ", " + changedRows.length + " row(s)";
+	}
+}
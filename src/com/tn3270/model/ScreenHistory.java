@@ -0,0 +1,525 @@
+package com.tn3270.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Past screens of a session, kept in a memory-capped ring.
+ *
+ * Only the most recent screen is stored in full. Every older screen is a
+ * reverse delta: the rows that differ from the screen after it, holding their
+ * old contents (text plus the four attribute planes), deflated when that
+ * saves space. Scrolling back applies one delta per step, and eviction simply
+ * drops the oldest delta, so nothing ever has to be rebuilt.
+ *
+ * record() is called by the reader thread after each host write; views are
+ * used on the EDT. All access is synchronized on the history.
+ */
+public final class ScreenHistory {
+
+	public static final int DEFAULT_BUDGET = 1024 * 1024;
+	private static final int MAX_ENTRIES = 10000;
+	private static final int DELTA_OVERHEAD = 48; // Object headers and fields, roughly
+	private static final int COMPRESS_THRESHOLD = 256;
+
+	/** Old contents of the rows that changed, restoring one screen from the next. */
+	private static final class Delta {
+		final int rows;
+		final int cols;
+		final int cursor;
+		final byte[] data; // count, then per row: index, chars, attr, color, highlight, charset
+		final int rawLength; // > data.length when deflated
+
+		Delta(int rows, int cols, int cursor, byte[] data, int rawLength) {
+			this.rows = rows;
+			this.cols = cols;
+			this.cursor = cursor;
+			this.data = data;
+			this.rawLength = rawLength;
+		}
+
+		int memory() {
+			return data.length + DELTA_OVERHEAD;
+		}
+	}
+
+	/** A full screen: dimensions, cursor and the five planes. */
+	private static final class Frame {
+		int rows;
+		int cols;
+		int cursor;
+		final char[] chars;
+		final byte[] attrs;
+		final byte[] colors;
+		final byte[] highlights;
+		final byte[] charsets;
+
+		Frame(int capacity) {
+			chars = new char[capacity];
+			attrs = new byte[capacity];
+			colors = new byte[capacity];
+			highlights = new byte[capacity];
+			charsets = new byte[capacity];
+		}
+
+		Frame copy() {
+			Frame f = new Frame(chars.length);
+			f.set(this);
+			return f;
+		}
+
+		void set(Frame o) {
+			rows = o.rows;
+			cols = o.cols;
+			cursor = o.cursor;
+			System.arraycopy(o.chars, 0, chars, 0, chars.length);
+			System.arraycopy(o.attrs, 0, attrs, 0, attrs.length);
+			System.arraycopy(o.colors, 0, colors, 0, colors.length);
+			System.arraycopy(o.highlights, 0, highlights, 0, highlights.length);
+			System.arraycopy(o.charsets, 0, charsets, 0, charsets.length);
+		}
+	}
+
+	/** Told about every recorded screen (under the history's lock - keep it short). */
+	public interface Listener {
+		/**
+		 * @param screen number of the new screen
+		 * @param rows   rows that are new or changed on it
+		 * @param text   their text (attribute positions and nulls as blanks)
+		 */
+		void screenRecorded(long screen, int[] rows, String[] text);
+	}
+
+	private final int capacity;
+	private volatile Listener listener;
+	private final List<Delta> deltas = new ArrayList<>(); // Oldest first
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+	private final byte[] deflateBuffer = new byte[8192];
+	private Frame last; // Most recently recorded screen
+	private long head; // Number of the most recent screen
+	private long memory;
+	private int budget;
+
+	public ScreenHistory(int capacity, int budgetBytes) {
+		this.capacity = capacity;
+		this.budget = budgetBytes;
+	}
+
+	// =======================================================================
+	// RECORDING
+	// =======================================================================
+
+	/** Adds the current screen if it differs from the last one recorded. */
+	public synchronized void record(ScreenModel screen) {
+		int rows = screen.getRows();
+		int cols = screen.getCols();
+		if (rows * cols > capacity)
+			return;
+		if (last == null) {
+			last = new Frame(capacity);
+			capture(screen, last);
+			notifyListener(allRows(rows));
+			return;
+		}
+
+		boolean resized = (rows != last.rows || cols != last.cols);
+		char[] chars = screen.getBuffer();
+		byte[] attrs = screen.getAttributes();
+		byte[] colors = screen.getExtendedColors();
+		byte[] highlights = screen.getHighlight();
+		byte[] charsets = screen.getCharsets();
+
+		// Rows of the previous screen that this write changed
+		int[] changed = new int[last.rows];
+		int count = 0;
+		for (int r = 0; r < last.rows; r++) {
+			int from = r * last.cols;
+			int to = from + last.cols;
+			if (resized || !Arrays.equals(chars, from, to, last.chars, from, to)
+					|| !Arrays.equals(attrs, from, to, last.attrs, from, to)
+					|| !Arrays.equals(colors, from, to, last.colors, from, to)
+					|| !Arrays.equals(highlights, from, to, last.highlights, from, to)
+					|| !Arrays.equals(charsets, from, to, last.charsets, from, to))
+				changed[count++] = r;
+		}
+		if (count == 0)
+			return;
+
+		// Scrolling moves rows rather than changing them: a changed row whose old
+		// contents are still on the new screen is stored as a reference to that row,
+		// and a new row whose text was already on the old screen is not new text.
+		int[] source = new int[count];
+		Arrays.fill(source, -1);
+		int[] fresh;
+		if (resized) {
+			fresh = allRows(rows);
+		} else {
+			int[] oldHash = rowHashes(last.chars, rows, cols);
+			int[] newHash = rowHashes(chars, rows, cols);
+			for (int i = 0; i < count; i++) {
+				int r = changed[i];
+				for (int j = 0; j < rows && source[i] < 0; j++) {
+					if (j != r && newHash[j] == oldHash[r] && sameRow(screen, j, last, r))
+						source[i] = j;
+				}
+			}
+			fresh = new int[count];
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				int j = changed[i];
+				boolean moved = false;
+				for (int r = 0; r < rows && !moved; r++)
+					moved = oldHash[r] == newHash[j]
+							&& Arrays.equals(chars, j * cols, (j + 1) * cols, last.chars, r * cols, (r + 1) * cols);
+				if (!moved)
+					fresh[n++] = j;
+			}
+			fresh = Arrays.copyOf(fresh, n);
+		}
+
+		byte[] raw = encodeRows(last, changed, count, source);
+		byte[] data = compress(raw);
+		Delta d = new Delta(last.rows, last.cols, last.cursor, data, raw.length);
+		deltas.add(d);
+		memory += d.memory();
+		head++;
+		capture(screen, last);
+		trim();
+		if (fresh.length > 0)
+			notifyListener(fresh);
+	}
+
+	/** Hash of the text of each row (shared with ScreenRecorder). */
+	static int[] rowHashes(char[] chars, int rows, int cols) {
+		int[] hashes = new int[rows];
+		for (int r = 0; r < rows; r++) {
+			int h = 1;
+			for (int p = r * cols, end = p + cols; p < end; p++)
+				h = 31 * h + chars[p];
+			hashes[r] = h;
+		}
+		return hashes;
+	}
+
+	/** True if row j of the screen equals row r of the frame in every plane. */
+	private static boolean sameRow(ScreenModel screen, int j, Frame f, int r) {
+		int cols = f.cols;
+		int a = j * cols;
+		int b = r * cols;
+		return Arrays.equals(screen.getBuffer(), a, a + cols, f.chars, b, b + cols)
+				&& Arrays.equals(screen.getAttributes(), a, a + cols, f.attrs, b, b + cols)
+				&& Arrays.equals(screen.getExtendedColors(), a, a + cols, f.colors, b, b + cols)
+				&& Arrays.equals(screen.getHighlight(), a, a + cols, f.highlights, b, b + cols)
+				&& Arrays.equals(screen.getCharsets(), a, a + cols, f.charsets, b, b + cols);
+	}
+
+	private void notifyListener(int[] rows) {
+		Listener l = listener;
+		if (l == null)
+			return;
+		String[] text = new String[rows.length];
+		char[] line = new char[last.cols];
+		for (int i = 0; i < rows.length; i++) {
+			int from = rows[i] * last.cols;
+			for (int c = 0; c < line.length; c++) {
+				char ch = last.chars[from + c];
+				line[c] = (ch < ' ' || last.attrs[from + c] != 0) ? ' ' : ch;
+			}
+			text[i] = new String(line);
+		}
+		l.screenRecorded(head, rows, text);
+	}
+
+	private static int[] allRows(int rows) {
+		int[] all = new int[rows];
+		for (int r = 0; r < rows; r++)
+			all[r] = r;
+		return all;
+	}
+
+	private static void capture(ScreenModel screen, Frame f) {
+		f.rows = screen.getRows();
+		f.cols = screen.getCols();
+		f.cursor = screen.getCursorPos();
+		int n = Math.min(f.chars.length, screen.getBuffer().length);
+		System.arraycopy(screen.getBuffer(), 0, f.chars, 0, n);
+		System.arraycopy(screen.getAttributes(), 0, f.attrs, 0, n);
+		System.arraycopy(screen.getExtendedColors(), 0, f.colors, 0, n);
+		System.arraycopy(screen.getHighlight(), 0, f.highlights, 0, n);
+		System.arraycopy(screen.getCharsets(), 0, f.charsets, 0, n);
+	}
+
+	/**
+	 * Encodes rows of a frame: count, then per row its index and either the row
+	 * of the newer screen holding the same contents (source) or -1 followed by
+	 * the text and the four attribute planes. References come first, so that
+	 * writeRows() copies them before any row is overwritten.
+	 */
+	private static byte[] encodeRows(Frame f, int[] rows, int count, int[] source) {
+		int cols = f.cols;
+		int literals = 0;
+		for (int i = 0; i < count; i++) {
+			if (source == null || source[i] < 0)
+				literals++;
+		}
+		ByteBuffer b = ByteBuffer.allocate(2 + count * 4 + literals * 6 * cols);
+		b.putShort((short) count);
+		for (int i = 0; i < count && literals < count; i++) {
+			if (source[i] >= 0) {
+				b.putShort((short) rows[i]);
+				b.putShort((short) source[i]);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (source != null && source[i] >= 0)
+				continue;
+			int from = rows[i] * cols;
+			b.putShort((short) rows[i]);
+			b.putShort((short) -1);
+			for (int c = 0; c < cols; c++)
+				b.putChar(f.chars[from + c]);
+			b.put(f.attrs, from, cols);
+			b.put(f.colors, from, cols);
+			b.put(f.highlights, from, cols);
+			b.put(f.charsets, from, cols);
+		}
+		return b.array();
+	}
+
+	/** Row numbers stored in an encoded delta. */
+	private static int[] rowIndexes(byte[] raw, int cols) {
+		ByteBuffer in = ByteBuffer.wrap(raw);
+		int[] indexes = new int[in.getShort()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = in.getShort();
+			if (in.getShort() < 0)
+				in.position(in.position() + 6 * cols);
+		}
+		return indexes;
+	}
+
+	/** Overwrites the rows stored in raw (references read the frame as it was before). */
+	private static void writeRows(Frame f, byte[] raw, int cols) {
+		ByteBuffer in = ByteBuffer.wrap(raw);
+		int count = in.getShort();
+		Frame before = null;
+		for (int i = 0; i < count; i++) {
+			int from = in.getShort() * cols;
+			int source = in.getShort();
+			if (source >= 0) {
+				if (before == null)
+					before = f.copy();
+				int src = source * cols;
+				System.arraycopy(before.chars, src, f.chars, from, cols);
+				System.arraycopy(before.attrs, src, f.attrs, from, cols);
+				System.arraycopy(before.colors, src, f.colors, from, cols);
+				System.arraycopy(before.highlights, src, f.highlights, from, cols);
+				System.arraycopy(before.charsets, src, f.charsets, from, cols);
+				continue;
+			}
+			for (int c = 0; c < cols; c++)
+				f.chars[from + c] = in.getChar();
+			in.get(f.attrs, from, cols);
+			in.get(f.colors, from, cols);
+			in.get(f.highlights, from, cols);
+			in.get(f.charsets, from, cols);
+		}
+	}
+
+	/**
+	 * Replaces the frame with the screen described by delta (rows, cols, cursor,
+	 * raw rows) and returns the delta that undoes it.
+	 */
+	private static Delta step(Frame f, int rows, int cols, int cursor, byte[] raw) {
+		int[] undoRows;
+		if (rows == f.rows && cols == f.cols) {
+			undoRows = rowIndexes(raw, cols);
+		} else {
+			// Geometry change: the delta covers the whole screen, so must the undo
+			undoRows = new int[f.rows];
+			for (int r = 0; r < f.rows; r++)
+				undoRows[r] = r;
+		}
+		byte[] undo = encodeRows(f, undoRows, undoRows.length, null);
+		Delta back = new Delta(f.rows, f.cols, f.cursor, undo, undo.length);
+		writeRows(f, raw, cols);
+		f.rows = rows;
+		f.cols = cols;
+		f.cursor = cursor;
+		return back;
+	}
+
+	private byte[] compress(byte[] raw) {
+		if (raw.length < COMPRESS_THRESHOLD)
+			return raw;
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		scratch.reset();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(deflateBuffer);
+			scratch.write(deflateBuffer, 0, n);
+			if (scratch.size() >= raw.length)
+				return raw; // Not worth it
+		}
+		return scratch.toByteArray();
+	}
+
+	private static byte[] decompress(Delta d) {
+		if (d.rawLength == d.data.length)
+			return d.data;
+		Inflater inf = new Inflater();
+		try {
+			inf.setInput(d.data);
+			byte[] raw = new byte[d.rawLength];
+			int n = 0;
+			while (n < raw.length && !inf.finished())
+				n += inf.inflate(raw, n, raw.length - n);
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt screen history", e);
+		} finally {
+			inf.end();
+		}
+	}
+
+	private void trim() {
+		int drop = 0;
+		long used = memory;
+		while (drop < deltas.size() && (used > budget || deltas.size() - drop > MAX_ENTRIES))
+			used -= deltas.get(drop++).memory();
+		if (drop > 0) {
+			deltas.subList(0, drop).clear();
+			memory = used;
+		}
+	}
+
+	// =======================================================================
+	// STATE
+	// =======================================================================
+
+	/** Number of past screens that can be shown. */
+	public synchronized int size() {
+		return deltas.size();
+	}
+
+	/** Bytes held by the deltas plus the full copy of the latest screen. */
+	public synchronized long getMemoryUsage() {
+		return memory + (last != null ? 6L * capacity : 0);
+	}
+
+	public synchronized int getBudget() {
+		return budget;
+	}
+
+	public synchronized void setBudget(int bytes) {
+		this.budget = Math.max(0, bytes);
+		trim();
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/** Number of the most recent screen. */
+	public synchronized long getHead() {
+		return head;
+	}
+
+	/** Number of the oldest screen that can still be shown. */
+	public synchronized long getOldest() {
+		return head - deltas.size();
+	}
+
+	public synchronized void clear() {
+		deltas.clear();
+		memory = 0;
+		last = null;
+		head++; // Screen numbers are never reused
+	}
+
+	/** Starts browsing at the most recent screen. */
+	public synchronized View view() {
+		return new View(last != null ? last.copy() : null, head);
+	}
+
+	/** Starts browsing at the given screen, or returns null if it is no longer kept. */
+	public synchronized View view(long screen) {
+		if (screen < getOldest() || screen > head)
+			return null;
+		View v = view();
+		while (v.position > screen && v.back()) {
+		}
+		return (v.position == screen) ? v : null;
+	}
+
+	// =======================================================================
+	// BROWSING
+	// =======================================================================
+
+	/**
+	 * A position in the history. back() and forward() move one screen at a time;
+	 * new screens recorded meanwhile do not disturb it.
+	 */
+	public final class View {
+		private final Frame frame;
+		private long position; // Number of the screen shown
+		private final ArrayDeque<Delta> redo = new ArrayDeque<>();
+
+		private View(Frame frame, long position) {
+			this.frame = frame;
+			this.position = position;
+		}
+
+		/** Steps to the previous screen; false if there is none left. */
+		public boolean back() {
+			synchronized (ScreenHistory.this) {
+				long oldest = head - deltas.size();
+				if (frame == null || position <= oldest)
+					return false;
+				Delta d = deltas.get((int) (position - 1 - oldest));
+				redo.push(step(frame, d.rows, d.cols, d.cursor, decompress(d)));
+				position--;
+				return true;
+			}
+		}
+
+		/** Steps to the next (newer) screen; false at the screen the view started on. */
+		public boolean forward() {
+			Delta d = redo.poll();
+			if (d == null)
+				return false;
+			step(frame, d.rows, d.cols, d.cursor, d.data);
+			synchronized (ScreenHistory.this) {
+				position++;
+			}
+			return true;
+		}
+
+		/** How many screens back from the most recent one this view is. */
+		public int getDepth() {
+			synchronized (ScreenHistory.this) {
+				return (int) (head - position);
+			}
+		}
+
+		public boolean isAtStart() {
+			return redo.isEmpty();
+		}
+
+		/** Loads the screen shown by this view into a (detached) model for display. */
+		public void showIn(ScreenModel target) {
+			if (frame != null)
+				target.load(frame.rows, frame.cols, frame.cursor, frame.chars, frame.attrs, frame.colors,
+						frame.highlights, frame.charsets);
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package com.tn3270.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import com.tn3270.util.SessionExecutor;
+
+/**
+ * Full-text index over the screen history of every session.
+ *
+ * Each screen history reports the rows a host write changed; those rows are
+ * tokenized on one background thread and added to an inverted index
+ * (token -> row ids). A row id leads to the session, the screen number and
+ * the row, so a hit is the screen where the text first appeared.
+ *
+ * Tokens are runs of letters, digits and $#@ (so message ids like IEF403I or
+ * HCPMID6001I are single tokens), compared in upper case. The vocabulary is
+ * split into shards by hash; a query looks its tokens up in all shards in
+ * parallel on the fork-join pool, which matters for prefix queries ("HCP*")
+ * that have to scan the vocabulary. All query tokens must appear on the same
+ * row.
+ *
+ * Memory is bounded by MAX_ROWS: the oldest rows are forgotten first and
+ * their postings are pruned in bulk. Neither the reader threads (which only
+ * queue rows) nor the EDT (queries run on the pool) do any indexing work.
+ */
+public final class ScreenIndex {
+
+	private static final int MAX_ROWS = 100_000;
+	private static final int MIN_TOKEN = 2;
+	private static final int SHARDS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final ScreenIndex INSTANCE = new ScreenIndex();
+
+	public static ScreenIndex get() {
+		return INSTANCE;
+	}
+
+	/** One matching row. */
+	public static final class Hit {
+		public final int source;
+		public final String sourceName;
+		public final long screen;
+		public final int row;
+		public final String text;
+
+		Hit(int source, String sourceName, long screen, int row, String text) {
+			this.source = source;
+			this.sourceName = sourceName;
+			this.screen = screen;
+			this.row = row;
+			this.text = text;
+		}
+
+		@Override
+		public String toString() {
+			return sourceName + " #" + screen + " row " + (row + 1) + ": " + text.trim();
+		}
+	}
+
+	private static final class Row {
+		final int source;
+		final long screen;
+		final int row;
+		final String text;
+
+		Row(int source, long screen, int row, String text) {
+			this.source = source;
+			this.screen = screen;
+			this.row = row;
+			this.text = text;
+		}
+	}
+
+	/** Growable sorted list of row ids (ids only ever increase). */
+	private static final class Postings {
+		long[] ids = new long[4];
+		int size;
+
+		void add(long id) {
+			if (size > 0 && ids[size - 1] == id)
+				return; // Token repeated on the row
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+
+		/** Drops ids below min; returns true if nothing is left. */
+		boolean prune(long min) {
+			int i = 0;
+			while (i < size && ids[i] < min)
+				i++;
+			if (i > 0) {
+				System.arraycopy(ids, i, ids, 0, size - i);
+				size -= i;
+			}
+			return size == 0;
+		}
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<Map<String, Postings>> shards = new ArrayList<>(SHARDS);
+	private final Row[] rows = new Row[MAX_ROWS]; // Ring, by id % MAX_ROWS
+	private long nextId;
+	private long prunedBelow; // Postings below this id have been removed
+
+	private final Map<Integer, Supplier<String>> sources = new ConcurrentHashMap<>();
+	private int sourceCounter;
+	private final SessionExecutor executor = new SessionExecutor("tn3270-index", 1);
+
+	private ScreenIndex() {
+		for (int i = 0; i < SHARDS; i++)
+			shards.add(new HashMap<>());
+	}
+
+	// =======================================================================
+	// SOURCES
+	// =======================================================================
+
+	/**
+	 * Starts indexing a screen history; name supplies the current display name
+	 * (e.g. the tab title). Returns the source id reported in hits.
+	 */
+	public int addSource(Supplier<String> name, ScreenHistory history) {
+		int id;
+		synchronized (sources) {
+			id = ++sourceCounter;
+		}
+		sources.put(id, name);
+		history.setListener((screen, changedRows, text) -> executor.submit("index",
+				() -> add(id, screen, changedRows, text)));
+		return id;
+	}
+
+	/** Stops indexing a history; its rows no longer show up in results. */
+	public void removeSource(int id, ScreenHistory history) {
+		history.setListener(null);
+		sources.remove(id);
+	}
+
+	// =======================================================================
+	// INDEXING (index thread)
+	// =======================================================================
+
+	private void add(int source, long screen, int[] changedRows, String[] text) {
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < changedRows.length; i++) {
+				if (text[i].isBlank())
+					continue;
+				long id = nextId++;
+				rows[(int) (id % MAX_ROWS)] = new Row(source, screen, changedRows[i], text[i]);
+				forEachToken(text[i], t -> shard(t).computeIfAbsent(t, k -> new Postings()).add(id));
+			}
+			// Rows older than MAX_ROWS have been overwritten in the ring; prune in bulk
+			long oldest = nextId - MAX_ROWS;
+			if (oldest - prunedBelow > MAX_ROWS / 4)
+				prune(oldest);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void prune(long oldest) {
+		for (Map<String, Postings> shard : shards)
+			shard.values().removeIf(p -> p.prune(oldest));
+		prunedBelow = oldest;
+	}
+
+	private Map<String, Postings> shard(String token) {
+		return shards.get((token.hashCode() & 0x7FFFFFFF) % SHARDS);
+	}
+
+	private interface TokenSink {
+		void accept(String token);
+	}
+
+	private static void forEachToken(String text, TokenSink sink) {
+		int n = text.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && !isTokenChar(text.charAt(i)))
+				i++;
+			int start = i;
+			while (i < n && isTokenChar(text.charAt(i)))
+				i++;
+			if (i - start >= MIN_TOKEN)
+				sink.accept(text.substring(start, i).toUpperCase());
+		}
+	}
+
+	private static boolean isTokenChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '$' || c == '#' || c == '@';
+	}
+
+	// =======================================================================
+	// SEARCH
+	// =======================================================================
+
+	/**
+	 * Rows containing every word of the query (a trailing '*' makes a word a
+	 * prefix), newest first. Takes milliseconds, but call it off the EDT.
+	 */
+	public List<Hit> search(String query, int limit) {
+		List<String> words = new ArrayList<>();
+		List<Boolean> prefixes = new ArrayList<>();
+		for (String w : query.trim().split("\\s+")) {
+			boolean prefix = w.endsWith("*");
+			String stripped = prefix ? w.substring(0, w.length() - 1) : w;
+			forEachToken(stripped, t -> {
+				words.add(t);
+				prefixes.add(prefix);
+			});
+		}
+		List<Hit> hits = new ArrayList<>();
+		if (words.isEmpty())
+			return hits;
+
+		lock.readLock().lock();
+		try {
+			long[] result = null;
+			for (int i = 0; i < words.size() && (result == null || result.length > 0); i++) {
+				long[] ids = ForkJoinPool.commonPool()
+						.invoke(new Lookup(words.get(i), prefixes.get(i), 0, SHARDS));
+				result = (result == null) ? ids : intersect(result, ids);
+			}
+			long oldest = Math.max(0, nextId - MAX_ROWS);
+			for (int i = result.length - 1; i >= 0 && hits.size() < limit; i--) {
+				if (result[i] < oldest)
+					break;
+				Row r = rows[(int) (result[i] % MAX_ROWS)];
+				Supplier<String> name = sources.get(r.source);
+				if (name != null)
+					hits.add(new Hit(r.source, name.get(), r.screen, r.row, r.text));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return hits;
+	}
+
+	/** Sorted ids of rows holding a token (or a token prefix) in a range of shards. */
+	private final class Lookup extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		private final String token;
+		private final boolean prefix;
+		private final int from;
+		private final int to;
+
+		Lookup(String token, boolean prefix, int from, int to) {
+			this.token = token;
+			this.prefix = prefix;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (!prefix) {
+				Postings p = shard(token).get(token);
+				return (p == null) ? new long[0] : Arrays.copyOf(p.ids, p.size);
+			}
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				Lookup left = new Lookup(token, true, from, mid);
+				left.fork();
+				long[] right = new Lookup(token, true, mid, to).compute();
+				return union(left.join(), right);
+			}
+			List<Postings> matches = new ArrayList<>();
+			int total = 0;
+			for (Map.Entry<String, Postings> e : shards.get(from).entrySet()) {
+				if (e.getKey().startsWith(token)) {
+					matches.add(e.getValue());
+					total += e.getValue().size;
+				}
+			}
+			if (matches.size() == 1)
+				return Arrays.copyOf(matches.get(0).ids, total);
+			long[] all = new long[total];
+			int n = 0;
+			for (Postings p : matches) {
+				System.arraycopy(p.ids, 0, all, n, p.size);
+				n += p.size;
+			}
+			Arrays.sort(all);
+			return distinct(all);
+		}
+	}
+
+	private static long[] union(long[] a, long[] b) {
+		if (a.length == 0)
+			return b;
+		if (b.length == 0)
+			return a;
+		long[] out = new long[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				out[n++] = a[i++];
+			else if (a[i] > b[j])
+				out[n++] = b[j++];
+			else {
+				out[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			out[n++] = a[i++];
+		while (j < b.length)
+			out[n++] = b[j++];
+		return Arrays.copyOf(out, n);
+	}
+
+	private static long[] distinct(long[] sorted) {
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[i] != sorted[n - 1])
+				sorted[n++] = sorted[i];
+		}
+		return (n == sorted.length) ? sorted : Arrays.copyOf(sorted, n);
+	}
+
+	private static long[] intersect(long[] a, long[] b) {
+		long[] out = new long[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				out[n++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/** Rows currently indexed. */
+	public int getRowCount() {
+		lock.readLock().lock();
+		try {
+			return (int) Math.min(nextId, MAX_ROWS);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
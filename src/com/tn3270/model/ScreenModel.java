@@ -3,6 +3,7 @@ package com.tn3270.model;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 
 public class ScreenModel {
@@ -21,6 +22,15 @@ public class ScreenModel {
 	private byte[] highlighting;
 	private byte[] charsets; // NEW: Stores Character Set ID (e.g. 0xF1 for APL)
 
+	// NEW: Field indexes, kept in step with attributes[] by every attribute write.
+	// fieldStarts = cells with a non-zero attribute, modifiedFields = those with MDT set.
+	private final BitSet fieldStarts = new BitSet();
+	private final BitSet modifiedFields = new BitSet();
+
+	// NEW: Bumped by every change to cell contents/attributes (not the cursor).
+	// Lets readers cache derived data (e.g. the Read Buffer image) per screen state.
+	private volatile int generation = 0;
+
 	private int cursorPos = 0;
 
 	// Defaults for standard 3270 colors
@@ -63,18 +73,89 @@ public class ScreenModel {
 		clearScreen();
 	}
 
+	/**
+	 * Detached model with the same geometry and colors as template, for showing
+	 * screens that are not the live one (e.g. the screen history).
+	 */
+	public ScreenModel(ScreenModel template) {
+		this.modelName = template.modelName;
+		this.primaryRows = template.primaryRows;
+		this.primaryCols = template.primaryCols;
+		this.alternateRows = template.alternateRows;
+		this.alternateCols = template.alternateCols;
+		this.useAlternateSize = template.useAlternateSize;
+		this.rows = template.rows;
+		this.cols = template.cols;
+		int size = template.buffer.length;
+		buffer = new char[size];
+		attributes = new byte[size];
+		extendedColors = new byte[size];
+		highlighting = new byte[size];
+		charsets = new byte[size];
+		copyColorsFrom(template);
+		clearScreen();
+	}
+
+	/** Takes over the palette and screen/foreground/cursor colors of another model. */
+	public void copyColorsFrom(ScreenModel other) {
+		this.palette = other.palette;
+		this.screenBackground = other.screenBackground;
+		this.defaultForeground = other.defaultForeground;
+		this.cursorColor = other.cursorColor;
+	}
+
+	/** Replaces the whole screen (geometry, cursor and all planes) in one go. */
+	public void load(int rows, int cols, int cursor, char[] chars, byte[] attrs, byte[] colors, byte[] hl,
+			byte[] cs) {
+		int n = Math.min(buffer.length, chars.length);
+		if (rows * cols > n)
+			return;
+		this.rows = rows;
+		this.cols = cols;
+		this.cursorPos = cursor;
+		System.arraycopy(chars, 0, buffer, 0, n);
+		System.arraycopy(attrs, 0, attributes, 0, n);
+		System.arraycopy(colors, 0, extendedColors, 0, n);
+		System.arraycopy(hl, 0, highlighting, 0, n);
+		System.arraycopy(cs, 0, charsets, 0, n);
+		fieldStarts.clear();
+		modifiedFields.clear();
+		for (int i = 0; i < n; i++) {
+			if (attributes[i] != 0) {
+				fieldStarts.set(i);
+				if ((attributes[i] & 0x01) != 0)
+					modifiedFields.set(i);
+			}
+		}
+		generation++;
+	}
+
 	public void clearScreen() {
 		Arrays.fill(buffer, '\0');
 		Arrays.fill(attributes, (byte) 0);
 		Arrays.fill(extendedColors, (byte) 0);
 		Arrays.fill(highlighting, (byte) 0);
 		Arrays.fill(charsets, (byte) 0);
+		fieldStarts.clear();
+		modifiedFields.clear();
 		cursorPos = 0;
+		generation++;
 	}
 
 	public void resetMDT() {
-		for (int i = 0; i < attributes.length; i++)
+		// Only cells in the MDT index can have bit 0x01 set
+		for (int i = modifiedFields.nextSetBit(0); i >= 0; i = modifiedFields.nextSetBit(i + 1)) {
 			attributes[i] &= ~0x01;
+			if (attributes[i] == 0)
+				fieldStarts.clear(i);
+		}
+		modifiedFields.clear();
+		generation++;
+	}
+
+	/** Screen generation; changes whenever any cell or attribute changes. */
+	public int getGeneration() {
+		return generation;
 	}
 
 	// --- Data Accessors ---
@@ -89,8 +170,19 @@ public class ScreenModel {
 	}
 
 	public void setChar(int i, char c) {
-		if (i >= 0 && i < buffer.length)
+		if (i >= 0 && i < buffer.length) {
 			buffer[i] = c;
+			generation++;
+		}
+	}
+
+	/** Copies len characters from src[off..] into the buffer at i (bulk setChar). */
+	public void setChars(int i, char[] src, int off, int len) {
+		int end = Math.min(i + len, buffer.length);
+		if (i < 0 || i >= end)
+			return;
+		System.arraycopy(src, off, buffer, i, end - i);
+		generation++;
 	}
 
 	public byte getAttr(int i) {
@@ -98,13 +190,19 @@ public class ScreenModel {
 	}
 
 	public void setAttr(int i, byte b) {
-		if (i >= 0 && i < attributes.length)
+		if (i >= 0 && i < attributes.length) {
 			attributes[i] = b;
+			fieldStarts.set(i, b != 0);
+			modifiedFields.set(i, (b & 0x01) != 0);
+			generation++;
+		}
 	}
 
 	public void setExtendedColor(int i, byte b) {
-		if (i >= 0 && i < extendedColors.length)
+		if (i >= 0 && i < extendedColors.length) {
 			extendedColors[i] = b;
+			generation++;
+		}
 	}
 
 	public byte getExtendedColor(int i) {
@@ -112,19 +210,57 @@ public class ScreenModel {
 	}
 
 	public void setHighlight(int i, byte b) {
-		if (i >= 0 && i < highlighting.length)
+		if (i >= 0 && i < highlighting.length) {
 			highlighting[i] = b;
+			generation++;
+		}
 	}
 
 	public void setCharset(int i, byte b) {
-		if (i >= 0 && i < charsets.length)
+		if (i >= 0 && i < charsets.length) {
 			charsets[i] = b;
+			generation++;
+		}
 	}
 
 	public byte getCharset(int i) {
 		return (i >= 0 && i < charsets.length) ? charsets[i] : 0;
 	}
 
+	/**
+	 * Sets attribute, color, highlight and charset for len cells starting at i
+	 * (bulk version of the individual setters, used for text runs).
+	 */
+	public void setCells(int i, int len, byte attr, byte color, byte hl, byte cs) {
+		int end = Math.min(i + len, buffer.length);
+		if (i < 0 || i >= end)
+			return;
+		Arrays.fill(attributes, i, end, attr);
+		fieldStarts.set(i, end, attr != 0);
+		modifiedFields.set(i, end, (attr & 0x01) != 0);
+		Arrays.fill(extendedColors, i, end, color);
+		Arrays.fill(highlighting, i, end, hl);
+		Arrays.fill(charsets, i, end, cs);
+		generation++;
+	}
+
+	/**
+	 * Blanks the cells of non-display fields (attribute &amp; 0x0C == 0x0C, e.g.
+	 * passwords) in a copy of the first len cells of the screen text - what
+	 * TerminalPanel shows - so their contents never leave the emulator.
+	 */
+	public void maskNonDisplay(char[] text, int len) {
+		len = Math.min(len, Math.min(getSize(), text.length));
+		int fa = findFieldStart(0); // Governs the cells before the first attribute (wrap)
+		byte a = (fa >= 0) ? attributes[fa] : 0;
+		for (int p = 0; p < len; p++) {
+			if (attributes[p] != 0)
+				a = attributes[p];
+			else if ((a & 0x0C) == 0x0C)
+				text[p] = ' ';
+		}
+	}
+
 	public char[] getBuffer() {
 		return buffer;
 	}
@@ -146,6 +282,10 @@ public class ScreenModel {
 	}
 
 	// --- State Accessors ---
+	public String getModelName() {
+		return modelName;
+	}
+
 	public int getRows() {
 		return rows;
 	}
@@ -183,6 +323,7 @@ public class ScreenModel {
 			rows = primaryRows;
 			cols = primaryCols;
 		}
+		generation++;
 	}
 
 	// --- Palette & Colors ---
@@ -225,6 +366,12 @@ public class ScreenModel {
 		return attributes[pos] != 0;
 	}
 
+	/** True if the logical screen has at least one field. */
+	public boolean isFormatted() {
+		int f = fieldStarts.nextSetBit(0);
+		return f >= 0 && f < getSize();
+	}
+
 	public boolean isProtected(int pos) {
 		int start = findFieldStart(pos);
 		if (start == -1)
@@ -232,6 +379,10 @@ public class ScreenModel {
 		return (attributes[start] & 0x20) != 0;
 	}
 
+	/**
+	 * Field attribute position governing pos (searching backwards with
+	 * wrap-around), or -1 on an unformatted screen.
+	 */
 	public int findFieldStart(int pos) {
 		// FIX: Use the Logical Screen Size, not the physical Array Size.
 		int size = getSize();
@@ -240,30 +391,20 @@ public class ScreenModel {
 		if (size <= 0)
 			return -1;
 
-		// Scan backward up to 'size' times to prevent infinite loops
-		for (int i = 0; i < size; i++) {
-			// Calculate backward position
-			int p = pos - i;
-
-			// Handle wrap-around manually for the Logical Screen Size
-			// (Java's % operator behaves differently for negatives than strictly math-based
-			// mod)
-			if (p < 0) {
-				p += size;
-			}
-
-			// Check if an attribute exists at this position
-			// attributes array might be larger than size, but p is now constrained to
-			// 0..size-1
-			if (attributes[p] != 0) {
-				return p;
-			}
-		}
+		pos = Math.floorMod(pos, size);
+		int p = fieldStarts.previousSetBit(pos);
+		if (p >= 0)
+			return p;
 
-		// No fields found (Unformatted Screen)
-		return -1;
+		// Wrap: last field on the screen (ignoring stale cells past the logical size)
+		p = fieldStarts.previousSetBit(size - 1);
+		return p; // -1 = No fields found (Unformatted Screen)
 	}
 
+	/**
+	 * Next field attribute after pos (with wrap-around). On an unformatted screen
+	 * returns pos + 1.
+	 */
 	public int findNextField(int pos) {
 		// FIX: Use Logical Screen Size (e.g. 1920), NOT buffer.length (4000)
 		int size = getSize();
@@ -271,21 +412,44 @@ public class ScreenModel {
 		if (size <= 0)
 			return 0;
 
-		int p = (pos + 1) % size;
-		int count = 0;
+		int from = Math.floorMod(pos + 1, size);
+		int p = fieldStarts.nextSetBit(from);
+		if (p >= 0 && p < size)
+			return p;
+		p = fieldStarts.nextSetBit(0);
+		if (p >= 0 && p < from)
+			return p;
+		return from;
+	}
 
-		// Scan forward using the logical size limits
-		while (!isFieldStart(p) && count < size) {
-			p = (p + 1) % size;
-			count++;
-		}
-		return p;
+	/** First field attribute at or after pos (no wrap-around), or -1. */
+	public int nextFieldStart(int pos) {
+		int size = getSize();
+		if (pos < 0 || pos >= size)
+			return -1;
+		int p = fieldStarts.nextSetBit(pos);
+		return (p >= 0 && p < size) ? p : -1;
+	}
+
+	/**
+	 * First field at or after pos whose MDT bit is set, or -1. Does not wrap, so
+	 * callers can walk the modified fields in buffer order.
+	 */
+	public int nextModifiedField(int pos) {
+		int size = getSize();
+		if (pos < 0 || pos >= size)
+			return -1;
+		int p = modifiedFields.nextSetBit(pos);
+		return (p >= 0 && p < size) ? p : -1;
 	}
 
 	public void setModified(int pos) {
 		int start = findFieldStart(pos);
-		if (start != -1)
+		if (start != -1) {
 			attributes[start] |= 0x01;
+			modifiedFields.set(start);
+			generation++;
+		}
 	}
 
 	public String getString(int start, int length) {
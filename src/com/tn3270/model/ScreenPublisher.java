@@ -0,0 +1,308 @@
+package com.tn3270.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.tn3270.util.LoggerSetup;
+
+/**
+ * Publishes screen changes to subscribers as {@link ScreenDelta}s, so that
+ * code interested in the screen (automation, scrapers, AI context) does not
+ * have to poll or copy the whole ScreenModel.
+ *
+ * The session calls publish() whenever the screen may have changed (host
+ * writes on the reader thread, typing on the EDT). It compares the screen with
+ * the previously published one and hands the delta to every subscriber's
+ * lock-free queue; nothing else happens on the publishing thread. Each
+ * subscriber is drained on its own executor (e.g. SwingUtilities::invokeLater),
+ * in order, with all deltas queued since the last delivery in one batch.
+ *
+ * A subscriber that falls MAX_PENDING deltas behind stops receiving deltas;
+ * once it has caught up, the next publish() sends it a full delta instead.
+ * Sequence numbers a subscriber sees are therefore consecutive except right
+ * before a full delta.
+ * So a slow subscriber costs memory for at most MAX_PENDING deltas and never
+ * slows the reader thread.
+ */
+public final class ScreenPublisher {
+	private static final Logger logger = LoggerSetup.getLogger(ScreenPublisher.class);
+
+	private static final int MAX_PENDING = 256;
+
+	/** Receives batches of deltas, oldest first, on the subscriber's executor. */
+	public interface Listener {
+		void screenChanged(List<ScreenDelta> batch);
+	}
+
+	/** Handle returned by subscribe(); close() stops delivery. */
+	public final class Subscription implements AutoCloseable {
+		private final Listener listener;
+		private final Executor executor;
+		private final ConcurrentLinkedQueue<ScreenDelta> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile boolean resync = true; // Next delta must be full
+		private volatile boolean closed;
+		private volatile long dropped;
+
+		private Subscription(Listener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		/** Deltas skipped because this subscriber fell behind. */
+		public long getDropped() {
+			return dropped;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			subscribers.remove(this);
+			queue.clear();
+		}
+
+		/** Publishing thread only. */
+		private void offer(ScreenDelta delta) {
+			// FIX: Behind once, nothing but the full delta until caught up - a
+			// delta after the gap would be applied to a stale screen
+			if (resync) {
+				dropped++;
+				return;
+			}
+			if (pending.get() >= MAX_PENDING) {
+				resync = true;
+				dropped++;
+				return;
+			}
+			queue.add(delta);
+			pending.incrementAndGet();
+			schedule();
+		}
+
+		private void schedule() {
+			if (!scheduled.compareAndSet(false, true))
+				return; // A drain is queued or running and will pick the delta up
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				logger.fine("Screen subscriber's executor is gone; unsubscribing");
+				close();
+			}
+		}
+
+		/** One drain at a time (scheduled), so batches arrive in order. */
+		private void drain() {
+			while (true) {
+				List<ScreenDelta> batch = new ArrayList<>();
+				ScreenDelta d;
+				while ((d = queue.poll()) != null)
+					batch.add(d);
+				pending.addAndGet(-batch.size());
+				if (!batch.isEmpty() && !closed) {
+					try {
+						listener.screenChanged(batch);
+					} catch (RuntimeException e) {
+						logger.warning("Screen subscriber failed: " + e);
+					}
+				}
+				scheduled.set(false);
+				if (queue.isEmpty() || !scheduled.compareAndSet(false, true))
+					return;
+			}
+		}
+	}
+
+	private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+	// Previously published screen
+	private char[] chars = new char[0];
+	private byte[] attrs = new byte[0];
+	private byte[] colors = new byte[0];
+	private byte[] highlights = new byte[0];
+	private byte[] charsets = new byte[0];
+	private int rows;
+	private int cols;
+	private int cursor = -1;
+	private boolean locked;
+	private int generation = -1; // ScreenModel generation last compared
+	private long sequence;
+
+	/**
+	 * Delivers deltas to listener on executor until the subscription is closed.
+	 * The first delta is full.
+	 */
+	public Subscription subscribe(Listener listener, Executor executor) {
+		Subscription s = new Subscription(listener, executor);
+		subscribers.add(s);
+		return s;
+	}
+
+	public boolean hasSubscribers() {
+		return !subscribers.isEmpty();
+	}
+
+	/** Publishes the screen if anything changed since the last call. */
+	public synchronized void publish(ScreenModel screen, boolean keyboardLocked) {
+		if (subscribers.isEmpty()) {
+			generation = -1; // Compare in full once someone subscribes
+			return;
+		}
+		boolean sizeChanged = (screen.getRows() != rows || screen.getCols() != cols);
+		boolean screenChanged = sizeChanged || screen.getGeneration() != generation;
+		boolean stateChanged = screen.getCursorPos() != cursor || keyboardLocked != locked;
+		boolean resync = false;
+		for (Subscription s : subscribers)
+			resync |= s.resync && s.pending.get() == 0;
+		if (!screenChanged && !stateChanged && !resync)
+			return; // Cheap path: nothing happened (the usual case for status updates)
+
+		int[] changed = screenChanged ? diff(screen, sizeChanged) : new int[0];
+		if (changed.length == 0 && !stateChanged && !resync) {
+			generation = screen.getGeneration(); // Rewritten with the same contents
+			return;
+		}
+		long seq = ++sequence;
+		ScreenDelta delta = build(seq, screen, keyboardLocked, sizeChanged, changed);
+		ScreenDelta full = null;
+		for (Subscription s : subscribers) {
+			if (s.resync && s.pending.get() == 0) {
+				if (full == null)
+					full = delta.isFull() ? delta : build(seq, screen, keyboardLocked, sizeChanged, null);
+				s.resync = false;
+				s.offer(full);
+			} else {
+				s.offer(delta);
+			}
+		}
+		capture(screen, keyboardLocked, changed);
+	}
+
+	/** Rows that differ from the previous screen, as {row, start, end} triples. */
+	private int[] diff(ScreenModel screen, boolean sizeChanged) {
+		int r = screen.getRows();
+		int c = screen.getCols();
+		if (sizeChanged)
+			return allRows(r, c);
+		char[] sc = screen.getBuffer();
+		byte[] sa = screen.getAttributes();
+		byte[] scol = screen.getExtendedColors();
+		byte[] sh = screen.getHighlight();
+		byte[] scs = screen.getCharsets();
+		int[] out = new int[3 * r];
+		int n = 0;
+		for (int row = 0; row < r; row++) {
+			int from = row * c;
+			int to = from + c;
+			int first = c;
+			first = Math.min(first, mismatch(Arrays.mismatch(sc, from, to, chars, from, to), c));
+			first = Math.min(first, mismatch(Arrays.mismatch(sa, from, to, attrs, from, to), c));
+			first = Math.min(first, mismatch(Arrays.mismatch(scol, from, to, colors, from, to), c));
+			first = Math.min(first, mismatch(Arrays.mismatch(sh, from, to, highlights, from, to), c));
+			first = Math.min(first, mismatch(Arrays.mismatch(scs, from, to, charsets, from, to), c));
+			if (first == c)
+				continue;
+			int last = c - 1;
+			while (last > first) {
+				int p = from + last;
+				if (sc[p] != chars[p] || sa[p] != attrs[p] || scol[p] != colors[p] || sh[p] != highlights[p]
+						|| scs[p] != charsets[p])
+					break;
+				last--;
+			}
+			out[n++] = row;
+			out[n++] = first;
+			out[n++] = last + 1;
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	private static int mismatch(int m, int cols) {
+		return m < 0 ? cols : m;
+	}
+
+	private static int[] allRows(int rows, int cols) {
+		int[] all = new int[3 * rows];
+		for (int row = 0; row < rows; row++) {
+			all[3 * row] = row;
+			all[3 * row + 2] = cols;
+		}
+		return all;
+	}
+
+	/** Builds a delta from {row, start, end} triples (null: all rows). */
+	private static ScreenDelta build(long seq, ScreenModel screen, boolean keyboardLocked, boolean sizeChanged,
+			int[] triples) {
+		int r = screen.getRows();
+		int c = screen.getCols();
+		if (triples == null)
+			triples = allRows(r, c);
+		int n = triples.length / 3;
+		int[] changedRows = new int[n];
+		int[] starts = new int[n];
+		int[] ends = new int[n];
+		String[] text = new String[n];
+		// Non-display fields (passwords) as blanks, as on the screen
+		char[] sc = Arrays.copyOf(screen.getBuffer(), r * c);
+		screen.maskNonDisplay(sc, r * c);
+		byte[] sa = screen.getAttributes();
+		char[] line = new char[c];
+		for (int i = 0; i < n; i++) {
+			changedRows[i] = triples[3 * i];
+			starts[i] = triples[3 * i + 1];
+			ends[i] = triples[3 * i + 2];
+			int from = changedRows[i] * c;
+			for (int col = 0; col < c; col++) {
+				char ch = sc[from + col];
+				line[col] = (ch < ' ' || sa[from + col] != 0) ? ' ' : ch;
+			}
+			text[i] = new String(line);
+		}
+		return new ScreenDelta(seq, n == r && (sizeChanged || triples.length == 3 * r && allFull(triples, c)), r, c,
+				screen.getCursorPos(),
+				keyboardLocked, screen.isAlternateSize(), sizeChanged, changedRows, starts, ends, text);
+	}
+
+	private static boolean allFull(int[] triples, int cols) {
+		for (int i = 0; i < triples.length; i += 3) {
+			if (triples[i + 1] != 0 || triples[i + 2] != cols)
+				return false;
+		}
+		return true;
+	}
+
+	/** Remembers the published screen; only the changed cells need copying. */
+	private void capture(ScreenModel screen, boolean keyboardLocked, int[] triples) {
+		int size = screen.getBuffer().length;
+		if (chars.length != size) {
+			chars = new char[size];
+			attrs = new byte[size];
+			colors = new byte[size];
+			highlights = new byte[size];
+			charsets = new byte[size];
+		}
+		int c = screen.getCols();
+		for (int i = 0; i < triples.length; i += 3) {
+			int from = triples[i] * c + triples[i + 1];
+			int n = triples[i + 2] - triples[i + 1];
+			System.arraycopy(screen.getBuffer(), from, chars, from, n);
+			System.arraycopy(screen.getAttributes(), from, attrs, from, n);
+			System.arraycopy(screen.getExtendedColors(), from, colors, from, n);
+			System.arraycopy(screen.getHighlight(), from, highlights, from, n);
+			System.arraycopy(screen.getCharsets(), from, charsets, from, n);
+		}
+		rows = screen.getRows();
+		cols = screen.getCols();
+		cursor = screen.getCursorPos();
+		locked = keyboardLocked;
+		generation = screen.getGeneration();
+	}
+}
@@ -0,0 +1,323 @@
+package com.tn3270.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes what a session showed to a recording file, for audits and training.
+ * Read it back with {@link ScreenRecording}.
+ *
+ * The file is a header followed by records, each stamped with the time since
+ * the recording started:
+ * <ul>
+ * <li>keyframe - the whole screen (all five planes), written first, every
+ * KEYFRAME_INTERVAL_MS or KEYFRAME_DELTAS deltas, and on a size change</li>
+ * <li>delta - the rows that changed since the previous screen</li>
+ * <li>AID - the key the user pressed (the screen as sent is recorded just
+ * before it)</li>
+ * </ul>
+ * Screens are recorded as they were shown: the text of non-display fields
+ * (passwords) is written as blanks, never as typed.
+ * close() appends an index of the keyframes and AIDs, so a player can seek
+ * anywhere by loading one keyframe and at most KEYFRAME_DELTAS deltas. A
+ * recording that was never closed (crash) is still readable; the player
+ * rebuilds the index by skipping from record to record.
+ *
+ * Format (big-endian):
+ *
+ * <pre>
+ * header: int MAGIC, short VERSION, long start (epoch ms), UTF model,
+ *         short rows, short cols (largest screen size)
+ * record: byte type, int time (ms), int length, int raw length, data
+ *         (data is deflated when length &lt; raw length)
+ *   KEYFRAME raw: short rows, short cols, short cursor, rows*cols chars,
+ *                 then rows*cols bytes each of attribute, color, highlight, charset
+ *   DELTA raw:    short rows, short cols, short cursor, short count,
+ *                 count * (short row, short source, [cols chars, 4 * cols bytes])
+ *                 source &gt;= 0: the row now holds what row source held before
+ *                 (scrolling), listed first; -1: the contents follow
+ *   AID raw:      byte aid, short cursor
+ *   INDEX raw:    int end time, int keyframes * (int time, long offset),
+ *                 int AIDs * (int time, byte aid)
+ * trailer: long offset of the INDEX record, int END_MAGIC
+ * </pre>
+ *
+ * Host updates are recorded from the reader thread, AIDs from the EDT; all
+ * methods are synchronized.
+ */
+public final class ScreenRecorder implements AutoCloseable {
+
+	public static final String EXTENSION = ".tnrec";
+
+	static final int MAGIC = 0x544E5243; // "TNRC"
+	static final int END_MAGIC = 0x54454E44; // "TEND"
+	static final int VERSION = 1;
+	static final int HEADER_RECORD = 13; // type, time, length, raw length
+	static final int TRAILER = 12;
+
+	static final byte KEYFRAME = 1;
+	static final byte DELTA = 2;
+	static final byte AID = 3;
+	static final byte INDEX = 4;
+
+	private static final long KEYFRAME_INTERVAL_MS = 30_000;
+	private static final int KEYFRAME_DELTAS = 200;
+	private static final int COMPRESS_THRESHOLD = 256;
+
+	private final File file;
+	private final DataOutputStream out;
+	private final long start;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final byte[] deflateBuffer = new byte[8192];
+	private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+
+	private final char[] text; // Screen text being recorded, non-display fields blanked
+
+	// Previous screen, for deltas
+	private final char[] chars;
+	private final byte[] attrs;
+	private final byte[] colors;
+	private final byte[] highlights;
+	private final byte[] charsets;
+	private int rows = -1;
+	private int cols;
+	private int cursor;
+
+	private long position;
+	private long lastKeyframe;
+	private int deltasSinceKeyframe;
+	private int lastTime;
+	private final List<long[]> keyframes = new ArrayList<>(); // {time, offset}
+	private final List<int[]> aids = new ArrayList<>(); // {time, aid}
+	private boolean closed;
+
+	/** Creates the file and records the current screen as the first keyframe. */
+	public ScreenRecorder(File file, ScreenModel screen) throws IOException {
+		this.file = file;
+		this.start = System.currentTimeMillis();
+		int capacity = screen.getBuffer().length;
+		text = new char[capacity];
+		chars = new char[capacity];
+		attrs = new byte[capacity];
+		colors = new byte[capacity];
+		highlights = new byte[capacity];
+		charsets = new byte[capacity];
+
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(start);
+		out.writeUTF(screen.getModelName());
+		out.writeShort(screen.getAlternateRows());
+		out.writeShort(screen.getAlternateCols());
+		position = out.size();
+		// FIX: Stamped at the start itself, so the recording has a screen at time 0
+		if (screen.getRows() * screen.getCols() <= chars.length)
+			writeKeyframe(screen, start);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** Milliseconds recorded so far. */
+	public synchronized long getDuration() {
+		return System.currentTimeMillis() - start;
+	}
+
+	/** Records the screen if it changed since the last call (keyframe or delta). */
+	public synchronized void record(ScreenModel screen) throws IOException {
+		if (closed)
+			return;
+		int r = screen.getRows();
+		int c = screen.getCols();
+		if (r * c > chars.length)
+			return;
+		long now = System.currentTimeMillis();
+		if (r != rows || c != cols || deltasSinceKeyframe >= KEYFRAME_DELTAS
+				|| now - lastKeyframe >= KEYFRAME_INTERVAL_MS) {
+			writeKeyframe(screen, now);
+			return;
+		}
+
+		char[] sc = shown(screen);
+		byte[] sa = screen.getAttributes();
+		byte[] scol = screen.getExtendedColors();
+		byte[] sh = screen.getHighlight();
+		byte[] scs = screen.getCharsets();
+		int[] changed = new int[rows];
+		int count = 0;
+		for (int row = 0; row < rows; row++) {
+			int from = row * cols;
+			int to = from + cols;
+			if (!Arrays.equals(sc, from, to, chars, from, to) || !Arrays.equals(sa, from, to, attrs, from, to)
+					|| !Arrays.equals(scol, from, to, colors, from, to)
+					|| !Arrays.equals(sh, from, to, highlights, from, to)
+					|| !Arrays.equals(scs, from, to, charsets, from, to))
+				changed[count++] = row;
+		}
+		if (count == 0 && screen.getCursorPos() == cursor)
+			return;
+
+		// Rows that scrolled are stored as the row they came from
+		int[] source = new int[count];
+		int literals = 0;
+		int[] oldHash = ScreenHistory.rowHashes(chars, rows, cols);
+		int[] newHash = ScreenHistory.rowHashes(sc, rows, cols);
+		for (int i = 0; i < count; i++) {
+			source[i] = -1;
+			for (int j = 0; j < rows && source[i] < 0; j++) {
+				if (j != changed[i] && oldHash[j] == newHash[changed[i]] && sameRow(screen, sc, changed[i], j))
+					source[i] = j;
+			}
+			if (source[i] < 0)
+				literals++;
+		}
+
+		ByteBuffer b = ByteBuffer.allocate(8 + count * 4 + literals * 6 * cols);
+		b.putShort((short) rows).putShort((short) cols).putShort((short) screen.getCursorPos());
+		b.putShort((short) count);
+		for (int i = 0; i < count; i++) {
+			if (source[i] >= 0)
+				b.putShort((short) changed[i]).putShort((short) source[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			if (source[i] >= 0)
+				continue;
+			int from = changed[i] * cols;
+			b.putShort((short) changed[i]).putShort((short) -1);
+			for (int p = from; p < from + cols; p++)
+				b.putChar(sc[p]);
+			b.put(sa, from, cols).put(scol, from, cols).put(sh, from, cols).put(scs, from, cols);
+		}
+		writeRecord(DELTA, now, b.array());
+		deltasSinceKeyframe++;
+		capture(screen);
+	}
+
+	/** True if row r of the screen equals row j of the previous screen in every plane. */
+	private boolean sameRow(ScreenModel screen, char[] sc, int r, int j) {
+		int a = r * cols;
+		int b = j * cols;
+		return Arrays.equals(sc, a, a + cols, chars, b, b + cols)
+				&& Arrays.equals(screen.getAttributes(), a, a + cols, attrs, b, b + cols)
+				&& Arrays.equals(screen.getExtendedColors(), a, a + cols, colors, b, b + cols)
+				&& Arrays.equals(screen.getHighlight(), a, a + cols, highlights, b, b + cols)
+				&& Arrays.equals(screen.getCharsets(), a, a + cols, charsets, b, b + cols);
+	}
+
+	/** Records the screen as the user sent it (as shown, see above), then the AID key. */
+	public synchronized void aid(int aid, ScreenModel screen) throws IOException {
+		if (closed)
+			return;
+		record(screen);
+		long now = System.currentTimeMillis();
+		ByteBuffer b = ByteBuffer.allocate(3);
+		b.put((byte) aid).putShort((short) screen.getCursorPos());
+		writeRecord(AID, now, b.array());
+		aids.add(new int[] { lastTime, aid & 0xFF });
+	}
+
+	private void writeKeyframe(ScreenModel screen, long now) throws IOException {
+		int n = screen.getRows() * screen.getCols();
+		ByteBuffer b = ByteBuffer.allocate(6 + 6 * n);
+		b.putShort((short) screen.getRows()).putShort((short) screen.getCols())
+				.putShort((short) screen.getCursorPos());
+		char[] sc = shown(screen);
+		for (int p = 0; p < n; p++)
+			b.putChar(sc[p]);
+		b.put(screen.getAttributes(), 0, n).put(screen.getExtendedColors(), 0, n).put(screen.getHighlight(), 0, n)
+				.put(screen.getCharsets(), 0, n);
+		long offset = position;
+		writeRecord(KEYFRAME, now, b.array());
+		keyframes.add(new long[] { lastTime, offset });
+		lastKeyframe = now;
+		deltasSinceKeyframe = 0;
+		capture(screen);
+		// A crash loses at most one keyframe interval
+		out.flush();
+	}
+
+	private void writeRecord(byte type, long now, byte[] raw) throws IOException {
+		byte[] data = compress(raw);
+		// Times never go backwards, even if the clock does
+		lastTime = (int) Math.max(lastTime, Math.min(Integer.MAX_VALUE, now - start));
+		out.writeByte(type);
+		out.writeInt(lastTime);
+		out.writeInt(data.length);
+		out.writeInt(raw.length);
+		out.write(data);
+		position += HEADER_RECORD + data.length;
+	}
+
+	/** The screen text as TerminalPanel shows it: non-display fields blank. */
+	private char[] shown(ScreenModel screen) {
+		int n = screen.getRows() * screen.getCols();
+		System.arraycopy(screen.getBuffer(), 0, text, 0, n);
+		screen.maskNonDisplay(text, n);
+		return text;
+	}
+
+	/** Keeps the screen just recorded (text as returned by shown()) for the next delta. */
+	private void capture(ScreenModel screen) {
+		rows = screen.getRows();
+		cols = screen.getCols();
+		cursor = screen.getCursorPos();
+		int n = rows * cols;
+		System.arraycopy(text, 0, chars, 0, n);
+		System.arraycopy(screen.getAttributes(), 0, attrs, 0, n);
+		System.arraycopy(screen.getExtendedColors(), 0, colors, 0, n);
+		System.arraycopy(screen.getHighlight(), 0, highlights, 0, n);
+		System.arraycopy(screen.getCharsets(), 0, charsets, 0, n);
+	}
+
+	private byte[] compress(byte[] raw) {
+		if (raw.length < COMPRESS_THRESHOLD)
+			return raw;
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		scratch.reset();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(deflateBuffer);
+			scratch.write(deflateBuffer, 0, n);
+			if (scratch.size() >= raw.length)
+				return raw; // Not worth it
+		}
+		return scratch.toByteArray();
+	}
+
+	/** Writes the index and closes the file. */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			ByteBuffer b = ByteBuffer.allocate(12 + keyframes.size() * 12 + aids.size() * 5);
+			b.putInt((int) Math.max(lastTime, Math.min(Integer.MAX_VALUE, System.currentTimeMillis() - start)));
+			b.putInt(keyframes.size());
+			for (long[] k : keyframes)
+				b.putInt((int) k[0]).putLong(k[1]);
+			b.putInt(aids.size());
+			for (int[] a : aids)
+				b.putInt(a[0]).put((byte) a[1]);
+			long indexOffset = position;
+			writeRecord(INDEX, start + lastTime, b.array());
+			out.writeLong(indexOffset);
+			out.writeInt(END_MAGIC);
+		} finally {
+			out.close();
+			deflater.end();
+		}
+	}
+}
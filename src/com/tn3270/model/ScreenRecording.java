@@ -0,0 +1,434 @@
+package com.tn3270.model;
+
+import static com.tn3270.model.ScreenRecorder.AID;
+import static com.tn3270.model.ScreenRecorder.DELTA;
+import static com.tn3270.model.ScreenRecorder.END_MAGIC;
+import static com.tn3270.model.ScreenRecorder.HEADER_RECORD;
+import static com.tn3270.model.ScreenRecorder.INDEX;
+import static com.tn3270.model.ScreenRecorder.KEYFRAME;
+import static com.tn3270.model.ScreenRecorder.MAGIC;
+import static com.tn3270.model.ScreenRecorder.TRAILER;
+import static com.tn3270.model.ScreenRecorder.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A recording written by {@link ScreenRecorder}, opened for playback.
+ *
+ * Opening reads only the header and the index at the end of the file, so an
+ * eight hour recording opens instantly. seek() loads the nearest keyframe at
+ * or before the time and applies the deltas up to it; seeking forward within
+ * the same keyframe interval (normal playback) just continues from the
+ * current position.
+ *
+ * Not thread-safe; the player uses it on the EDT.
+ */
+public final class ScreenRecording implements AutoCloseable {
+
+	private final File file;
+	private final RandomAccessFile in;
+	private final long start;
+	private final String modelName;
+	private final int maxRows;
+	private final int maxCols;
+	private long end; // Offset where the records stop (index or truncation)
+	private int duration;
+	private boolean complete; // Closed properly (has an index)
+
+	private int[] keyTimes = new int[0];
+	private long[] keyOffsets = new long[0];
+	private int[] aidTimes = new int[0];
+	private byte[] aidKeys = new byte[0];
+
+	// Screen at the current position
+	private final char[] chars;
+	private final byte[] attrs;
+	private final byte[] colors;
+	private final byte[] highlights;
+	private final byte[] charsets;
+	private int rows;
+	private int cols;
+	private int cursor;
+	private int time = -1; // Time of the last record applied
+	private int segment = -1; // Keyframe the current screen was built from
+	private long next; // Offset of the next record to read
+
+	private final char[] prevChars;
+	private final byte[] prevAttrs;
+	private final byte[] prevColors;
+	private final byte[] prevHighlights;
+	private final byte[] prevCharsets;
+
+	private final byte[] header = new byte[HEADER_RECORD];
+	private final byte[] window = new byte[64 * 1024];
+	private long windowStart = -1;
+	private int windowLength;
+	private final Inflater inflater = new Inflater();
+
+	private ScreenRecording(File file) throws IOException {
+		this.file = file;
+		this.in = new RandomAccessFile(file, "r");
+		try {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION)
+				throw new IOException(file + " is not a screen recording");
+			start = in.readLong();
+			modelName = in.readUTF();
+			maxRows = in.readShort();
+			maxCols = in.readShort();
+			int capacity = Math.max(4000, maxRows * maxCols); // As ScreenModel
+			chars = new char[capacity];
+			attrs = new byte[capacity];
+			colors = new byte[capacity];
+			highlights = new byte[capacity];
+			charsets = new byte[capacity];
+			prevChars = new char[capacity];
+			prevAttrs = new byte[capacity];
+			prevColors = new byte[capacity];
+			prevHighlights = new byte[capacity];
+			prevCharsets = new byte[capacity];
+			long first = in.getFilePointer();
+			if (!readIndex(first))
+				scan(first);
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	public static ScreenRecording open(File file) throws IOException {
+		return new ScreenRecording(file);
+	}
+
+	// =======================================================================
+	// INDEX
+	// =======================================================================
+
+	/** Loads the index written by close(); false if there is none. */
+	private boolean readIndex(long first) throws IOException {
+		long length = in.length();
+		if (length < first + HEADER_RECORD + TRAILER)
+			return false;
+		in.seek(length - TRAILER);
+		long offset = in.readLong();
+		if (in.readInt() != END_MAGIC || offset < first || offset > length - TRAILER - HEADER_RECORD)
+			return false;
+		ByteBuffer b = ByteBuffer.wrap(readRecord(offset));
+		if (header[0] != INDEX)
+			return false;
+		duration = b.getInt();
+		int n = b.getInt();
+		keyTimes = new int[n];
+		keyOffsets = new long[n];
+		for (int i = 0; i < n; i++) {
+			keyTimes[i] = b.getInt();
+			keyOffsets[i] = b.getLong();
+		}
+		n = b.getInt();
+		aidTimes = new int[n];
+		aidKeys = new byte[n];
+		for (int i = 0; i < n; i++) {
+			aidTimes[i] = b.getInt();
+			aidKeys[i] = b.get();
+		}
+		end = offset;
+		complete = true;
+		return true;
+	}
+
+	/**
+	 * Rebuilds the index of a recording that was not closed (still running, or
+	 * the emulator died) by skipping from record to record. A record cut off at
+	 * the end is ignored.
+	 */
+	private void scan(long offset) throws IOException {
+		int keys = 0;
+		int nAids = 0;
+		long length = in.length();
+		try (DataInputStream s = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+			skipFully(s, offset);
+			while (offset + HEADER_RECORD <= length) {
+				byte type = s.readByte();
+				int t = s.readInt();
+				int len = s.readInt();
+				s.readInt();
+				long recordEnd = offset + HEADER_RECORD + len;
+				if (len < 0 || recordEnd > length)
+					break;
+				if (type == KEYFRAME) {
+					if (keys == keyTimes.length) {
+						keyTimes = Arrays.copyOf(keyTimes, Math.max(16, keys * 2));
+						keyOffsets = Arrays.copyOf(keyOffsets, keyTimes.length);
+					}
+					keyTimes[keys] = t;
+					keyOffsets[keys++] = offset;
+				}
+				if (type == AID && len > 0) {
+					if (nAids == aidTimes.length) {
+						aidTimes = Arrays.copyOf(aidTimes, Math.max(16, nAids * 2));
+						aidKeys = Arrays.copyOf(aidKeys, aidTimes.length);
+					}
+					aidTimes[nAids] = t;
+					aidKeys[nAids++] = s.readByte();
+					len--;
+				}
+				skipFully(s, len);
+				offset = recordEnd;
+				duration = t;
+			}
+		} catch (EOFException e) {
+			// Cut off mid-record
+		}
+		keyTimes = Arrays.copyOf(keyTimes, keys);
+		keyOffsets = Arrays.copyOf(keyOffsets, keys);
+		aidTimes = Arrays.copyOf(aidTimes, nAids);
+		aidKeys = Arrays.copyOf(aidKeys, nAids);
+		end = offset;
+		complete = false;
+	}
+
+	private static void skipFully(DataInputStream s, long n) throws IOException {
+		while (n > 0) {
+			int skipped = s.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				s.readByte(); // EOF or a stream that cannot skip
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	// =======================================================================
+	// PLAYBACK
+	// =======================================================================
+
+	/**
+	 * Moves to the screen shown at the given time (ms since the start). Returns
+	 * false if the recording has no screen that early.
+	 */
+	public boolean seek(int t) throws IOException {
+		int k = floor(keyTimes, t);
+		if (k < 0)
+			return false;
+		if (k != segment || t < time) {
+			applyRecord(keyOffsets[k]);
+			segment = k;
+		}
+		while (next < end) {
+			readHeader(next);
+			if (ByteBuffer.wrap(header, 1, 4).getInt() > t)
+				break;
+			if (header[0] == KEYFRAME || header[0] == DELTA) {
+				applyRecord(next);
+				if (header[0] == KEYFRAME)
+					segment = Math.max(segment, floor(keyTimes, time));
+			} else {
+				next += HEADER_RECORD + ByteBuffer.wrap(header, 5, 4).getInt();
+			}
+		}
+		time = Math.max(time, Math.min(t, duration));
+		return true;
+	}
+
+	/** Time of the next screen change after the current position, or -1 at the end. */
+	public int nextChange() throws IOException {
+		long offset = next;
+		while (offset < end) {
+			readHeader(offset);
+			if (header[0] == KEYFRAME || header[0] == DELTA)
+				return ByteBuffer.wrap(header, 1, 4).getInt();
+			offset += HEADER_RECORD + ByteBuffer.wrap(header, 5, 4).getInt();
+		}
+		return -1;
+	}
+
+	/** Loads the screen at the current position into a (detached) model. */
+	public void showIn(ScreenModel target) {
+		if (segment >= 0)
+			target.load(rows, cols, cursor, chars, attrs, colors, highlights, charsets);
+	}
+
+	private void applyRecord(long offset) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(readRecord(offset));
+		next = offset + HEADER_RECORD + ByteBuffer.wrap(header, 5, 4).getInt();
+		time = ByteBuffer.wrap(header, 1, 4).getInt();
+		int r = b.getShort();
+		int c = b.getShort();
+		int cur = b.getShort();
+		if (r <= 0 || c <= 0 || r * c > chars.length)
+			throw new IOException("Corrupt recording: " + r + "x" + c + " screen");
+		if (header[0] == KEYFRAME) {
+			int n = r * c;
+			for (int p = 0; p < n; p++)
+				chars[p] = b.getChar();
+			b.get(attrs, 0, n).get(colors, 0, n).get(highlights, 0, n).get(charsets, 0, n);
+		} else {
+			int count = b.getShort();
+			boolean copied = false;
+			for (int i = 0; i < count; i++) {
+				int from = b.getShort() * c;
+				int source = b.getShort();
+				if (source >= 0) {
+					// References come first: snapshot the previous screen before any row changes
+					if (!copied) {
+						System.arraycopy(chars, 0, prevChars, 0, r * c);
+						System.arraycopy(attrs, 0, prevAttrs, 0, r * c);
+						System.arraycopy(colors, 0, prevColors, 0, r * c);
+						System.arraycopy(highlights, 0, prevHighlights, 0, r * c);
+						System.arraycopy(charsets, 0, prevCharsets, 0, r * c);
+						copied = true;
+					}
+					int src = source * c;
+					System.arraycopy(prevChars, src, chars, from, c);
+					System.arraycopy(prevAttrs, src, attrs, from, c);
+					System.arraycopy(prevColors, src, colors, from, c);
+					System.arraycopy(prevHighlights, src, highlights, from, c);
+					System.arraycopy(prevCharsets, src, charsets, from, c);
+					continue;
+				}
+				for (int p = from; p < from + c; p++)
+					chars[p] = b.getChar();
+				b.get(attrs, from, c).get(colors, from, c).get(highlights, from, c).get(charsets, from, c);
+			}
+		}
+		rows = r;
+		cols = c;
+		cursor = cur;
+	}
+
+	private void readHeader(long offset) throws IOException {
+		read(offset, header, HEADER_RECORD);
+	}
+
+	/** Reads through a window, so replaying a run of small deltas costs few reads. */
+	private void read(long offset, byte[] dst, int length) throws IOException {
+		if (offset < windowStart || offset + length > windowStart + windowLength) {
+			if (length > window.length) {
+				in.seek(offset);
+				in.readFully(dst, 0, length);
+				return;
+			}
+			in.seek(offset);
+			windowStart = offset;
+			windowLength = 0;
+			int n;
+			while (windowLength < window.length
+					&& (n = in.read(window, windowLength, window.length - windowLength)) > 0)
+				windowLength += n;
+			if (windowLength < length)
+				throw new EOFException("Recording ends at offset " + (offset + windowLength));
+		}
+		System.arraycopy(window, (int) (offset - windowStart), dst, 0, length);
+	}
+
+	/** Reads (and inflates) the record at offset; its header is left in header[]. */
+	private byte[] readRecord(long offset) throws IOException {
+		readHeader(offset);
+		ByteBuffer h = ByteBuffer.wrap(header);
+		int length = h.getInt(5);
+		int rawLength = h.getInt(9);
+		if (length < 0 || rawLength < length || offset + HEADER_RECORD + length > in.length())
+			throw new IOException("Corrupt recording at offset " + offset);
+		byte[] data = new byte[length];
+		read(offset + HEADER_RECORD, data, length);
+		if (rawLength == length)
+			return data;
+		inflater.reset();
+		inflater.setInput(data);
+		byte[] raw = new byte[rawLength];
+		try {
+			int n = 0;
+			while (n < raw.length && !inflater.finished())
+				n += inflater.inflate(raw, n, raw.length - n);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt recording at offset " + offset, e);
+		}
+		return raw;
+	}
+
+	/** Index of the last entry <= t in a sorted array, or -1. */
+	private static int floor(int[] times, int t) {
+		int i = Arrays.binarySearch(times, t);
+		if (i < 0)
+			return -i - 2;
+		while (i + 1 < times.length && times[i + 1] == t)
+			i++;
+		return i;
+	}
+
+	// =======================================================================
+	// STATE
+	// =======================================================================
+
+	public File getFile() {
+		return file;
+	}
+
+	/** Wall-clock time the recording started (epoch ms). */
+	public long getStart() {
+		return start;
+	}
+
+	/** Length in ms. */
+	public int getDuration() {
+		return duration;
+	}
+
+	/** Time of the screen at the current position. */
+	public int getTime() {
+		return time;
+	}
+
+	public String getModelName() {
+		return modelName;
+	}
+
+	/** Largest screen size of the recorded session. */
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	public int getMaxCols() {
+		return maxCols;
+	}
+
+	/** False if the recorder was not closed (still running, or crashed). */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public int getKeyframeCount() {
+		return keyTimes.length;
+	}
+
+	/** Time of the first screen; 0 unless recorded before it was stamped at the start. */
+	public int getFirstScreenTime() {
+		return keyTimes.length > 0 ? keyTimes[0] : 0;
+	}
+
+	/** Times of the AID keys pressed, ascending. */
+	public int[] getAidTimes() {
+		return aidTimes.clone();
+	}
+
+	/** AID byte of the i-th AID. */
+	public int getAid(int i) {
+		return aidKeys[i] & 0xFF;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+}
@@ -0,0 +1,91 @@
+package com.tn3270.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The screen text, row by row, kept up to date from {@link ScreenDelta}s, for
+ * code that waits for something to appear on the screen (e.g. the Linux
+ * transfer scrapers) instead of copying the whole ScreenModel every few
+ * hundred milliseconds.
+ *
+ * Deltas are applied on the waiting thread itself: the subscription's executor
+ * only queues the drain and wakes the waiter, so nothing is done for the
+ * watcher on the publishing thread. Meant for one waiting thread; close() ends
+ * the subscription.
+ */
+public final class ScreenWatcher implements AutoCloseable {
+	private final Object lock = new Object();
+	private final ArrayDeque<Runnable> drains = new ArrayDeque<>(); // Guarded by lock
+	private final ScreenPublisher.Subscription subscription;
+	private String[] rows = new String[0]; // Waiting thread only
+
+	/** @param subscribe e.g. session::subscribeScreenChanges */
+	public ScreenWatcher(
+			BiFunction<ScreenPublisher.Listener, Executor, ScreenPublisher.Subscription> subscribe) {
+		subscription = subscribe.apply(this::apply, this::queue);
+	}
+
+	/**
+	 * Waits until test returns non-null for the screen rows (tested now and
+	 * after every change) and returns that, or null after timeoutMs.
+	 */
+	public <T> T await(Function<String[], T> test, long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (true) {
+			Runnable drain;
+			synchronized (lock) {
+				drain = drains.poll();
+			}
+			if (drain != null) {
+				drain.run(); // Calls apply() with everything queued so far
+				continue;
+			}
+			T result = test.apply(rows);
+			if (result != null)
+				return result;
+			synchronized (lock) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0)
+					return null;
+				if (drains.isEmpty())
+					lock.wait(left);
+			}
+		}
+	}
+
+	/** The rows as of the last await(); blanks for attribute positions and nulls. */
+	public String[] getRows() {
+		return rows.clone();
+	}
+
+	@Override
+	public void close() {
+		subscription.close();
+		synchronized (lock) {
+			drains.clear();
+		}
+	}
+
+	private void queue(Runnable drain) {
+		synchronized (lock) {
+			drains.add(drain);
+			lock.notifyAll();
+		}
+	}
+
+	private void apply(List<ScreenDelta> batch) {
+		for (ScreenDelta d : batch) {
+			if (d.isFull() || d.getRows() != rows.length) {
+				rows = new String[d.getRows()];
+				Arrays.fill(rows, "");
+			}
+			for (int i = 0; i < d.getChangedRowCount(); i++)
+				rows[d.getChangedRow(i)] = d.getText(i);
+		}
+	}
+}
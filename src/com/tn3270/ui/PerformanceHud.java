@@ -0,0 +1,155 @@
+package com.tn3270.ui;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import com.tn3270.util.SampleRing;
+import com.tn3270.util.SessionMetrics;
+
+/**
+ * Performance overlay for a {@link TerminalPanel}: where the time goes right
+ * now - the client (paint, parse, GC), the network (bytes/s, outbound queue)
+ * or the host (AID round trip).
+ *
+ * Everything shown comes from counters the session keeps anyway
+ * ({@link SessionMetrics} and its sample rings) and the GC MXBeans. The panel
+ * calls sample() once a second to turn totals into rates and build the text;
+ * paint() only draws the prepared lines.
+ */
+final class PerformanceHud {
+
+	private static final Font FONT = new Font("Monospaced", Font.PLAIN, 11);
+	private static final Color BACKGROUND = new Color(0, 0, 0, 190);
+	private static final Color TEXT = new Color(120, 255, 120);
+	private static final Color WARN = new Color(255, 200, 80);
+	private static final int MARGIN = 6;
+	private static final int PAD = 5;
+
+	private final SessionMetrics metrics;
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+	// Totals at the previous sample
+	private long lastTime = System.nanoTime();
+	private long lastIn;
+	private long lastOut;
+	private long lastPaints;
+	private long lastRequests;
+	private long lastGcMillis;
+	private long lastGcCount;
+
+	private String[] lines = { "collecting..." };
+	private boolean[] warn = { false };
+	private Rectangle bounds = new Rectangle();
+
+	PerformanceHud(SessionMetrics metrics) {
+		this.metrics = metrics;
+		lastIn = metrics.getBytesIn();
+		lastOut = metrics.getBytesOut();
+		lastPaints = metrics.getPaints();
+		lastGcMillis = gcMillis();
+		lastGcCount = gcCount();
+	}
+
+	/** Where the overlay was last drawn, for repainting just that area. */
+	Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+	/**
+	 * Turns the totals since the previous call into rates and rebuilds the
+	 * text (EDT, about once a second).
+	 *
+	 * @param repaintRequests repaint() calls on the panel so far
+	 */
+	void sample(long repaintRequests) {
+		long now = System.nanoTime();
+		double secs = Math.max(1e-3, (now - lastTime) / 1e9);
+		long in = metrics.getBytesIn();
+		long out = metrics.getBytesOut();
+		long paints = metrics.getPaints();
+		long gcMs = gcMillis();
+		long gcN = gcCount();
+
+		long frames = paints - lastPaints;
+		long requests = repaintRequests - lastRequests;
+		double coalesced = frames > 0 ? (double) requests / frames : 0;
+
+		SampleRing paint = metrics.getPaintSamples();
+		SampleRing parse = metrics.getParseSamples();
+		long aid = metrics.getLastAidMicros();
+		int queue = metrics.getOutboundQueueDepth();
+		long gcPerSec = Math.round((gcMs - lastGcMillis) / secs);
+
+		lines = new String[] {
+				String.format("paint  %6.2fms avg %6.2fms max", paint.average() / 1e6, paint.max() / 1e6),
+				String.format("frames %5.1f/s  %4.1f requests/frame", frames / secs, coalesced),
+				String.format("parse  %6.2fms last %5.2fms max", parse.last() / 1e6, parse.max() / 1e6),
+				aid < 0 ? "AID rt      -" : String.format("AID rt %6.0fms", aid / 1e3),
+				String.format("in  %8s/s  out %8s/s", bytes((in - lastIn) / secs), bytes((out - lastOut) / secs)),
+				String.format("queue  %d record(s), %s", queue, bytes(metrics.getOutboundPendingBytes())),
+				String.format("GC     %3dms/s  %d pause(s)", gcPerSec, gcN - lastGcCount) };
+		warn = new boolean[] { paint.average() > 16_000_000, false, parse.last() > 10_000_000, aid > 1_000_000,
+				false, queue > 0, gcPerSec > 50 };
+
+		lastTime = now;
+		lastIn = in;
+		lastOut = out;
+		lastPaints = paints;
+		lastRequests = repaintRequests;
+		lastGcMillis = gcMs;
+		lastGcCount = gcN;
+	}
+
+	/** Draws the overlay in the top right corner, in device pixels. */
+	void paint(Graphics2D g, int panelWidth) {
+		g.setFont(FONT);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		FontMetrics fm = g.getFontMetrics();
+		int w = 0;
+		for (String line : lines)
+			w = Math.max(w, fm.stringWidth(line));
+		w += 2 * PAD;
+		int h = lines.length * fm.getHeight() + 2 * PAD;
+		bounds = new Rectangle(Math.max(0, panelWidth - w - MARGIN), MARGIN, w, h);
+
+		g.setComposite(AlphaComposite.SrcOver);
+		g.setColor(BACKGROUND);
+		g.fillRoundRect(bounds.x, bounds.y, w, h, 8, 8);
+		int y = bounds.y + PAD + fm.getAscent();
+		for (int i = 0; i < lines.length; i++) {
+			g.setColor(warn[i] ? WARN : TEXT);
+			g.drawString(lines[i], bounds.x + PAD, y);
+			y += fm.getHeight();
+		}
+	}
+
+	private static String bytes(double n) {
+		if (n < 1024)
+			return String.format("%.0f B", n);
+		if (n < 1024 * 1024)
+			return String.format("%.1f KB", n / 1024);
+		return String.format("%.1f MB", n / (1024 * 1024));
+	}
+
+	private long gcMillis() {
+		long t = 0;
+		for (GarbageCollectorMXBean gc : collectors)
+			t += Math.max(0, gc.getCollectionTime());
+		return t;
+	}
+
+	private long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : collectors)
+			n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+}
@@ -13,6 +13,9 @@ public class StatusBar extends JPanel {
 	private JLabel statusLabel;
 	private JLabel ipLabel;
 	private JLabel positionLabel;
+	private JLabel typeAheadLabel;
+	private JLabel historyLabel;
+	private JLabel responseLabel;
 
 	public StatusBar() {
 		setLayout(new BorderLayout());
@@ -35,6 +38,29 @@ public class StatusBar extends JPanel {
 		ipLabel.setFont(new Font("SansSerif", Font.PLAIN, 11));
 		rightPanel.add(ipLabel);
 
+		// NEW: Type-ahead indicator (hidden while empty)
+		typeAheadLabel = new JLabel("");
+		typeAheadLabel.setForeground(Color.ORANGE);
+		typeAheadLabel.setFont(new Font("Monospaced", Font.BOLD, 12));
+		typeAheadLabel.setToolTipText("Keys typed while the keyboard is locked; sent when the host unlocks it");
+		typeAheadLabel.setVisible(false);
+		rightPanel.add(typeAheadLabel);
+
+		// NEW: Screen history position (hidden on the live screen)
+		historyLabel = new JLabel("");
+		historyLabel.setForeground(Color.ORANGE);
+		historyLabel.setFont(new Font("Monospaced", Font.BOLD, 12));
+		historyLabel.setToolTipText("Showing a past screen - Shift+PgDn for newer, Esc for the live screen");
+		historyLabel.setVisible(false);
+		rightPanel.add(historyLabel);
+
+		// NEW: Host response time, last and 95th percentile (hidden until the first response)
+		responseLabel = new JLabel("");
+		responseLabel.setForeground(new Color(200, 200, 200));
+		responseLabel.setFont(new Font("Monospaced", Font.PLAIN, 12));
+		responseLabel.setVisible(false);
+		rightPanel.add(responseLabel);
+
 		// 2. Cursor Position
 		positionLabel = new JLabel("Row: 01 Col: 01");
 		positionLabel.setForeground(Color.WHITE);
@@ -64,6 +90,32 @@ public class StatusBar extends JPanel {
 		ipLabel.setText("[" + displayIP + "]");
 	}
 
+	/** Shows how many keys are waiting in the type-ahead buffer (0 hides it). */
+	public void setTypeAhead(int keys) {
+		typeAheadLabel.setText("TA " + keys);
+		typeAheadLabel.setVisible(keys > 0);
+	}
+
+	/** Shows which past screen is displayed (depth 0 hides it). */
+	public void setHistory(int depth, int available) {
+		historyLabel.setText("HIST -" + depth + "/" + available);
+		historyLabel.setVisible(depth > 0);
+	}
+
+	/** Shows the last response time and the session's 95th percentile (microseconds). */
+	public void setResponseTime(long lastMicros, long p95Micros, long count) {
+		responseLabel.setText("RT " + formatMicros(lastMicros) + " p95 " + formatMicros(p95Micros));
+		responseLabel.setToolTipText("Time from AID key to keyboard unlock: last response, and 95% of " + count
+				+ " response(s) in this session");
+		responseLabel.setVisible(true);
+	}
+
+	private static String formatMicros(long micros) {
+		if (micros < 1_000_000)
+			return (micros / 1000) + "ms";
+		return String.format("%.2fs", micros / 1e6);
+	}
+
 	public void updatePosition(int rows, int cols, int cursorPos) {
 		int row = (cursorPos / cols) + 1;
 		int col = (cursorPos % cols) + 1;
@@ -2,6 +2,7 @@ package com.tn3270.ui;
 
 import static com.tn3270.constants.ProtocolConstants.CHARSET_APL;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
@@ -13,17 +14,22 @@ import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JPanel;
 import javax.swing.JViewport;
 import javax.swing.Scrollable;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import com.tn3270.model.ScreenModel;
+import com.tn3270.util.FlightEvents;
+import com.tn3270.util.SessionMetrics;
 
 public class TerminalPanel extends JPanel implements Scrollable {
 
-	private final ScreenModel screenModel;
+	private final ScreenModel liveModel;
+	private ScreenModel screenModel; // NEW: Model being shown - the live one or a history screen
 	private Font terminalFont;
 	private int charWidth;
 	private int charHeight;
@@ -50,8 +56,15 @@ public class TerminalPanel extends JPanel implements Scrollable {
 	private boolean cursorBlinkEnabled = true;
 
 	private boolean paintingEnabled = true;
+	private SessionMetrics metrics; // NEW: Paint times for JMX, null when not measured
+
+	// NEW: Performance HUD (null while hidden); repaint requests are only counted while shown
+	private PerformanceHud hud;
+	private Timer hudTimer;
+	private volatile LongAdder repaintRequests;
 
 	public TerminalPanel(ScreenModel model) {
+		this.liveModel = model;
 		this.screenModel = model;
 
 		// Smart Default Font Size
@@ -205,6 +218,26 @@ public class TerminalPanel extends JPanel implements Scrollable {
 		updateSize();
 	}
 
+	/** Shows a screen other than the live one (read-only; selection and copy still work). */
+	public void showScreen(ScreenModel model) {
+		boolean resized = model.getRows() != screenModel.getRows() || model.getCols() != screenModel.getCols();
+		screenModel = model;
+		clearSelection();
+		if (resized)
+			updateSize();
+		repaint();
+	}
+
+	/** Back to the session's live screen. */
+	public void showLive() {
+		if (screenModel != liveModel)
+			showScreen(liveModel);
+	}
+
+	public boolean isShowingLive() {
+		return screenModel == liveModel;
+	}
+
 	public void setShowCrosshair(boolean b) {
 		this.showCrosshair = b;
 		repaint();
@@ -224,6 +257,50 @@ public class TerminalPanel extends JPanel implements Scrollable {
 		this.cursorBlinkEnabled = enabled;
 	}
 
+	/** Counts every paint and its duration into the session's metrics. */
+	public void setMetrics(SessionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Shows or hides the performance overlay (paint/parse times, AID round
+	 * trip, network rates, outbound queue, GC). Needs setMetrics().
+	 */
+	public void setHudVisible(boolean visible) {
+		if (visible == (hud != null) || (visible && metrics == null))
+			return;
+		if (visible) {
+			repaintRequests = new LongAdder();
+			hud = new PerformanceHud(metrics);
+			hudTimer = new Timer(1000, e -> {
+				if (hud == null)
+					return;
+				hud.sample(repaintRequests.sum());
+				Rectangle r = hud.getBounds();
+				repaint(0, 0, getWidth(), r.isEmpty() ? getHeight() : r.y + r.height + r.y); // New text may be wider
+			});
+			hudTimer.start();
+		} else {
+			hudTimer.stop();
+			hudTimer = null;
+			hud = null;
+			repaintRequests = null;
+		}
+		repaint();
+	}
+
+	public boolean isHudVisible() {
+		return hud != null;
+	}
+
+	@Override
+	public void repaint(long tm, int x, int y, int width, int height) {
+		LongAdder requests = repaintRequests;
+		if (requests != null)
+			requests.increment();
+		super.repaint(tm, x, y, width, height);
+	}
+
 	public boolean isShowCrosshair() {
 		return showCrosshair;
 	}
@@ -284,6 +361,38 @@ public class TerminalPanel extends JPanel implements Scrollable {
 	 */
 	//@Override
 	protected void paintComponent(Graphics g) {
+		FlightEvents.Paint event = new FlightEvents.Paint();
+		event.begin();
+		SessionMetrics m = metrics;
+		long t0 = (m != null) ? System.nanoTime() : 0;
+		try {
+			paintScreen(g);
+		} finally {
+			if (m != null)
+				m.painted(System.nanoTime() - t0);
+		}
+		PerformanceHud h = hud;
+		if (h != null) {
+			Graphics2D hg = (Graphics2D) g.create();
+			try {
+				h.paint(hg, getWidth());
+			} finally {
+				hg.dispose();
+			}
+		}
+		if (event.shouldCommit()) {
+			ScreenModel shown = screenModel;
+			event.rows = (shown != null) ? shown.getRows() : 0;
+			event.cols = (shown != null) ? shown.getCols() : 0;
+			event.cells = paintingEnabled ? event.rows * event.cols : 0;
+			Rectangle clip = g.getClipBounds();
+			event.clipWidth = (clip != null) ? clip.width : getWidth();
+			event.clipHeight = (clip != null) ? clip.height : getHeight();
+			event.commit();
+		}
+	}
+
+	private void paintScreen(Graphics g) {
 		super.paintComponent(g);
 		if (screenModel == null)
 			return;
@@ -1126,7 +1235,7 @@ public class TerminalPanel extends JPanel implements Scrollable {
 		}
 
 		// 5. DRAW CURSOR & CROSSHAIR
-		if (!screenModel.isKeyboardLocked() && hasFocus()) {
+		if (!screenModel.isKeyboardLocked() && hasFocus() && screenModel == liveModel) {
 			int cPos = screenModel.getCursorPos();
 			if (cPos >= 0 && cPos < buffer.length) {
 				int cRow = cPos / cols;
@@ -1164,6 +1273,13 @@ public class TerminalPanel extends JPanel implements Scrollable {
 		}
 
 		g2d.setTransform(oldTransform);
+
+		// NEW: Frame the panel while a past screen is shown
+		if (screenModel != liveModel) {
+			g2d.setColor(Color.ORANGE);
+			g2d.setStroke(new BasicStroke(2f));
+			g2d.drawRect(1, 1, getWidth() - 2, getHeight() - 2);
+		}
 	}
 	
 	protected void paintComponentWorks(Graphics g) {
@@ -1603,6 +1719,13 @@ public class TerminalPanel extends JPanel implements Scrollable {
 		repaint();
 	}
 
+	/** Selects the cells from start to end (inclusive), e.g. to mark a search hit. */
+	public void select(int start, int end) {
+		selectionStart = start;
+		selectionEnd = end;
+		repaint();
+	}
+
 	public void selectAll() {
 		selectionStart = 0;
 		selectionEnd = screenModel.getSize() - 1;
@@ -0,0 +1,133 @@
+package com.tn3270.ui.dialogs;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Window;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+
+import com.tn3270.model.ScreenIndex;
+
+/**
+ * Searches the screen history of all sessions (see {@link ScreenIndex}) and
+ * opens the screen of the selected hit.
+ *
+ * Queries run on the fork-join pool; the EDT only shows the results. Words
+ * must all be on the same row, a trailing '*' matches a prefix (HCP*).
+ */
+public class FindAcrossSessionsDialog extends JDialog {
+	private static final int MAX_HITS = 500;
+
+	private final JTextField queryField = new JTextField(30);
+	private final DefaultListModel<ScreenIndex.Hit> hits = new DefaultListModel<>();
+	private final JList<ScreenIndex.Hit> hitList = new JList<>(hits);
+	private final JLabel statusLabel = new JLabel(" ");
+	private final Predicate<ScreenIndex.Hit> opener;
+	private int searchCounter;
+
+	/**
+	 * @param opener shows the screen of a hit; returns false if that screen is
+	 *               gone (session closed or history evicted)
+	 */
+	public FindAcrossSessionsDialog(Window owner, Predicate<ScreenIndex.Hit> opener) {
+		super(owner, "Find Across Sessions", ModalityType.MODELESS);
+		this.opener = opener;
+		setLayout(new BorderLayout(5, 5));
+
+		JPanel top = new JPanel(new BorderLayout(5, 0));
+		top.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+		top.add(new JLabel("Find:"), BorderLayout.WEST);
+		top.add(queryField, BorderLayout.CENTER);
+		JButton findBtn = new JButton("Find");
+		findBtn.addActionListener(e -> search());
+		top.add(findBtn, BorderLayout.EAST);
+		add(top, BorderLayout.NORTH);
+
+		hitList.setFont(new Font("Monospaced", Font.PLAIN, 12));
+		hitList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		hitList.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2)
+					openSelected();
+			}
+		});
+		hitList.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				if (e.getKeyCode() == KeyEvent.VK_ENTER)
+					openSelected();
+			}
+		});
+		JScrollPane scroll = new JScrollPane(hitList);
+		scroll.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10),
+				scroll.getBorder()));
+		add(scroll, BorderLayout.CENTER);
+
+		statusLabel.setBorder(BorderFactory.createEmptyBorder(0, 10, 8, 10));
+		statusLabel.setForeground(Color.GRAY);
+		add(statusLabel, BorderLayout.SOUTH);
+
+		queryField.addActionListener(e -> search());
+		setSize(700, 400);
+		setLocationRelativeTo(owner);
+	}
+
+	private void search() {
+		String query = queryField.getText();
+		if (query.isBlank())
+			return;
+		int id = ++searchCounter;
+		statusLabel.setText("Searching...");
+		CompletableFuture.supplyAsync(() -> new Result(query)).thenAccept(r -> SwingUtilities.invokeLater(() -> {
+			if (id != searchCounter)
+				return; // A newer search is running
+			hits.clear();
+			for (ScreenIndex.Hit h : r.hits)
+				hits.addElement(h);
+			int n = r.hits.size();
+			statusLabel.setText(String.format("%d hit%s%s in %.1f ms (%d rows indexed)", n, n == 1 ? "" : "s",
+					n == MAX_HITS ? "+" : "", r.nanos / 1e6, r.indexed));
+			if (n > 0)
+				hitList.setSelectedIndex(0);
+		}));
+	}
+
+	/** A query run (off the EDT) with its timing. */
+	private static final class Result {
+		final List<ScreenIndex.Hit> hits;
+		final long nanos;
+		final int indexed;
+
+		Result(String query) {
+			long t0 = System.nanoTime();
+			hits = ScreenIndex.get().search(query, MAX_HITS);
+			nanos = System.nanoTime() - t0;
+			indexed = ScreenIndex.get().getRowCount();
+		}
+	}
+
+	private void openSelected() {
+		ScreenIndex.Hit hit = hitList.getSelectedValue();
+		if (hit != null && !opener.test(hit))
+			statusLabel.setText("That screen is no longer in the session's history");
+	}
+}
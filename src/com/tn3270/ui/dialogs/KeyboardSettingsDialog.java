@@ -34,6 +34,7 @@ import static com.tn3270.constants.ProtocolConstants.AID_SYSREQ;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Dialog;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
@@ -50,14 +51,18 @@ import java.util.List;
 import java.util.Map;
 
 import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JToggleButton;
+import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.border.Border;
@@ -65,6 +70,7 @@ import javax.swing.border.EmptyBorder;
 
 import com.tn3270.TN3270Session;
 import com.tn3270.TN3270Session.KeyMapping;
+import com.tn3270.macro.Macro;
 
 public class KeyboardSettingsDialog extends JDialog {
 	private final TN3270Session session;
@@ -115,6 +121,7 @@ public class KeyboardSettingsDialog extends JDialog {
 		JTabbedPane tabs = new JTabbedPane();
 		tabs.addTab("1. Map 3270 Functions", null, create3270Panel(), "Assign physical keys to 3270 functions");
 		tabs.addTab("2. Translate PC Characters", null, createPCPanel(), "Change what specific characters type");
+		tabs.addTab("3. Macros", null, createMacroPanel(), "Assign physical keys to recorded macros");
 		add(tabs, BorderLayout.CENTER);
 
 		JPanel footer = new JPanel(new BorderLayout());
@@ -326,6 +333,74 @@ public class KeyboardSettingsDialog extends JDialog {
 		return new JScrollPane(panelPC);
 	}
 
+	// NEW: Macro key bindings
+	private JPanel createMacroPanel() {
+		JPanel panel = new JPanel(new BorderLayout(10, 10));
+		panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+
+		JLabel help = new JLabel("<html><b>Macros:</b> Record with Macros &gt; Start Recording, then bind a key here."
+				+ "<br>Saved in " + Macro.MACRO_DIR + "</html>");
+		help.setFont(new Font("SansSerif", Font.PLAIN, 12));
+		panel.add(help, BorderLayout.NORTH);
+
+		DefaultListModel<String> model = new DefaultListModel<>();
+		for (String name : Macro.listSaved())
+			model.addElement(name);
+		JList<String> list = new JList<>(model);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.setCellRenderer(new DefaultListCellRenderer() {
+			@Override
+			public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected,
+					boolean focus) {
+				String name = (String) value;
+				Integer key = findMacroKey(name);
+				String text = (key == null) ? name : name + "   [" + KeyEvent.getKeyText(key) + "]";
+				return super.getListCellRendererComponent(l, text, index, selected, focus);
+			}
+		});
+		panel.add(new JScrollPane(list), BorderLayout.CENTER);
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		JButton assign = new JButton("Assign Key...");
+		assign.addActionListener(e -> {
+			String name = list.getSelectedValue();
+			if (name == null)
+				return;
+			KeyCaptureDialog cap = new KeyCaptureDialog(this, "Press physical key to run macro '" + name + "'",
+					false);
+			cap.setVisible(true);
+			if (cap.cleared) {
+				tempKeyMap.values().removeIf(km -> name.equals(km.macro));
+			} else if (cap.capturedKeyCode != -1) {
+				tempKeyMap.values().removeIf(km -> name.equals(km.macro));
+				tempKeyMap.put(cap.capturedKeyCode, KeyMapping.forMacro(name));
+				statusLabel.setText("Macro '" + name + "' on " + KeyEvent.getKeyText(cap.capturedKeyCode));
+			}
+			list.repaint();
+			refresh3270Visuals();
+		});
+		JButton clear = new JButton("Clear Key");
+		clear.addActionListener(e -> {
+			String name = list.getSelectedValue();
+			if (name != null) {
+				tempKeyMap.values().removeIf(km -> name.equals(km.macro));
+				list.repaint();
+			}
+		});
+		buttons.add(assign);
+		buttons.add(clear);
+		panel.add(buttons, BorderLayout.SOUTH);
+		return panel;
+	}
+
+	private Integer findMacroKey(String name) {
+		for (Map.Entry<Integer, KeyMapping> entry : tempKeyMap.entrySet()) {
+			if (name.equals(entry.getValue().macro))
+				return entry.getKey();
+		}
+		return null;
+	}
+
 	private void update3270ShiftState(boolean shifted) {
 		this.shift3270Active = shifted;
 		refresh3270Visuals();
@@ -466,7 +541,8 @@ public class KeyboardSettingsDialog extends JDialog {
 				char c = labelText.equals("Space") ? ' ' : labelText.charAt(0);
 				for (Map.Entry<Integer, KeyMapping> entry : tempKeyMap.entrySet()) {
 					// FIX: .aid check for Integer
-					if (entry.getValue().aid == null && entry.getValue().character == c) {
+					if (entry.getValue().aid == null && entry.getValue().macro == null
+							&& entry.getValue().character == c) {
 						mapped = true;
 						mappedTo = KeyEvent.getKeyText(entry.getKey());
 						break;
@@ -481,6 +557,8 @@ public class KeyboardSettingsDialog extends JDialog {
 
 				for (Map.Entry<Integer, KeyMapping> entry : tempKeyMap.entrySet()) {
 					KeyMapping km = entry.getValue();
+					if (km.macro != null)
+						continue;
 					// FIX: Compare integers safely
 					if ((km.description != null && km.description.contains(search))
 							|| (km.aid != null && km.aid.intValue() == aid && aid != 0)) {
@@ -557,6 +635,8 @@ public class KeyboardSettingsDialog extends JDialog {
 		String search = label.equals("R-Shift") ? "NEWLINE" : label;
 		tempKeyMap.entrySet().removeIf(entry -> {
 			KeyMapping km = entry.getValue();
+			if (km.macro != null)
+				return false;
 			if (km.description != null && km.description.contains(search))
 				return true;
 			// FIX: Integer comparison
@@ -0,0 +1,214 @@
+package com.tn3270.ui.dialogs;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSlider;
+import javax.swing.Timer;
+
+import com.tn3270.macro.Macro;
+import com.tn3270.model.ScreenModel;
+import com.tn3270.model.ScreenRecording;
+import com.tn3270.ui.TerminalPanel;
+import com.tn3270.util.LoggerSetup;
+
+/**
+ * Plays back a {@link ScreenRecording}: a read-only terminal, a timeline that
+ * can be dragged anywhere (each position is one keyframe plus a few deltas
+ * away), play/pause at several speeds and jumps between the AID keys the user
+ * pressed.
+ */
+public class RecordingPlayerDialog extends JDialog {
+	private static final Logger logger = LoggerSetup.getLogger(RecordingPlayerDialog.class);
+
+	private static final int TICK_MS = 40;
+	private static final String[] SPEEDS = { "1x", "2x", "4x", "8x", "16x", "60x" };
+
+	private final ScreenRecording recording;
+	private final ScreenModel model;
+	private final TerminalPanel panel;
+	private final JSlider timeline;
+	private final JLabel timeLabel = new JLabel();
+	private final JLabel aidLabel = new JLabel(" ");
+	private final JButton playBtn = new JButton("Play");
+	private final JComboBox<String> speedBox = new JComboBox<>(SPEEDS);
+	private final Timer playTimer;
+	private final int[] aidTimes;
+	private final SimpleDateFormat wallClock = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	private int position; // ms since the start of the recording
+	private long lastTick;
+	private boolean updatingSlider;
+
+	/**
+	 * @param template session whose colors the player uses, or null for the
+	 *                 defaults
+	 */
+	public RecordingPlayerDialog(Window owner, ScreenRecording recording, ScreenModel template) {
+		super(owner, "Recording - " + recording.getFile().getName() + (recording.isComplete() ? "" : " (incomplete)"),
+				ModalityType.MODELESS);
+		this.recording = recording;
+		this.aidTimes = recording.getAidTimes();
+		String name = recording.getModelName();
+		this.model = new ScreenModel(name, Collections.singletonMap(name,
+				new Dimension(recording.getMaxCols(), recording.getMaxRows())));
+		if (template != null)
+			model.copyColorsFrom(template);
+		this.panel = new TerminalPanel(model);
+		this.playTimer = new Timer(TICK_MS, e -> tick());
+		panel.setCursorBlinkEnabled(false);
+
+		setLayout(new BorderLayout());
+		JScrollPane scroll = new JScrollPane(panel);
+		scroll.setBorder(null);
+		scroll.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				panel.fitToSize(scroll.getWidth(), scroll.getHeight());
+			}
+		});
+		add(scroll, BorderLayout.CENTER);
+
+		timeline = new JSlider(0, Math.max(1, recording.getDuration()), 0);
+		timeline.addChangeListener(e -> {
+			if (!updatingSlider)
+				seek(timeline.getValue());
+		});
+
+		JPanel controls = new JPanel(new BorderLayout(5, 5));
+		controls.setBorder(BorderFactory.createEmptyBorder(5, 10, 8, 10));
+		controls.add(timeline, BorderLayout.NORTH);
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+		JButton prevAid = new JButton("< AID");
+		prevAid.setToolTipText("Previous key the user sent");
+		prevAid.addActionListener(e -> jumpToAid(false));
+		JButton nextAid = new JButton("AID >");
+		nextAid.setToolTipText("Next key the user sent");
+		nextAid.addActionListener(e -> jumpToAid(true));
+		playBtn.addActionListener(e -> setPlaying(!playTimer.isRunning()));
+		buttons.add(playBtn);
+		buttons.add(speedBox);
+		buttons.add(prevAid);
+		buttons.add(nextAid);
+		buttons.add(aidLabel);
+		controls.add(buttons, BorderLayout.WEST);
+		controls.add(timeLabel, BorderLayout.EAST);
+		add(controls, BorderLayout.SOUTH);
+
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				playTimer.stop();
+				try {
+					recording.close();
+				} catch (IOException ex) {
+					logger.fine(() -> "Error closing recording: " + ex.getMessage());
+				}
+			}
+		});
+		setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+		setSize(900, 600);
+		setLocationRelativeTo(owner);
+		seek(0);
+	}
+
+	private void setPlaying(boolean play) {
+		if (play) {
+			if (position >= recording.getDuration())
+				seek(0);
+			lastTick = System.currentTimeMillis();
+			playTimer.start();
+		} else {
+			playTimer.stop();
+		}
+		playBtn.setText(play ? "Pause" : "Play");
+	}
+
+	private void tick() {
+		long now = System.currentTimeMillis();
+		int speed = Integer.parseInt(((String) speedBox.getSelectedItem()).replace("x", ""));
+		int target = (int) Math.min(recording.getDuration(), position + (now - lastTick) * speed);
+		lastTick = now;
+		seek(target);
+		if (target >= recording.getDuration())
+			setPlaying(false);
+	}
+
+	private void jumpToAid(boolean forward) {
+		int i = -1;
+		if (forward) {
+			for (int k = 0; k < aidTimes.length && i < 0; k++) {
+				if (aidTimes[k] > position)
+					i = k;
+			}
+		} else {
+			for (int k = aidTimes.length - 1; k >= 0 && i < 0; k--) {
+				if (aidTimes[k] < position)
+					i = k;
+			}
+		}
+		if (i >= 0)
+			seek(aidTimes[i]);
+	}
+
+	/** Shows the screen at time t (ms since the start). */
+	private void seek(int t) {
+		position = Math.max(0, Math.min(t, recording.getDuration()));
+		int rows = model.getRows();
+		int cols = model.getCols();
+		try {
+			// FIX: Before the first screen, show the first screen rather than nothing
+			if (recording.seek(Math.max(position, recording.getFirstScreenTime())))
+				recording.showIn(model);
+		} catch (IOException e) {
+			setPlaying(false);
+			logger.warning("Error reading recording: " + e.getMessage());
+			JOptionPane.showMessageDialog(this, "Could not read the recording: " + e.getMessage(), "Recording",
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		if (model.getRows() != rows || model.getCols() != cols)
+			panel.updateSize();
+		panel.repaint();
+
+		updatingSlider = true;
+		timeline.setValue(position);
+		updatingSlider = false;
+		timeLabel.setText(format(position) + " / " + format(recording.getDuration()) + "   "
+				+ wallClock.format(new Date(recording.getStart() + position)));
+		aidLabel.setText(lastAid());
+	}
+
+	/** The AID pressed most recently before the current position, if it was under 10 s ago. */
+	private String lastAid() {
+		for (int k = aidTimes.length - 1; k >= 0; k--) {
+			if (aidTimes[k] <= position)
+				return (position - aidTimes[k] < 10_000) ? Macro.aidName(recording.getAid(k)).toUpperCase() : " ";
+		}
+		return " ";
+	}
+
+	private static String format(int ms) {
+		int s = ms / 1000;
+		return String.format("%d:%02d:%02d", s / 3600, s / 60 % 60, s % 60);
+	}
+}
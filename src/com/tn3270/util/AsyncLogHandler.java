@@ -0,0 +1,206 @@
+package com.tn3270.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Logging handler that never blocks the thread that logs (reader thread, EDT).
+ *
+ * publish() only claims a slot in a lock-free ring buffer and stores the
+ * record; a daemon thread drains the ring in order, formats the records and
+ * hands them to the sinks (console, rotating log file, and for
+ * {@link TraceRecord}s the datastream trace file). When the ring is full the
+ * record is dropped and counted, and the sinks are told how many were lost once
+ * the drainer catches up.
+ *
+ * Multiple producers, one consumer: producers CAS the tail to claim a slot and
+ * then fill it; the drainer takes slots in order and stops at the first one
+ * not filled yet.
+ */
+public final class AsyncLogHandler extends Handler {
+
+	private static final int CAPACITY = 8192; // Power of two
+	private static final int MASK = CAPACITY - 1;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final AtomicReferenceArray<LogRecord> slots = new AtomicReferenceArray<>(CAPACITY);
+	private final AtomicLong tail = new AtomicLong(); // Next slot to claim
+	private volatile long head; // Next slot to drain (drainer only)
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final List<Handler> sinks = new CopyOnWriteArrayList<>();
+	private volatile Handler traceSink;
+	private final Thread drainer;
+	private volatile boolean sleeping;
+	private volatile boolean closed;
+
+	public AsyncLogHandler() {
+		setLevel(Level.ALL);
+		drainer = new Thread(this::drainLoop, "tn3270-log");
+		drainer.setDaemon(true);
+		drainer.start();
+		// Whatever is still queued at exit is written out
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "tn3270-log-shutdown"));
+	}
+
+	/** Receives every log record (not traces), on the drainer thread. */
+	public void addSink(Handler sink) {
+		sinks.add(sink);
+	}
+
+	public void removeSink(Handler sink) {
+		sinks.remove(sink);
+	}
+
+	/** Receives the {@link TraceRecord}s; null discards them. */
+	public void setTraceSink(Handler sink) {
+		Handler old = traceSink;
+		traceSink = sink;
+		if (old != null && old != sink)
+			old.close();
+	}
+
+	/** Records lost because the ring was full. */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (record == null || closed || !isLoggable(record))
+			return;
+		while (true) {
+			long t = tail.get();
+			if (t - head >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				slots.set((int) (t & MASK), record);
+				break;
+			}
+		}
+		if (sleeping)
+			LockSupport.unpark(drainer);
+	}
+
+	/** Only a hint; the drainer flushes after each batch anyway. */
+	@Override
+	public void flush() {
+		LockSupport.unpark(drainer);
+	}
+
+	/** Drains what is queued (waiting at most 2 s), then closes the sinks. */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join(2000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Handler h : sinks)
+			h.close();
+		Handler t = traceSink;
+		if (t != null)
+			t.close();
+	}
+
+	// =======================================================================
+	// Drainer thread
+	// =======================================================================
+
+	private void drainLoop() {
+		while (true) {
+			if (drain() > 0)
+				continue;
+			if (closed && tail.get() == head)
+				return;
+			sleeping = true;
+			if (slots.get((int) (head & MASK)) == null && !closed)
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			sleeping = false;
+		}
+	}
+
+	/** Publishes every filled slot in order, then flushes the sinks. */
+	private int drain() {
+		int n = 0;
+		long h = head;
+		LogRecord r;
+		while ((r = slots.get((int) (h & MASK))) != null) {
+			slots.set((int) (h & MASK), null);
+			head = ++h;
+			dispatch(r);
+			n++;
+		}
+		long lost = dropped.getAndSet(0);
+		if (lost > 0) {
+			LogRecord warning = new LogRecord(Level.WARNING,
+					lost + " log record(s) dropped - logging faster than the log can be written");
+			warning.setLoggerName(AsyncLogHandler.class.getName());
+			dispatch(warning);
+		}
+		if (n > 0) {
+			for (Handler s : sinks)
+				s.flush();
+			Handler t = traceSink;
+			if (t != null)
+				t.flush();
+		}
+		return n;
+	}
+
+	private void dispatch(LogRecord r) {
+		try {
+			if (r instanceof TraceRecord) {
+				Handler t = traceSink;
+				if (t != null)
+					t.publish(r);
+			} else {
+				for (Handler s : sinks)
+					s.publish(r);
+			}
+		} catch (RuntimeException e) {
+			reportError("Log sink failed", e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/**
+	 * A copy of raw datastream bytes for the trace file, formatted as a hex dump
+	 * by the drainer.
+	 */
+	public static final class TraceRecord extends LogRecord {
+		private static final long serialVersionUID = 1L;
+
+		private final boolean inbound;
+		private final byte[] data;
+
+		TraceRecord(String channel, boolean inbound, byte[] data) {
+			super(Level.FINEST, null);
+			setLoggerName(channel);
+			this.inbound = inbound;
+			this.data = data;
+		}
+
+		/** True for host to PC. */
+		public boolean isInbound() {
+			return inbound;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package com.tn3270.util;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table-driven single-byte EBCDIC code page.
+ *
+ * Every code page owns three tables that are built once at class load:
+ *
+ * 1. A 256-entry decode table (EBCDIC -> Unicode). 2. A 256-entry display table
+ * (same as decode, but control characters collapse to a blank so they never
+ * reach the renderer). 3. A reverse table split in two: a flat 256-entry array
+ * for Latin-1 characters (the hot path) and a small sorted array for anything
+ * above U+00FF (Euro sign, APL box drawing). The sorted part is what replaces
+ * the old 64KB APL_TO_EBCDIC idea - the APL plane only has a dozen such glyphs.
+ *
+ * The bulk decode/encode methods work directly on arrays so callers can convert
+ * whole text runs without per-character method calls. The same tables are also
+ * exposed as a java.nio Charset (see {@link #charset()}) so file transfers and
+ * the host bridge share exactly the same mapping as the screen.
+ *
+ * Code pages are looked up by number ("037", "IBM-1047", "cp1140"...) via
+ * {@link #forName(String)}. Unknown names fall back to {@link #DEFAULT}.
+ */
+public final class CodePage {
+
+	/** Byte returned by {@link #encode(char)} when a character has no mapping. */
+	public static final byte UNMAPPED = 0x00;
+
+	/** Substitution byte used by the bulk encoder for unmappable characters. */
+	public static final byte SUBSTITUTE = 0x40;
+
+	private static final Map<String, CodePage> REGISTRY = new LinkedHashMap<>();
+
+	// =======================================================================
+	// 1. BASE TABLE (CP037, US/Canada)
+	// =======================================================================
+	// The other code pages are expressed as deltas against this table.
+	// Note: 0x15 is NL (U+0085) and 0x25 is LF, as in the IBM definition.
+	private static final String CP037 =
+			  "\u0000\u0001\u0002\u0003\u009c\u0009\u0086\u007f\u0097\u008d\u008e\u000b\u000c\r\u000e\u000f"
+			+ "\u0010\u0011\u0012\u0013\u009d\u0085\u0008\u0087\u0018\u0019\u0092\u008f\u001c\u001d\u001e\u001f"
+			+ "\u0080\u0081\u0082\u0083\u0084\n\u0017\u001b\u0088\u0089\u008a\u008b\u008c\u0005\u0006\u0007"
+			+ "\u0090\u0091\u0016\u0093\u0094\u0095\u0096\u0004\u0098\u0099\u009a\u009b\u0014\u0015\u009e\u001a"
+			+ " \u00a0âäàáãåçñ¢.<(+|"
+			+ "&éêëèíîïìß!$*);¬"
+			+ "-/ÂÄÀÁÃÅÇÑ¦,%_>?"
+			+ "øÉÊËÈÍÎÏÌ`:#@'=\""
+			+ "Øabcdefghi«»ðýþ±"
+			+ "°jklmnopqrªºæ¸Æ¤"
+			+ "µ~stuvwxyz¡¿ÐÝÞ®"
+			+ "^£¥·©§¶¼½¾[]¯¨´×"
+			+ "{ABCDEFGHI\u00adôöòóõ"
+			+ "}JKLMNOPQR¹ûüùúÿ"
+			+ "\\÷STUVWXYZ²ÔÖÒÓÕ"
+			+ "0123456789³ÛÜÙÚ\u009f";
+
+	// Deltas against CP037 as { ebcdic, unicode } pairs.
+	private static final int[] CP1047_DELTA = { 0x15, 0x000A, 0x25, 0x0085, 0x5F, 0x005E, 0xAD, 0x005B, 0xB0,
+			0x00AC, 0xBA, 0x00DD, 0xBB, 0x00A8, 0xBD, 0x005D };
+
+	private static final int[] CP500_DELTA = { 0x4A, 0x005B, 0x4F, 0x0021, 0x5A, 0x005D, 0x5F, 0x005E, 0xB0,
+			0x00A2, 0xBA, 0x00AC, 0xBB, 0x007C };
+
+	private static final int[] CP273_DELTA = { 0x43, 0x007B, 0x4A, 0x00C4, 0x4F, 0x0021, 0x59, 0x007E, 0x5A,
+			0x00DC, 0x5F, 0x005E, 0x63, 0x005B, 0x6A, 0x00F6, 0x7C, 0x00A7, 0xA1, 0x00DF, 0xB0, 0x00A2, 0xB5,
+			0x0040, 0xBA, 0x00AC, 0xBB, 0x007C, 0xC0, 0x00E4, 0xCC, 0x00A6, 0xD0, 0x00FC, 0xDC, 0x007D, 0xE0,
+			0x00D6, 0xEC, 0x005C, 0xFC, 0x005D };
+
+	private static final int[] CP285_DELTA = { 0x4A, 0x0024, 0x5B, 0x00A3, 0xA1, 0x00AF, 0xB0, 0x00A2, 0xB1,
+			0x005B, 0xBA, 0x005E, 0xBC, 0x007E };
+
+	private static final int[] CP297_DELTA = { 0x44, 0x0040, 0x48, 0x005C, 0x4A, 0x00B0, 0x4F, 0x0021, 0x51,
+			0x007B, 0x54, 0x007D, 0x5A, 0x00A7, 0x5F, 0x005E, 0x6A, 0x00F9, 0x79, 0x00B5, 0x7B, 0x00A3, 0x7C,
+			0x00E0, 0x90, 0x005B, 0xA0, 0x0060, 0xA1, 0x00A8, 0xB0, 0x00A2, 0xB1, 0x0023, 0xB5, 0x005D, 0xBA,
+			0x00AC, 0xBB, 0x007C, 0xBD, 0x007E, 0xC0, 0x00E9, 0xD0, 0x00E8, 0xDD, 0x00A6, 0xE0, 0x00E7 };
+
+	// The 114x "Euro" pages replace the currency sign at 0x9F with U+20AC.
+	private static final int[] EURO_DELTA = { 0x9F, 0x20AC };
+
+	// =======================================================================
+	// 2. REGISTERED CODE PAGES
+	// =======================================================================
+
+	/**
+	 * The emulator's historical table from {@link EBCDIC} (CP037 with the '[' at
+	 * 0x4A and '¦' at 0x6A fix-ups). Kept as the default so existing profiles
+	 * render and transmit exactly as before.
+	 */
+	public static final CodePage DEFAULT;
+
+	/** Graphic Escape / APL plane (GE order and SA character set 0xF1). */
+	public static final CodePage APL;
+
+	static {
+		DEFAULT = new CodePage("default", "Default (CP037 compatible)", EBCDIC.EBCDIC_TO_ASCII.clone(),
+				EBCDIC.ASCII_TO_EBCDIC.clone());
+		register(DEFAULT);
+
+		register(derive("037", "037 - US/Canada", null, null));
+		register(derive("273", "273 - Germany/Austria", CP273_DELTA, null));
+		register(derive("285", "285 - United Kingdom", CP285_DELTA, null));
+		register(derive("297", "297 - France", CP297_DELTA, null));
+		register(derive("500", "500 - International", CP500_DELTA, null));
+		register(derive("1047", "1047 - Open Systems Latin-1", CP1047_DELTA, null));
+		register(derive("1140", "1140 - US/Canada (Euro)", null, EURO_DELTA));
+		register(derive("1141", "1141 - Germany/Austria (Euro)", CP273_DELTA, EURO_DELTA));
+		register(derive("1146", "1146 - United Kingdom (Euro)", CP285_DELTA, EURO_DELTA));
+		register(derive("1147", "1147 - France (Euro)", CP297_DELTA, EURO_DELTA));
+		register(derive("1148", "1148 - International (Euro)", CP500_DELTA, EURO_DELTA));
+
+		// APL is not user-selectable, so it is not registered.
+		APL = new CodePage("apl", "APL / Graphic Escape", EBCDIC.EBCDIC_TO_APL.clone(), null);
+	}
+
+	private static CodePage derive(String id, String description, int[] delta, int[] euro) {
+		char[] table = CP037.toCharArray();
+		applyDelta(table, delta);
+		applyDelta(table, euro);
+		return new CodePage(id, description, table, null);
+	}
+
+	private static void applyDelta(char[] table, int[] delta) {
+		if (delta == null)
+			return;
+		for (int i = 0; i + 1 < delta.length; i += 2)
+			table[delta[i]] = (char) delta[i + 1];
+	}
+
+	private static void register(CodePage cp) {
+		REGISTRY.put(cp.id, cp);
+	}
+
+	/**
+	 * Looks up a code page by name. Accepts "037", "37", "cp037", "IBM-1047",
+	 * "IBM01140" and "default". Unknown or empty names return {@link #DEFAULT}.
+	 */
+	public static CodePage forName(String name) {
+		if (name == null)
+			return DEFAULT;
+		String n = name.trim();
+		if (n.isEmpty() || n.equalsIgnoreCase(DEFAULT.id))
+			return DEFAULT;
+
+		StringBuilder digits = new StringBuilder();
+		for (int i = 0; i < n.length(); i++) {
+			char c = n.charAt(i);
+			if (c >= '0' && c <= '9')
+				digits.append(c);
+		}
+		if (digits.length() == 0)
+			return DEFAULT;
+
+		try {
+			int number = Integer.parseInt(digits.toString());
+			CodePage cp = REGISTRY.get(String.format("%03d", number));
+			return (cp != null) ? cp : DEFAULT;
+		} catch (NumberFormatException e) {
+			return DEFAULT;
+		}
+	}
+
+	/** All user-selectable code pages, in menu order. */
+	public static Collection<CodePage> all() {
+		return Collections.unmodifiableCollection(REGISTRY.values());
+	}
+
+	// =======================================================================
+	// 3. INSTANCE TABLES
+	// =======================================================================
+
+	private final String id;
+	private final String description;
+	private final char[] toUnicode;
+	private final char[] toDisplay = new char[256];
+	private final byte[] latinToEbcdic;
+	private final char[] extChars; // Sorted, for characters above U+00FF
+	private final byte[] extBytes;
+	private final Charset charset;
+
+	private CodePage(String id, String description, char[] table, byte[] latinReverse) {
+		this.id = id;
+		this.description = description;
+		this.toUnicode = table;
+
+		for (int i = 0; i < 256; i++) {
+			char c = table[i];
+			// Controls (and unmapped '\0' slots) must never reach the renderer
+			toDisplay[i] = (c == '\0' || Character.isISOControl(c)) ? ' ' : c;
+		}
+
+		// Reverse: first match wins, so duplicated glyphs (e.g. ' ' at 0x40 and
+		// 0x80 in the legacy table) resolve to the lowest code point. This is the
+		// same answer the old linear search in sendReadBuffer produced.
+		byte[] latin = new byte[256];
+		boolean[] seen = new boolean[256];
+		List<Character> ext = new ArrayList<>();
+		Map<Character, Byte> extMap = new LinkedHashMap<>();
+		for (int i = 0; i < 256; i++) {
+			char c = table[i];
+			if (c < 256) {
+				if (!seen[c]) {
+					seen[c] = true;
+					latin[c] = (byte) i;
+				}
+			} else if (!extMap.containsKey(c)) {
+				extMap.put(c, (byte) i);
+				ext.add(c);
+			}
+		}
+		this.latinToEbcdic = (latinReverse != null) ? latinReverse : latin;
+
+		Collections.sort(ext);
+		this.extChars = new char[ext.size()];
+		this.extBytes = new byte[ext.size()];
+		for (int i = 0; i < extChars.length; i++) {
+			extChars[i] = ext.get(i);
+			extBytes[i] = extMap.get(extChars[i]);
+		}
+
+		this.charset = new EbcdicCharset(this);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/** Charset view over this code page's tables (name: x-tn3270-&lt;id&gt;). */
+	public Charset charset() {
+		return charset;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+	// =======================================================================
+	// 4. SINGLE CHARACTER CONVERSION
+	// =======================================================================
+
+	public char decode(int ebcdic) {
+		return toUnicode[ebcdic & 0xFF];
+	}
+
+	/** Decodes for the screen: control characters and nulls become a blank. */
+	public char decodeDisplay(int ebcdic) {
+		return toDisplay[ebcdic & 0xFF];
+	}
+
+	/**
+	 * Encodes one character. Returns {@link #UNMAPPED} (0x00) if the character
+	 * has no mapping, which is also the encoding of '\0'.
+	 */
+	public byte encode(char c) {
+		if (c < 256)
+			return latinToEbcdic[c];
+		int k = Arrays.binarySearch(extChars, c);
+		return (k >= 0) ? extBytes[k] : UNMAPPED;
+	}
+
+	public boolean canEncode(char c) {
+		return c == '\0' || encode(c) != UNMAPPED;
+	}
+
+	// =======================================================================
+	// 5. BULK CONVERSION
+	// =======================================================================
+
+	/** Decodes len bytes into dst. Returns the number of chars written (len). */
+	public int decode(byte[] src, int off, int len, char[] dst, int dstOff) {
+		final char[] t = toUnicode;
+		for (int i = 0; i < len; i++)
+			dst[dstOff + i] = t[src[off + i] & 0xFF];
+		return len;
+	}
+
+	/** Same as decode, but through the display table. */
+	public int decodeDisplay(byte[] src, int off, int len, char[] dst, int dstOff) {
+		final char[] t = toDisplay;
+		for (int i = 0; i < len; i++)
+			dst[dstOff + i] = t[src[off + i] & 0xFF];
+		return len;
+	}
+
+	public String decode(byte[] src, int off, int len) {
+		char[] out = new char[len];
+		decode(src, off, len, out, 0);
+		return new String(out);
+	}
+
+	/**
+	 * Encodes len chars into dst. Unmappable characters become
+	 * {@link #SUBSTITUTE}. With skipNulls set, '\0' characters are dropped (3270
+	 * inbound convention for Read Modified); otherwise they are written as 0x00.
+	 *
+	 * @return number of bytes written
+	 */
+	public int encode(char[] src, int off, int len, byte[] dst, int dstOff, boolean skipNulls) {
+		final byte[] t = latinToEbcdic;
+		int o = dstOff;
+		for (int i = off, end = off + len; i < end; i++) {
+			char c = src[i];
+			if (c == '\0') {
+				if (!skipNulls)
+					dst[o++] = 0x00;
+				continue;
+			}
+			byte b = (c < 256) ? t[c] : encode(c);
+			dst[o++] = (b != UNMAPPED) ? b : SUBSTITUTE;
+		}
+		return o - dstOff;
+	}
+
+	public byte[] encode(String s) {
+		char[] chars = s.toCharArray();
+		byte[] out = new byte[chars.length];
+		encode(chars, 0, chars.length, out, 0, false);
+		return out;
+	}
+}
@@ -11,6 +11,7 @@ public class EBCDIC {
 	// 64KB size is negligible in modern Java and allows O(1) lookup.
 	// (Nope, it's not negligible)
 	// public static final byte[] APL_TO_EBCDIC = new byte[65536];
+	// See CodePage.APL for the compact reverse map that replaced this.
 
 	// Address decoding table
 	public static final byte[] ADDRESS_TABLE = { (byte) 0x40, (byte) 0xC1, (byte) 0xC2, (byte) 0xC3, (byte) 0xC4,
@@ -0,0 +1,103 @@
+package com.tn3270.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * java.nio Charset view over a {@link CodePage}.
+ *
+ * Not registered with a CharsetProvider - obtain instances through
+ * {@link CodePage#charset()}. Heap buffers take the array fast path, anything
+ * else falls back to get()/put().
+ */
+final class EbcdicCharset extends Charset {
+
+	private final CodePage codePage;
+
+	EbcdicCharset(CodePage codePage) {
+		super("x-tn3270-" + codePage.getId(), null);
+		this.codePage = codePage;
+	}
+
+	@Override
+	public boolean contains(Charset cs) {
+		return cs == this;
+	}
+
+	@Override
+	public CharsetDecoder newDecoder() {
+		return new Decoder();
+	}
+
+	@Override
+	public CharsetEncoder newEncoder() {
+		return new Encoder();
+	}
+
+	private final class Decoder extends CharsetDecoder {
+		Decoder() {
+			super(EbcdicCharset.this, 1f, 1f);
+		}
+
+		@Override
+		protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+			if (in.hasArray() && out.hasArray()) {
+				int n = Math.min(in.remaining(), out.remaining());
+				codePage.decode(in.array(), in.arrayOffset() + in.position(), n, out.array(),
+						out.arrayOffset() + out.position());
+				in.position(in.position() + n);
+				out.position(out.position() + n);
+				return in.hasRemaining() ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
+			}
+			while (in.hasRemaining()) {
+				if (!out.hasRemaining())
+					return CoderResult.OVERFLOW;
+				out.put(codePage.decode(in.get()));
+			}
+			return CoderResult.UNDERFLOW;
+		}
+	}
+
+	private final class Encoder extends CharsetEncoder {
+		Encoder() {
+			super(EbcdicCharset.this, 1f, 1f, new byte[] { CodePage.SUBSTITUTE });
+		}
+
+		@Override
+		public boolean canEncode(char c) {
+			return codePage.canEncode(c);
+		}
+
+		@Override
+		protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+			while (in.hasRemaining()) {
+				int pos = in.position();
+				char c = in.get(pos);
+
+				if (Character.isSurrogate(c)) {
+					// Nothing outside the BMP is representable in a single-byte page
+					if (Character.isHighSurrogate(c)) {
+						if (in.remaining() < 2)
+							return CoderResult.UNDERFLOW;
+						if (Character.isLowSurrogate(in.get(pos + 1)))
+							return CoderResult.unmappableForLength(2);
+					}
+					return CoderResult.malformedForLength(1);
+				}
+
+				byte b = codePage.encode(c);
+				if (b == CodePage.UNMAPPED && c != '\0')
+					return CoderResult.unmappableForLength(1);
+				if (!out.hasRemaining())
+					return CoderResult.OVERFLOW;
+				out.put(b);
+				in.position(pos + 1);
+			}
+			return CoderResult.UNDERFLOW;
+		}
+	}
+}
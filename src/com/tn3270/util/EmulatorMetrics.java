@@ -0,0 +1,229 @@
+package com.tn3270.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Emulator-wide metrics and the JMX registry of the per-session ones.
+ *
+ * Registers itself in the platform MBean server as com.tn3270:type=Emulator,
+ * and each session added with register() as
+ * com.tn3270:type=Session,name=&lt;session&gt;, so JConsole or VisualVM can
+ * attach to a running emulator and watch them. Totals are the sum of the live
+ * sessions plus whatever closed sessions had counted.
+ *
+ * JMX problems are logged and otherwise ignored; metrics never stop a session.
+ */
+public final class EmulatorMetrics implements EmulatorMetricsMBean {
+	private static final Logger logger = LoggerSetup.getLogger(EmulatorMetrics.class);
+
+	public static final String DOMAIN = "com.tn3270";
+
+	private static EmulatorMetrics instance;
+
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	private final List<SessionMetrics> sessions = new CopyOnWriteArrayList<>();
+
+	// Totals of closed sessions
+	private final LongAdder closedBytesIn = new LongAdder();
+	private final LongAdder closedBytesOut = new LongAdder();
+	private final LongAdder closedRecordsIn = new LongAdder();
+	private final LongAdder closedNegotiations = new LongAdder();
+	private final LongAdder closedTransferBytes = new LongAdder();
+
+	private final AtomicInteger aiInFlight = new AtomicInteger();
+	private final LongAdder aiRequests = new LongAdder();
+	private final LongAdder aiFailures = new LongAdder();
+	private final LongAdder aiPromptTokens = new LongAdder();
+	private final LongAdder aiCompletionTokens = new LongAdder();
+
+	private final SessionMetrics.Rate bytesInRate = new SessionMetrics.Rate();
+	private final SessionMetrics.Rate recordsInRate = new SessionMetrics.Rate();
+	private final SessionMetrics.Rate transferRate = new SessionMetrics.Rate();
+
+	private EmulatorMetrics() {
+		register(this, DOMAIN + ":type=Emulator");
+	}
+
+	public static synchronized EmulatorMetrics get() {
+		if (instance == null)
+			instance = new EmulatorMetrics();
+		return instance;
+	}
+
+	/** Publishes a session's metrics until unregister(). */
+	public void register(SessionMetrics m) {
+		sessions.add(m);
+		register(m, sessionName(m));
+	}
+
+	public void unregister(SessionMetrics m) {
+		if (!sessions.remove(m))
+			return;
+		closedBytesIn.add(m.getBytesIn());
+		closedBytesOut.add(m.getBytesOut());
+		closedRecordsIn.add(m.getRecordsIn());
+		closedNegotiations.add(m.getTelnetNegotiations());
+		closedTransferBytes.add(m.getTransferBytes());
+		try {
+			ObjectName on = new ObjectName(sessionName(m));
+			if (server.isRegistered(on))
+				server.unregisterMBean(on);
+		} catch (JMException e) {
+			logger.fine(() -> "Could not unregister " + m.getName() + ": " + e.getMessage());
+		}
+	}
+
+	private static String sessionName(SessionMetrics m) {
+		return DOMAIN + ":type=Session,name=" + ObjectName.quote(m.getName());
+	}
+
+	private void register(Object mbean, String name) {
+		try {
+			ObjectName on = new ObjectName(name);
+			if (server.isRegistered(on))
+				server.unregisterMBean(on);
+			server.registerMBean(mbean, on);
+		} catch (JMException e) {
+			logger.warning("Could not register MBean " + name + ": " + e.getMessage());
+		}
+	}
+
+	// =======================================================================
+	// AI requests (AIManager)
+	// =======================================================================
+
+	public void aiRequestStarted() {
+		aiInFlight.incrementAndGet();
+		aiRequests.increment();
+	}
+
+	public void aiRequestFinished(boolean ok) {
+		aiInFlight.decrementAndGet();
+		if (!ok)
+			aiFailures.increment();
+	}
+
+	/** Token counts of one reply, as far as the provider reported them. */
+	public void aiTokens(long prompt, long completion) {
+		aiPromptTokens.add(prompt);
+		aiCompletionTokens.add(completion);
+	}
+
+	// =======================================================================
+	// EmulatorMetricsMBean
+	// =======================================================================
+
+	@Override
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	@Override
+	public int getConnectedSessions() {
+		int n = 0;
+		for (SessionMetrics m : sessions) {
+			if (m.isConnected())
+				n++;
+		}
+		return n;
+	}
+
+	@Override
+	public long getBytesIn() {
+		long n = closedBytesIn.sum();
+		for (SessionMetrics m : sessions)
+			n += m.getBytesIn();
+		return n;
+	}
+
+	@Override
+	public long getBytesOut() {
+		long n = closedBytesOut.sum();
+		for (SessionMetrics m : sessions)
+			n += m.getBytesOut();
+		return n;
+	}
+
+	@Override
+	public long getRecordsIn() {
+		long n = closedRecordsIn.sum();
+		for (SessionMetrics m : sessions)
+			n += m.getRecordsIn();
+		return n;
+	}
+
+	@Override
+	public double getBytesInPerSecond() {
+		return bytesInRate.get(getBytesIn());
+	}
+
+	@Override
+	public double getRecordsInPerSecond() {
+		return recordsInRate.get(getRecordsIn());
+	}
+
+	@Override
+	public long getTelnetNegotiations() {
+		long n = closedNegotiations.sum();
+		for (SessionMetrics m : sessions)
+			n += m.getTelnetNegotiations();
+		return n;
+	}
+
+	@Override
+	public int getActiveTransfers() {
+		int n = 0;
+		for (SessionMetrics m : sessions) {
+			if (m.isTransferActive())
+				n++;
+		}
+		return n;
+	}
+
+	@Override
+	public long getTransferBytes() {
+		long n = closedTransferBytes.sum();
+		for (SessionMetrics m : sessions)
+			n += m.getTransferBytes();
+		return n;
+	}
+
+	@Override
+	public double getTransferBytesPerSecond() {
+		return transferRate.get(getTransferBytes());
+	}
+
+	@Override
+	public int getAiRequestsInFlight() {
+		return aiInFlight.get();
+	}
+
+	@Override
+	public long getAiRequests() {
+		return aiRequests.sum();
+	}
+
+	@Override
+	public long getAiFailures() {
+		return aiFailures.sum();
+	}
+
+	@Override
+	public long getAiPromptTokens() {
+		return aiPromptTokens.sum();
+	}
+
+	@Override
+	public long getAiCompletionTokens() {
+		return aiCompletionTokens.sum();
+	}
+}
@@ -0,0 +1,40 @@
+package com.tn3270.util;
+
+/**
+ * JMX view of the metrics of all sessions together (see {@link EmulatorMetrics}).
+ * Counters include sessions that have been closed.
+ */
+public interface EmulatorMetricsMBean {
+
+	int getSessionCount();
+
+	int getConnectedSessions();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	long getRecordsIn();
+
+	double getBytesInPerSecond();
+
+	double getRecordsInPerSecond();
+
+	long getTelnetNegotiations();
+
+	int getActiveTransfers();
+
+	long getTransferBytes();
+
+	double getTransferBytesPerSecond();
+
+	int getAiRequestsInFlight();
+
+	long getAiRequests();
+
+	long getAiFailures();
+
+	long getAiPromptTokens();
+
+	long getAiCompletionTokens();
+}
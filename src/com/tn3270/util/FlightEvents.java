@@ -0,0 +1,163 @@
+package com.tn3270.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the emulator's hot paths, so "the emulator
+ * is slow" can be answered from a recording of a production session.
+ *
+ * Record with the bundled profile (tn3270.jfc next to TN3270.jar):
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=settings=tn3270.jfc,filename=tn3270.jfr -jar TN3270.jar
+ * </pre>
+ *
+ * or start a recording on a running emulator with
+ * {@code jcmd <pid> JFR.start settings=/path/to/tn3270.jfc}.
+ *
+ * When no recording is running the events are disabled: begin()/commit() do
+ * nothing and the JIT removes the allocation, so callers only fill in fields
+ * under shouldCommit(). Stack traces are off by default; the hot events fire
+ * thousands of times per second during a transfer.
+ */
+public final class FlightEvents {
+
+	private FlightEvents() {
+	}
+
+	@Name("com.tn3270.RecordReceived")
+	@Label("3270 Record Received")
+	@Description("An inbound 3270 record (up to IAC EOR), from parsing to the updated screen")
+	@Category({ "TN3270", "Protocol" })
+	@StackTrace(false)
+	public static final class RecordReceived extends Event {
+		@Label("Session")
+		public String session;
+
+		@Label("Size")
+		@DataAmount
+		public int bytes;
+
+		@Label("Command")
+		@Description("First byte of the record (3270 command, or TN3270E data type)")
+		public int command;
+	}
+
+	@Name("com.tn3270.OrdersProcessed")
+	@Label("Write Orders Processed")
+	@Description("The orders and text of one Write / Erase Write applied to the screen")
+	@Category({ "TN3270", "Protocol" })
+	@StackTrace(false)
+	public static final class OrdersProcessed extends Event {
+		@Label("Size")
+		@DataAmount
+		public int bytes;
+
+		@Label("Orders")
+		public int orders;
+
+		@Label("Text Runs")
+		public int textRuns;
+
+		@Label("Text Size")
+		@DataAmount
+		public int textBytes;
+	}
+
+	@Name("com.tn3270.Paint")
+	@Label("Terminal Paint")
+	@Category({ "TN3270", "Rendering" })
+	@StackTrace(false)
+	public static final class Paint extends Event {
+		@Label("Rows")
+		public int rows;
+
+		@Label("Columns")
+		public int cols;
+
+		@Label("Cells Painted")
+		public int cells;
+
+		@Label("Clip Width")
+		public int clipWidth;
+
+		@Label("Clip Height")
+		public int clipHeight;
+	}
+
+	@Name("com.tn3270.AidRoundTrip")
+	@Label("AID Round Trip")
+	@Description("From the AID key until the host restores the keyboard")
+	@Category({ "TN3270", "Protocol" })
+	@StackTrace(false)
+	public static final class AidRoundTrip extends Event {
+		@Label("Session")
+		public String session;
+
+		@Label("Host")
+		public String host;
+
+		@Label("AID")
+		public int aid;
+	}
+
+	@Name("com.tn3270.TransferBlock")
+	@Label("IND$FILE Block")
+	@Category({ "TN3270", "File Transfer" })
+	@StackTrace(false)
+	public static final class TransferBlock extends Event {
+		@Label("Session")
+		public String session;
+
+		@Label("Upload")
+		public boolean upload;
+
+		@Label("Block Size")
+		@DataAmount
+		public int bytes;
+
+		@Label("Transferred")
+		@Description("Bytes transferred so far, including this block")
+		@DataAmount
+		public long total;
+	}
+
+	@Name("com.tn3270.AiRequest")
+	@Label("AI Request")
+	@Description("An AI request from start until the reply is complete (or failed)")
+	@Category({ "TN3270", "AI" })
+	public static final class AiRequest extends Event {
+		@Label("Model")
+		public String model;
+
+		@Label("Streaming")
+		public boolean streaming;
+
+		@Label("Time to First Token")
+		@Timespan(Timespan.NANOSECONDS)
+		public long firstToken;
+
+		@Label("Chunks")
+		public int chunks;
+
+		@Label("Succeeded")
+		public boolean success;
+	}
+
+	@Name("com.tn3270.AiFirstToken")
+	@Label("AI First Token")
+	@Description("From the start of a streaming AI request until its first chunk arrives")
+	@Category({ "TN3270", "AI" })
+	@StackTrace(false)
+	public static final class AiFirstToken extends Event {
+		@Label("Model")
+		public String model;
+	}
+}
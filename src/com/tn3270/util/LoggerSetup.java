@@ -1,7 +1,12 @@
 package com.tn3270.util;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.ConsoleHandler;
+import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -9,17 +14,38 @@ import java.util.logging.Logger;
 /**
  * Simple logging utility for Claude3270.
  * Uses java.util.logging (built-in, no dependencies).
- * 
+ *
  * Usage:
  *   private static final Logger logger = LoggerSetup.getLogger(MyClass.class);
  *   logger.info("Connection established");
  *   logger.warning("Timeout occurred");
  *   logger.severe("Fatal error: " + e.getMessage());
+ *   logger.fine(() -> "Record " + describe(data)); // Built only if FINE is on
+ *
+ * Logging is asynchronous: records go through an {@link AsyncLogHandler} and
+ * are formatted and written by a background thread, so the reader thread and
+ * the EDT never wait for the console or the disk. Set the system property
+ * tn3270.log.async=false to log synchronously (e.g. when debugging a crash).
+ *
+ * Optional sinks (also via system properties tn3270.log.dir / tn3270.log.trace):
+ *   setLogDirectory(dir) - rotating log files tn3270-0.log ... tn3270-4.log
+ *   enableTrace(dir)     - hex dumps of every byte sent to and received from
+ *                          the host, in rotating trace-0.log ... trace-4.log
  */
 public class LoggerSetup {
-    
-    private static boolean initialized = false;
-    
+
+    /** Where log and trace files go unless a directory is given. */
+    public static final File DEFAULT_LOG_DIR = new File(System.getProperty("user.home"), ".tn3270logs");
+
+    private static final int LOG_FILE_LIMIT = 5 * 1024 * 1024;
+    private static final int TRACE_FILE_LIMIT = 20 * 1024 * 1024;
+    private static final int FILE_COUNT = 5;
+
+    private static volatile boolean initialized = false;
+    private static volatile AsyncLogHandler async; // null: synchronous logging, no trace
+    private static Handler fileHandler;
+    private static volatile boolean tracing = false;
+
     /**
      * Get a logger for the specified class.
      * Automatically initializes logging on first use.
@@ -30,30 +56,49 @@ public class LoggerSetup {
         }
         return Logger.getLogger(clazz.getName());
     }
-    
+
     /**
      * Initialize logging with a simple, readable format.
      */
-    private static void initializeLogging() {
+    private static synchronized void initializeLogging() {
+        if (initialized)
+            return;
         Logger rootLogger = Logger.getLogger("");
-        
+
         // Remove default handlers
-        for (java.util.logging.Handler handler : rootLogger.getHandlers()) {
+        for (Handler handler : rootLogger.getHandlers()) {
             rootLogger.removeHandler(handler);
         }
-        
+
         // Add our custom handler with simple formatting
         ConsoleHandler handler = new ConsoleHandler();
         handler.setFormatter(new SimpleFormatter());
         handler.setLevel(Level.ALL);
-        rootLogger.addHandler(handler);
-        
+        // NEW: The console is written by the log thread, not by whoever logs
+        if (Boolean.parseBoolean(System.getProperty("tn3270.log.async", "true"))) {
+            async = new AsyncLogHandler();
+            async.addSink(handler);
+            rootLogger.addHandler(async);
+        } else {
+            rootLogger.addHandler(handler);
+        }
+
         // Set default level (can be changed per-class if needed)
         rootLogger.setLevel(Level.INFO);
-        
+
         initialized = true;
+
+        String dir = System.getProperty("tn3270.log.dir");
+        try {
+            if (dir != null)
+                setLogDirectory(new File(dir));
+            if (Boolean.getBoolean("tn3270.log.trace"))
+                enableTrace(dir != null ? new File(dir) : DEFAULT_LOG_DIR);
+        } catch (IOException e) {
+            System.err.println("Cannot open log files in " + dir + ": " + e.getMessage());
+        }
     }
-    
+
     /**
      * Simple, readable log format:
      * [INFO] 14:23:45 TN3270Session: Connection established
@@ -61,32 +106,147 @@ public class LoggerSetup {
     private static class SimpleFormatter extends Formatter {
         @Override
         public String format(LogRecord record) {
+            // FIX: Logger name, not source class - finding the caller walks the
+            // stack, and on the log thread it would find the wrong one. Our
+            // loggers are named after their class anyway.
             return String.format("[%s] %tT %s: %s%n",
                 record.getLevel(),
                 record.getMillis(),
-                getSimpleClassName(record.getSourceClassName()),
-                record.getMessage()
+                getSimpleClassName(record.getLoggerName()),
+                formatMessage(record)
             );
         }
-        
+
         private String getSimpleClassName(String fullClassName) {
             if (fullClassName == null) return "Unknown";
             int lastDot = fullClassName.lastIndexOf('.');
             return lastDot >= 0 ? fullClassName.substring(lastDot + 1) : fullClassName;
         }
     }
-    
+
+    /**
+     * Hex dump of a datastream trace record, EBCDIC on the right:
+     * 14:23:45.123 tn3270-s1 IN 37 bytes
+     *   0000  F5 C3 11 40 40 1D F0 C5  D5 E3 C5 D9 ...  |5C.  .0ENTER...|
+     */
+    private static class HexDumpFormatter extends Formatter {
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+        @Override
+        public String format(LogRecord record) {
+            if (!(record instanceof AsyncLogHandler.TraceRecord))
+                return "";
+            AsyncLogHandler.TraceRecord trace = (AsyncLogHandler.TraceRecord) record;
+            byte[] data = trace.getData();
+            StringBuilder sb = new StringBuilder(80 + data.length * 4);
+            sb.append(String.format("%tT.%<tL %s %s %d bytes%n", record.getMillis(), record.getLoggerName(),
+                    trace.isInbound() ? "IN" : "OUT", data.length));
+            for (int line = 0; line < data.length; line += 16) {
+                sb.append(String.format("  %04X  ", line));
+                for (int i = line; i < line + 16; i++) {
+                    if (i < data.length) {
+                        sb.append(HEX[(data[i] >> 4) & 0xF]).append(HEX[data[i] & 0xF]).append(' ');
+                    } else {
+                        sb.append("   ");
+                    }
+                    if (i == line + 7)
+                        sb.append(' ');
+                }
+                sb.append(" |");
+                for (int i = line; i < Math.min(line + 16, data.length); i++) {
+                    char c = CodePage.DEFAULT.decode(data[i]);
+                    sb.append(c >= ' ' && c != 0x7F && !Character.isISOControl(c) ? c : '.');
+                }
+                sb.append('|').append(System.lineSeparator());
+            }
+            return sb.toString();
+        }
+    }
+
     /**
      * Enable debug logging (call during development/testing)
      */
     public static void enableDebugLogging() {
         Logger.getLogger("").setLevel(Level.FINE);
     }
-    
+
     /**
      * Disable most logging (only show warnings and errors)
      */
     public static void setQuietMode() {
         Logger.getLogger("").setLevel(Level.WARNING);
     }
-}
\ No newline at end of file
+
+    /**
+     * Also write the log to rotating files tn3270-N.log in dir (N = 0 is the
+     * newest), 5 files of at most 5 MB.
+     */
+    public static synchronized void setLogDirectory(File dir) throws IOException {
+        if (!initialized)
+            initializeLogging();
+        dir.mkdirs();
+        FileHandler files = new FileHandler(new File(dir, "tn3270-%g.log").getPath(), LOG_FILE_LIMIT, FILE_COUNT,
+                true);
+        files.setEncoding("UTF-8");
+        files.setFormatter(new SimpleFormatter());
+        files.setLevel(Level.ALL);
+        Handler old = fileHandler;
+        fileHandler = files;
+        if (async != null) {
+            async.addSink(files);
+            if (old != null)
+                async.removeSink(old);
+        } else {
+            Logger.getLogger("").addHandler(files);
+            if (old != null)
+                Logger.getLogger("").removeHandler(old);
+        }
+        if (old != null)
+            old.close();
+    }
+
+    /**
+     * Starts the datastream trace: every trace() call is hex-dumped into
+     * rotating files trace-N.log in dir, 5 files of at most 20 MB. The trace is
+     * always written by the log thread, even with synchronous logging.
+     */
+    public static synchronized void enableTrace(File dir) throws IOException {
+        if (!initialized)
+            initializeLogging();
+        dir.mkdirs();
+        FileHandler files = new FileHandler(new File(dir, "trace-%g.log").getPath(), TRACE_FILE_LIMIT, FILE_COUNT,
+                true);
+        files.setEncoding("UTF-8");
+        files.setFormatter(new HexDumpFormatter());
+        files.setLevel(Level.ALL);
+        if (async == null)
+            async = new AsyncLogHandler(); // Trace only; not attached to the loggers
+        async.setTraceSink(files);
+        tracing = true;
+    }
+
+    public static synchronized void disableTrace() {
+        tracing = false;
+        if (async != null)
+            async.setTraceSink(null);
+    }
+
+    /** Cheap check for callers that would have to prepare the bytes first. */
+    public static boolean isTraceEnabled() {
+        return tracing;
+    }
+
+    /**
+     * Queues a copy of len bytes for the datastream trace (no-op unless
+     * enableTrace() was called). Never blocks.
+     *
+     * @param channel e.g. the session name
+     * @param inbound true for host to PC
+     */
+    public static void trace(String channel, boolean inbound, byte[] data, int off, int len) {
+        AsyncLogHandler a = async;
+        if (!tracing || a == null)
+            return;
+        a.publish(new AsyncLogHandler.TraceRecord(channel, inbound, Arrays.copyOfRange(data, off, off + len)));
+    }
+}
@@ -0,0 +1,236 @@
+package com.tn3270.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous socket writer (PC -> Host).
+ *
+ * Sits between the session and the socket stream so that callers (EDT, reader
+ * thread, transfer threads) never block on the network. write() only copies
+ * into a pending buffer; flush() marks the end of a record and wakes the writer
+ * thread. Everything that is pending when the writer wakes up goes out in one
+ * socket write, so records produced at the same moment are coalesced.
+ *
+ * Two buffers are swapped between producers and the writer thread, so once
+ * warmed up nothing is allocated. Producers only block when more than
+ * MAX_PENDING bytes are queued (host not reading), which keeps a stalled
+ * session from eating memory during a file transfer.
+ *
+ * Order is preserved: each write() call is appended atomically, and records
+ * are built with a single write (see RecordEncoder).
+ */
+public final class OutboundWriter extends OutputStream {
+	private static final Logger logger = LoggerSetup.getLogger(OutboundWriter.class);
+
+	private static final int MAX_PENDING = 256 * 1024;
+
+	private final OutputStream out;
+	private final String name;
+	private final String session;
+
+	// Guarded by this
+	private byte[] pending = new byte[8192];
+	private int pendingLen = 0;
+	private int pendingRecords = 0;
+	private long batchStart = 0;
+	private boolean closed = false;
+	private IOException failure;
+
+	// Only touched by the writer thread
+	private byte[] sending = new byte[8192];
+
+	// Metrics (single writer: the writer thread)
+	private volatile long recordCount = 0;
+	private volatile long writeCount = 0;
+	private volatile long byteCount = 0;
+	private volatile long lastLatencyNanos = 0;
+	private volatile long maxLatencyNanos = 0;
+	private volatile long totalLatencyNanos = 0;
+	private volatile long lastSocketNanos = 0;
+	private volatile int maxQueueDepth = 0;
+
+	/** Starts the writer as a tracked "writer" task of the session. */
+	public OutboundWriter(OutputStream out, SessionExecutor executor) {
+		this.out = out;
+		this.session = executor.getName();
+		this.name = session + "-writer";
+		executor.submit("writer", this::writeLoop);
+	}
+
+	// =======================================================================
+	// 1. PRODUCER SIDE
+	// =======================================================================
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		try {
+			// Back-pressure only if the host has stopped reading
+			while (pendingLen > 0 && pendingLen + len > MAX_PENDING) {
+				wait();
+				checkOpen();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing outbound data");
+		}
+		if (pendingLen == 0)
+			batchStart = System.nanoTime();
+		if (pendingLen + len > pending.length)
+			pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLen + len));
+		System.arraycopy(b, off, pending, pendingLen, len);
+		pendingLen += len;
+	}
+
+	/** Ends the current record and hands everything pending to the writer. */
+	@Override
+	public synchronized void flush() throws IOException {
+		checkOpen();
+		if (pendingLen == 0)
+			return;
+		pendingRecords++;
+		if (pendingRecords > maxQueueDepth)
+			maxQueueDepth = pendingRecords;
+		notifyAll();
+	}
+
+	/** Stops the writer thread. Does not close the underlying stream (the socket owns it). */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		notifyAll();
+		logger.fine(() -> name + " closed: " + this);
+	}
+
+	private void checkOpen() throws IOException {
+		if (failure != null)
+			throw new IOException("Outbound write failed", failure);
+		if (closed)
+			throw new IOException("Not connected");
+	}
+
+	// =======================================================================
+	// 2. WRITER THREAD
+	// =======================================================================
+
+	private void writeLoop() {
+		try {
+			while (true) {
+				int n;
+				int records;
+				long queuedAt;
+				synchronized (this) {
+					while (pendingRecords == 0 && !closed)
+						wait();
+					if (closed)
+						return;
+					byte[] t = sending;
+					sending = pending;
+					pending = t;
+					n = pendingLen;
+					records = pendingRecords;
+					queuedAt = batchStart;
+					pendingLen = 0;
+					pendingRecords = 0;
+					notifyAll(); // Wake producers waiting for room
+				}
+
+				long t0 = System.nanoTime();
+				out.write(sending, 0, n);
+				out.flush();
+				long t1 = System.nanoTime();
+				if (LoggerSetup.isTraceEnabled())
+					LoggerSetup.trace(session, false, sending, 0, n);
+
+				long latency = t1 - queuedAt;
+				lastSocketNanos = t1 - t0;
+				lastLatencyNanos = latency;
+				totalLatencyNanos += latency;
+				if (latency > maxLatencyNanos)
+					maxLatencyNanos = latency;
+				recordCount += records;
+				writeCount++;
+				byteCount += n;
+			}
+		} catch (InterruptedException e) {
+			// Session cancelled
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				failure = e;
+				notifyAll();
+			}
+			logger.fine(() -> name + " write failed: " + e.getMessage());
+		}
+	}
+
+	// =======================================================================
+	// 3. METRICS
+	// =======================================================================
+
+	/** Records queued but not yet handed to the socket. */
+	public synchronized int getQueueDepth() {
+		return pendingRecords;
+	}
+
+	public synchronized int getPendingBytes() {
+		return pendingLen;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/** Socket writes issued; lower than getRecordCount() when records were coalesced. */
+	public long getWriteCount() {
+		return writeCount;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/** Enqueue to socket flush of the last batch, in nanoseconds. */
+	public long getLastLatencyNanos() {
+		return lastLatencyNanos;
+	}
+
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos;
+	}
+
+	public long getAverageLatencyNanos() {
+		long w = writeCount;
+		return (w == 0) ? 0 : totalLatencyNanos / w;
+	}
+
+	/** Time spent inside the socket write/flush for the last batch. */
+	public long getLastSocketNanos() {
+		return lastSocketNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("records=%d writes=%d bytes=%d maxDepth=%d avgLatency=%.2fms maxLatency=%.2fms",
+				recordCount, writeCount, byteCount, maxQueueDepth, getAverageLatencyNanos() / 1e6,
+				maxLatencyNanos / 1e6);
+	}
+}
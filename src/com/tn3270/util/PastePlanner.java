@@ -0,0 +1,228 @@
+package com.tn3270.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tn3270.model.ScreenModel;
+
+/**
+ * Plans a paste against the field layout of the current screen.
+ *
+ * The text is laid out in one pass, starting at the cursor and moving forward
+ * through the unprotected fields: characters fill the current field, overflow
+ * continues in the next input field (auto-skip) and a newline moves to the
+ * start of the next input field. Like Tab, the last input field is followed by
+ * the first one; the paste ends when it comes round to where it started. On an
+ * unformatted screen each row acts as a field.
+ *
+ * The result is a list of segments, each a run of text that lands in one field,
+ * so the session can copy them into the screen buffer with bulk writes. When
+ * the screen runs out of input fields the plan says how much text was consumed;
+ * the rest can be pasted on the next screen.
+ */
+public final class PastePlanner {
+
+	/** text[srcOffset..srcOffset+length) goes to screen cells position..position+length-1. */
+	public static final class Segment {
+		public final int position;
+		public final int srcOffset;
+		public final int length;
+
+		Segment(int position, int srcOffset, int length) {
+			this.position = position;
+			this.srcOffset = srcOffset;
+			this.length = length;
+		}
+	}
+
+	public static final class Plan {
+		private final List<Segment> segments;
+		private final int consumed;
+		private final int cursor;
+
+		Plan(List<Segment> segments, int consumed, int cursor) {
+			this.segments = segments;
+			this.consumed = consumed;
+			this.cursor = cursor;
+		}
+
+		public List<Segment> getSegments() {
+			return segments;
+		}
+
+		/** Number of text characters placed (or skipped as newlines) on this screen. */
+		public int getConsumed() {
+			return consumed;
+		}
+
+		/** Cursor position after the paste. */
+		public int getCursor() {
+			return cursor;
+		}
+	}
+
+	private PastePlanner() {
+	}
+
+	/**
+	 * Normalizes clipboard text: CR/LF and CR become LF, tabs become a space,
+	 * other control characters are dropped, trailing newlines are removed.
+	 */
+	public static char[] normalize(String text) {
+		char[] out = new char[text.length()];
+		int n = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				if (i + 1 < text.length() && text.charAt(i + 1) == '\n')
+					continue;
+				c = '\n';
+			} else if (c == '\t') {
+				c = ' ';
+			}
+			if (c < 32 && c != '\n')
+				continue;
+			out[n++] = c;
+		}
+		while (n > 0 && out[n - 1] == '\n')
+			n--;
+		return (n == out.length) ? out : Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Lays out text[offset..offset+length) starting at the cursor position.
+	 *
+	 * @param keepLinesWhole when the screen fills up in the middle of a line, leave
+	 *                       that whole line for the next screen (unless it is the
+	 *                       only thing on this screen)
+	 */
+	public static Plan plan(ScreenModel screen, char[] text, int offset, int length, int cursor,
+			boolean keepLinesWhole) {
+		int size = screen.getSize();
+		int cols = screen.getCols();
+		boolean formatted = screen.isFormatted();
+		List<Segment> segments = new ArrayList<>();
+		int end = offset + length;
+		int i = offset;
+
+		// Current write position and the end (exclusive) of its field
+		int pos = (cursor >= 0 && cursor < size && isInput(screen, cursor, formatted)) ? cursor
+				: nextInputField(screen, cursor, formatted, size);
+		if (pos < 0) // FIX: Below the last input field - wrap to the first, like Tab
+			pos = nextInputField(screen, 0, formatted, size);
+		Wrap wrap = new Wrap(pos);
+		int limit = (pos < 0) ? 0 : fieldLimit(screen, pos, formatted, size, cols);
+
+		int lineStart = i;
+		int lineSegments = 0;
+
+		while (i < end && pos >= 0) {
+			if (text[i] == '\n') {
+				// Next line goes into the next input field
+				pos = wrap.next(screen, limit, formatted, size);
+				if (pos >= 0)
+					limit = wrap.limit(pos, fieldLimit(screen, pos, formatted, size, cols));
+				i++;
+				lineStart = i;
+				lineSegments = segments.size();
+				continue;
+			}
+
+			if (pos == limit) {
+				// Field full - auto-skip to the next one
+				pos = wrap.next(screen, limit, formatted, size);
+				if (pos < 0)
+					break;
+				limit = wrap.limit(pos, fieldLimit(screen, pos, formatted, size, cols));
+			}
+
+			int run = 0;
+			int max = Math.min(limit - pos, end - i);
+			while (run < max && text[i + run] != '\n')
+				run++;
+			segments.add(new Segment(pos, i, run));
+			i += run;
+			pos += run;
+		}
+
+		if (i < end && keepLinesWhole && lineStart > offset && lineSegments > 0) {
+			// Screen full mid-line: move the partial line to the next screen
+			segments.subList(lineSegments, segments.size()).clear();
+			i = lineStart;
+			Segment last = segments.get(segments.size() - 1);
+			pos = last.position + last.length;
+			limit = wrap.limit(last.position, fieldLimit(screen, last.position, formatted, size, cols));
+		}
+
+		int newCursor;
+		if (pos < 0) {
+			// Out of input fields: leave the cursor after the last character written
+			Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			newCursor = (last == null) ? cursor : (last.position + last.length) % size;
+		} else if (pos == limit) {
+			int next = nextInputField(screen, limit, formatted, size);
+			if (next < 0)
+				next = nextInputField(screen, 0, formatted, size);
+			newCursor = (next >= 0) ? next : pos % size;
+		} else
+			newCursor = pos;
+
+		return new Plan(segments, i - offset, newCursor);
+	}
+
+	/**
+	 * Going round the screen once: after the last input field comes the first,
+	 * and writing stops where it began (origin), so nothing is written twice.
+	 */
+	private static final class Wrap {
+		private final int origin;
+		private boolean wrapped;
+
+		Wrap(int origin) {
+			this.origin = origin;
+		}
+
+		/** Next input field at or after from, wrapping once; -1 when back at the origin. */
+		int next(ScreenModel screen, int from, boolean formatted, int size) {
+			int p = nextInputField(screen, from, formatted, size);
+			if (p < 0 && !wrapped) {
+				wrapped = true;
+				p = nextInputField(screen, 0, formatted, size);
+			}
+			return (p >= 0 && wrapped && p >= origin) ? -1 : p;
+		}
+
+		/** Field end for writing at p: no further than the origin once wrapped. */
+		int limit(int p, int fieldEnd) {
+			return (wrapped && p < origin) ? Math.min(fieldEnd, origin) : fieldEnd;
+		}
+	}
+
+	private static boolean isInput(ScreenModel screen, int p, boolean formatted) {
+		return !formatted || (!screen.isFieldStart(p) && !screen.isProtected(p));
+	}
+
+	/** First data cell of the next unprotected field at or after from, or -1. */
+	private static int nextInputField(ScreenModel screen, int from, boolean formatted, int size) {
+		if (from < 0)
+			from = 0;
+		if (!formatted)
+			return (from < size) ? from : -1;
+		byte[] attrs = screen.getAttributes();
+		for (int f = screen.nextFieldStart(from); f >= 0; f = screen.nextFieldStart(f + 1)) {
+			int data = f + 1;
+			if ((attrs[f] & 0x20) == 0 && data < size && !screen.isFieldStart(data))
+				return data;
+		}
+		return -1;
+	}
+
+	/** End (exclusive) of the field holding p: the next attribute, or the end of the row when unformatted. */
+	private static int fieldLimit(ScreenModel screen, int p, boolean formatted, int size, int cols) {
+		if (!formatted)
+			return Math.min(size, (p / cols + 1) * cols);
+		int f = screen.nextFieldStart(p + 1);
+		return (f < 0) ? size : f;
+	}
+}
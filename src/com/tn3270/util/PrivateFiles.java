@@ -0,0 +1,42 @@
+package com.tn3270.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Files that other local users must not read: the automation token, the
+ * shared presentation space.
+ */
+public final class PrivateFiles {
+
+	private static final FileAttribute<Set<PosixFilePermission>> OWNER_ONLY = PosixFilePermissions
+			.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+
+	private PrivateFiles() {
+	}
+
+	/**
+	 * Creates a new, empty file that only the owner can read or write. On POSIX
+	 * file systems it is created with rw------- (never chmod-ed afterwards, so
+	 * it is not readable by others even for a moment). Fails if the path exists,
+	 * a symbolic link included, so nobody can slip in a file of their own.
+	 */
+	public static void create(Path path) throws IOException {
+		if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(path, OWNER_ONLY);
+		} else {
+			Files.createFile(path);
+			File f = path.toFile();
+			f.setReadable(false, false);
+			f.setWritable(false, false);
+			f.setReadable(true, true);
+			f.setWritable(true, true);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package com.tn3270.util;
+
+import static com.tn3270.constants.ProtocolConstants.ATTR_CHAR_SET;
+import static com.tn3270.constants.ProtocolConstants.ATTR_FIELD;
+import static com.tn3270.constants.ProtocolConstants.ATTR_FOREGROUND;
+import static com.tn3270.constants.ProtocolConstants.ATTR_HIGHLIGHTING;
+import static com.tn3270.constants.ProtocolConstants.CHARSET_APL;
+import static com.tn3270.constants.ProtocolConstants.ORDER_SA;
+import static com.tn3270.constants.ProtocolConstants.ORDER_SF;
+import static com.tn3270.constants.ProtocolConstants.ORDER_SFE;
+
+import com.tn3270.model.ScreenModel;
+
+/**
+ * Builds the Read Buffer image (everything after AID + cursor address).
+ *
+ * Field attributes are found through the screen model's field index, and the
+ * text between them is converted in runs with the reverse code page tables.
+ * The image is kept and reused as long as the screen generation, reply mode
+ * and code page stay the same, so a host polling with Read Buffer on an idle
+ * screen costs a single array copy.
+ *
+ * One instance per session. Not thread safe: the session calls it under its
+ * outbound lock.
+ */
+public final class ReadBufferEncoder {
+
+	private byte[] image = new byte[8192];
+	private int len = 0;
+
+	// Cache key
+	private int cachedGeneration;
+	private boolean cachedCharacterMode;
+	private CodePage cachedCodePage;
+	private boolean valid = false;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Appends the Read Buffer image for the current screen.
+	 *
+	 * @param characterMode reply mode CHARACTER (SFE/SA orders for extended
+	 *                      attributes); otherwise plain SF orders only
+	 */
+	public void appendTo(RecordEncoder ob, ScreenModel screen, CodePage codePage, boolean characterMode) {
+		// Read the generation first: a change while encoding invalidates the next call
+		int gen = screen.getGeneration();
+		if (valid && gen == cachedGeneration && characterMode == cachedCharacterMode && codePage == cachedCodePage) {
+			hits++;
+		} else {
+			misses++;
+			encode(screen, codePage, characterMode);
+			cachedGeneration = gen;
+			cachedCharacterMode = characterMode;
+			cachedCodePage = codePage;
+			valid = true;
+		}
+		ob.put(image, 0, len);
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	// =======================================================================
+	// ENCODING
+	// =======================================================================
+
+	private void encode(ScreenModel screen, CodePage codePage, boolean characterMode) {
+		int size = screen.getSize();
+		// Worst case per cell: SFE with 4 pairs (10) or 3 SAs + char (10)
+		if (image.length < size * 10)
+			image = new byte[size * 10];
+		len = 0;
+
+		byte[] attrs = screen.getAttributes();
+		char[] chars = screen.getBuffer();
+		byte[] colors = screen.getExtendedColors();
+		byte[] highlights = screen.getHighlight();
+		byte[] charsets = screen.getCharsets();
+
+		// Running SA state (character mode only)
+		byte runningColor = 0;
+		byte runningHighlight = 0;
+		byte runningCharset = 0;
+
+		int i = 0;
+		while (i < size) {
+			int f = screen.nextFieldStart(i);
+			int dataEnd = (f < 0) ? size : f;
+
+			// --- DATA CONTENT: runs of cells with identical attributes ---
+			while (i < dataEnd) {
+				byte c = colors[i];
+				byte h = highlights[i];
+				byte cs = charsets[i];
+				int run = i + 1;
+				if (characterMode) {
+					while (run < dataEnd && colors[run] == c && highlights[run] == h && charsets[run] == cs)
+						run++;
+
+					// Inject SA (Set Attribute 0x28) whenever the running state changes
+					if (c != runningColor) {
+						put3(ORDER_SA, ATTR_FOREGROUND, c);
+						runningColor = c;
+					}
+					if (h != runningHighlight) {
+						put3(ORDER_SA, ATTR_HIGHLIGHTING, h);
+						runningHighlight = h;
+					}
+					if (cs != runningCharset) {
+						put3(ORDER_SA, ATTR_CHAR_SET, cs);
+						runningCharset = cs;
+					}
+				} else {
+					// Only the charset matters for the conversion table
+					boolean apl = (cs == CHARSET_APL);
+					while (run < dataEnd && (charsets[run] == CHARSET_APL) == apl)
+						run++;
+				}
+
+				if (cs == CHARSET_APL) {
+					for (int k = i; k < run; k++) {
+						byte b = CodePage.APL.encode(chars[k]);
+						image[len++] = (b != 0) ? b : CodePage.SUBSTITUTE; // Fallback
+					}
+				} else {
+					// Session code page; '\0' stays a null
+					len += codePage.encode(chars, i, run - i, image, len, false);
+				}
+				i = run;
+			}
+
+			if (f < 0)
+				break;
+
+			// --- FIELD ATTRIBUTE ---
+			byte a = attrs[f];
+			byte c = colors[f];
+			byte h = highlights[f];
+			byte cs = charsets[f];
+
+			// Field Start always resets running character attributes
+			runningColor = 0;
+			runningHighlight = 0;
+
+			if (characterMode && (c != 0 || h != 0 || cs != 0)) {
+				// --- EXTENDED MODE: Use SFE (0x29) ---
+				image[len++] = (byte) ORDER_SFE;
+				image[len++] = (byte) (1 + (c != 0 ? 1 : 0) + (h != 0 ? 1 : 0) + (cs != 0 ? 1 : 0));
+				image[len++] = (byte) ATTR_FIELD;
+				image[len++] = a;
+				if (c != 0) {
+					image[len++] = (byte) ATTR_FOREGROUND;
+					image[len++] = c;
+				}
+				if (h != 0) {
+					image[len++] = (byte) ATTR_HIGHLIGHTING;
+					image[len++] = h;
+				}
+				if (cs != 0) {
+					image[len++] = (byte) ATTR_CHAR_SET;
+					image[len++] = cs;
+				}
+			} else {
+				// --- STANDARD MODE: Use SF (0x1D) ---
+				image[len++] = (byte) ORDER_SF;
+				image[len++] = a;
+			}
+			i = f + 1;
+		}
+	}
+
+	private void put3(int order, int type, byte value) {
+		image[len++] = (byte) order;
+		image[len++] = (byte) type;
+		image[len++] = value;
+	}
+
+	@Override
+	public String toString() {
+		return "ReadBufferEncoder[hits=" + hits + ", misses=" + misses + ", bytes=" + len + "]";
+	}
+}
@@ -0,0 +1,200 @@
+package com.tn3270.util;
+
+import static com.tn3270.constants.TelnetConstants.EOR;
+import static com.tn3270.constants.TelnetConstants.IAC;
+import static com.tn3270.constants.TelnetConstants.TN3270E_DT_3270_DATA;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable outbound record buffer (PC -> Host).
+ *
+ * One instance per session. Callers append the 3270 payload (AID, addresses,
+ * orders, structured fields, EBCDIC text) straight into the buffer, then call
+ * {@link #writeTo(OutputStream, boolean)} which adds the TN3270E header, doubles
+ * IAC bytes, terminates the record with IAC EOR and performs a single write.
+ *
+ * The first five bytes are reserved for the TN3270E header so it never has to
+ * be shifted in. Buffers only ever grow, so once warmed up a session sends
+ * records without allocating.
+ *
+ * Not thread safe: callers serialize on the instance (begin ... writeTo).
+ */
+public final class RecordEncoder {
+
+	private static final int HEADER = 5;
+
+	private byte[] buf = new byte[4096];
+	private int len = HEADER;
+	private byte[] wire = new byte[8192];
+
+	/** Starts a new record, discarding anything not yet written. */
+	public RecordEncoder begin() {
+		len = HEADER;
+		return this;
+	}
+
+	/** Payload size so far (excluding header and framing). */
+	public int size() {
+		return len - HEADER;
+	}
+
+	private void ensure(int extra) {
+		if (len + extra > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+	}
+
+	// =======================================================================
+	// 1. PAYLOAD
+	// =======================================================================
+
+	public RecordEncoder put(int b) {
+		ensure(1);
+		buf[len++] = (byte) b;
+		return this;
+	}
+
+	public RecordEncoder put(byte[] b) {
+		return put(b, 0, b.length);
+	}
+
+	public RecordEncoder put(byte[] b, int off, int n) {
+		ensure(n);
+		System.arraycopy(b, off, buf, len, n);
+		len += n;
+		return this;
+	}
+
+	public RecordEncoder putShort(int v) {
+		ensure(2);
+		buf[len++] = (byte) (v >> 8);
+		buf[len++] = (byte) v;
+		return this;
+	}
+
+	public RecordEncoder putInt(int v) {
+		ensure(4);
+		buf[len++] = (byte) (v >> 24);
+		buf[len++] = (byte) (v >> 16);
+		buf[len++] = (byte) (v >> 8);
+		buf[len++] = (byte) v;
+		return this;
+	}
+
+	/** Buffer address: 12-bit coded below 4096, 14-bit binary above. */
+	public RecordEncoder putAddress(int a) {
+		a &= 0x3FFF;
+		ensure(2);
+		if (a >= 0x1000) {
+			buf[len++] = (byte) (a >> 8);
+			buf[len++] = (byte) a;
+		} else {
+			buf[len++] = EBCDIC.ADDRESS_TABLE[(a >> 6) & 0x3F];
+			buf[len++] = EBCDIC.ADDRESS_TABLE[a & 0x3F];
+		}
+		return this;
+	}
+
+	/** Order followed by a buffer address (SBA, RA, EUA). */
+	public RecordEncoder putOrder(int order, int address) {
+		return put(order).putAddress(address);
+	}
+
+	/** Encodes a text run straight into the buffer. See CodePage.encode. */
+	public RecordEncoder putText(CodePage cp, char[] src, int off, int n, boolean skipNulls) {
+		ensure(n);
+		len += cp.encode(src, off, n, buf, len, skipNulls);
+		return this;
+	}
+
+	/**
+	 * Reserves a 2-byte length field (structured fields) and returns its
+	 * position. Call {@link #endLength(int)} once the field is complete.
+	 */
+	public int beginLength() {
+		ensure(2);
+		int mark = len;
+		len += 2;
+		return mark;
+	}
+
+	/** Back-fills the length reserved at mark (the length includes itself). */
+	public void endLength(int mark) {
+		int n = len - mark;
+		buf[mark] = (byte) (n >> 8);
+		buf[mark + 1] = (byte) n;
+	}
+
+	/** Copy of the payload (for logging/recording). Allocates. */
+	public byte[] toByteArray() {
+		return Arrays.copyOfRange(buf, HEADER, len);
+	}
+
+	// =======================================================================
+	// 2. FRAMING
+	// =======================================================================
+
+	/**
+	 * Frames the record and sends it with one write (plus flush).
+	 *
+	 * @return bytes written to the socket
+	 */
+	public int writeTo(OutputStream out, boolean tn3270e) throws IOException {
+		int start = HEADER;
+		if (tn3270e) {
+			// Data type, request flag, response flag, sequence (2)
+			buf[0] = (byte) TN3270E_DT_3270_DATA;
+			buf[1] = 0;
+			buf[2] = 0;
+			buf[3] = 0;
+			buf[4] = 0;
+			start = 0;
+		}
+
+		int n;
+		int iac = indexOfIac(HEADER);
+		if (iac < 0) {
+			// Common case: nothing to escape, frame in place
+			ensure(2);
+			buf[len] = (byte) IAC;
+			buf[len + 1] = (byte) EOR;
+			n = len + 2 - start;
+			out.write(buf, start, n);
+		} else {
+			// Copy runs between IAC bytes, doubling each one
+			int worst = (len - start) * 2 + 2;
+			if (wire.length < worst)
+				wire = new byte[Math.max(wire.length * 2, worst)];
+			int w = 0;
+			int run = start;
+			while (iac >= 0) {
+				int k = iac + 1 - run;
+				System.arraycopy(buf, run, wire, w, k);
+				w += k;
+				wire[w++] = (byte) IAC;
+				run = iac + 1;
+				iac = indexOfIac(run);
+			}
+			int k = len - run;
+			System.arraycopy(buf, run, wire, w, k);
+			w += k;
+			wire[w++] = (byte) IAC;
+			wire[w++] = (byte) EOR;
+			n = w;
+			out.write(wire, 0, n);
+		}
+		out.flush();
+		return n;
+	}
+
+	private int indexOfIac(int from) {
+		final byte[] b = buf;
+		for (int i = from, end = len; i < end; i++) {
+			if (b[i] == (byte) 0xFF)
+				return i;
+		}
+		return -1;
+	}
+}
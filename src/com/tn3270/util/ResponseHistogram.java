@@ -0,0 +1,204 @@
+package com.tn3270.util;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Host response times (AID to keyboard restore) in a fixed-size log-linear
+ * histogram, in the style of HdrHistogram.
+ *
+ * Values are microseconds. Below 64us every value has its own bucket; above
+ * that each power of two is split into 32 buckets, so a recorded value is off
+ * by at most 1/32 (3%) whatever its size. Values up to 2^37us (38 hours) fit
+ * in 1056 counters (8 KB), no matter how many responses are recorded. Count,
+ * minimum, maximum and mean are exact.
+ *
+ * Besides the session's own histogram, one histogram per host (see forHost)
+ * collects all sessions connected to it, for capacity reviews.
+ *
+ * Recorded on the reader thread, read on the EDT; all methods are synchronized.
+ */
+public final class ResponseHistogram {
+
+	private static final int LINEAR = 64;
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 36;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 5) * SUB;
+
+	private static final Map<String, ResponseHistogram> hosts = new ConcurrentSkipListMap<>();
+
+	private final String name;
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long min = Long.MAX_VALUE;
+	private long max;
+	private double sum;
+	private double sumSquares;
+
+	public ResponseHistogram(String name) {
+		this.name = name;
+	}
+
+	/** Histogram shared by every session connected to host (e.g. "host:port"). */
+	public static ResponseHistogram forHost(String host) {
+		return hosts.computeIfAbsent(host, ResponseHistogram::new);
+	}
+
+	/** Per-host histograms, by host name. */
+	public static List<ResponseHistogram> getHosts() {
+		return new ArrayList<>(hosts.values());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized void record(long micros) {
+		long v = Math.max(0, Math.min(micros, MAX_VALUE));
+		counts[bucket(v)]++;
+		count++;
+		min = Math.min(min, v);
+		max = Math.max(max, v);
+		sum += v;
+		sumSquares += (double) v * v;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+		sum = 0;
+		sumSquares = 0;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	public synchronized double getStdDeviation() {
+		if (count == 0)
+			return 0;
+		double mean = sum / count;
+		return Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+	}
+
+	/**
+	 * The value (in microseconds) that percentile percent (0-100) of the
+	 * responses did not exceed, as the top of its bucket.
+	 */
+	public synchronized long getValueAtPercentile(double percent) {
+		if (count == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(Math.min(100, percent) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= target)
+				return Math.max(min, Math.min(max, upperBound(i)));
+		}
+		return max;
+	}
+
+	// =======================================================================
+	// Buckets
+	// =======================================================================
+
+	private static int bucket(long v) {
+		if (v < LINEAR)
+			return (int) v;
+		int e = 63 - Long.numberOfLeadingZeros(v); // >= 6
+		int sub = (int) (v >>> (e - SUB_BITS)) - SUB;
+		return LINEAR + (e - 6) * SUB + sub;
+	}
+
+	private static long lowerBound(int i) {
+		if (i < LINEAR)
+			return i;
+		int e = 6 + (i - LINEAR) / SUB;
+		int sub = (i - LINEAR) % SUB;
+		return (long) (SUB + sub) << (e - SUB_BITS);
+	}
+
+	private static long upperBound(int i) {
+		return i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : MAX_VALUE;
+	}
+
+	// =======================================================================
+	// Export
+	// =======================================================================
+
+	/** Column names for writeCsv(). */
+	public static void writeCsvHeader(PrintWriter out) {
+		out.println("histogram,from_us,to_us,count,cumulative_percent");
+	}
+
+	/** One line per non-empty bucket. */
+	public synchronized void writeCsv(PrintWriter out) {
+		long seen = 0;
+		String scope = name.indexOf(',') >= 0 || name.indexOf('"') >= 0 ? '"' + name.replace("\"", "\"\"") + '"'
+				: name;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] == 0)
+				continue;
+			seen += counts[i];
+			out.printf(Locale.ROOT, "%s,%d,%d,%d,%.4f%n", scope, lowerBound(i), upperBound(i), counts[i],
+					100.0 * seen / count);
+		}
+	}
+
+	/**
+	 * Percentile distribution in HdrHistogram's text format (values in
+	 * milliseconds), which HdrHistogram's plotting tools read.
+	 */
+	public synchronized void writePercentiles(PrintWriter out) {
+		out.println("# " + name);
+		out.println(String.format(Locale.ROOT, "%12s %14s %10s %14s%n", "Value", "Percentile",
+				"TotalCount", "1/(1-Percentile)"));
+		if (count > 0) {
+			// Five lines per halving of the distance to 100%, like HdrHistogram
+			double percent = 0;
+			while (true) {
+				long value = getValueAtPercentile(percent);
+				long below = countAtOrBelow(value);
+				if (below >= count)
+					break;
+				out.printf(Locale.ROOT, "%12.3f %2.12f %10d %14.2f%n", value / 1000.0, percent / 100, below,
+						1 / (1 - percent / 100));
+				double ticks = 5 * Math.pow(2, Math.floor(Math.log(100 / (100 - percent)) / Math.log(2)) + 1);
+				percent += 100 / ticks;
+			}
+			out.printf(Locale.ROOT, "%12.3f %2.12f %10d%n", max / 1000.0, 1.0, count);
+		}
+		out.printf(Locale.ROOT, "#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", getMean() / 1000,
+				getStdDeviation() / 1000);
+		out.printf(Locale.ROOT, "#[Max     = %12.3f, Total count    = %12d]%n", max / 1000.0, count);
+		out.printf(Locale.ROOT, "#[Buckets = %12d, SubBuckets     = %12d]%n", MAX_EXPONENT - 5, SUB);
+	}
+
+	private long countAtOrBelow(long value) {
+		long n = 0;
+		for (int i = 0; i < BUCKETS && lowerBound(i) <= value; i++)
+			n += counts[i];
+		return n;
+	}
+}
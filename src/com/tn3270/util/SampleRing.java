@@ -0,0 +1,50 @@
+package com.tn3270.util;
+
+/**
+ * The last few values of a measurement (paint time, parse time), for displays
+ * that want "last / average / max lately" without keeping a history.
+ *
+ * One thread adds; any thread may read. Readers see a recent, not necessarily
+ * consistent, set of values - good enough for a HUD, and add() is just an
+ * array store.
+ */
+public final class SampleRing {
+
+	private final long[] values;
+	private int next;
+	private volatile int size;
+	private volatile long last;
+
+	public SampleRing(int capacity) {
+		this.values = new long[capacity];
+	}
+
+	public void add(long value) {
+		values[next] = value;
+		next = (next + 1) % values.length;
+		if (size < values.length)
+			size++;
+		last = value;
+	}
+
+	public long last() {
+		return last;
+	}
+
+	public long max() {
+		long m = 0;
+		for (int i = 0, n = size; i < n; i++)
+			m = Math.max(m, values[i]);
+		return m;
+	}
+
+	public long average() {
+		int n = size;
+		if (n == 0)
+			return 0;
+		long sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += values[i];
+		return sum / n;
+	}
+}
@@ -0,0 +1,152 @@
+package com.tn3270.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Background work owned by one session (connect, reader, writer, AI calls,
+ * console transfers).
+ *
+ * Every task is tracked until it finishes, so the session can cancel all of
+ * them at once: {@link #cancelAll()} on disconnect (the scope stays usable for
+ * a reconnect), {@link #shutdown()} when the session is closed for good.
+ *
+ * Threads are daemon, bounded (MAX_THREADS) and named after the session and
+ * the running task, e.g. "tn3270-s2-reader". Idle threads exit after a while,
+ * so an idle session costs nothing.
+ *
+ * Targets Java 11, so this uses a small platform thread pool rather than
+ * virtual threads; blocking tasks per session are few (reader, writer, at most
+ * a handful of AI calls / transfers).
+ */
+public final class SessionExecutor implements Executor {
+	private static final Logger logger = LoggerSetup.getLogger(SessionExecutor.class);
+
+	private static final int MAX_THREADS = 16;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	private static final AtomicInteger sessionCounter = new AtomicInteger();
+
+	private final String name;
+	private final ThreadPoolExecutor pool;
+	private final Set<Task> running = ConcurrentHashMap.newKeySet();
+
+	public SessionExecutor() {
+		this("tn3270-s" + sessionCounter.incrementAndGet());
+	}
+
+	public SessionExecutor(String name) {
+		this(name, MAX_THREADS);
+	}
+
+	/** Scope with its own thread limit (e.g. the automation server, one thread per client). */
+	public SessionExecutor(String name, int maxThreads) {
+		this.name = name;
+		AtomicInteger n = new AtomicInteger();
+		this.pool = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.pool.allowCoreThreadTimeOut(true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Runs a tracked task. The thread is renamed to "<session>-<taskName>" while
+	 * it runs.
+	 *
+	 * @throws RejectedExecutionException if the session has been shut down
+	 */
+	public Future<?> submit(String taskName, Runnable r) {
+		Task t = new Task(taskName, r);
+		running.add(t);
+		try {
+			pool.execute(t);
+		} catch (RejectedExecutionException e) {
+			running.remove(t);
+			throw e;
+		}
+		return t;
+	}
+
+	@Override
+	public void execute(Runnable r) {
+		submit("task", r);
+	}
+
+	/** Number of tasks queued or running. */
+	public int getActiveCount() {
+		return running.size();
+	}
+
+	/**
+	 * Cancels (interrupts) every queued or running task. Blocking socket reads
+	 * are not interruptible - close the socket as well.
+	 */
+	public void cancelAll() {
+		for (Task t : running)
+			t.cancel(true);
+	}
+
+	/**
+	 * Cancels everything and stops accepting work. Does not wait (safe on the
+	 * EDT); threads exit as soon as their task notices the interrupt.
+	 */
+	public void shutdown() {
+		cancelAll();
+		pool.shutdownNow();
+		int left = pool.getActiveCount();
+		if (left > 0)
+			logger.fine(() -> name + ": " + left + " task(s) still winding down after shutdown");
+	}
+
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+
+	private final class Task extends FutureTask<Void> {
+		private final String taskName;
+
+		Task(String taskName, Runnable r) {
+			super(r, null);
+			this.taskName = taskName;
+		}
+
+		@Override
+		public void run() {
+			Thread t = Thread.currentThread();
+			String old = t.getName();
+			t.setName(name + "-" + taskName);
+			try {
+				super.run();
+			} finally {
+				t.setName(old);
+			}
+		}
+
+		@Override
+		protected void done() {
+			running.remove(this);
+			if (!isCancelled()) {
+				try {
+					get();
+				} catch (Exception e) {
+					logger.warning(name + "-" + taskName + " failed: " + e.getCause());
+				}
+			}
+		}
+	}
+}
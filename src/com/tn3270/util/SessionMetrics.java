@@ -0,0 +1,277 @@
+package com.tn3270.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Protocol metrics of one session, published over JMX by
+ * {@link EmulatorMetrics} as com.tn3270:type=Session,name=&lt;session&gt;.
+ *
+ * The reader thread, the writer, transfers and the EDT count into LongAdders,
+ * which never contend, so instrumenting the hot paths costs a few nanoseconds.
+ * Everything else (queue depth, connection state, structured field counts) is
+ * read from the session only when a JMX client asks.
+ */
+public final class SessionMetrics implements SessionMetricsMBean {
+
+	private final String name;
+	private final StructuredFieldDispatcher structuredFields;
+	private final Supplier<OutboundWriter> writer;
+	private final BooleanSupplier connected;
+	private final Supplier<String> host;
+	private final BooleanSupplier transferActive;
+
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder recordsIn = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private final LongAccumulator maxParseNanos = new LongAccumulator(Long::max, 0);
+	private final LongAdder negotiations = new LongAdder();
+	private final LongAdder subnegotiations = new LongAdder();
+	private final LongAdder paints = new LongAdder();
+	private final LongAdder paintNanos = new LongAdder();
+	private final LongAccumulator maxPaintNanos = new LongAccumulator(Long::max, 0);
+	private final LongAdder transferBytes = new LongAdder();
+	// Outbound counts of writers from earlier connections
+	private final LongAdder retiredBytesOut = new LongAdder();
+	private final LongAdder retiredRecordsOut = new LongAdder();
+
+	// Recent values for the performance HUD
+	private final SampleRing paintSamples = new SampleRing(64);
+	private final SampleRing parseSamples = new SampleRing(64);
+	private volatile long lastAidMicros = -1;
+
+	private final Rate bytesInRate = new Rate();
+	private final Rate recordsInRate = new Rate();
+	private final Rate transferRate = new Rate();
+
+	/**
+	 * @param name           unique name of the session (used in the ObjectName)
+	 * @param writer         the current connection's writer, or null
+	 * @param transferActive true while an IND$FILE transfer is running
+	 */
+	public SessionMetrics(String name, StructuredFieldDispatcher structuredFields, Supplier<OutboundWriter> writer,
+			BooleanSupplier connected, Supplier<String> host, BooleanSupplier transferActive) {
+		this.name = name;
+		this.structuredFields = structuredFields;
+		this.writer = writer;
+		this.connected = connected;
+		this.host = host;
+		this.transferActive = transferActive;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// =======================================================================
+	// Instrumentation (called from the session's threads)
+	// =======================================================================
+
+	public void bytesReceived(int n) {
+		bytesIn.add(n);
+	}
+
+	/** One inbound 3270 record, parsed and applied in nanos. */
+	public void recordParsed(long nanos) {
+		recordsIn.increment();
+		parseNanos.add(nanos);
+		maxParseNanos.accumulate(nanos);
+		parseSamples.add(nanos);
+	}
+
+	public void telnetNegotiated() {
+		negotiations.increment();
+	}
+
+	public void subnegotiated() {
+		subnegotiations.increment();
+	}
+
+	public void painted(long nanos) {
+		paints.increment();
+		paintNanos.add(nanos);
+		maxPaintNanos.accumulate(nanos);
+		paintSamples.add(nanos);
+	}
+
+	/** AID until the host restored the keyboard. */
+	public void aidRoundTrip(long micros) {
+		lastAidMicros = micros;
+	}
+
+	public void transferred(int n) {
+		transferBytes.add(n);
+	}
+
+	/** Keeps the outbound totals of a writer whose connection is gone. */
+	public void writerRetired(OutboundWriter w) {
+		retiredBytesOut.add(w.getByteCount());
+		retiredRecordsOut.add(w.getRecordCount());
+	}
+
+	/** Recent paint times in nanoseconds (EDT). */
+	public SampleRing getPaintSamples() {
+		return paintSamples;
+	}
+
+	/** Recent record parse times in nanoseconds (reader thread). */
+	public SampleRing getParseSamples() {
+		return parseSamples;
+	}
+
+	/** Last AID round trip in microseconds, -1 if none yet. */
+	public long getLastAidMicros() {
+		return lastAidMicros;
+	}
+
+	// =======================================================================
+	// SessionMetricsMBean
+	// =======================================================================
+
+	@Override
+	public String getHost() {
+		return host.get();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected.getAsBoolean();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getRecordsIn() {
+		return recordsIn.sum();
+	}
+
+	@Override
+	public double getBytesInPerSecond() {
+		return bytesInRate.get(getBytesIn());
+	}
+
+	@Override
+	public double getRecordsInPerSecond() {
+		return recordsInRate.get(getRecordsIn());
+	}
+
+	@Override
+	public double getAverageParseMicros() {
+		long n = recordsIn.sum();
+		return n == 0 ? 0 : parseNanos.sum() / 1e3 / n;
+	}
+
+	@Override
+	public double getMaxParseMicros() {
+		return maxParseNanos.get() / 1e3;
+	}
+
+	@Override
+	public long getTelnetNegotiations() {
+		return negotiations.sum();
+	}
+
+	@Override
+	public long getSubnegotiations() {
+		return subnegotiations.sum();
+	}
+
+	@Override
+	public String[] getStructuredFields() {
+		String s = structuredFields.getStatistics();
+		return s.isEmpty() ? new String[0] : s.split("\\R");
+	}
+
+	@Override
+	public long getBytesOut() {
+		OutboundWriter w = writer.get();
+		return retiredBytesOut.sum() + (w != null ? w.getByteCount() : 0);
+	}
+
+	@Override
+	public long getRecordsOut() {
+		OutboundWriter w = writer.get();
+		return retiredRecordsOut.sum() + (w != null ? w.getRecordCount() : 0);
+	}
+
+	@Override
+	public int getOutboundQueueDepth() {
+		OutboundWriter w = writer.get();
+		return w != null ? w.getQueueDepth() : 0;
+	}
+
+	@Override
+	public int getOutboundPendingBytes() {
+		OutboundWriter w = writer.get();
+		return w != null ? w.getPendingBytes() : 0;
+	}
+
+	@Override
+	public double getAverageOutboundLatencyMicros() {
+		OutboundWriter w = writer.get();
+		return w != null ? w.getAverageLatencyNanos() / 1e3 : 0;
+	}
+
+	@Override
+	public long getPaints() {
+		return paints.sum();
+	}
+
+	@Override
+	public double getAveragePaintMicros() {
+		long n = paints.sum();
+		return n == 0 ? 0 : paintNanos.sum() / 1e3 / n;
+	}
+
+	@Override
+	public double getMaxPaintMicros() {
+		return maxPaintNanos.get() / 1e3;
+	}
+
+	@Override
+	public boolean isTransferActive() {
+		return transferActive.getAsBoolean();
+	}
+
+	@Override
+	public long getTransferBytes() {
+		return transferBytes.sum();
+	}
+
+	@Override
+	public double getTransferBytesPerSecond() {
+		return transferRate.get(getTransferBytes());
+	}
+
+	@Override
+	public void resetMaxima() {
+		maxParseNanos.reset();
+		maxPaintNanos.reset();
+	}
+
+	/**
+	 * Per-second rate of a growing counter, measured between readings at least
+	 * a second apart (JConsole polls every few seconds).
+	 */
+	static final class Rate {
+		private long lastTotal;
+		private long lastTime = System.nanoTime();
+		private double rate;
+
+		synchronized double get(long total) {
+			long now = System.nanoTime();
+			long elapsed = now - lastTime;
+			if (elapsed >= 1_000_000_000L) {
+				rate = (total - lastTotal) * 1e9 / elapsed;
+				lastTotal = total;
+				lastTime = now;
+			}
+			return rate;
+		}
+	}
+}
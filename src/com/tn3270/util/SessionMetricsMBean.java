@@ -0,0 +1,60 @@
+package com.tn3270.util;
+
+/**
+ * JMX view of one session's protocol metrics (see {@link SessionMetrics}).
+ * Times are in microseconds, rates per second over the last full second.
+ */
+public interface SessionMetricsMBean {
+
+	String getHost();
+
+	boolean isConnected();
+
+	// Inbound (host -> PC)
+	long getBytesIn();
+
+	long getRecordsIn();
+
+	double getBytesInPerSecond();
+
+	double getRecordsInPerSecond();
+
+	double getAverageParseMicros();
+
+	double getMaxParseMicros();
+
+	long getTelnetNegotiations();
+
+	long getSubnegotiations();
+
+	/** One line per structured field ID seen: count, failures and handler time. */
+	String[] getStructuredFields();
+
+	// Outbound (PC -> host), over all connections of the session
+	long getBytesOut();
+
+	long getRecordsOut();
+
+	int getOutboundQueueDepth();
+
+	int getOutboundPendingBytes();
+
+	double getAverageOutboundLatencyMicros();
+
+	// Screen
+	long getPaints();
+
+	double getAveragePaintMicros();
+
+	double getMaxPaintMicros();
+
+	// File transfer
+	boolean isTransferActive();
+
+	long getTransferBytes();
+
+	double getTransferBytesPerSecond();
+
+	/** Clears the maximum parse and paint times. */
+	void resetMaxima();
+}
@@ -0,0 +1,113 @@
+package com.tn3270.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Routes the structured fields of a Write Structured Field (WSF) command to
+ * handlers registered by SFID.
+ *
+ * The session registers the core handlers (Read Partition, Data Chain, Set
+ * Reply Mode, Destination/Origin); add-ons can register further SFIDs or
+ * replace a core handler. Each handler gets the whole buffer plus the offset
+ * of the field's length bytes and the field length.
+ *
+ * Per-SFID call counts and handler time are kept for diagnostics.
+ */
+public final class StructuredFieldDispatcher {
+	private static final Logger logger = LoggerSetup.getLogger(StructuredFieldDispatcher.class);
+
+	/** Handles one structured field: data[offset..offset+length) including the length bytes. */
+	public interface Handler {
+		void handle(byte[] data, int offset, int length) throws Exception;
+	}
+
+	private final Handler[] handlers = new Handler[256];
+	private final AtomicLongArray counts = new AtomicLongArray(256);
+	private final AtomicLongArray nanos = new AtomicLongArray(256);
+	private final AtomicLongArray failures = new AtomicLongArray(256);
+
+	/**
+	 * Registers a handler for a one-byte SFID.
+	 *
+	 * @return the handler previously registered for the SFID, or null
+	 */
+	public synchronized Handler register(int sfid, Handler handler) {
+		Handler old = handlers[sfid & 0xFF];
+		handlers[sfid & 0xFF] = handler;
+		return old;
+	}
+
+	public synchronized Handler unregister(int sfid) {
+		return register(sfid, null);
+	}
+
+	/** Walks the structured fields starting at offset and dispatches each one. */
+	public void dispatch(byte[] data, int offset) {
+		int i = offset;
+		while (i + 2 < data.length) {
+			int length = ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+			if (length < 3 || i + length > data.length)
+				break;
+
+			int sfid = data[i + 2] & 0xFF;
+			Handler h;
+			synchronized (this) {
+				h = handlers[sfid];
+			}
+
+			counts.incrementAndGet(sfid);
+			if (h == null) {
+				logger.fine(() -> String.format("Unhandled structured field 0x%02X (%d bytes)", sfid, length));
+			} else {
+				long t0 = System.nanoTime();
+				try {
+					h.handle(data, i, length);
+				} catch (Exception e) {
+					failures.incrementAndGet(sfid);
+					logger.warning(String.format("Structured field 0x%02X failed: %s", sfid, e));
+				} finally {
+					nanos.addAndGet(sfid, System.nanoTime() - t0);
+				}
+			}
+
+			i += length;
+		}
+	}
+
+	// =======================================================================
+	// DIAGNOSTICS
+	// =======================================================================
+
+	/** Number of structured fields seen with this SFID (handled or not). */
+	public long getCount(int sfid) {
+		return counts.get(sfid & 0xFF);
+	}
+
+	/** Total time spent in the handler for this SFID, in nanoseconds. */
+	public long getTotalNanos(int sfid) {
+		return nanos.get(sfid & 0xFF);
+	}
+
+	public long getFailures(int sfid) {
+		return failures.get(sfid & 0xFF);
+	}
+
+	/** One line per SFID seen so far: count, failures, total and average time. */
+	public String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		for (int sfid = 0; sfid < 256; sfid++) {
+			long n = counts.get(sfid);
+			if (n == 0)
+				continue;
+			long t = nanos.get(sfid);
+			boolean handled;
+			synchronized (this) {
+				handled = handlers[sfid] != null;
+			}
+			sb.append(String.format("SFID 0x%02X: count=%d failures=%d total=%.2fms avg=%.1fus%s%n", sfid, n,
+					failures.get(sfid), t / 1e6, t / 1e3 / n, handled ? "" : " (no handler)"));
+		}
+		return sb.toString();
+	}
+}
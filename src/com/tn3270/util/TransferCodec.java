@@ -0,0 +1,428 @@
+package com.tn3270.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Client-side text conversion for IND$FILE transfers.
+ *
+ * Instead of asking the host to translate (ASCII / CRLF options), the data is
+ * moved in binary and converted locally: UTF-8 lines <-> EBCDIC records using a
+ * {@link CodePage}. This saves host CPU and gives us full control over the code
+ * page (no more '¦' / '|' surprises).
+ *
+ * Record formats:
+ *
+ * F - Fixed records of LRECL bytes. Uploads are blank-padded (longer lines wrap
+ * onto the next record); downloads are cut every LRECL bytes and have trailing
+ * blanks removed.
+ *
+ * V / U - Variable records, delimited on the wire by CR LF (binary IND$FILE with
+ * the CRLF option). Uploads send X'0D25' after every record; downloads accept
+ * both X'0D25' and X'0D0A'. If LRECL is given, longer upload lines are split so
+ * the data fits (LRECL - 4 for the RDW).
+ *
+ * Large files are converted in chunks on a shared worker pool. Chunks are
+ * submitted as soon as enough data has arrived (download) or been read ahead
+ * (upload), so conversion overlaps with the DC Get / DC Insert round trips.
+ * Results are always written back in submission order.
+ */
+public final class TransferCodec {
+	private static final Logger logger = LoggerSetup.getLogger(TransferCodec.class);
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int WINDOW = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static final byte CR = 0x0D;
+	private static final byte EBCDIC_LF = 0x25;
+	private static final byte ASCII_LF = 0x0A;
+	private static final byte BLANK = 0x40;
+
+	private static volatile ExecutorService pool;
+
+	private final CodePage codePage;
+	private final char recfm;
+	private final int lrecl;
+
+	/**
+	 * @param codePage code page used on the host side
+	 * @param recfm    "F", "V", "U" or empty (treated as V)
+	 * @param lrecl    record length; required for F, optional for V
+	 */
+	public TransferCodec(CodePage codePage, String recfm, int lrecl) {
+		this.codePage = (codePage != null) ? codePage : CodePage.DEFAULT;
+		char r = (recfm == null || recfm.isEmpty()) ? 'V' : Character.toUpperCase(recfm.charAt(0));
+		// Fixed format is meaningless without a record length
+		this.recfm = (r == 'F' && lrecl <= 0) ? 'V' : r;
+		this.lrecl = lrecl;
+	}
+
+	public boolean isFixed() {
+		return recfm == 'F';
+	}
+
+	/** True if the host must be asked for CRLF record delimiters. */
+	public boolean usesCrlf() {
+		return recfm != 'F';
+	}
+
+	public CodePage getCodePage() {
+		return codePage;
+	}
+
+	private static ExecutorService pool() {
+		ExecutorService p = pool;
+		if (p == null) {
+			synchronized (TransferCodec.class) {
+				p = pool;
+				if (p == null) {
+					AtomicInteger n = new AtomicInteger();
+					p = Executors.newFixedThreadPool(WINDOW, r -> {
+						Thread t = new Thread(r, "tn3270-ft-convert-" + n.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+					pool = p;
+				}
+			}
+		}
+		return p;
+	}
+
+	// =======================================================================
+	// 1. CHUNK CONVERSION (runs on the pool)
+	// =======================================================================
+
+	/** EBCDIC records -> UTF-8 lines. Chunk always ends on a record boundary. */
+	private byte[] hostToLocal(byte[] src, int len) {
+		char[] chars = new char[len];
+		codePage.decode(src, 0, len, chars, 0);
+		StringBuilder sb = new StringBuilder(len + len / 40);
+
+		if (recfm == 'F') {
+			for (int start = 0; start < len; start += lrecl) {
+				int end = Math.min(start + lrecl, len);
+				while (end > start && chars[end - 1] == ' ')
+					end--;
+				sb.append(chars, start, end - start).append('\n');
+			}
+		} else {
+			int start = 0;
+			for (int i = 0; i < len; i++) {
+				if (src[i] == CR && i + 1 < len && (src[i + 1] == EBCDIC_LF || src[i + 1] == ASCII_LF)) {
+					sb.append(chars, start, i - start).append('\n');
+					i++;
+					start = i + 1;
+				}
+			}
+			if (start < len)
+				sb.append(chars, start, len - start);
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Characters of a line that go into one record; longer lines are split. */
+	private int recordChars() {
+		int maxData = (recfm == 'F') ? lrecl : (lrecl > 4 ? lrecl - 4 : Integer.MAX_VALUE);
+		return Math.min(maxData, 32760);
+	}
+
+	/**
+	 * UTF-8 lines -> EBCDIC records. Chunk ends on a line boundary, or (part of
+	 * a line longer than a chunk) after a whole number of records.
+	 */
+	private byte[] localToHost(byte[] src, int len) {
+		String text = new String(src, 0, len, StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len + len / 8);
+		byte[] rec = new byte[recordChars()];
+
+		int pos = 0;
+		while (pos < text.length()) {
+			int nl = text.indexOf('\n', pos);
+			int end = (nl < 0) ? text.length() : nl;
+			int lineEnd = (end > pos && text.charAt(end - 1) == '\r') ? end - 1 : end;
+
+			char[] line = text.substring(pos, lineEnd).toCharArray();
+			int lp = 0;
+			do {
+				int n = Math.min(line.length - lp, rec.length);
+				int w = codePage.encode(line, lp, n, rec, 0, false);
+				lp += n;
+				out.write(rec, 0, w);
+				if (recfm == 'F') {
+					for (int k = w; k < lrecl; k++)
+						out.write(BLANK);
+				} else {
+					out.write(CR);
+					out.write(EBCDIC_LF);
+				}
+			} while (lp < line.length);
+
+			pos = end + 1;
+		}
+		return out.toByteArray();
+	}
+
+	// =======================================================================
+	// 2. DOWNLOAD (Host -> PC)
+	// =======================================================================
+
+	/**
+	 * Wraps the local file stream. Bytes written are raw EBCDIC from DC Insert;
+	 * close() waits for outstanding chunks and closes the target.
+	 */
+	public OutputStream newDownloadStream(OutputStream target) {
+		return new DownloadStream(target);
+	}
+
+	private final class DownloadStream extends FilterOutputStream {
+		private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		private byte[] buf = new byte[CHUNK_SIZE * 2];
+		private int count = 0;
+		private boolean closed = false;
+
+		DownloadStream(OutputStream target) {
+			super(target);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (count + len > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+			if (count >= CHUNK_SIZE)
+				submit(false);
+			drain(false);
+		}
+
+		/** Hands off everything up to the last complete record. */
+		private void submit(boolean all) {
+			int cut = all ? count : recordBoundary();
+			if (cut <= 0)
+				return;
+			byte[] chunk = Arrays.copyOf(buf, cut);
+			System.arraycopy(buf, cut, buf, 0, count - cut);
+			count -= cut;
+			pending.add(pool().submit(() -> hostToLocal(chunk, chunk.length)));
+		}
+
+		private int recordBoundary() {
+			if (recfm == 'F')
+				return count - (count % lrecl);
+			for (int i = count - 1; i > 0; i--) {
+				if (buf[i - 1] == CR && (buf[i] == EBCDIC_LF || buf[i] == ASCII_LF))
+					return i + 1;
+			}
+			return 0;
+		}
+
+		/** Writes finished chunks in order; blocks only when asked or the window is full. */
+		private void drain(boolean wait) throws IOException {
+			while (!pending.isEmpty() && (wait || pending.size() > WINDOW || pending.peek().isDone()))
+				out.write(await(pending.poll()));
+		}
+
+		@Override
+		public void flush() throws IOException {
+			submit(true);
+			drain(true);
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	// =======================================================================
+	// 3. UPLOAD (PC -> Host)
+	// =======================================================================
+
+	/**
+	 * Wraps the local file stream. Reads return converted EBCDIC records; the
+	 * next chunks are read and converted ahead while DC Get blocks are sent.
+	 */
+	public InputStream newUploadStream(InputStream source) {
+		return new UploadStream(source);
+	}
+
+	private final class UploadStream extends FilterInputStream {
+		private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		private byte[] carry = new byte[0];
+		private boolean sourceEof = false;
+		private byte[] current = new byte[0];
+		private int pos = 0;
+
+		UploadStream(InputStream source) {
+			super(source);
+		}
+
+		/** Reads the next line-aligned chunk of the source and queues its conversion. */
+		private void readAhead() throws IOException {
+			while (!sourceEof && pending.size() < WINDOW) {
+				byte[] block = new byte[carry.length + CHUNK_SIZE];
+				System.arraycopy(carry, 0, block, 0, carry.length);
+				int len = carry.length;
+				while (len < block.length) {
+					int n = in.read(block, len, block.length - len);
+					if (n < 0) {
+						sourceEof = true;
+						break;
+					}
+					len += n;
+				}
+
+				int cut = len;
+				if (!sourceEof) {
+					cut = lastIndexOf(block, len, (byte) '\n') + 1;
+					// FIX: No line end in the block - convert the whole records of
+					// the long line and keep the rest (never a partial record, never
+					// half a UTF-8 character). Less than a record: read on.
+					if (cut == 0)
+						cut = recordCut(block, len, recordChars());
+				}
+				carry = Arrays.copyOfRange(block, cut, len);
+				if (cut == 0)
+					continue;
+
+				byte[] chunk = Arrays.copyOf(block, cut);
+				Callable<byte[]> task = () -> localToHost(chunk, chunk.length);
+				pending.add(pool().submit(task));
+			}
+		}
+
+		private boolean fill() throws IOException {
+			while (pos >= current.length) {
+				readAhead();
+				if (pending.isEmpty())
+					return false;
+				current = await(pending.poll());
+				pos = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return current[pos++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int n = Math.min(len, current.length - pos);
+			System.arraycopy(current, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return current.length - pos;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n && fill()) {
+				int k = (int) Math.min(n - skipped, current.length - pos);
+				pos += k;
+				skipped += k;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Future<byte[]> f : pending)
+				f.cancel(true);
+			pending.clear();
+			super.close();
+		}
+	}
+
+	// =======================================================================
+	// 4. HELPERS
+	// =======================================================================
+
+	private static int lastIndexOf(byte[] b, int len, byte v) {
+		for (int i = len - 1; i >= 0; i--) {
+			if (b[i] == v)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * For a block holding the middle of one long line: the byte offset just
+	 * after the last whole record of recordChars characters that leaves line
+	 * data behind it, or 0 if there is none. Always the start of a UTF-8 character.
+	 * Characters are counted as Java chars (a 4-byte sequence is two), like
+	 * localToHost() splits lines.
+	 */
+	private static int recordCut(byte[] b, int len, int recordChars) {
+		int cut = 0;
+		long chars = 0;
+		for (int i = 0; i < len; i++) {
+			int c = b[i] & 0xFF;
+			if ((c & 0xC0) == 0x80)
+				continue; // Continuation byte
+			// Not next to a '\r': localToHost() would take it for a line end
+			if (chars > 0 && chars % recordChars == 0 && c != '\r' && b[i - 1] != '\r')
+				cut = i;
+			chars += (c >= 0xF0) ? 2 : 1;
+		}
+		return cut;
+	}
+
+	private static byte[] await(Future<byte[]> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Conversion interrupted");
+		} catch (ExecutionException e) {
+			logger.warning("Transfer conversion failed: " + e.getCause());
+			throw new IOException("Conversion failed", e.getCause());
+		}
+	}
+}